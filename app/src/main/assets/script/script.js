@@ -1,20 +1,162 @@
 console.log("robotWebUi.js : server IP= " + document.location.host);
-var sock = new WebSocket('ws://' + document.location.host, "protocolOne");
+var sock;
 
-sock.onopen = function(event) {
+//Last known state of the speaker, its version and the epoch of the version.
+var state = {};
+var version = -1;
+var epoch = null;
+var RECONNECT_MS = 1000;
+
+//Commands sent in the envelope and waiting for the done frame, by id.
+var pending = {};
+var nextId = 1;
+var RETRY_MS = 2000;
+var MAX_TRIES = 3;
+
+//Connect and resume from the last version we have. The server sends only what we missed.
+function connect() {
+    var url = 'ws://' + document.location.host + '/';
+    if (epoch !== null) url += '?epoch=' + encodeURIComponent(epoch) + '&v=' + version;
+    sock = new WebSocket(url, "protocolOne");
+    sock.onopen = onOpen;
+    sock.onmessage = onMessage;
+    sock.onerror = onError;
+    sock.onclose = onClose;
+}
+
+function onOpen(event) {
     console.log("I am connected to server.....");
-};
+}
+
+function onClose(event) {
+    console.log("Connection lost. Reconnecting.....");
 
-sock.onmessage = function(event) {
+    //Ids are only deduplicated per connection, so resending on the new one could run twice.
+    for (var id in pending) {
+        clearTimeout(pending[id].timer);
+        console.log("Unknown result of " + pending[id].command);
+    }
+    pending = {};
+    setTimeout(connect, RECONNECT_MS);
+}
+
+function onMessage(event) {
     console.log("on message" + event.data);
-    document.getElementById('TEXT').innerHTML = event.data;
+    var msg = JSON.parse(event.data);
+
+    if (msg.type === "state") {
+        //Full snapshot
+        state = msg.state;
+        version = msg.v;
+        epoch = msg.epoch;
+    } else if (msg.type === "resume") {
+        //Everything we missed since our version
+        if (msg.v <= version) return;       //Already applied
+        if (msg.from !== version) {
+            sock.send("sync");
+            return;
+        }
+        for (var changed in msg.delta) state[changed] = msg.delta[changed];
+        version = msg.v;
+    } else if (msg.type === "ack" || msg.type === "done" || msg.type === "error") {
+        onReply(msg);
+        return;
+    } else if (msg.type === "delta") {
+        if (msg.v <= version) return;       //Already applied
+        if (msg.v !== version + 1) {
+            //Missed some deltas. Ask for what changed since our version.
+            sock.send("sync:" + epoch + ":" + version);
+            return;
+        }
+        for (var key in msg.delta) state[key] = msg.delta[key];
+        version = msg.v;
+    } else {
+        return;
+    }
+    render();
 }
 
-sock.onerror = function(error) {
+function onError(error) {
     console.log('WebSocket Error', error);
-};
+}
+
+connect();
+
+function render() {
+    var devices = (state.devices || []).map(function(device) {
+        return escapeHtml(device.name || device.address) + (device.playing ? " (playing)" : "");
+    });
+    document.getElementById('TEXT').innerHTML = "Connected devices: "
+        + (devices.length === 0 ? "0" : devices.join(", "))
+        + "<br/>Bluetooth: " + state.adapter
+        + (state.discoverable ? " (discoverable)" : "")
+        + "<br/>Volume: " + state.volume + "/" + state.maxVolume
+        + "<br/>Playing: " + (state.playing ? "Yes" : "No")
+        + renderStarting();
+}
+
+//Stages of the speaker that are not up yet. Nothing once all of them are up.
+function renderStarting() {
+    var waiting = [];
+    for (var stage in state.ready) {
+        if (!state.ready[stage]) waiting.push(stage);
+    }
+    return waiting.length === 0 ? "" : "<br/>Starting: waiting for " + waiting.join(", ");
+}
+
+function escapeHtml(text) {
+    var div = document.createElement('div');
+    div.textContent = text;
+    return div.innerHTML;
+}
 
 function send(message) {
     console.log('WebSocket try to send', message);
     sock.send(message);
-}
\ No newline at end of file
+}
+
+//Send the command in the envelope. It is resent until the server acks it. The server runs it
+//only once, however many times it arrives. Volume clicks are sent raw, so the server can fold
+//them together.
+function sendCommand(command) {
+    var entry = {id: nextId++, command: command, tries: 0};
+    pending[entry.id] = entry;
+    transmit(entry);
+}
+
+function transmit(entry) {
+    entry.tries++;
+    entry.sentAt = performance.now();
+    sock.send(JSON.stringify({id: entry.id, command: entry.command, t: entry.sentAt}));
+    entry.timer = setTimeout(function() {
+        if (entry.tries < MAX_TRIES) {
+            transmit(entry);
+        } else {
+            console.log("No answer for " + entry.command);
+            delete pending[entry.id];
+        }
+    }, RETRY_MS);
+}
+
+function onReply(msg) {
+    var entry = pending[msg.id];
+    if (!entry) return;
+
+    if (msg.type === "ack") {
+        clearTimeout(entry.timer);
+        console.log(entry.command + " acked in " + (performance.now() - msg.t).toFixed(1) + "ms");
+    } else if (msg.type === "error" && msg.retryMs && entry.tries < MAX_TRIES) {
+        //Refused by the rate limits. The id is not used up, so send it again once allowed.
+        clearTimeout(entry.timer);
+        console.log(entry.command + " " + msg.error + ". Retrying in " + msg.retryMs + "ms");
+        entry.timer = setTimeout(function() {
+            transmit(entry);
+        }, msg.retryMs);
+    } else {
+        clearTimeout(entry.timer);
+        delete pending[msg.id];
+        console.log(entry.command + " " + (msg.result || msg.error) + " in "
+            + (performance.now() - msg.t).toFixed(1) + "ms (queued " + msg.queuedUs
+            + "us, took " + msg.tookUs + "us)");
+    }
+}
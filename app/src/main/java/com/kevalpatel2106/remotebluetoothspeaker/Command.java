@@ -0,0 +1,94 @@
+package com.kevalpatel2106.remotebluetoothspeaker;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typed version of the {@link Commands}. Raw command strings are parsed into this once when they
+ * are received, so the rest of the pipeline never compares strings again.
+ */
+
+public enum Command {
+    //Bluetooth control
+    TURN_ON(Commands.TURN_ON_BLUETOOTH, Priority.CRITICAL, 10000),
+    TURN_OFF(Commands.TURN_OFF_BLUETOOTH, Priority.CRITICAL, 10000),
+
+    //Visibility control
+    MAKE_DISCOVERABLE(Commands.MAKE_DISCOVERABLE, Priority.CRITICAL, 5000),
+
+    //Connected/Paired devices control
+    DISCONNECT_ALL(Commands.DISCONNECT_ALL_DEVICE, Priority.CRITICAL, 5000),
+    UNPAIR_ALL(Commands.UNPAIR_ALL_DEVICE, Priority.NORMAL, 15000),
+
+    //Volume control
+    VOLUME_UP(Commands.VOLUME_UP, Priority.COSMETIC, 1000),
+    VOLUME_DOWN(Commands.VOLUME_DOWN, Priority.COSMETIC, 1000);
+
+    private static final Map<String, Command> LOOKUP = new HashMap<>();
+
+    static {
+        for (Command command : values()) LOOKUP.put(command.mName, command);
+    }
+
+    @NonNull
+    private final String mName;
+    @NonNull
+    private final Priority mPriority;
+    private final long mTimeoutMs;
+
+    Command(@NonNull String name, @NonNull Priority priority, long timeoutMs) {
+        mName = name;
+        mPriority = priority;
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Parse the raw command string.
+     *
+     * @param name One of the {@link Commands}.
+     * @return {@link Command} or null if the command is unknown.
+     */
+    @Nullable
+    public static Command parse(@Nullable String name) {
+        return name == null ? null : LOOKUP.get(name);
+    }
+
+    /**
+     * @return Raw command string as defined in {@link Commands}.
+     */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return {@link Priority} of the command in the execution queue.
+     */
+    @NonNull
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return Maximum time in milliseconds the command may take from the moment it is queued
+     * until it finishes executing.
+     */
+    public long getTimeoutMs() {
+        return mTimeoutMs;
+    }
+
+    /**
+     * Execution priority of the commands. Commands with a higher priority jump ahead of the
+     * queued commands with lower priority, unless those were received before a batch or before
+     * a command that closed their volume change. All the commands that change the power state of
+     * the adapter share the same priority, so they never overtake each other.
+     */
+    public enum Priority {
+        CRITICAL,
+        NORMAL,
+        COSMETIC
+    }
+}
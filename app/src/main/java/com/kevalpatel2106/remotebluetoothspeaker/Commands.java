@@ -22,4 +22,7 @@ public class Commands {
     //Volume control
     public static final String VOLUME_UP = "volume_up";
     public static final String VOLUME_DOWN = "volume_down";
+
+    //Set the volume to the value. Only in the batches of the command API, it needs the value.
+    public static final String SET_VOLUME = "set_volume";
 }
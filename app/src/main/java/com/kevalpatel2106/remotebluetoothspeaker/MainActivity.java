@@ -3,12 +3,8 @@ package com.kevalpatel2106.remotebluetoothspeaker;
 import android.app.Activity;
 import android.os.Bundle;
 
-import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.BluetoothA2DPService;
-import com.kevalpatel2106.remotebluetoothspeaker.server.SocketWriter;
-import com.kevalpatel2106.remotebluetoothspeaker.server.WebServer;
-import com.kevalpatel2106.remotebluetoothspeaker.tts.TTS;
-
-import java.io.IOException;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.AndroidHardware;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Platform;
 
 /**
  * Skeleton of an Android Things activity.
@@ -21,17 +17,10 @@ public class MainActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        //Initialize TTS so the tts responses don't take too much time.
-        TTS.speak(this, "I am ready.");
-
-        //Start the web server
-        try {
-            new WebServer(this, getAssets());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        //Run on the real bluetooth, audio and TTS of the board.
+        Platform.installIfAbsent(new AndroidHardware(this));
 
-        //Start the bluetooth A2DP service.
-        BluetoothA2DPService.passCommand(this, Commands.TURN_ON_BLUETOOTH);
+        //Start the web server, the TTS engine and the bluetooth A2DP service together.
+        Startup.start(this);
     }
 }
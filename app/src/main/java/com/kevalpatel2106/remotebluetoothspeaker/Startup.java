@@ -0,0 +1,194 @@
+package com.kevalpatel2106.remotebluetoothspeaker;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.BluetoothA2DPService;
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.SpeakerStateStore;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+import com.kevalpatel2106.remotebluetoothspeaker.server.WebServer;
+import com.kevalpatel2106.remotebluetoothspeaker.tts.Phrases;
+import com.kevalpatel2106.remotebluetoothspeaker.tts.TTS;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Brings up all the {@link StartupStage}s at the same time instead of one after another on the
+ * main thread.
+ * <p>
+ * The bluetooth service is started first, because turning on the adapter and binding the A2DP
+ * proxy take the longest. The web server and the TTS engine don't need the main thread, so they
+ * start on their own threads and the main thread is free for the service right away.
+ * <p>
+ * The owner of each stage reports it with {@link #setReady(StartupStage, boolean)}. The stages
+ * are published to the web clients with the state, and the time each stage took from the launch
+ * is logged and exposed in the metrics, so the slowest one can be seen. The speaker says it is
+ * ready once all of them are up.
+ */
+
+public final class Startup {
+    private static final Logger LOG = Logger.get(Startup.class);
+
+    /**
+     * Time after the launch to report the stages that are still not up.
+     */
+    private static final long READY_TIMEOUT_MS = 30000;
+
+    private static final int STAGES = StartupStage.values().length;
+
+    //Times in SystemClock.elapsedRealtime(), so they count from the power on. 0 if not yet.
+    private static volatile long sLaunchedAt;
+    private static final AtomicLongArray sStartedAt = new AtomicLongArray(STAGES);
+    private static final AtomicLongArray sReadyAt = new AtomicLongArray(STAGES);
+    private static volatile long sAllReadyAt;
+
+    private static final AtomicBoolean sIsStarted = new AtomicBoolean(false);
+    private static Context sContext;
+
+    private Startup() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * Start all the stages. Returns right away. Call this once from the main thread.
+     *
+     * @param context Instance of caller.
+     */
+    public static void start(@NonNull Context context) {
+        if (!sIsStarted.compareAndSet(false, true)) return;
+        sContext = context.getApplicationContext();
+        sLaunchedAt = SystemClock.elapsedRealtime();
+        registerGauges();
+        LOG.atDebug("start: Launched {}ms after the process started and {}ms after the power on.")
+                .arg(sLaunchedAt - Process.getStartElapsedRealtime())
+                .arg(sLaunchedAt)
+                .log();
+
+        //Start the bluetooth A2DP service. It runs on the main thread once this returns.
+        onStarted(StartupStage.ADAPTER);
+        BluetoothA2DPService.passCommand(sContext, Commands.TURN_ON_BLUETOOTH);
+
+        //Load the assets and bind the port.
+        onStarted(StartupStage.WEB);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new WebServer(sContext, sContext.getAssets());
+                    setReady(StartupStage.WEB, true);
+                } catch (IOException e) {
+                    LOG.e("start: Web server failed to start.", e);
+                }
+            }
+        }, "startup-web").start();
+
+        //Initialize TTS so the tts responses don't take too much time.
+        onStarted(StartupStage.TTS);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TTS.init(sContext);
+            }
+        }, "startup-tts").start();
+
+        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (sAllReadyAt == 0) LOG.w("start: Still not ready. {}", getSummary());
+            }
+        }, READY_TIMEOUT_MS);
+    }
+
+    /**
+     * Record the time the stage started, if it is the first time. Stages started by
+     * {@link #start(Context)} are recorded by it.
+     */
+    public static void onStarted(@NonNull StartupStage stage) {
+        sStartedAt.compareAndSet(stage.ordinal(), 0, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Mark the stage up or down. The first time the stage is up, the time it took is recorded.
+     * Safe to call from any thread.
+     *
+     * @param stage {@link StartupStage} that changed.
+     * @param ready True if the stage is up.
+     */
+    public static void setReady(@NonNull StartupStage stage, boolean ready) {
+        SpeakerStateStore.getInstance().setReady(stage, ready);
+        if (!ready || !sReadyAt.compareAndSet(stage.ordinal(), 0, SystemClock.elapsedRealtime())) {
+            return;
+        }
+        LOG.d("setReady: {} is up {}ms after the launch.", stage.getName(), getReadyMs(stage));
+
+        for (int i = 0; i < STAGES; i++) {
+            if (sReadyAt.get(i) == 0) return;
+        }
+        synchronized (Startup.class) {
+            if (sAllReadyAt != 0) return;
+            sAllReadyAt = SystemClock.elapsedRealtime();
+        }
+        LOG.atDebug("setReady: Ready {}ms after the launch and {}ms after the power on. {}")
+                .arg(sAllReadyAt - sLaunchedAt)
+                .arg(sAllReadyAt)
+                .arg(getSummary())
+                .log();
+        if (sContext != null) TTS.speak(sContext, Phrases.READY);
+    }
+
+    /**
+     * @return Time from the launch until the stage was first up in ms or 0 if it is not up yet.
+     */
+    private static long getReadyMs(@NonNull StartupStage stage) {
+        long readyAt = sReadyAt.get(stage.ordinal());
+        return readyAt == 0 || sLaunchedAt == 0 ? 0 : readyAt - sLaunchedAt;
+    }
+
+    /**
+     * @return When each stage started and came up after the launch. The slowest one is the
+     * critical path.
+     */
+    @NonNull
+    private static String getSummary() {
+        StringBuilder builder = new StringBuilder(128);
+        for (StartupStage stage : StartupStage.values()) {
+            long startedAt = sStartedAt.get(stage.ordinal());
+            builder.append(stage.getName()).append(": started ")
+                    .append(startedAt == 0 ? "-" : (startedAt - sLaunchedAt) + "ms")
+                    .append(", up ")
+                    .append(sReadyAt.get(stage.ordinal()) == 0 ? "-" : getReadyMs(stage) + "ms")
+                    .append(". ");
+        }
+        return builder.toString().trim();
+    }
+
+    private static void registerGauges() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        for (final StartupStage stage : StartupStage.values()) {
+            registry.gauge("speaker_startup_stage_milliseconds",
+                    "Time from the launch until the stage was first up. 0 if it is not up yet.",
+                    "stage=\"" + stage.getName() + "\"", new Gauge() {
+                        @Override
+                        public long getValue() {
+                            return getReadyMs(stage);
+                        }
+                    });
+        }
+        registry.gauge("speaker_startup_ready_milliseconds",
+                "Time from the power on until all the stages were up. 0 if they are not up yet.", "",
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return sAllReadyAt;
+                    }
+                });
+    }
+}
@@ -0,0 +1,52 @@
+package com.kevalpatel2106.remotebluetoothspeaker;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Independent parts of the app that have to come up before the speaker is usable. The
+ * {@link Startup} starts them together and the clients see which of them are ready.
+ */
+
+public enum StartupStage {
+    /**
+     * Web server is listening.
+     */
+    WEB("web"),
+
+    /**
+     * Bluetooth adapter is on.
+     */
+    ADAPTER("adapter"),
+
+    /**
+     * A2DP sink profile proxy is bound. Devices can connect and be controlled.
+     */
+    A2DP("a2dp"),
+
+    /**
+     * Text to speech engine is initialized.
+     */
+    TTS("tts");
+
+    @NonNull
+    private final String mName;
+
+    StartupStage(@NonNull String name) {
+        mName = name;
+    }
+
+    /**
+     * @return Name of the stage in the JSON and the metrics.
+     */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return Bit of the stage in the mask of the ready stages.
+     */
+    public int getMask() {
+        return 1 << ordinal();
+    }
+}
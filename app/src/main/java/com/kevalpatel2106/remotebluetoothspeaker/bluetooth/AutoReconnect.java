@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SinkProxy;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SpeakerAdapter;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reconnects the {@link RecentDevices} once the A2DP proxy is bound, so the music can play after
+ * the reboot without touching the phone.
+ * <p>
+ * The paired recent devices are tried in their ranked order, at most {@link #MAX_PARALLEL} at a
+ * time. A device that does not connect within {@link #ATTEMPT_TIMEOUT_MS} is tried again after
+ * a backoff that doubles every attempt, up to {@link #MAX_ATTEMPTS} times. Once any device
+ * connects, no more attempts are started. The time from binding the proxy to the first connected
+ * device is recorded.
+ * <p>
+ * Everything runs on its own thread, so the binder calls and the disk never block the main
+ * thread. All the public methods can be called from any thread.
+ */
+
+final class AutoReconnect {
+    private static final Logger LOG = Logger.get(AutoReconnect.class);
+
+    /**
+     * Most devices connecting at the same time.
+     */
+    private static final int MAX_PARALLEL = 2;
+
+    /**
+     * Most attempts for each device.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long ATTEMPT_TIMEOUT_MS = 10000;
+
+    /**
+     * Wait before the second attempt. Doubles with every attempt after that.
+     */
+    private static final long BACKOFF_MS = 2000;
+
+    @NonNull
+    private final SpeakerAdapter mAdapter;
+    @NonNull
+    private final HandlerThread mThread;
+    @NonNull
+    private final Handler mHandler;
+
+    //Accessed only on the thread
+    private RecentDevices mRecentDevices;
+    private SinkProxy mProxy;
+    private final Deque<Attempt> mQueue = new ArrayDeque<>();
+    private final Map<String, Attempt> mRunning = new HashMap<>();
+
+    /**
+     * Incremented on every start and cancel, so the delayed tasks of the previous run do nothing.
+     */
+    private int mGeneration = 0;
+
+    /**
+     * Time when the proxy was bound in {@link SystemClock#elapsedRealtime()} or 0 if the first
+     * connection after that is already recorded.
+     */
+    private long mStartedAt = 0;
+
+    /**
+     * @param adapter Adapter to look up the devices.
+     * @param file    File to keep the {@link RecentDevices} in.
+     */
+    AutoReconnect(@NonNull SpeakerAdapter adapter, @NonNull final File file) {
+        mAdapter = adapter;
+        mThread = new HandlerThread("bt-reconnect");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRecentDevices = new RecentDevices(file);
+            }
+        });
+    }
+
+    /**
+     * Start reconnecting. Call this once the proxy is bound.
+     *
+     * @param proxy Bound A2DP sink proxy.
+     */
+    void start(@NonNull final SinkProxy proxy) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reset();
+                mProxy = proxy;
+                mStartedAt = SystemClock.elapsedRealtime();
+
+                List<BluetoothDevice> connected = proxy.getConnectedDevices();
+                if (!connected.isEmpty()) {
+                    onConnected(connected.get(0));
+                    return;
+                }
+
+                for (RecentDevices.Record record : mRecentDevices.getRanked(System.currentTimeMillis())) {
+                    mQueue.add(new Attempt(record.getAddress(), 1, mGeneration));
+                }
+                LOG.d("start: Reconnecting {} devices.", mQueue.size());
+                fill();
+            }
+        });
+    }
+
+    /**
+     * Update the attempts with the connection state reported by the profile broadcast.
+     *
+     * @param device Remote device.
+     * @param state  New state. One of the {@code BluetoothProfile.STATE_*}.
+     */
+    void onStateChanged(@NonNull final BluetoothDevice device, final int state) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (state == BluetoothProfile.STATE_CONNECTED) {
+                    onConnected(device);
+                } else if (state == BluetoothProfile.STATE_DISCONNECTED) {
+                    Attempt attempt = mRunning.get(device.getAddress());
+                    if (attempt != null) onFailed(attempt);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop all the attempts. Devices that are already connecting may still connect.
+     */
+    void cancel() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reset();
+            }
+        });
+    }
+
+    /**
+     * Stop all the attempts and forget all the devices. Call this after unpairing them.
+     */
+    void forgetAll() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reset();
+                mRecentDevices.clear();
+            }
+        });
+    }
+
+    /**
+     * Stop the thread. Nothing can be called after this.
+     */
+    void quit() {
+        cancel();
+        mThread.quitSafely();
+    }
+
+    private void reset() {
+        mGeneration++;
+        mQueue.clear();
+        mRunning.clear();
+        mProxy = null;
+        mStartedAt = 0;
+    }
+
+    /**
+     * Start the queued attempts while there are free slots.
+     */
+    private void fill() {
+        while (mProxy != null && mRunning.size() < MAX_PARALLEL && !mQueue.isEmpty()) {
+            final Attempt attempt = mQueue.poll();
+            BluetoothDevice device = mAdapter.getRemoteDevice(attempt.mAddress);
+            if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
+                //Unpaired from the phone. It can never connect again.
+                mRecentDevices.remove(attempt.mAddress);
+                continue;
+            }
+
+            LOG.d("fill: Connecting {}, attempt {}.", attempt.mAddress, attempt.mNumber);
+            mRunning.put(attempt.mAddress, attempt);
+            if (!mProxy.connect(device)) {
+                onFailed(attempt);
+                continue;
+            }
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (mRunning.get(attempt.mAddress) == attempt) onFailed(attempt);
+                }
+            }, ATTEMPT_TIMEOUT_MS);
+        }
+    }
+
+    private void onConnected(@NonNull BluetoothDevice device) {
+        mRecentDevices.onConnected(device.getAddress(), Objects.toString(device.getName(), ""),
+                System.currentTimeMillis());
+
+        Attempt attempt = mRunning.remove(device.getAddress());
+        if (attempt != null) {
+            Metrics.RECONNECT_CONNECTED.inc();
+            mRecentDevices.onAttempt(attempt.mAddress, true);
+        }
+
+        if (mStartedAt != 0) {
+            long now = SystemClock.elapsedRealtime();
+            Metrics.TIME_TO_FIRST_CONNECTION.record(now - mStartedAt);
+            LOG.atInfo("onConnected: First connection {}ms after the proxy and {}ms after the power on. {} {}.")
+                    .arg(now - mStartedAt)
+                    .arg(now)
+                    .arg(attempt != null ? "Reconnected" : "Connected by")
+                    .arg(device.getAddress())
+                    .log();
+            mStartedAt = 0;
+
+            //One source is enough. Let the ones already connecting finish.
+            mGeneration++;
+            mQueue.clear();
+        }
+    }
+
+    private void onFailed(@NonNull final Attempt attempt) {
+        mRunning.remove(attempt.mAddress);
+        Metrics.RECONNECT_FAILED.inc();
+        mRecentDevices.onAttempt(attempt.mAddress, false);
+
+        if (attempt.mNumber < MAX_ATTEMPTS && attempt.mGeneration == mGeneration) {
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (attempt.mGeneration != mGeneration) return;
+                    mQueue.add(new Attempt(attempt.mAddress, attempt.mNumber + 1, mGeneration));
+                    fill();
+                }
+            }, BACKOFF_MS << (attempt.mNumber - 1));
+        }
+        fill();
+    }
+
+    /**
+     * Single attempt to connect the device.
+     */
+    private static final class Attempt {
+        @NonNull
+        private final String mAddress;
+        private final int mNumber;
+        private final int mGeneration;
+
+        private Attempt(@NonNull String address, int number, int generation) {
+            mAddress = address;
+            mNumber = number;
+            mGeneration = generation;
+        }
+    }
+}
@@ -18,113 +18,88 @@ package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
 
 import android.app.Notification;
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothProfile;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.media.AudioManager;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
 
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
 import com.kevalpatel2106.remotebluetoothspeaker.Commands;
-import com.kevalpatel2106.remotebluetoothspeaker.tts.TTS;
-
-import org.greenrobot.eventbus.EventBus;
-
-import java.util.Objects;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.AndroidHardware;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Hardware;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Platform;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SpeakerAdapter;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
 
 /**
- * Sample usage of the A2DP sink bluetooth profile. At startup, this activity sets the Bluetooth
- * adapter in pairing mode for {@link #DISCOVERABLE_TIMEOUT_SEC} ms.
+ * Sample usage of the A2DP sink bluetooth profile. The speaker itself runs in the
+ * {@link SpeakerController} on the {@link AndroidHardware}. This service keeps it alive in the
+ * foreground and hands it the commands.
  * <p>
  * NOTE: While in pairing mode, pairing requests are auto-accepted - at this moment there's no
  * way to block specific pairing attempts while in pairing mode. This is known limitation that is
  * being worked on.
  */
 public class BluetoothA2DPService extends Service {
-    private static final String ARG_BT_STATE = "bt_state";
-
-    private static final String TAG = BluetoothA2DPService.class.getSimpleName();
-    private static final String ADAPTER_FRIENDLY_NAME = "JarvisBT";
+    private static final Logger LOG = Logger.get(BluetoothA2DPService.class);
 
     private static final int FOREGROUND_NOTIFICATION_ID = 123;
-    private static final int DISCOVERABLE_TIMEOUT_SEC = 60;
-
 
     /**
-     * Handle an intent that is broadcast by the Bluetooth A2DP sink profile whenever a device
-     * connects or disconnects to it.
-     * Action is {@link A2dpSinkHelper#ACTION_CONNECTION_STATE_CHANGED} and
-     * extras describe the old and the new connection states. You can use it to indicate that
-     * there's a device connected.
+     * Runs the speaker. Null if the device has no bluetooth.
      */
-    private final BroadcastReceiver mSinkProfileStateChangeReceiver = new BroadcastReceiver() {
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(A2dpSinkHelper.ACTION_CONNECTION_STATE_CHANGED)) {
-                BluetoothDevice device = A2dpSinkHelper.getDevice(intent);
-                if (device != null) {
-
-                    String deviceName = Objects.toString(device.getName(), "a device");
-                    int newState = A2dpSinkHelper.getCurrentProfileState(intent);
-
-                    if (newState == BluetoothProfile.STATE_CONNECTED) {
-                        TTS.speak(BluetoothA2DPService.this, "Connected to " + deviceName);
-                    } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                        TTS.speak(BluetoothA2DPService.this, "Disconnected from " + deviceName);
-                    }
-                }
-
-                updateStatus();
-            }
-        }
-    };
-
-    private BluetoothAdapter mBluetoothAdapter;
-    private BluetoothProfile mA2DPSinkProxy;
+    @Nullable
+    private SpeakerController mController;
 
     /**
-     * Handle an intent that is broadcast by the Bluetooth adapter whenever it changes its
-     * state (after calling enable(), for example).
-     * Action is {@link BluetoothAdapter#ACTION_STATE_CHANGED} and extras describe the old
-     * and the new states. You can use this intent to indicate that the device is ready to go.
+     * Pass the command to the service. If the service is running, the command is handed to it
+     * directly through the {@link CommandBus}, else the service is started with the command.
+     *
+     * @param context Instance of caller.
+     * @param command One of the {@link Commands}.
+     * @return False if the command is rejected because too many commands are in flight.
      */
-    private final BroadcastReceiver mAdapterStateChangeReceiver = new BroadcastReceiver() {
-        public void onReceive(Context context, Intent intent) {
-            updateStatus();
-        }
-    };
+    public static boolean passCommand(Context context, String command) {
+        return passCommand(context, command, 0);
+    }
 
-    public static void passCommand(Context context, String command) {
-        Intent intent = new Intent(context, BluetoothA2DPService.class);
-        intent.putExtra(BluetoothA2DPService.ARG_BT_STATE, command);
-        context.startService(intent);
+    /**
+     * Same as {@link #passCommand(Context, String)} for the command traced by the {@link Tracer}.
+     *
+     * @param traceId Trace id of the command or 0.
+     */
+    public static boolean passCommand(Context context, String command, long traceId) {
+        return CommandBus.dispatch(context, command, traceId);
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mBluetoothAdapter == null) {
-            Log.w(TAG, "No default Bluetooth adapter. Device likely does not support bluetooth.");
+        Hardware hardware = Platform.installIfAbsent(new AndroidHardware(this));
+
+        SpeakerAdapter adapter = hardware.getAdapter();
+        if (adapter == null) {
+            LOG.w("No default Bluetooth adapter. Device likely does not support bluetooth.");
+            //Nothing will run the batches waiting for the service.
+            CommandBus.dropPending();
             stopSelf();
             return;
         }
-
-        //Register receivers
-        registerReceiver(mAdapterStateChangeReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
-        registerReceiver(mSinkProfileStateChangeReceiver, new IntentFilter(A2dpSinkHelper.ACTION_CONNECTION_STATE_CHANGED));
+        mController = new SpeakerController(this, adapter, hardware.getAudio(),
+                new Handler(Looper.getMainLooper()), getFilesDir());
 
         //Make service foreground.
         //So it won't get killed.
         makeForeground();
+        mController.start();
 
-        //Set initial state
-        turnOnIfNot();
-        initA2DPSink();
+        //Receive the commands directly from now on.
+        CommandBus.attach(this);
     }
 
     /**
@@ -140,42 +115,54 @@ public class BluetoothA2DPService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        //Handle all the commands.
-        if (intent.getStringExtra(ARG_BT_STATE) != null) {
-            switch (intent.getStringExtra(ARG_BT_STATE)) {
-                case Commands.TURN_ON_BLUETOOTH:    //Turn on BT
-                    turnOnIfNot();
-                    break;
-                case Commands.TURN_OFF_BLUETOOTH:   //Turn off BT
-                    turnOffIfNot();
-                    break;
-                case Commands.DISCONNECT_ALL_DEVICE:    //Disconnect all devices.
-                    disconnectConnectedDevices();
-                    break;
-                case Commands.UNPAIR_ALL_DEVICE:
-                    unpairAllDevices();
-                    break;
-                case Commands.MAKE_DISCOVERABLE:
-                    turnOnIfNot();
-                    enableDiscoverable();
-                    break;
-                case Commands.VOLUME_DOWN:
-                    volumeDown();
-                    break;
-                case Commands.VOLUME_UP:
-                    volumeUp();
-                    break;
-                default:
-                    turnOnIfNot();
-                    break;
+        //Commands only come here while the service is starting.
+        if (mController == null) {
+            //No bluetooth to run the command on. Free its slot.
+            if (intent != null && intent.getStringExtra(CommandBus.ARG_COMMAND) != null) {
+                CommandBus.release(1);
             }
+            return START_NOT_STICKY;
+        }
+        if (intent != null && intent.getStringExtra(CommandBus.ARG_COMMAND) != null) {
+            long startedAt = Tracer.now();
+            long receivedAt = intent.getLongExtra(CommandBus.ARG_RECEIVED_AT, SystemClock.elapsedRealtimeNanos());
+            long traceId = intent.getLongExtra(CommandBus.ARG_TRACE_ID, 0);
+            Tracer.record("bus.intent", traceId, receivedAt);
+
+            Command command = Command.parse(intent.getStringExtra(CommandBus.ARG_COMMAND));
+            mController.offer(command == null ? Command.TURN_ON : command, receivedAt,
+                    CommandBus.INTENT_LATENCY, traceId);
+            Tracer.record("service.onStartCommand", traceId, startedAt);
+        } else {
+            //Started without a command. Refresh the status of the clients, as it always did.
+            SpeakerStateStore.getInstance().publishSnapshot();
         }
-
-        updateStatus();
 
         return START_NOT_STICKY;
     }
 
+    /**
+     * Hand the command received from the {@link CommandBus} to the {@link SpeakerController}.
+     */
+    void post(@NonNull Command command, long receivedAt, long traceId) {
+        if (mController != null) {
+            mController.post(command, receivedAt, traceId);
+        } else {
+            CommandBus.release(1);
+        }
+    }
+
+    /**
+     * Hand the batch received from the {@link CommandBus} to the {@link SpeakerController}.
+     */
+    void executeBatch(@NonNull CommandBatch batch) {
+        if (mController != null) {
+            mController.executeBatch(batch);
+        } else {
+            batch.onExpired();
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -192,14 +179,16 @@ public class BluetoothA2DPService extends Service {
      * Release all the resources before killing the service.
      */
     private void killService() {
+        //Stop receiving commands directly.
+        CommandBus.detach(this);
+
         //Stop foreground.
         stopForeground(true);
 
-        //Unregister all the receiver.
-        unregisterReceiver(mAdapterStateChangeReceiver);
-        unregisterReceiver(mSinkProfileStateChangeReceiver);
-
-        turnOffIfNot();
+        if (mController != null) {
+            mController.stop();
+            mController = null;
+        }
     }
 
     @Nullable
@@ -207,131 +196,4 @@ public class BluetoothA2DPService extends Service {
     public IBinder onBind(Intent intent) {
         return null;
     }
-
-    /**
-     * Initiate the A2DP sink.
-     */
-    private void initA2DPSink() {
-        if (mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
-            Log.e(TAG, "Bluetooth adapter not available or not enabled.");
-            return;
-        }
-
-        mBluetoothAdapter.setName(ADAPTER_FRIENDLY_NAME);   //Set the name of the bluetooth adapter
-        mBluetoothAdapter.getProfileProxy(this, new BluetoothProfile.ServiceListener() {
-
-            @Override
-            public void onServiceConnected(int profile, BluetoothProfile proxy) {
-                mA2DPSinkProxy = proxy;
-            }
-
-            @Override
-            public void onServiceDisconnected(int profile) {
-            }
-        }, A2dpSinkHelper.A2DP_SINK_PROFILE);
-    }
-
-    /**
-     * Enable the current {@link BluetoothAdapter} to be discovered (available for pairing) for
-     * the next {@link #DISCOVERABLE_TIMEOUT_SEC} ms.
-     */
-    private void enableDiscoverable() {
-        Intent discoverableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
-        discoverableIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, DISCOVERABLE_TIMEOUT_SEC);
-        startActivity(discoverableIntent);
-
-        TTS.speak(this, "Bluetooth is discoverable for 60 seconds.");
-    }
-
-    /**
-     * Disconnect all the connected devices.
-     */
-    private void disconnectConnectedDevices() {
-        if (mA2DPSinkProxy == null || mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
-            Log.d(TAG, "disconnectConnectedDevices: " + mA2DPSinkProxy + " " + mBluetoothAdapter);
-            return;
-        }
-        for (BluetoothDevice device : mA2DPSinkProxy.getConnectedDevices()) {
-            Log.i(TAG, "Disconnecting device " + device);
-            A2dpSinkHelper.disconnect(mA2DPSinkProxy, device);
-        }
-    }
-
-    /**
-     * Unpair all the connected devices.
-     */
-    private void unpairAllDevices() {
-        Log.d(TAG, "unpairAllDevices: ");
-        if (mA2DPSinkProxy == null || mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
-            return;
-        }
-        for (BluetoothDevice device : mA2DPSinkProxy.getConnectedDevices()) {
-            Log.i(TAG, "Disconnecting device " + device);
-            A2dpSinkHelper.unpairDevice(mBluetoothAdapter);
-        }
-        TTS.speak(this, "Removed paired devices.");
-    }
-
-    /**
-     * Turn on the bluetooth if it is not enabled already.
-     */
-    private void turnOnIfNot() {
-        if (!mBluetoothAdapter.isEnabled()) {
-            mBluetoothAdapter.enable();
-
-            TTS.speak(BluetoothA2DPService.this, "Bluetooth is turned on.");
-        }
-    }
-
-    /**
-     * Turn off bluetooth if bluetooth is enabled.
-     */
-    private void turnOffIfNot() {
-        if (mBluetoothAdapter.isEnabled()) {
-            mBluetoothAdapter.closeProfileProxy(A2dpSinkHelper.A2DP_SINK_PROFILE, mA2DPSinkProxy);
-            mBluetoothAdapter.disable();
-
-            TTS.speak(BluetoothA2DPService.this, "Bluetooth is turning off.");
-        }
-    }
-
-    /**
-     * Increase volume by one point.
-     */
-    private void volumeUp() {
-        AudioManager audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
-        if (audioManager.getStreamVolume(AudioManager.STREAM_MUSIC)
-                == audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC)) return;
-
-        audioManager.setStreamVolume(AudioManager.STREAM_MUSIC,
-                audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC) + 1,
-                AudioManager.FLAG_SHOW_UI);
-        audioManager.setStreamVolume(AudioManager.STREAM_RING,
-                audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC) + 1,
-                AudioManager.FLAG_SHOW_UI);
-    }
-
-    /**
-     * Decrease volume by one point.
-     */
-    private void volumeDown() {
-        AudioManager audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
-        if (audioManager.getStreamVolume(AudioManager.STREAM_MUSIC) == 0) return;
-
-        audioManager.setStreamVolume(AudioManager.STREAM_MUSIC,
-                audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC) - 1,
-                AudioManager.FLAG_SHOW_UI);
-        audioManager.setStreamVolume(AudioManager.STREAM_RING,
-                audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC) - 1,
-                AudioManager.FLAG_SHOW_UI);
-    }
-
-    /**
-     * This will update status to the socket.
-     */
-    private void updateStatus() {
-        EventBus.getDefault().post("Connected devices: "
-                + (mA2DPSinkProxy ==null? "0":mA2DPSinkProxy.getConnectedDevices())
-                + "<br/>Bluetooth: " + (mBluetoothAdapter.isEnabled() ? "Enable" : "Disable"));
-    }
-}
\ No newline at end of file
+}
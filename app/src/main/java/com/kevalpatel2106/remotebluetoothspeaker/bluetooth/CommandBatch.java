@@ -0,0 +1,371 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+import com.kevalpatel2106.remotebluetoothspeaker.Commands;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sequence of the commands executed by {@link BluetoothA2DPService} as one task. The steps run in
+ * order and the state is published once, after the last step. Every step records its own
+ * {@link Outcome} and execution time.
+ * <p>
+ * Unlike the single commands, unknown steps are not turned into {@link Command#TURN_ON}. They are
+ * reported as {@link Outcome#UNKNOWN} and skipped.
+ */
+
+public final class CommandBatch {
+
+    /**
+     * Maximum number of steps in one batch.
+     */
+    public static final int MAX_STEPS = 32;
+
+    @NonNull
+    private final List<Step> mSteps;
+    @NonNull
+    private final Callback mCallback;
+
+    //Times in SystemClock.elapsedRealtimeNanos()
+    private final long mReceivedAt;
+    private long mStartedAt;
+    private long mFinishedAt;
+
+    /**
+     * Version of the state after the batch. Set when the batch finishes.
+     */
+    private long mVersion;
+    private boolean mIsExpired = false;
+    private final long mTraceId;
+
+    /**
+     * @param steps    Steps to run in order.
+     * @param callback {@link Callback} to call once the batch is done.
+     * @param traceId  {@link Tracer} id of the batch or 0.
+     */
+    public CommandBatch(@NonNull List<Step> steps, @NonNull Callback callback, long traceId) {
+        mSteps = Collections.unmodifiableList(new ArrayList<>(steps));
+        mCallback = callback;
+        mTraceId = traceId;
+        mReceivedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * @return All the steps in order.
+     */
+    @NonNull
+    public List<Step> getSteps() {
+        return mSteps;
+    }
+
+    /**
+     * @return Highest {@link Command.Priority} of all the steps.
+     */
+    @NonNull
+    Command.Priority getPriority() {
+        Command.Priority priority = Command.Priority.COSMETIC;
+        for (Step step : mSteps) {
+            Command.Priority stepPriority = step.getPriority();
+            if (stepPriority.compareTo(priority) < 0) priority = stepPriority;
+        }
+        return priority;
+    }
+
+    /**
+     * @return Total timeout of all the steps in milliseconds.
+     */
+    long getTimeoutMs() {
+        return getTimeoutMs(mSteps);
+    }
+
+    /**
+     * @param steps Steps of the batch.
+     * @return Total timeout of all the steps in milliseconds. The batch is dropped if it does not
+     * start within this time.
+     */
+    public static long getTimeoutMs(@NonNull List<Step> steps) {
+        long timeout = 0;
+        for (Step step : steps) timeout += step.getTimeoutMs();
+        return timeout;
+    }
+
+    long getReceivedAt() {
+        return mReceivedAt;
+    }
+
+    /**
+     * @return {@link Tracer} id of the batch or 0.
+     */
+    public long getTraceId() {
+        return mTraceId;
+    }
+
+    /**
+     * @return Time the batch waited before the first step started in micro seconds.
+     */
+    public long getQueuedMicros() {
+        return mStartedAt == 0 ? 0 : (mStartedAt - mReceivedAt) / 1000;
+    }
+
+    /**
+     * @return Time from the start of the first step to the end of the last in micro seconds.
+     */
+    public long getTookMicros() {
+        return mStartedAt == 0 ? 0 : (mFinishedAt - mStartedAt) / 1000;
+    }
+
+    /**
+     * @return Version of the {@link SpeakerState} after the batch.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return True if the batch was dropped before any step ran.
+     */
+    public boolean isExpired() {
+        return mIsExpired;
+    }
+
+    void onStarted() {
+        mStartedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Mark the batch finished, free its slots in the {@link CommandBus} and call the
+     * {@link Callback}. Called on the executor thread.
+     *
+     * @param version Version of the state after the last step.
+     */
+    void onFinished(long version) {
+        mFinishedAt = SystemClock.elapsedRealtimeNanos();
+        mVersion = version;
+        CommandBus.release(mSteps.size());
+        mCallback.onBatchDone(this);
+    }
+
+    /**
+     * Mark all the pending steps expired, free the slots of the batch in the {@link CommandBus}
+     * and call the {@link Callback}. Used when the batch is dropped without running.
+     */
+    void onExpired() {
+        mIsExpired = true;
+        for (Step step : mSteps) {
+            if (step.mOutcome == Outcome.PENDING) step.mOutcome = Outcome.EXPIRED;
+        }
+        mVersion = SpeakerStateStore.getInstance().getState().getVersion();
+        CommandBus.release(mSteps.size());
+        mCallback.onBatchDone(this);
+    }
+
+    @Override
+    public String toString() {
+        return "batch of " + mSteps.size();
+    }
+
+    /**
+     * Outcome of the single step.
+     */
+    public enum Outcome {
+        /**
+         * Not executed yet.
+         */
+        PENDING,
+
+        /**
+         * Executed.
+         */
+        OK,
+
+        /**
+         * The command name is not one of the {@link Commands}.
+         */
+        UNKNOWN,
+
+        /**
+         * The command needs a value and it is missing or out of range.
+         */
+        INVALID,
+
+        /**
+         * The command threw while executing.
+         */
+        FAILED,
+
+        /**
+         * The batch was dropped before the step ran.
+         */
+        EXPIRED
+    }
+
+    /**
+     * Called once the batch is done, either executed or expired. Called on the executor thread,
+     * so it should not block.
+     */
+    public interface Callback {
+
+        void onBatchDone(@NonNull CommandBatch batch);
+    }
+
+    /**
+     * Single step of the batch. Either one of the {@link Command}s or
+     * {@link Commands#SET_VOLUME} with the value.
+     */
+    public static final class Step {
+        @NonNull
+        private final String mName;
+        @Nullable
+        private final Command mCommand;
+        private final int mValue;
+
+        @NonNull
+        private Outcome mOutcome;
+        private long mTookNanos;
+        @Nullable
+        private String mError;
+        @Nullable
+        private DeviceBatch.Result mDevices;
+
+        private Step(@NonNull String name, @Nullable Command command, int value, @NonNull Outcome outcome) {
+            mName = name;
+            mCommand = command;
+            mValue = value;
+            mOutcome = outcome;
+        }
+
+        /**
+         * Create the step for the command.
+         *
+         * @param name  One of the {@link Commands}.
+         * @param value Value of {@link Commands#SET_VOLUME} or null for the other commands.
+         * @return New {@link Step}. Invalid steps are created already failed, so they are
+         * reported with the rest.
+         */
+        @NonNull
+        public static Step of(@NonNull String name, @Nullable Integer value) {
+            if (Commands.SET_VOLUME.equals(name)) {
+                return value == null || value < 0
+                        ? new Step(name, null, 0, Outcome.INVALID)
+                        : new Step(name, null, value, Outcome.PENDING);
+            }
+
+            Command command = Command.parse(name);
+            return command == null
+                    ? new Step(name, null, 0, Outcome.UNKNOWN)
+                    : new Step(name, command, 0, Outcome.PENDING);
+        }
+
+        /**
+         * @return Name of the command as received.
+         */
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return {@link Command} to execute or null for {@link Commands#SET_VOLUME} and the
+         * invalid steps.
+         */
+        @Nullable
+        public Command getCommand() {
+            return mCommand;
+        }
+
+        /**
+         * @return Target volume of {@link Commands#SET_VOLUME}.
+         */
+        int getValue() {
+            return mValue;
+        }
+
+        /**
+         * @return True if the step should be executed.
+         */
+        boolean isPending() {
+            return mOutcome == Outcome.PENDING;
+        }
+
+        @NonNull
+        public Outcome getOutcome() {
+            return mOutcome;
+        }
+
+        /**
+         * @return Execution time of the step in micro seconds. 0 if the step did not run.
+         */
+        public long getTookMicros() {
+            return mTookNanos / 1000;
+        }
+
+        /**
+         * @return Message of the failure or null.
+         */
+        @Nullable
+        public String getError() {
+            return mError;
+        }
+
+        /**
+         * @return JSON array with the outcome of every device, for the steps that run on all the
+         * devices, or null.
+         */
+        @Nullable
+        public String getDevicesJson() {
+            return mDevices == null ? null : mDevices.toJson();
+        }
+
+        @NonNull
+        private Command.Priority getPriority() {
+            return mCommand != null ? mCommand.getPriority() : Command.Priority.COSMETIC;
+        }
+
+        private long getTimeoutMs() {
+            if (mCommand != null) return mCommand.getTimeoutMs();
+            return mOutcome == Outcome.PENDING ? Command.VOLUME_UP.getTimeoutMs() : 0;
+        }
+
+        void onDone(long startedAt) {
+            onDone(startedAt, null);
+        }
+
+        /**
+         * @param devices Outcome of every device if the step ran on all the devices or null.
+         */
+        void onDone(long startedAt, @Nullable DeviceBatch.Result devices) {
+            mTookNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+            mOutcome = Outcome.OK;
+            mDevices = devices;
+        }
+
+        void onFailed(long startedAt, @NonNull RuntimeException e) {
+            mTookNanos = SystemClock.elapsedRealtimeNanos() - startedAt;
+            mOutcome = Outcome.FAILED;
+            mError = e.toString();
+        }
+    }
+}
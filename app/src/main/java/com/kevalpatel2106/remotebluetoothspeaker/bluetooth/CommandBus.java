@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process command bus between the web server and {@link BluetoothA2DPService}.
+ * <p>
+ * While the service is running, commands are handed to it directly without going through the
+ * ActivityManager. The {@link Intent} path is only used to cold start the service. The
+ * receive-to-execute latency of both paths is tracked, so the saving can be seen in the logs.
+ * <p>
+ * The bus also caps the commands in flight, from receiving them until they run or are dropped.
+ * Commands over {@link #MAX_IN_FLIGHT} are rejected right here, before they cost an intent or a
+ * slot in the queue, so no number of clients can bury the adapter in work.
+ */
+
+public final class CommandBus {
+    static final String ARG_COMMAND = "bt_state";
+    static final String ARG_RECEIVED_AT = "received_at";
+    static final String ARG_TRACE_ID = "trace_id";
+
+    /**
+     * Receive-to-execute latency of the commands handed directly to the running service.
+     */
+    static final Latency DIRECT_LATENCY = new Latency();
+
+    /**
+     * Receive-to-execute latency of the commands delivered by {@link Context#startService(Intent)}.
+     */
+    static final Latency INTENT_LATENCY = new Latency();
+
+    /**
+     * Most commands received and not run yet, from all the clients together.
+     */
+    public static final int MAX_IN_FLIGHT = 64;
+
+    private static final AtomicInteger sInFlight = new AtomicInteger();
+
+    static {
+        MetricsRegistry.getInstance().gauge("speaker_commands_in_flight",
+                "Commands received and not run yet.", "", new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return sInFlight.get();
+                    }
+                });
+    }
+
+    /**
+     * Handle of the running service or null if the service is not running.
+     */
+    @Nullable
+    private static volatile BluetoothA2DPService sService;
+
+    /**
+     * Batches received while the service was starting. Guarded by the class.
+     */
+    private static final List<CommandBatch> sPendingBatches = new ArrayList<>();
+
+    private CommandBus() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * Send the raw command to the {@link BluetoothA2DPService}. The command is parsed once here.
+     *
+     * @param context Instance of caller.
+     * @param name    One of the {@link com.kevalpatel2106.remotebluetoothspeaker.Commands}.
+     * @param traceId {@link Tracer} id of the command or 0.
+     * @return False if the command is rejected because too many commands are in flight.
+     */
+    public static boolean dispatch(@NonNull Context context, @Nullable String name, long traceId) {
+        if (!tryAcquire(1)) return false;
+        long receivedAt = SystemClock.elapsedRealtimeNanos();
+
+        //Unknown commands turn on the bluetooth. That's what the service has always done.
+        Command command = Command.parse(name);
+        if (command == null) command = Command.TURN_ON;
+        Metrics.commandReceived(command).inc();
+
+        BluetoothA2DPService service = sService;
+        if (service != null) {
+            service.post(command, receivedAt, traceId);
+        } else {
+            //Service is not running yet. Start it with the command.
+            Intent intent = new Intent(context, BluetoothA2DPService.class);
+            intent.putExtra(ARG_COMMAND, command.getName());
+            intent.putExtra(ARG_RECEIVED_AT, receivedAt);
+            intent.putExtra(ARG_TRACE_ID, traceId);
+            context.startService(intent);
+        }
+        return true;
+    }
+
+    /**
+     * Send the batch to the {@link BluetoothA2DPService}. Batches can't travel in the intent, so
+     * if the service is not running it is started and the batch waits here until it attaches.
+     *
+     * @param context Instance of caller.
+     * @param batch   {@link CommandBatch} to execute.
+     * @return False if the batch is rejected because too many commands are in flight. The
+     * callback of the batch is not called then.
+     */
+    public static boolean dispatchBatch(@NonNull Context context, @NonNull CommandBatch batch) {
+        if (!tryAcquire(batch.getSteps().size())) return false;
+        for (CommandBatch.Step step : batch.getSteps()) {
+            if (step.getCommand() != null) Metrics.commandReceived(step.getCommand()).inc();
+        }
+
+        BluetoothA2DPService service;
+        synchronized (CommandBus.class) {
+            service = sService;
+            if (service == null) sPendingBatches.add(batch);
+        }
+
+        if (service != null) {
+            service.executeBatch(batch);
+        } else {
+            context.startService(new Intent(context, BluetoothA2DPService.class));
+        }
+        return true;
+    }
+
+    /**
+     * Take the slots for the commands if there is room for all of them.
+     */
+    private static boolean tryAcquire(int count) {
+        while (true) {
+            int inFlight = sInFlight.get();
+            if (inFlight + count > MAX_IN_FLIGHT) {
+                Metrics.COMMANDS_REJECTED_OVERLOAD.add(count);
+                return false;
+            }
+            if (sInFlight.compareAndSet(inFlight, inFlight + count)) return true;
+        }
+    }
+
+    /**
+     * Free the slots of the commands that ran or were dropped. Every command admitted by
+     * {@link #dispatch(Context, String, long)} or {@link #dispatchBatch(Context, CommandBatch)} must be
+     * released exactly once.
+     */
+    static void release(int count) {
+        sInFlight.addAndGet(-count);
+    }
+
+    /**
+     * @return Number of the commands received and not run yet.
+     */
+    public static int getInFlight() {
+        return sInFlight.get();
+    }
+
+    /**
+     * Register the running service as the direct handle for the commands and hand it the
+     * batches received while it was starting.
+     */
+    static void attach(@NonNull BluetoothA2DPService service) {
+        List<CommandBatch> pending;
+        synchronized (CommandBus.class) {
+            sService = service;
+            pending = new ArrayList<>(sPendingBatches);
+            sPendingBatches.clear();
+        }
+        for (CommandBatch batch : pending) service.executeBatch(batch);
+    }
+
+    /**
+     * Expire the batches received while the service was starting. Call this if the service
+     * can't run them, so their slots are freed and their callbacks are called.
+     */
+    static void dropPending() {
+        List<CommandBatch> pending;
+        synchronized (CommandBus.class) {
+            pending = new ArrayList<>(sPendingBatches);
+            sPendingBatches.clear();
+        }
+        for (CommandBatch batch : pending) batch.onExpired();
+    }
+
+    /**
+     * Remove the service handle. Commands will cold start the service after this.
+     */
+    static void detach(@NonNull BluetoothA2DPService service) {
+        synchronized (CommandBus.class) {
+            if (sService == service) sService = null;
+        }
+    }
+
+    /**
+     * Lock free receive-to-execute latency counter.
+     */
+    static final class Latency {
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+
+        void record(long latencyNanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(latencyNanos);
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * @return Average latency in micro seconds or 0 if nothing is recorded yet.
+         */
+        long getAverageMicros() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotalNanos.get() / count / 1000;
+        }
+    }
+}
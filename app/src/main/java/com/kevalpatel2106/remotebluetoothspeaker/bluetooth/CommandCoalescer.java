@@ -0,0 +1,275 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Folds bursts of commands into a single execution.
+ * <p>
+ * The first command of a burst opens a window of {@link #WINDOW_MS}. Volume commands received in
+ * the window are summed into one net delta and repeated idempotent commands
+ * ({@link Command#TURN_ON}, {@link Command#MAKE_DISCOVERABLE}) are run once. Any other command
+ * closes the window immediately. The whole burst is handed to the {@link Target} at once, so the
+ * volume is changed and pushed only once.
+ * <p>
+ * The volume is applied after the other commands of the burst. So a command that arrives while
+ * a volume change is pending first closes the burst with the volume and then starts its own.
+ * That burst is a {@link Burst#isBarrier() barrier}, so the command can't overtake the volume in
+ * the {@link CommandExecutor} either.
+ * <p>
+ * This class is not thread safe. All the calls must be made on the thread of the handler.
+ */
+
+final class CommandCoalescer {
+    /**
+     * Length of the coalescing window in milliseconds.
+     */
+    private static final long WINDOW_MS = 120;
+
+    @NonNull
+    private final Handler mHandler;
+    @NonNull
+    private final Target mTarget;
+
+    /**
+     * Distinct commands of the current burst in the order they were received.
+     */
+    private final List<Command> mCommands = new ArrayList<>();
+
+    /**
+     * All the commands received in the current burst with their latency counters.
+     */
+    private final List<Received> mReceived = new ArrayList<>();
+    private int mVolumeDelta = 0;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    CommandCoalescer(@NonNull Handler handler, @NonNull Target target) {
+        mHandler = handler;
+        mTarget = target;
+    }
+
+    /**
+     * Add the command to the current burst.
+     *
+     * @param command    {@link Command} received.
+     * @param receivedAt Time when the command was received in
+     *                   {@link android.os.SystemClock#elapsedRealtimeNanos()}.
+     * @param latency    Latency counter of the path the command came from.
+     * @param traceId    {@link Tracer} id of the command or 0.
+     */
+    void offer(@NonNull Command command, long receivedAt, @NonNull CommandBus.Latency latency, long traceId) {
+        boolean isVolume = command == Command.VOLUME_UP || command == Command.VOLUME_DOWN;
+        if (!isVolume && mVolumeDelta != 0) flush(true);    //The volume must not run after it.
+
+        boolean isBurstOpen = !mReceived.isEmpty();
+        mReceived.add(new Received(command, receivedAt, latency, traceId));
+
+        switch (command) {
+            case VOLUME_UP:
+                mVolumeDelta++;
+                break;
+            case VOLUME_DOWN:
+                mVolumeDelta--;
+                break;
+            case TURN_ON:
+            case MAKE_DISCOVERABLE:
+                if (!mCommands.contains(command)) mCommands.add(command);
+                break;
+            default:
+                //Not safe to fold. Run it right away after whatever is pending.
+                mCommands.add(command);
+                flush();
+                return;
+        }
+
+        if (!isBurstOpen) mHandler.postDelayed(mFlushTask, WINDOW_MS);
+    }
+
+    /**
+     * Hand the current burst to the {@link Target} without waiting for the window to close.
+     */
+    void flush() {
+        flush(false);
+    }
+
+    /**
+     * @param isBarrier True if the commands received after the burst must not overtake it.
+     */
+    private void flush(boolean isBarrier) {
+        mHandler.removeCallbacks(mFlushTask);
+        if (mReceived.isEmpty()) return;
+
+        //Time each command waited for the window to close.
+        for (Received received : mReceived) Tracer.record("coalesce", received.mTraceId, received.mOfferedAt);
+
+        Burst burst = new Burst(new ArrayList<>(mCommands), mVolumeDelta, new ArrayList<>(mReceived),
+                isBarrier);
+        mCommands.clear();
+        mReceived.clear();
+        mVolumeDelta = 0;
+
+        mTarget.executeBurst(burst);
+    }
+
+    /**
+     * Executor of the coalesced bursts.
+     */
+    interface Target {
+
+        /**
+         * Execute all the commands in order and apply the net volume change once.
+         *
+         * @param burst {@link Burst} to execute.
+         */
+        void executeBurst(@NonNull Burst burst);
+    }
+
+    /**
+     * Immutable set of the commands folded together.
+     */
+    static final class Burst {
+        @NonNull
+        private final List<Command> mCommands;
+        private final int mVolumeDelta;
+        @NonNull
+        private final List<Received> mReceived;
+        private final boolean mIsBarrier;
+
+        private Burst(@NonNull List<Command> commands, int volumeDelta, @NonNull List<Received> received,
+                      boolean isBarrier) {
+            mCommands = commands;
+            mVolumeDelta = volumeDelta;
+            mReceived = received;
+            mIsBarrier = isBarrier;
+        }
+
+        /**
+         * @return Distinct commands in the order they were received.
+         */
+        @NonNull
+        List<Command> getCommands() {
+            return mCommands;
+        }
+
+        /**
+         * @return True if the commands received after the burst must not run before it, even if
+         * they have a higher priority.
+         */
+        boolean isBarrier() {
+            return mIsBarrier;
+        }
+
+        /**
+         * @return Net volume change in points. May be 0.
+         */
+        int getVolumeDelta() {
+            return mVolumeDelta;
+        }
+
+        /**
+         * @return Number of the commands folded in the burst, including the repeated ones.
+         */
+        int getReceivedCount() {
+            return mReceived.size();
+        }
+
+        /**
+         * @return {@link Tracer} id of the first traced command in the burst or 0. The burst
+         * runs as part of that trace.
+         */
+        long getTraceId() {
+            for (Received received : mReceived) {
+                if (received.mTraceId != 0) return received.mTraceId;
+            }
+            return 0;
+        }
+
+        /**
+         * @return Highest {@link Command.Priority} of all the commands in the burst.
+         */
+        @NonNull
+        Command.Priority getPriority() {
+            Command.Priority priority = Command.Priority.COSMETIC;
+            for (Command command : mCommands) {
+                if (command.getPriority().compareTo(priority) < 0) priority = command.getPriority();
+            }
+            return priority;
+        }
+
+        /**
+         * @return Total timeout of all the commands in the burst.
+         */
+        long getTimeoutMs() {
+            long timeout = mVolumeDelta != 0 ? Command.VOLUME_UP.getTimeoutMs() : 0;
+            for (Command command : mCommands) timeout += command.getTimeoutMs();
+            return timeout;
+        }
+
+        /**
+         * Record the receive-to-execute latency of every command folded in the burst. Call this
+         * once the burst is executed.
+         */
+        void recordLatency() {
+            long now = SystemClock.elapsedRealtimeNanos();
+            for (Received received : mReceived) {
+                long latency = now - received.mReceivedAt;
+                received.mLatency.record(latency);
+                Metrics.commandLatency(received.mCommand).record(latency / 1000);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mCommands + " volume " + mVolumeDelta;
+        }
+    }
+
+    private static final class Received {
+        @NonNull
+        private final Command mCommand;
+        private final long mReceivedAt;
+        @NonNull
+        private final CommandBus.Latency mLatency;
+        private final long mTraceId;
+        private final long mOfferedAt;
+
+        private Received(@NonNull Command command, long receivedAt, @NonNull CommandBus.Latency latency,
+                         long traceId) {
+            mCommand = command;
+            mReceivedAt = receivedAt;
+            mLatency = latency;
+            mTraceId = traceId;
+            mOfferedAt = Tracer.now();
+        }
+    }
+}
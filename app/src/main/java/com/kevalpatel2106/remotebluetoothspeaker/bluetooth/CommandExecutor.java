@@ -0,0 +1,275 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single writer executor for the bluetooth commands. All the commands run one after another on
+ * a dedicated thread, so blocking adapter and binder calls never stall the main thread.
+ * <p>
+ * Queued tasks are ordered by their {@link Command.Priority} and then by the order they were
+ * submitted. A {@link #barrier()} stops that: the tasks queued before it run before any task
+ * submitted after it, whatever their priority. A task that is still queued after its timeout is
+ * dropped. A task that runs longer
+ * than its timeout can't be interrupted safely, so it is reported by the watchdog instead.
+ */
+
+final class CommandExecutor {
+    private static final Logger LOG = Logger.get(CommandExecutor.class);
+
+    private final PriorityBlockingQueue<Task> mQueue = new PriorityBlockingQueue<>();
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Number of the barriers so far. Tasks are ordered by it before their priority.
+     */
+    private final AtomicLong mBarrier = new AtomicLong();
+
+    /**
+     * Handler to run the watchdog on. This should not be the executor thread.
+     */
+    @NonNull
+    private final Handler mWatchdogHandler;
+    private final Thread mThread;
+    private volatile boolean mIsRunning = true;
+
+    //Metrics
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mExecutedCount = new AtomicLong();
+    private final AtomicLong mExpiredCount = new AtomicLong();
+    private final AtomicLong mTimedOutCount = new AtomicLong();
+
+    CommandExecutor(@NonNull Handler watchdogHandler) {
+        mWatchdogHandler = watchdogHandler;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "bt-command-executor");
+        mThread.start();
+    }
+
+    /**
+     * Queue the task.
+     *
+     * @param name      Name of the task for the logs.
+     * @param priority  {@link Command.Priority} of the task.
+     * @param timeoutMs Maximum time the task may take from now until it finishes.
+     * @param runnable  Work to run on the executor thread.
+     */
+    void submit(@NonNull String name,
+                @NonNull Command.Priority priority,
+                long timeoutMs,
+                @NonNull Runnable runnable) {
+        submit(name, priority, timeoutMs, runnable, null);
+    }
+
+    /**
+     * Queue the task.
+     *
+     * @param name      Name of the task for the logs.
+     * @param priority  {@link Command.Priority} of the task.
+     * @param timeoutMs Maximum time the task may take from now until it finishes.
+     * @param runnable  Work to run on the executor thread.
+     * @param onDropped Called instead of the task if it expires in the queue or the executor is
+     *                  shut down before it runs. Null to drop the task silently.
+     */
+    void submit(@NonNull String name,
+                @NonNull Command.Priority priority,
+                long timeoutMs,
+                @NonNull Runnable runnable,
+                @Nullable Runnable onDropped) {
+        if (!mIsRunning) {
+            LOG.w("submit: Executor is shut down. Ignoring {}", name);
+            if (onDropped != null) onDropped.run();
+            return;
+        }
+
+        mQueue.add(new Task(name, priority, mBarrier.get(), mSequence.incrementAndGet(),
+                SystemClock.elapsedRealtime() + timeoutMs, runnable, onDropped));
+
+        //Shut down while adding. The shutdown may have drained the queue before the task was in.
+        if (!mIsRunning) {
+            dropQueued();
+            return;
+        }
+
+        //Track the highest queue depth seen.
+        int depth = mQueue.size();
+        int max;
+        do {
+            max = mMaxQueueDepth.get();
+        } while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+    }
+
+    /**
+     * Keep the tasks queued so far ahead of all the tasks submitted after this, even the ones
+     * with a higher priority.
+     */
+    void barrier() {
+        mBarrier.incrementAndGet();
+    }
+
+    /**
+     * Stop the executor. Queued tasks are dropped and the running task is allowed to finish.
+     */
+    void shutdown() {
+        mIsRunning = false;
+        mThread.interrupt();
+        dropQueued();
+    }
+
+    /**
+     * Drop all the queued tasks. Each task is taken out of the queue once, so it is dropped once.
+     */
+    private void dropQueued() {
+        List<Task> dropped = new ArrayList<>();
+        mQueue.drainTo(dropped);
+        for (Task task : dropped) task.drop();
+    }
+
+    private void loop() {
+        while (mIsRunning) {
+            final Task task;
+            try {
+                task = mQueue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            if (now > task.mDeadline) {
+                mExpiredCount.incrementAndGet();
+                LOG.w("loop: {} expired in the queue. Dropping it.", task.mName);
+                task.drop();
+                continue;
+            }
+
+            Runnable watchdog = new Runnable() {
+                @Override
+                public void run() {
+                    mTimedOutCount.incrementAndGet();
+                    LOG.w("watchdog: {} is still running after its timeout.", task.mName);
+                }
+            };
+            mWatchdogHandler.postDelayed(watchdog, task.mDeadline - now);
+            try {
+                task.mRunnable.run();
+            } catch (RuntimeException e) {
+                LOG.e("loop: {} failed.", task.mName, e);
+            } finally {
+                mWatchdogHandler.removeCallbacks(watchdog);
+                mExecutedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return Number of tasks waiting in the queue.
+     */
+    int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return Highest number of tasks ever waiting in the queue.
+     */
+    int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return Number of the tasks executed.
+     */
+    long getExecutedCount() {
+        return mExecutedCount.get();
+    }
+
+    /**
+     * @return Number of the tasks dropped because they stayed in the queue past their timeout.
+     */
+    long getExpiredCount() {
+        return mExpiredCount.get();
+    }
+
+    /**
+     * @return Number of the tasks that ran longer than their timeout.
+     */
+    long getTimedOutCount() {
+        return mTimedOutCount.get();
+    }
+
+    private static final class Task implements Comparable<Task> {
+        @NonNull
+        private final String mName;
+        @NonNull
+        private final Command.Priority mPriority;
+        private final long mBarrier;
+        private final long mSequence;
+        private final long mDeadline;
+        @NonNull
+        private final Runnable mRunnable;
+        @Nullable
+        private final Runnable mOnDropped;
+
+        private Task(@NonNull String name,
+                     @NonNull Command.Priority priority,
+                     long barrier,
+                     long sequence,
+                     long deadline,
+                     @NonNull Runnable runnable,
+                     @Nullable Runnable onDropped) {
+            mName = name;
+            mPriority = priority;
+            mBarrier = barrier;
+            mSequence = sequence;
+            mDeadline = deadline;
+            mRunnable = runnable;
+            mOnDropped = onDropped;
+        }
+
+        private void drop() {
+            if (mOnDropped == null) return;
+            try {
+                mOnDropped.run();
+            } catch (RuntimeException e) {
+                LOG.e("drop: {} failed.", mName, e);
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (mBarrier != other.mBarrier) return Long.compare(mBarrier, other.mBarrier);
+            int byPriority = mPriority.compareTo(other.mPriority);
+            return byPriority != 0 ? byPriority : Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same operation on many devices as one batch, like disconnecting or unpairing all of
+ * them. Every device is handled once, at most {@link #MAX_PARALLEL} at a time, and the batch
+ * waits for all of them up to its timeout. The result has the outcome and the time of every
+ * device and the time of the whole batch.
+ */
+
+final class DeviceBatch {
+    private static final Logger LOG = Logger.get(DeviceBatch.class);
+
+    /**
+     * Most devices handled at the same time. Each one is a blocking binder call.
+     */
+    static final int MAX_PARALLEL = 3;
+
+    /**
+     * Shared by all the batches. The threads stop when there is nothing to do.
+     */
+    private static final ThreadPoolExecutor sPool = new ThreadPoolExecutor(MAX_PARALLEL, MAX_PARALLEL,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(runnable, "bt-device-batch-" + mCount.incrementAndGet());
+        }
+    });
+
+    static {
+        sPool.allowCoreThreadTimeOut(true);
+    }
+
+    private DeviceBatch() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * Run the operation on all the devices and wait for them. Devices that are not done within
+     * the timeout are reported as timed out.
+     *
+     * @param name      Name of the operation for the logs.
+     * @param devices   Devices to run the operation on. Each device once.
+     * @param timeoutMs Maximum time to wait for the whole batch.
+     * @param operation {@link Operation} to run.
+     * @return {@link Result} with the outcome of every device in the same order.
+     */
+    @NonNull
+    static Result run(@NonNull String name,
+                      @NonNull Collection<BluetoothDevice> devices,
+                      long timeoutMs,
+                      @NonNull final Operation operation) {
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        List<Callable<DeviceResult>> tasks = new ArrayList<>(devices.size());
+        for (final BluetoothDevice device : devices) {
+            tasks.add(new Callable<DeviceResult>() {
+                @Override
+                public DeviceResult call() {
+                    long deviceStartedAt = SystemClock.elapsedRealtimeNanos();
+                    String error = null;
+                    try {
+                        if (!operation.run(device)) error = "failed";
+                    } catch (RuntimeException e) {
+                        error = String.valueOf(e.getMessage());
+                    }
+                    return new DeviceResult(device, error,
+                            (SystemClock.elapsedRealtimeNanos() - deviceStartedAt) / 1000);
+                }
+            });
+        }
+
+        List<DeviceResult> results = new ArrayList<>(tasks.size());
+        try {
+            List<Future<DeviceResult>> futures = sPool.invokeAll(tasks, timeoutMs, TimeUnit.MILLISECONDS);
+            int i = 0;
+            for (BluetoothDevice device : devices) {
+                results.add(getResult(device, futures.get(i++)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.w("run: Interrupted while running {}.", name);
+        }
+
+        Result result = new Result(name, results, (SystemClock.elapsedRealtimeNanos() - startedAt) / 1000);
+        if (result.getFailedCount() > 0) {
+            LOG.w("run: {}", result);
+        } else {
+            LOG.d("run: {}", result);
+        }
+        return result;
+    }
+
+    @NonNull
+    private static DeviceResult getResult(@NonNull BluetoothDevice device, @NonNull Future<DeviceResult> future) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return new DeviceResult(device, "timed out", 0);
+        } catch (ExecutionException e) {
+            return new DeviceResult(device, String.valueOf(e.getCause()), 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new DeviceResult(device, "interrupted", 0);
+        }
+    }
+
+    /**
+     * Operation on a single device. Called on the pool thread.
+     */
+    interface Operation {
+
+        /**
+         * @return True if the operation worked.
+         */
+        boolean run(@NonNull BluetoothDevice device);
+    }
+
+    /**
+     * Outcome of the whole batch.
+     */
+    static final class Result {
+        @NonNull
+        private final String mName;
+        @NonNull
+        private final List<DeviceResult> mDevices;
+        private final long mTookMicros;
+
+        private Result(@NonNull String name, @NonNull List<DeviceResult> devices, long tookMicros) {
+            mName = name;
+            mDevices = Collections.unmodifiableList(devices);
+            mTookMicros = tookMicros;
+        }
+
+        /**
+         * @return Outcome of every device in the order they were given.
+         */
+        @NonNull
+        List<DeviceResult> getDevices() {
+            return mDevices;
+        }
+
+        /**
+         * @return Time of the whole batch in micro seconds.
+         */
+        long getTookMicros() {
+            return mTookMicros;
+        }
+
+        /**
+         * @return JSON array with the outcome of every device.
+         */
+        @NonNull
+        String toJson() {
+            StringBuilder builder = new StringBuilder(16 + 96 * mDevices.size()).append('[');
+            for (int i = 0; i < mDevices.size(); i++) {
+                if (i > 0) builder.append(',');
+                mDevices.get(i).appendJson(builder);
+            }
+            return builder.append(']').toString();
+        }
+
+        int getFailedCount() {
+            int failed = 0;
+            for (DeviceResult device : mDevices) {
+                if (!device.isOk()) failed++;
+            }
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " of " + mDevices.size() + " devices took " + mTookMicros + "us, "
+                    + getFailedCount() + " failed. " + mDevices;
+        }
+    }
+
+    /**
+     * Outcome of the single device.
+     */
+    static final class DeviceResult {
+        @NonNull
+        private final String mAddress;
+        @NonNull
+        private final String mName;
+        @Nullable
+        private final String mError;
+        private final long mTookMicros;
+
+        private DeviceResult(@NonNull BluetoothDevice device, @Nullable String error, long tookMicros) {
+            mAddress = device.getAddress();
+            mName = Objects.toString(device.getName(), "");
+            mError = error;
+            mTookMicros = tookMicros;
+        }
+
+        @NonNull
+        String getAddress() {
+            return mAddress;
+        }
+
+        @NonNull
+        String getName() {
+            return mName;
+        }
+
+        boolean isOk() {
+            return mError == null;
+        }
+
+        /**
+         * @return Why the operation failed or null if it worked.
+         */
+        @Nullable
+        String getError() {
+            return mError;
+        }
+
+        /**
+         * @return Time of the operation on this device in micro seconds. 0 if it never finished.
+         */
+        long getTookMicros() {
+            return mTookMicros;
+        }
+
+        private void appendJson(@NonNull StringBuilder builder) {
+            builder.append("{\"address\":").append(JSONObject.quote(mAddress))
+                    .append(",\"name\":").append(JSONObject.quote(mName))
+                    .append(",\"result\":\"").append(mError == null ? "ok" : "failed")
+                    .append("\",\"tookUs\":").append(mTookMicros);
+            if (mError != null) builder.append(",\"error\":").append(JSONObject.quote(mError));
+            builder.append('}');
+        }
+
+        @Override
+        public String toString() {
+            return mAddress + (mError == null ? " ok" : " " + mError) + " in " + mTookMicros + "us";
+        }
+    }
+}
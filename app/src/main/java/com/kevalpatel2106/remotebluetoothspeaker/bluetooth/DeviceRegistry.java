@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory registry of the A2DP sink devices. It is updated only from the profile and adapter
+ * broadcasts. The proxy is asked for the connected devices once, when it connects, to reconcile
+ * the devices that connected before the receivers were registered.
+ * <p>
+ * Writes copy the map and publish the new copy. Reads just take the current copy, so they never
+ * lock and never go over binder.
+ */
+
+final class DeviceRegistry {
+
+    /**
+     * Address to the entry. Never modified after it is published.
+     */
+    @NonNull
+    private volatile Map<String, Entry> mEntries = Collections.emptyMap();
+
+    /**
+     * Update the connection state of the device.
+     *
+     * @param device Remote device.
+     * @param state  New state. One of the {@code BluetoothProfile.STATE_*}.
+     * @return True if the entry changed.
+     */
+    synchronized boolean onStateChanged(@NonNull BluetoothDevice device, int state) {
+        Entry previous = mEntries.get(device.getAddress());
+        if (previous != null && previous.mState == state) return false;
+
+        Map<String, Entry> entries = new LinkedHashMap<>(mEntries);
+        if (state == BluetoothProfile.STATE_DISCONNECTED) {
+            entries.remove(device.getAddress());
+        } else {
+            boolean playing = state == BluetoothProfile.STATE_CONNECTED && previous != null && previous.mIsPlaying;
+            entries.put(device.getAddress(), new Entry(device, state, playing));
+        }
+        mEntries = Collections.unmodifiableMap(entries);
+        return true;
+    }
+
+    /**
+     * Update the playing state of the device. Only the known devices are updated, since the
+     * playing state of the device that is not connected means nothing.
+     *
+     * @param device  Remote device.
+     * @param playing True if the device is streaming the audio.
+     * @return True if the entry changed.
+     */
+    synchronized boolean onPlayingChanged(@NonNull BluetoothDevice device, boolean playing) {
+        Entry previous = mEntries.get(device.getAddress());
+        if (previous == null || previous.mIsPlaying == playing) return false;
+
+        Map<String, Entry> entries = new LinkedHashMap<>(mEntries);
+        entries.put(device.getAddress(), new Entry(previous.mDevice, previous.mState, playing));
+        mEntries = Collections.unmodifiableMap(entries);
+        return true;
+    }
+
+    /**
+     * Replace all the entries with the devices reported by the proxy.
+     *
+     * @param connectedDevices Devices connected according to the proxy.
+     */
+    synchronized void reconcile(@NonNull List<BluetoothDevice> connectedDevices) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (BluetoothDevice device : connectedDevices) {
+            Entry previous = mEntries.get(device.getAddress());
+            entries.put(device.getAddress(), previous != null && previous.mState == BluetoothProfile.STATE_CONNECTED
+                    ? previous
+                    : new Entry(device, BluetoothProfile.STATE_CONNECTED, false));
+        }
+        mEntries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Remove all the devices. Call this when the adapter is not on.
+     */
+    synchronized void clear() {
+        mEntries = Collections.emptyMap();
+    }
+
+    /**
+     * @return All the devices in {@link BluetoothProfile#STATE_CONNECTED}. Lock free.
+     */
+    @NonNull
+    List<Entry> getConnected() {
+        List<Entry> connected = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.mState == BluetoothProfile.STATE_CONNECTED) connected.add(entry);
+        }
+        return connected;
+    }
+
+    /**
+     * Single immutable device entry.
+     */
+    static final class Entry {
+        @NonNull
+        private final BluetoothDevice mDevice;
+        @NonNull
+        private final String mName;
+        private final int mState;
+        private final boolean mIsPlaying;
+
+        private Entry(@NonNull BluetoothDevice device, int state, boolean playing) {
+            mDevice = device;
+            mName = Objects.toString(device.getName(), "");
+            mState = state;
+            mIsPlaying = playing;
+        }
+
+        @NonNull
+        BluetoothDevice getDevice() {
+            return mDevice;
+        }
+
+        @NonNull
+        String getName() {
+            return mName;
+        }
+
+        /**
+         * @return Connection state. One of the {@code BluetoothProfile.STATE_*}.
+         */
+        int getState() {
+            return mState;
+        }
+
+        /**
+         * @return True if the device is streaming the audio.
+         */
+        boolean isPlaying() {
+            return mIsPlaying;
+        }
+
+        @NonNull
+        SpeakerState.Device toStateDevice() {
+            return new SpeakerState.Device(mName, mDevice.getAddress(), mIsPlaying);
+        }
+    }
+}
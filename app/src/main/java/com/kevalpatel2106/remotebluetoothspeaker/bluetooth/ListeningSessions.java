@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics of the listening sessions, built from the A2DP sink playing state broadcasts.
+ * <p>
+ * The session of a device starts when it starts playing. Pauses shorter than
+ * {@link #SESSION_GAP_MS} are part of the same session, like skipping to the next song. The
+ * session ends after the longer pause or when the device disconnects. The time the device was
+ * actually streaming in the session, the plays and the pauses are logged and recorded in the
+ * {@link Metrics}.
+ * <p>
+ * Not thread safe. Call it only on the thread of the handler.
+ */
+
+final class ListeningSessions {
+    private static final Logger LOG = Logger.get(ListeningSessions.class);
+
+    /**
+     * Longest pause within the same session.
+     */
+    static final long SESSION_GAP_MS = 5 * 60 * 1000;
+
+    @NonNull
+    private final Handler mHandler;
+
+    /**
+     * Open sessions by the address of the device.
+     */
+    private final Map<String, Session> mSessions = new HashMap<>();
+
+    /**
+     * @param handler Handler of the thread that reports the playing states. Ends the paused
+     *                sessions.
+     */
+    ListeningSessions(@NonNull Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Update the session of the device with its new playing state.
+     *
+     * @param address Address of the device.
+     * @param playing True if the device started streaming the audio.
+     */
+    void onPlayingChanged(@NonNull String address, boolean playing) {
+        long now = SystemClock.elapsedRealtime();
+        Session session = mSessions.get(address);
+
+        if (playing) {
+            if (session == null) {
+                session = new Session(address, now);
+                mSessions.put(address, session);
+            }
+            session.play(now);
+        } else if (session != null) {
+            session.pause(now);
+        }
+    }
+
+    /**
+     * End the session of the device, if it has one. Call this when the device disconnects.
+     *
+     * @param address Address of the device.
+     */
+    void onDisconnected(@NonNull String address) {
+        Session session = mSessions.get(address);
+        if (session != null) end(session, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * End all the open sessions. Call this when the adapter turns off or the service stops.
+     */
+    void endAll() {
+        long now = SystemClock.elapsedRealtime();
+        for (Session session : new ArrayList<>(mSessions.values())) end(session, now);
+    }
+
+    private void end(@NonNull Session session, long now) {
+        session.stopListening(now);
+        mHandler.removeCallbacks(session.mEnd);
+        mSessions.remove(session.mAddress);
+
+        Metrics.LISTENING_SESSION.record(session.mListenedMs);
+        LOG.atDebug("end: Session of {} listened {}ms in {}ms with {} plays and {} pauses.")
+                .arg(session.mAddress)
+                .arg(session.mListenedMs)
+                .arg(session.mLastPausedAt - session.mStartedAt)
+                .arg(session.mPlays)
+                .arg(session.mPauses)
+                .log();
+    }
+
+    /**
+     * Single listening session of the device. Times in {@link SystemClock#elapsedRealtime()}.
+     */
+    private final class Session {
+        @NonNull
+        private final String mAddress;
+        private final long mStartedAt;
+
+        /**
+         * Time when the device started playing or 0 if it is paused.
+         */
+        private long mPlayingSince = 0;
+        private long mLastPausedAt = 0;
+        private long mListenedMs = 0;
+        private int mPlays = 0;
+        private int mPauses = 0;
+
+        private final Runnable mEnd = new Runnable() {
+            @Override
+            public void run() {
+                end(Session.this, SystemClock.elapsedRealtime());
+            }
+        };
+
+        private Session(@NonNull String address, long startedAt) {
+            mAddress = address;
+            mStartedAt = startedAt;
+        }
+
+        private void play(long now) {
+            mHandler.removeCallbacks(mEnd);
+            if (mPlayingSince != 0) return;
+
+            mPlayingSince = now;
+            mPlays++;
+            Metrics.PLAYBACK_STARTED.inc();
+        }
+
+        private void pause(long now) {
+            if (!stopListening(now)) return;
+
+            mPauses++;
+            Metrics.PLAYBACK_PAUSED.inc();
+            mHandler.postDelayed(mEnd, SESSION_GAP_MS);
+        }
+
+        /**
+         * Add the time since the device started playing to the session. Not a pause by itself,
+         * since the session may be ending because the device disconnected.
+         *
+         * @return True if the device was playing.
+         */
+        private boolean stopListening(long now) {
+            if (mPlayingSince == 0) return false;
+
+            long listened = now - mPlayingSince;
+            mListenedMs += listened;
+            Metrics.LISTENED_MILLIS.add(listened);
+            mPlayingSince = 0;
+            mLastPausedAt = now;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small persistent list of the devices that connected recently, so they can be reconnected
+ * after the reboot. Every device has the time it last connected and how many of the reconnect
+ * attempts to it worked.
+ * <p>
+ * The list is saved to a JSON file on every change. It is written to a temp file first and then
+ * moved in place, so a power cut never leaves a half written file.
+ * <p>
+ * This class is not thread safe. It is used only on the thread of the {@link AutoReconnect}.
+ */
+
+final class RecentDevices {
+    private static final Logger LOG = Logger.get(RecentDevices.class);
+
+    /**
+     * Most devices remembered. The lowest ranked one is forgotten first.
+     */
+    static final int MAX_DEVICES = 8;
+
+    /**
+     * Age after which the rank of the device is halved.
+     */
+    private static final long HALF_LIFE_MS = TimeUnit.DAYS.toMillis(7);
+
+    @NonNull
+    private final File mFile;
+
+    /**
+     * Address to the record.
+     */
+    private final Map<String, Record> mRecords = new LinkedHashMap<>();
+
+    /**
+     * Load the records from the file. This reads the disk.
+     *
+     * @param file File to keep the records in.
+     */
+    RecentDevices(@NonNull File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * Remember the device that just connected.
+     */
+    void onConnected(@NonNull String address, @NonNull String name, long now) {
+        Record record = mRecords.get(address);
+        if (record == null) {
+            record = new Record(address);
+            mRecords.put(address, record);
+        }
+        if (!name.isEmpty()) record.mName = name;
+        record.mLastConnectedAt = now;
+
+        if (mRecords.size() > MAX_DEVICES) {
+            List<Record> ranked = getRanked(now);
+            for (int i = ranked.size() - 1; i >= 0 && mRecords.size() > MAX_DEVICES; i--) {
+                if (!ranked.get(i).mAddress.equals(address)) mRecords.remove(ranked.get(i).mAddress);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Count the reconnect attempt.
+     *
+     * @param connected True if the device connected.
+     */
+    void onAttempt(@NonNull String address, boolean connected) {
+        Record record = mRecords.get(address);
+        if (record == null) return;
+
+        record.mAttempts++;
+        if (connected) record.mSuccesses++;
+        save();
+    }
+
+    /**
+     * Forget the device. Call this once it is not paired anymore.
+     */
+    void remove(@NonNull String address) {
+        if (mRecords.remove(address) != null) save();
+    }
+
+    /**
+     * Forget all the devices.
+     */
+    void clear() {
+        mRecords.clear();
+        save();
+    }
+
+    /**
+     * @param now Current time in milliseconds since epoch.
+     * @return All the devices, the one most likely to reconnect first.
+     */
+    @NonNull
+    List<Record> getRanked(final long now) {
+        List<Record> ranked = new ArrayList<>(mRecords.values());
+        Collections.sort(ranked, new Comparator<Record>() {
+            @Override
+            public int compare(Record first, Record second) {
+                return Double.compare(second.getScore(now), first.getScore(now));
+            }
+        });
+        return ranked;
+    }
+
+    private void load() {
+        if (!mFile.exists()) return;
+
+        try {
+            JSONArray array = new JSONArray(new String(read(mFile), "UTF-8"));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.getJSONObject(i);
+                Record record = new Record(item.getString("address"));
+                record.mName = item.optString("name", "");
+                record.mLastConnectedAt = item.getLong("lastConnectedAt");
+                record.mAttempts = item.optInt("attempts");
+                record.mSuccesses = item.optInt("successes");
+                mRecords.put(record.mAddress, record);
+            }
+        } catch (IOException | JSONException e) {
+            LOG.w("load: Corrupt {}. Starting empty.", mFile, e);
+            mRecords.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            JSONArray array = new JSONArray();
+            for (Record record : mRecords.values()) {
+                array.put(new JSONObject()
+                        .put("address", record.mAddress)
+                        .put("name", record.mName)
+                        .put("lastConnectedAt", record.mLastConnectedAt)
+                        .put("attempts", record.mAttempts)
+                        .put("successes", record.mSuccesses));
+            }
+
+            File temp = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(array.toString().getBytes("UTF-8"));
+                out.getFD().sync();     //Else the rename may reach the disk before the data.
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mFile)) LOG.w("save: Cannot move {} in place.", temp);
+        } catch (IOException | JSONException e) {
+            LOG.w("save: Cannot write {}", mFile, e);
+        }
+    }
+
+    @NonNull
+    private static byte[] read(@NonNull File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) throw new IOException("Unexpected end of " + file);
+                read += count;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Remembered device.
+     */
+    static final class Record {
+        @NonNull
+        private final String mAddress;
+        @NonNull
+        private String mName = "";
+        private long mLastConnectedAt;
+        private int mAttempts;
+        private int mSuccesses;
+
+        private Record(@NonNull String address) {
+            mAddress = address;
+        }
+
+        @NonNull
+        String getAddress() {
+            return mAddress;
+        }
+
+        @NonNull
+        String getName() {
+            return mName;
+        }
+
+        /**
+         * @return Share of the reconnect attempts that worked. Devices never tried count as half.
+         */
+        double getSuccessRate() {
+            return (mSuccesses + 1.0) / (mAttempts + 2.0);
+        }
+
+        /**
+         * @return Rank of the device. The success rate, halved for every {@link #HALF_LIFE_MS}
+         * since the device last connected.
+         */
+        double getScore(long now) {
+            double age = Math.max(0, now - mLastConnectedAt);
+            return getSuccessRate() * Math.pow(0.5, age / HALF_LIFE_MS);
+        }
+
+        @Override
+        public String toString() {
+            return mName + " (" + mAddress + ", " + mSuccesses + "/" + mAttempts + ")";
+        }
+    }
+}
@@ -0,0 +1,680 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+import com.kevalpatel2106.remotebluetoothspeaker.Startup;
+import com.kevalpatel2106.remotebluetoothspeaker.StartupStage;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SinkProxy;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SpeakerAdapter;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SpeakerAudio;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+import com.kevalpatel2106.remotebluetoothspeaker.scheduler.CommandScheduler;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+import com.kevalpatel2106.remotebluetoothspeaker.tts.Phrases;
+import com.kevalpatel2106.remotebluetoothspeaker.tts.TTS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the speaker: executes the commands and keeps the {@link SpeakerStateStore} up to date
+ * with the adapter, the connected devices and the volume.
+ * <p>
+ * It only talks to the {@link SpeakerAdapter} and the {@link SpeakerAudio}, not to the Android
+ * framework, so the same code runs in the {@link BluetoothA2DPService} on the device and on a
+ * plain JVM with the simulated hardware.
+ * <p>
+ * The events and the coalescing run on the thread of the main handler. The commands run on the
+ * {@link CommandExecutor} thread. The {@link CommandScheduler} sends the scheduled commands back
+ * through the {@link CommandBus}.
+ */
+
+public final class SpeakerController implements CommandCoalescer.Target, SpeakerAdapter.Listener {
+    private static final Logger LOG = Logger.get(SpeakerController.class);
+    private static final String ADAPTER_FRIENDLY_NAME = "JarvisBT";
+
+    private static final int DISCOVERABLE_TIMEOUT_SEC = 60;
+
+    /**
+     * Longest wait for the main thread to turn off the adapter.
+     */
+    private static final long TURN_OFF_WAIT_MS = 5000;
+    private static final String RECENT_DEVICES_FILE = "recent_devices.json";
+    private static final String SCHEDULES_FILE = "schedules.json";
+
+    //Names of the metrics exposed by the controller
+    private static final String METRIC_QUEUE_DEPTH = "speaker_command_queue_depth";
+    private static final String METRIC_MAX_QUEUE_DEPTH = "speaker_command_queue_max_depth";
+    private static final String METRIC_EXECUTED = "speaker_command_bursts_executed_total";
+    private static final String METRIC_EXPIRED = "speaker_command_bursts_expired_total";
+    private static final String METRIC_TIMED_OUT = "speaker_command_bursts_timed_out_total";
+
+    @NonNull
+    private final Context mContext;
+    @NonNull
+    private final SpeakerAdapter mAdapter;
+    @NonNull
+    private final SpeakerAudio mAudio;
+    @NonNull
+    private final Handler mMainHandler;
+
+    private final SpeakerStateStore mStateStore = SpeakerStateStore.getInstance();
+    private final DeviceRegistry mDeviceRegistry = new DeviceRegistry();
+    @NonNull
+    private final CommandCoalescer mCoalescer;
+    @NonNull
+    private final CommandExecutor mExecutor;
+    @NonNull
+    private final ListeningSessions mListeningSessions;
+    @NonNull
+    private final AutoReconnect mAutoReconnect;
+    @NonNull
+    private final CommandScheduler mScheduler;
+
+    /**
+     * Bound A2DP sink proxy or null. Written only on the main thread, read on the
+     * {@link CommandExecutor} too.
+     */
+    private volatile SinkProxy mSinkProxy;
+
+    /**
+     * True once the proxy is requested until it is closed or disconnected. Accessed only on the
+     * main thread.
+     */
+    private boolean mIsProxyRequested = false;
+
+    /**
+     * Time when the adapter started turning on or off in {@link SystemClock#elapsedRealtime()}
+     * or 0 if it is not changing its state. Accessed only on the main thread.
+     */
+    private long mAdapterTransitionStartedAt = 0;
+
+    /**
+     * @param context     Context to speak the announcements with.
+     * @param adapter     {@link SpeakerAdapter} to control.
+     * @param audio       {@link SpeakerAudio} to change the volume of.
+     * @param mainHandler Handler of the thread that receives the adapter events.
+     * @param filesDir    Directory to keep the recent devices and the schedules in.
+     */
+    public SpeakerController(@NonNull Context context,
+                             @NonNull SpeakerAdapter adapter,
+                             @NonNull SpeakerAudio audio,
+                             @NonNull Handler mainHandler,
+                             @NonNull File filesDir) {
+        mContext = context;
+        mAdapter = adapter;
+        mAudio = audio;
+        mMainHandler = mainHandler;
+        mCoalescer = new CommandCoalescer(mMainHandler, this);
+        mExecutor = new CommandExecutor(mMainHandler);
+        mListeningSessions = new ListeningSessions(mMainHandler);
+        mAutoReconnect = new AutoReconnect(adapter, new File(filesDir, RECENT_DEVICES_FILE));
+        mScheduler = new CommandScheduler(context, new File(filesDir, SCHEDULES_FILE));
+    }
+
+    /**
+     * Start receiving the events, seed the state and turn on the bluetooth. Call this on the
+     * main thread.
+     */
+    public void start() {
+        registerGauges();
+
+        //Register the listener
+        mAdapter.setListener(this);
+
+        //Seed the state. It is kept up to date by the events from now on.
+        mStateStore.setAdapterState(mAdapter.getState());
+        Startup.setReady(StartupStage.ADAPTER, mAdapter.getState() == BluetoothAdapter.STATE_ON);
+        mStateStore.setDiscoverable(mAdapter.getScanMode() == BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE);
+        mStateStore.setVolume(mAudio.getVolume(), mAudio.getMaxVolume());
+
+        //Set initial state. If the adapter is off, the proxy is bound once it turns on.
+        turnOnIfNot();
+        if (mAdapter.isEnabled()) initA2DPSink();
+
+        mScheduler.start();
+    }
+
+    /**
+     * Release all the resources. Commands that did not run yet are dropped. Call this on the
+     * main thread after it stops receiving the commands.
+     */
+    public void stop() {
+        mScheduler.quit();
+        mCoalescer.flush();     //Dropped by the shutdown, so the commands free their slots.
+        mExecutor.shutdown();
+        unregisterGauges();
+
+        mAdapter.setListener(null);
+        mListeningSessions.endAll();
+
+        turnOffOnMain();
+        mAutoReconnect.quit();
+    }
+
+    private void registerGauges() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge(METRIC_QUEUE_DEPTH, "Commands waiting to be executed.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mExecutor.getQueueDepth();
+            }
+        });
+        registry.gauge(METRIC_MAX_QUEUE_DEPTH, "Most commands ever waiting to be executed.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mExecutor.getMaxQueueDepth();
+            }
+        });
+        registry.counter(METRIC_EXECUTED, "Command bursts executed.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mExecutor.getExecutedCount();
+            }
+        });
+        registry.counter(METRIC_EXPIRED, "Command bursts dropped because they waited too long.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mExecutor.getExpiredCount();
+            }
+        });
+        registry.counter(METRIC_TIMED_OUT, "Command bursts that ran longer than their timeout.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mExecutor.getTimedOutCount();
+            }
+        });
+    }
+
+    private void unregisterGauges() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.remove(METRIC_QUEUE_DEPTH);
+        registry.remove(METRIC_MAX_QUEUE_DEPTH);
+        registry.remove(METRIC_EXECUTED);
+        registry.remove(METRIC_EXPIRED);
+        registry.remove(METRIC_TIMED_OUT);
+    }
+
+    /**
+     * Handle the change in connection state of the A2DP sink profile. You can use it to indicate
+     * that there's a device connected.
+     */
+    @Override
+    public void onSinkStateChanged(@NonNull BluetoothDevice device, int state) {
+        String deviceName = Objects.toString(device.getName(), "a device");
+        if (state == BluetoothProfile.STATE_CONNECTED) {
+            TTS.speak(mContext, Phrases.CONNECTED_TO, deviceName);
+        } else if (state == BluetoothProfile.STATE_DISCONNECTED) {
+            TTS.speak(mContext, Phrases.DISCONNECTED_FROM, deviceName);
+            mListeningSessions.onDisconnected(device.getAddress());
+        }
+
+        if (mDeviceRegistry.onStateChanged(device, state)) publishDevices();
+        mAutoReconnect.onStateChanged(device, state);
+    }
+
+    /**
+     * Handle the connected device starting or stopping the audio. The state is cached in the
+     * {@link DeviceRegistry}, so nothing has to ask the proxy whether the music is playing.
+     */
+    @Override
+    public void onSinkPlayingChanged(@NonNull BluetoothDevice device, boolean playing) {
+        LOG.d("Playing state of {}: {}", device.getAddress(), playing);
+        if (mDeviceRegistry.onPlayingChanged(device, playing)) {
+            mListeningSessions.onPlayingChanged(device.getAddress(), playing);
+            publishDevices();
+        }
+    }
+
+    /**
+     * Handle the change of the adapter state (after calling enable(), for example). You can use
+     * it to indicate that the device is ready to go.
+     */
+    @Override
+    public void onAdapterStateChanged(int state) {
+        recordAdapterTransition(state);
+        if (state != BluetoothAdapter.STATE_ON) {
+            mDeviceRegistry.clear();
+            mListeningSessions.endAll();
+        }
+        mStateStore.setAdapterState(state);
+        Startup.setReady(StartupStage.ADAPTER, state == BluetoothAdapter.STATE_ON);
+
+        //The proxy can only be bound once the adapter is on.
+        if (state == BluetoothAdapter.STATE_ON && !mIsProxyRequested) initA2DPSink();
+    }
+
+    /**
+     * Handle the change of the scan mode. You can use it to know when the adapter is
+     * discoverable.
+     */
+    @Override
+    public void onScanModeChanged(int scanMode) {
+        mStateStore.setDiscoverable(scanMode == BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE);
+    }
+
+    /**
+     * Record the time the adapter took to turn on or off.
+     *
+     * @param state New state of the adapter.
+     */
+    private void recordAdapterTransition(int state) {
+        switch (state) {
+            case BluetoothAdapter.STATE_TURNING_ON:
+            case BluetoothAdapter.STATE_TURNING_OFF:
+                mAdapterTransitionStartedAt = SystemClock.elapsedRealtime();
+                break;
+            case BluetoothAdapter.STATE_ON:
+            case BluetoothAdapter.STATE_OFF:
+                if (mAdapterTransitionStartedAt != 0) {
+                    long took = SystemClock.elapsedRealtime() - mAdapterTransitionStartedAt;
+                    if (state == BluetoothAdapter.STATE_ON) {
+                        Metrics.ADAPTER_TURN_ON.record(took);
+                    } else {
+                        Metrics.ADAPTER_TURN_OFF.record(took);
+                    }
+                    mAdapterTransitionStartedAt = 0;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Coalesce the command on the main thread. Call this on the main thread.
+     *
+     * @param command    {@link Command} to execute.
+     * @param receivedAt Time when the command was received in {@link SystemClock#elapsedRealtimeNanos()}.
+     * @param latency    Latency of the path the command came from.
+     * @param traceId    {@link Tracer} id of the command or 0.
+     */
+    void offer(@NonNull Command command, long receivedAt, @NonNull CommandBus.Latency latency, long traceId) {
+        mCoalescer.offer(command, receivedAt, latency, traceId);
+    }
+
+    /**
+     * Queue the command received directly from the {@link CommandBus}. It is coalesced on the
+     * main thread and then executed on the {@link CommandExecutor} with the rest of its burst.
+     *
+     * @param command    {@link Command} to execute.
+     * @param receivedAt Time when the command was received in {@link SystemClock#elapsedRealtimeNanos()}.
+     * @param traceId    {@link Tracer} id of the command or 0.
+     */
+    void post(@NonNull final Command command, final long receivedAt, final long traceId) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Tracer.record("bus.direct", traceId, receivedAt);
+                mCoalescer.offer(command, receivedAt, CommandBus.DIRECT_LATENCY, traceId);
+            }
+        });
+    }
+
+    /**
+     * Queue the burst on the {@link CommandExecutor}. All the commands of the burst run in order
+     * and the volume is changed once. Clients only receive the fields that changed.
+     *
+     * @param burst {@link CommandCoalescer.Burst} to execute.
+     */
+    @Override
+    public void executeBurst(@NonNull final CommandCoalescer.Burst burst) {
+        final long traceId = burst.getTraceId();
+        final long submittedAt = Tracer.now();
+        mExecutor.submit(burst.toString(), burst.getPriority(), burst.getTimeoutMs(), new Runnable() {
+            @Override
+            public void run() {
+                Tracer.record("executor.queue", traceId, submittedAt);
+                Tracer.setCurrent(traceId);
+                try {
+                    for (Command command : burst.getCommands()) {
+                        long startedAt = Tracer.now();
+                        execute(command);
+                        Tracer.record(command.getName(), traceId, startedAt);
+                    }
+                    if (burst.getVolumeDelta() != 0) {
+                        long startedAt = Tracer.now();
+                        adjustVolume(burst.getVolumeDelta());
+                        Tracer.record("adjust_volume", traceId, startedAt);
+                    }
+                } finally {
+                    Tracer.setCurrent(0);
+                    CommandBus.release(burst.getReceivedCount());
+                }
+
+                burst.recordLatency();
+                LOG.atDebug("executeBurst: {}. Average latency {}us direct vs {}us via intent. Queue depth {} (max {}).")
+                        .arg(burst)
+                        .arg(CommandBus.DIRECT_LATENCY.getAverageMicros())
+                        .arg(CommandBus.INTENT_LATENCY.getAverageMicros())
+                        .arg(mExecutor.getQueueDepth())
+                        .arg(mExecutor.getMaxQueueDepth())
+                        .log();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                CommandBus.release(burst.getReceivedCount());
+            }
+        });
+        if (burst.isBarrier()) mExecutor.barrier();
+    }
+
+    /**
+     * Queue the batch on the {@link CommandExecutor} after the commands received before it. All
+     * the steps run in order as one task and the state is published once at the end.
+     *
+     * @param batch {@link CommandBatch} to execute.
+     */
+    void executeBatch(@NonNull final CommandBatch batch) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Tracer.record("bus.direct", batch.getTraceId(), batch.getReceivedAt());
+
+                //Commands received before the batch must not run after it, whatever the priority.
+                mCoalescer.flush();
+                mExecutor.barrier();
+                final long submittedAt = Tracer.now();
+                mExecutor.submit(batch.toString(), batch.getPriority(), batch.getTimeoutMs(), new Runnable() {
+                    @Override
+                    public void run() {
+                        Tracer.record("executor.queue", batch.getTraceId(), submittedAt);
+                        runBatch(batch);
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        batch.onExpired();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Run all the steps of the batch. Runs on the executor thread.
+     */
+    private void runBatch(@NonNull CommandBatch batch) {
+        Tracer.setCurrent(batch.getTraceId());
+        mStateStore.beginBatch();
+        long version;
+        try {
+            batch.onStarted();
+            for (CommandBatch.Step step : batch.getSteps()) {
+                if (!step.isPending()) continue;
+
+                long startedAt = SystemClock.elapsedRealtimeNanos();
+                try {
+                    Command command = step.getCommand();
+                    DeviceBatch.Result devices = null;
+                    if (command != null) {
+                        devices = execute(command);
+                        Metrics.commandLatency(command).record((SystemClock.elapsedRealtimeNanos()
+                                - batch.getReceivedAt()) / 1000);
+                    } else {
+                        setVolume(step.getValue());
+                    }
+                    step.onDone(startedAt, devices);
+                } catch (RuntimeException e) {
+                    LOG.e("runBatch: {} failed.", step.getName(), e);
+                    step.onFailed(startedAt, e);
+                }
+                Tracer.record(step.getName(), batch.getTraceId(), startedAt);
+            }
+        } finally {
+            version = mStateStore.endBatch();
+            Tracer.setCurrent(0);
+        }
+        batch.onFinished(version);
+        LOG.atDebug("runBatch: {} took {}us after {}us in the queue.")
+                .arg(batch).arg(batch.getTookMicros()).arg(batch.getQueuedMicros()).log();
+    }
+
+    /**
+     * Handle the command.
+     *
+     * @param command {@link Command} to execute.
+     * @return Outcome of every device for the commands that run on all the devices or null.
+     */
+    @Nullable
+    private DeviceBatch.Result execute(@NonNull Command command) {
+        switch (command) {
+            case TURN_ON:    //Turn on BT
+                turnOnIfNot();
+                break;
+            case TURN_OFF:   //Turn off BT
+                turnOffIfNot();
+                break;
+            case DISCONNECT_ALL:    //Disconnect all devices.
+                return disconnectConnectedDevices();
+            case UNPAIR_ALL:
+                return unpairAllDevices();
+            case MAKE_DISCOVERABLE:
+                turnOnIfNot();
+                enableDiscoverable();
+                break;
+            case VOLUME_DOWN:
+                adjustVolume(-1);
+                break;
+            case VOLUME_UP:
+                adjustVolume(1);
+                break;
+        }
+        return null;
+    }
+
+    /**
+     * Bind the A2DP sink proxy.
+     */
+    private void initA2DPSink() {
+        if (!mAdapter.isEnabled()) {
+            LOG.e("Bluetooth adapter not enabled.");
+            return;
+        }
+
+        mAdapter.setName(ADAPTER_FRIENDLY_NAME);   //Set the name of the bluetooth adapter
+        Startup.onStarted(StartupStage.A2DP);
+        mIsProxyRequested = mAdapter.openSinkProxy(new SpeakerAdapter.ProxyListener() {
+
+            @Override
+            public void onProxyConnected(@NonNull SinkProxy proxy) {
+                mSinkProxy = proxy;
+                Startup.setReady(StartupStage.A2DP, true);
+
+                //Devices may have connected before the proxy was bound. This is the only time
+                //the device list is read over binder. The events keep it up to date after this.
+                mDeviceRegistry.reconcile(proxy.getConnectedDevices());
+                publishDevices();
+
+                //Bring back the sources that were connected before the reboot.
+                mAutoReconnect.start(proxy);
+            }
+
+            @Override
+            public void onProxyDisconnected() {
+                mAutoReconnect.cancel();
+                mSinkProxy = null;
+                mIsProxyRequested = false;
+                Startup.setReady(StartupStage.A2DP, false);
+            }
+        });
+    }
+
+    /**
+     * Close the A2DP sink proxy if it is requested. Call this on the main thread.
+     */
+    private void closeA2DPSink() {
+        if (mIsProxyRequested) mAdapter.closeSinkProxy(mSinkProxy);
+        mSinkProxy = null;
+        mIsProxyRequested = false;
+        Startup.setReady(StartupStage.A2DP, false);
+    }
+
+    /**
+     * Make the adapter discoverable (available for pairing) for the next
+     * {@link #DISCOVERABLE_TIMEOUT_SEC} seconds.
+     */
+    private void enableDiscoverable() {
+        mAdapter.requestDiscoverable(DISCOVERABLE_TIMEOUT_SEC);
+        TTS.speak(mContext, Phrases.DISCOVERABLE);
+    }
+
+    /**
+     * Disconnect all the connected devices.
+     */
+    @Nullable
+    private DeviceBatch.Result disconnectConnectedDevices() {
+        final SinkProxy proxy = mSinkProxy;
+        if (proxy == null || !mAdapter.isEnabled()) {
+            LOG.d("disconnectConnectedDevices: No proxy or the adapter is off.");
+            return null;
+        }
+        mAutoReconnect.cancel();    //Don't bring them back.
+
+        List<BluetoothDevice> devices = new ArrayList<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getConnected()) devices.add(entry.getDevice());
+        DeviceBatch.Result result = DeviceBatch.run("disconnect", devices,
+                Command.DISCONNECT_ALL.getTimeoutMs(), new DeviceBatch.Operation() {
+                    @Override
+                    public boolean run(@NonNull BluetoothDevice device) {
+                        return proxy.disconnect(device);
+                    }
+                });
+        Metrics.DEVICE_BATCH_DISCONNECT.record(result.getTookMicros());
+        return result;
+    }
+
+    /**
+     * Unpair all the paired devices, not only the connected ones.
+     */
+    @Nullable
+    private DeviceBatch.Result unpairAllDevices() {
+        LOG.d("unpairAllDevices: ");
+        if (!mAdapter.isEnabled()) return null;
+        mAutoReconnect.forgetAll();
+
+        DeviceBatch.Result result = DeviceBatch.run("unpair", mAdapter.getBondedDevices(),
+                Command.UNPAIR_ALL.getTimeoutMs(), new DeviceBatch.Operation() {
+                    @Override
+                    public boolean run(@NonNull BluetoothDevice device) {
+                        return mAdapter.removeBond(device);
+                    }
+                });
+        Metrics.DEVICE_BATCH_UNPAIR.record(result.getTookMicros());
+        TTS.speak(mContext, Phrases.UNPAIRED);
+        return result;
+    }
+
+    /**
+     * Turn on the bluetooth if it is not enabled already.
+     */
+    private void turnOnIfNot() {
+        if (!mAdapter.isEnabled()) {
+            mAdapter.enable();
+
+            TTS.speak(mContext, Phrases.BLUETOOTH_ON, TTS.Priority.HIGH);
+        }
+    }
+
+    /**
+     * Turn off bluetooth if bluetooth is enabled. Call this on the executor thread. It waits for
+     * the main thread, so the next command already sees the adapter going down.
+     */
+    private void turnOffIfNot() {
+        if (!mAdapter.isEnabled()) return;
+
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                turnOffOnMain();
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(TURN_OFF_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                LOG.w("turnOffIfNot: Main thread did not turn off the adapter in {}ms.", TURN_OFF_WAIT_MS);
+            }
+        } catch (InterruptedException e) {
+            //Shutting down.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Close the proxy and turn off bluetooth if bluetooth is enabled. Call this on the main
+     * thread. The proxy is opened there, so it is closed there too, before the adapter goes down.
+     */
+    private void turnOffOnMain() {
+        if (mAdapter.isEnabled()) {
+            mAutoReconnect.cancel();
+            closeA2DPSink();
+            mAdapter.disable();
+
+            TTS.speak(mContext, Phrases.BLUETOOTH_OFF, TTS.Priority.HIGH);
+        }
+    }
+
+    /**
+     * Change the volume by the given points. The volume is clamped between 0 and the maximum
+     * volume of the stream.
+     *
+     * @param delta Points to add to the current volume. Negative to decrease.
+     */
+    private void adjustVolume(int delta) {
+        setVolume(mAudio.getVolume() + delta);
+    }
+
+    /**
+     * Set the volume. The volume is clamped between 0 and the maximum volume of the stream.
+     *
+     * @param volume New volume in points.
+     */
+    private void setVolume(int volume) {
+        int current = mAudio.getVolume();
+        int target = Math.max(0, Math.min(mAudio.getMaxVolume(), volume));
+        if (target == current) return;
+
+        mAudio.setVolume(target);
+        mStateStore.setVolume(target, mAudio.getMaxVolume());
+    }
+
+    /**
+     * Push the connected devices from the {@link DeviceRegistry} to the {@link SpeakerStateStore}.
+     */
+    private void publishDevices() {
+        List<SpeakerState.Device> devices = new ArrayList<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getConnected()) devices.add(entry.toStateDevice());
+        mStateStore.setDevices(devices);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.StartupStage;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable and versioned snapshot of the speaker. Use the {@code with*} methods to derive the
+ * new snapshot. They return the same instance if nothing changed, so the callers can skip the
+ * push with a reference check. The version is assigned by the {@link SpeakerStateStore} once per
+ * published change.
+ */
+
+public final class SpeakerState {
+    static final SpeakerState INITIAL = new SpeakerState(0, BluetoothAdapter.STATE_OFF,
+            Collections.<Device>emptyList(), 0, 0, false, false, 0);
+
+    private final long mVersion;
+    private final int mAdapterState;
+    @NonNull
+    private final List<Device> mDevices;
+    private final int mVolume;
+    private final int mMaxVolume;
+    private final boolean mIsDiscoverable;
+    private final boolean mIsPlaying;
+
+    /**
+     * Mask of the ready {@link StartupStage}s.
+     */
+    private final int mReady;
+
+    private SpeakerState(long version,
+                         int adapterState,
+                         @NonNull List<Device> devices,
+                         int volume,
+                         int maxVolume,
+                         boolean discoverable,
+                         boolean playing,
+                         int ready) {
+        mVersion = version;
+        mAdapterState = adapterState;
+        mDevices = devices;
+        mVolume = volume;
+        mMaxVolume = maxVolume;
+        mIsDiscoverable = discoverable;
+        mIsPlaying = playing;
+        mReady = ready;
+    }
+
+    /**
+     * @return Version of this snapshot. Increases by one with every published change.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return Current state of the adapter. One of the {@code BluetoothAdapter.STATE_*}.
+     */
+    public int getAdapterState() {
+        return mAdapterState;
+    }
+
+    /**
+     * @return Unmodifiable list of the connected devices.
+     */
+    @NonNull
+    public List<Device> getDevices() {
+        return mDevices;
+    }
+
+    public int getVolume() {
+        return mVolume;
+    }
+
+    public int getMaxVolume() {
+        return mMaxVolume;
+    }
+
+    public boolean isDiscoverable() {
+        return mIsDiscoverable;
+    }
+
+    /**
+     * @return True if any of the connected devices is streaming the audio. This is the cached
+     * state from the A2DP sink broadcasts, so it is cheap to check before speaking.
+     */
+    public boolean isPlaying() {
+        return mIsPlaying;
+    }
+
+    /**
+     * @return True if the {@link StartupStage} is up.
+     */
+    public boolean isReady(@NonNull StartupStage stage) {
+        return (mReady & stage.getMask()) != 0;
+    }
+
+    @NonNull
+    SpeakerState withVersion(long version) {
+        return new SpeakerState(version, mAdapterState, mDevices, mVolume, mMaxVolume,
+                mIsDiscoverable, mIsPlaying, mReady);
+    }
+
+    @NonNull
+    SpeakerState withAdapterState(int adapterState) {
+        if (adapterState == mAdapterState) return this;
+        return new SpeakerState(mVersion, adapterState, mDevices, mVolume, mMaxVolume,
+                mIsDiscoverable, mIsPlaying, mReady);
+    }
+
+    @NonNull
+    SpeakerState withDevices(@NonNull List<Device> devices) {
+        if (devices.equals(mDevices)) return this;
+        return new SpeakerState(mVersion, mAdapterState,
+                Collections.unmodifiableList(new ArrayList<>(devices)), mVolume, mMaxVolume,
+                mIsDiscoverable, mIsPlaying, mReady);
+    }
+
+    @NonNull
+    SpeakerState withVolume(int volume, int maxVolume) {
+        if (volume == mVolume && maxVolume == mMaxVolume) return this;
+        return new SpeakerState(mVersion, mAdapterState, mDevices, volume, maxVolume,
+                mIsDiscoverable, mIsPlaying, mReady);
+    }
+
+    @NonNull
+    SpeakerState withDiscoverable(boolean discoverable) {
+        if (discoverable == mIsDiscoverable) return this;
+        return new SpeakerState(mVersion, mAdapterState, mDevices, mVolume, mMaxVolume,
+                discoverable, mIsPlaying, mReady);
+    }
+
+    @NonNull
+    SpeakerState withPlaying(boolean playing) {
+        if (playing == mIsPlaying) return this;
+        return new SpeakerState(mVersion, mAdapterState, mDevices, mVolume, mMaxVolume,
+                mIsDiscoverable, playing, mReady);
+    }
+
+    @NonNull
+    SpeakerState withReady(@NonNull StartupStage stage, boolean ready) {
+        int mask = ready ? mReady | stage.getMask() : mReady & ~stage.getMask();
+        if (mask == mReady) return this;
+        return new SpeakerState(mVersion, mAdapterState, mDevices, mVolume, mMaxVolume,
+                mIsDiscoverable, mIsPlaying, mask);
+    }
+
+    /**
+     * @return True if all the fields except the version are the same as in the other snapshot.
+     */
+    boolean hasSameFields(@NonNull SpeakerState other) {
+        return mAdapterState == other.mAdapterState
+                && mDevices.equals(other.mDevices)
+                && mVolume == other.mVolume
+                && mMaxVolume == other.mMaxVolume
+                && mIsDiscoverable == other.mIsDiscoverable
+                && mIsPlaying == other.mIsPlaying
+                && mReady == other.mReady;
+    }
+
+    /**
+     * @param epoch Epoch of the versions, see {@link SpeakerStateStore#getEpoch()}.
+     * @return Full snapshot as JSON. Sent to the clients when they connect.
+     */
+    @NonNull
+    public String toJson(@NonNull String epoch) {
+        StringBuilder builder = new StringBuilder(128)
+                .append("{\"type\":\"state\",\"epoch\":\"").append(epoch)
+                .append("\",\"v\":").append(mVersion).append(",\"state\":{");
+        appendFields(builder, null);
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * @param base Older snapshot the client has.
+     * @return All the fields changed since the older snapshot as one JSON delta. Sent to the
+     * clients that resume.
+     */
+    @NonNull
+    String toResumeJson(@NonNull SpeakerState base) {
+        StringBuilder builder = new StringBuilder(64)
+                .append("{\"type\":\"resume\",\"from\":").append(base.mVersion)
+                .append(",\"v\":").append(mVersion).append(",\"delta\":{");
+        appendFields(builder, base);
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * @param previous Previous snapshot.
+     * @return Only the fields changed since the previous snapshot as JSON.
+     */
+    @NonNull
+    String toDeltaJson(@NonNull SpeakerState previous) {
+        StringBuilder builder = new StringBuilder(64)
+                .append("{\"type\":\"delta\",\"v\":").append(mVersion).append(",\"delta\":{");
+        appendFields(builder, previous);
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * Append the fields that are different from the previous snapshot or all the fields if the
+     * previous snapshot is null.
+     */
+    private void appendFields(@NonNull StringBuilder builder, @Nullable SpeakerState previous) {
+        int start = builder.length();
+        if (previous == null || previous.mAdapterState != mAdapterState) {
+            appendSeparator(builder, start).append("\"adapter\":\"").append(adapterStateName()).append('"');
+        }
+        if (previous == null || !previous.mDevices.equals(mDevices)) {
+            appendSeparator(builder, start).append("\"devices\":[");
+            for (int i = 0; i < mDevices.size(); i++) {
+                if (i > 0) builder.append(',');
+                mDevices.get(i).appendJson(builder);
+            }
+            builder.append(']');
+        }
+        if (previous == null || previous.mVolume != mVolume || previous.mMaxVolume != mMaxVolume) {
+            appendSeparator(builder, start).append("\"volume\":").append(mVolume)
+                    .append(",\"maxVolume\":").append(mMaxVolume);
+        }
+        if (previous == null || previous.mIsDiscoverable != mIsDiscoverable) {
+            appendSeparator(builder, start).append("\"discoverable\":").append(mIsDiscoverable);
+        }
+        if (previous == null || previous.mIsPlaying != mIsPlaying) {
+            appendSeparator(builder, start).append("\"playing\":").append(mIsPlaying);
+        }
+        if (previous == null || previous.mReady != mReady) {
+            appendSeparator(builder, start).append("\"ready\":{");
+            for (StartupStage stage : StartupStage.values()) {
+                if (stage.ordinal() > 0) builder.append(',');
+                builder.append('"').append(stage.getName()).append("\":").append(isReady(stage));
+            }
+            builder.append('}');
+        }
+    }
+
+    @NonNull
+    private static StringBuilder appendSeparator(@NonNull StringBuilder builder, int start) {
+        return builder.length() > start ? builder.append(',') : builder;
+    }
+
+    @NonNull
+    private String adapterStateName() {
+        switch (mAdapterState) {
+            case BluetoothAdapter.STATE_ON:
+                return "on";
+            case BluetoothAdapter.STATE_TURNING_ON:
+                return "turning_on";
+            case BluetoothAdapter.STATE_TURNING_OFF:
+                return "turning_off";
+            default:
+                return "off";
+        }
+    }
+
+    /**
+     * Connected bluetooth device.
+     */
+    public static final class Device {
+        @NonNull
+        private final String mName;
+        @NonNull
+        private final String mAddress;
+        private final boolean mIsPlaying;
+
+        Device(@NonNull String name, @NonNull String address, boolean playing) {
+            mName = name;
+            mAddress = address;
+            mIsPlaying = playing;
+        }
+
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        @NonNull
+        public String getAddress() {
+            return mAddress;
+        }
+
+        /**
+         * @return True if the device is streaming the audio.
+         */
+        public boolean isPlaying() {
+            return mIsPlaying;
+        }
+
+        private void appendJson(@NonNull StringBuilder builder) {
+            builder.append("{\"name\":").append(JSONObject.quote(mName))
+                    .append(",\"address\":").append(JSONObject.quote(mAddress))
+                    .append(",\"playing\":").append(mIsPlaying).append('}');
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Device device = (Device) o;
+            return mIsPlaying == device.mIsPlaying && mName.equals(device.mName)
+                    && mAddress.equals(device.mAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * mName.hashCode() + mAddress.hashCode()) + (mIsPlaying ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.StartupStage;
+import com.kevalpatel2106.remotebluetoothspeaker.events.SpeakerEvents;
+import com.kevalpatel2106.remotebluetoothspeaker.events.StatusEvent;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Holder of the current {@link SpeakerState}. The state is updated field by field from the
+ * broadcast receivers and the commands. Only the fields that actually changed are published on
+ * {@link SpeakerEvents#STATUS} as a JSON delta with the new version.
+ * <p>
+ * The last {@link #HISTORY_SIZE} versions are kept in a ring, so a client that reconnects can
+ * resume from the version it has with one delta instead of the full snapshot. Versions start
+ * from 0 in every process, so they are only comparable within the same {@link #getEpoch()}.
+ * <p>
+ * While a {@link CommandBatch} runs, the changes are applied but not posted. They are posted as
+ * one delta with one new version when the batch ends.
+ */
+
+public final class SpeakerStateStore {
+    private static final SpeakerStateStore INSTANCE = new SpeakerStateStore();
+
+    /**
+     * Number of the versions kept for resuming.
+     */
+    static final int HISTORY_SIZE = 64;
+
+    @NonNull
+    private volatile SpeakerState mState = SpeakerState.INITIAL;
+
+    /**
+     * State before the running batch or null if no batch is running. Guarded by this.
+     */
+    @Nullable
+    private SpeakerState mBatchBase;
+
+    /**
+     * Published states by {@code version % HISTORY_SIZE}. Guarded by this.
+     */
+    private final SpeakerState[] mHistory = new SpeakerState[HISTORY_SIZE];
+
+    @NonNull
+    private final String mEpoch = Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36);
+
+    private SpeakerStateStore() {
+        mHistory[0] = mState;
+    }
+
+    @NonNull
+    public static SpeakerStateStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Current snapshot. Safe to call from any thread.
+     */
+    @NonNull
+    public SpeakerState getState() {
+        return mState;
+    }
+
+    /**
+     * @return Random id of this process. A client with a version from the other epoch needs the
+     * full snapshot.
+     */
+    @NonNull
+    public String getEpoch() {
+        return mEpoch;
+    }
+
+    /**
+     * @return Full snapshot frame of the last published state.
+     */
+    @NonNull
+    public synchronized String getSnapshotJson() {
+        return getPublished().toJson(mEpoch);
+    }
+
+    /**
+     * Build the frame to bring the client from its version to the current state.
+     *
+     * @param epoch   Epoch the client's version belongs to.
+     * @param version Last version the client has applied.
+     * @return Everything that changed since the version as one delta frame, or null if the
+     * version is too old or from the other epoch. Send the full snapshot then.
+     */
+    @Nullable
+    public synchronized String getResumeJson(@Nullable String epoch, long version) {
+        if (!mEpoch.equals(epoch)) return null;
+
+        SpeakerState current = getPublished();
+        if (version < 0 || version > current.getVersion()
+                || version <= current.getVersion() - HISTORY_SIZE) {
+            return null;
+        }
+
+        SpeakerState base = mHistory[(int) (version % HISTORY_SIZE)];
+        if (base == null || base.getVersion() != version) return null;
+        return current.toResumeJson(base);
+    }
+
+    /**
+     * Push the full snapshot of the published state to all the clients, without a new version.
+     * Clients that missed something catch up from it, the others just apply it again.
+     */
+    public synchronized void publishSnapshot() {
+        SpeakerState published = getPublished();
+        StatusEvent event = SpeakerEvents.STATUS.claim();
+        event.set(published.getVersion(), published.toJson(mEpoch), Tracer.getCurrent());
+        SpeakerEvents.STATUS.publish();
+    }
+
+    synchronized void setAdapterState(int adapterState) {
+        SpeakerState next = mState.withAdapterState(adapterState);
+
+        //Nothing can stay connected while the adapter is not on.
+        if (adapterState != BluetoothAdapter.STATE_ON) {
+            next = next.withDevices(new ArrayList<SpeakerState.Device>()).withDiscoverable(false)
+                    .withPlaying(false);
+        }
+        publish(next);
+    }
+
+    /**
+     * Update the connected devices. The speaker is playing if any of them is playing, so both
+     * go out in the same delta.
+     */
+    synchronized void setDevices(@NonNull List<SpeakerState.Device> devices) {
+        boolean playing = false;
+        for (SpeakerState.Device device : devices) playing |= device.isPlaying();
+        publish(mState.withDevices(devices).withPlaying(playing));
+    }
+
+    synchronized void setVolume(int volume, int maxVolume) {
+        publish(mState.withVolume(volume, maxVolume));
+    }
+
+    synchronized void setDiscoverable(boolean discoverable) {
+        publish(mState.withDiscoverable(discoverable));
+    }
+
+    /**
+     * Mark the {@link StartupStage} up or down.
+     */
+    public synchronized void setReady(@NonNull StartupStage stage, boolean ready) {
+        publish(mState.withReady(stage, ready));
+    }
+
+    /**
+     * @return State the clients know about. Changes of the running batch are not published yet,
+     * and they still have the old version. Must be called while holding the lock.
+     */
+    @NonNull
+    private SpeakerState getPublished() {
+        return mBatchBase != null ? mBatchBase : mState;
+    }
+
+    /**
+     * Hold the deltas until {@link #endBatch()}.
+     */
+    synchronized void beginBatch() {
+        if (mBatchBase == null) mBatchBase = mState;
+    }
+
+    /**
+     * Post everything that changed since {@link #beginBatch()} as one delta.
+     *
+     * @return Version of the state after the batch.
+     */
+    synchronized long endBatch() {
+        SpeakerState base = mBatchBase;
+        mBatchBase = null;
+        if (base == null || mState == base) return mState.getVersion();
+
+        if (mState.hasSameFields(base)) {
+            //Changed and changed back. Nothing to tell the clients.
+            mState = base;
+        } else {
+            post(base, mState);
+        }
+        return mState.getVersion();
+    }
+
+    /**
+     * Post the delta to the clients if the state changed. Must be called while holding the lock,
+     * so the deltas are posted in the order of their versions.
+     */
+    private void publish(@NonNull SpeakerState next) {
+        SpeakerState previous = mState;
+        if (next == previous) return;
+
+        if (mBatchBase != null) {
+            //Versioned and posted when the batch ends.
+            mState = next;
+            return;
+        }
+        post(previous, next);
+    }
+
+    private void post(@NonNull SpeakerState previous, @NonNull SpeakerState next) {
+        long startedAt = Tracer.now();
+        long traceId = Tracer.getCurrent();
+        next = next.withVersion(previous.getVersion() + 1);
+        mState = next;
+        mHistory[(int) (next.getVersion() % HISTORY_SIZE)] = next;
+        Metrics.STATUS_PUBLISHED.inc();
+
+        //The lock makes this the only producer of the ring.
+        StatusEvent event = SpeakerEvents.STATUS.claim();
+        event.set(next.getVersion(), next.toDeltaJson(previous), traceId);
+        SpeakerEvents.STATUS.publish();
+        Tracer.record("state.publish", traceId, startedAt);
+    }
+}
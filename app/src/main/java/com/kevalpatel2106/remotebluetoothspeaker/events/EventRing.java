@@ -0,0 +1,315 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.events;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Histogram;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring of preallocated events from one producer to any number of consumers. Every consumer sees
+ * every event, in order, on its own thread.
+ * <p>
+ * The producer fills the slot returned by {@link #claim()} and makes it visible with
+ * {@link #publish()}. Nothing is allocated and nothing is locked on the way. The producer never
+ * waits for the consumers: a consumer that falls a whole ring behind is moved forward past the
+ * events it missed, and the missed events are counted as its overruns. Consumers copy the event
+ * out of the slot before handling it, so the handler never sees a slot being overwritten.
+ * <p>
+ * Only one thread may produce at a time. The latency from the publish to the handler, the
+ * backlog and the overruns of every consumer are exposed in the metrics.
+ */
+
+public final class EventRing<E extends EventRing.Event<E>> {
+    private static final Logger LOG = Logger.get(EventRing.class);
+
+    /**
+     * Buckets for the dispatch latency recorded in micro seconds. 10us to 1s.
+     */
+    private static final long[] LATENCY_BUCKETS_US = {
+            10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 100000, 1000000
+    };
+
+    @NonNull
+    private final String mName;
+    @NonNull
+    private final Factory<E> mFactory;
+    private final int mMask;
+    @NonNull
+    private final Object[] mSlots;
+
+    /**
+     * Time each slot was published in {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    @NonNull
+    private final long[] mPublishedAt;
+    @NonNull
+    private final Histogram mLatency;
+
+    /**
+     * Sequence of the last published event. -1 before the first one.
+     */
+    private volatile long mCursor = -1;
+
+    /**
+     * Sequence of the next event. Accessed only by the producer.
+     */
+    private long mNext = 0;
+
+    /**
+     * Copy on write, so the producer can go through it without allocating.
+     */
+    @NonNull
+    private volatile Consumer<?>[] mConsumers = new Consumer<?>[0];
+
+    /**
+     * @param name     Name of the ring in the metrics and the thread names.
+     * @param capacity Number of the slots. Must be a power of two.
+     * @param factory  Creates the events for the slots and the consumers.
+     */
+    public EventRing(@NonNull String name, int capacity, @NonNull Factory<E> factory) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mName = name;
+        mFactory = factory;
+        mMask = capacity - 1;
+        mPublishedAt = new long[capacity];
+
+        mSlots = new Object[capacity];
+        for (int i = 0; i < capacity; i++) mSlots[i] = factory.create();
+
+        mLatency = MetricsRegistry.getInstance().histogram("speaker_event_dispatch_latency_seconds",
+                "Time from publishing the event to handing it to the consumer.", "ring=\"" + name + "\"",
+                LATENCY_BUCKETS_US, -6);
+    }
+
+    /**
+     * Get the slot for the next event. Fill it and call {@link #publish()}. Call only from the
+     * producer.
+     *
+     * @return Slot of the next event. It still has the fields of an old event.
+     */
+    @NonNull
+    public E claim() {
+        long sequence = mNext;
+        long wrapPoint = sequence - mSlots.length;
+        if (wrapPoint >= 0) {
+            //The slot still has the event at the wrap point. Move the consumers that did not
+            //take it yet past it.
+            for (Consumer<?> consumer : mConsumers) consumer.skipTo(wrapPoint);
+        }
+        return slot(sequence);
+    }
+
+    /**
+     * Make the event filled after {@link #claim()} visible to the consumers and wake them up.
+     */
+    public void publish() {
+        long sequence = mNext++;
+        mPublishedAt[(int) sequence & mMask] = SystemClock.elapsedRealtimeNanos();
+        mCursor = sequence;
+        for (Consumer<?> consumer : mConsumers) consumer.wake();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private E slot(long sequence) {
+        return (E) mSlots[(int) sequence & mMask];
+    }
+
+    /**
+     * Start handing the events published from now on to the handler on its own thread.
+     *
+     * @param name    Name of the consumer in the metrics and the thread name.
+     * @param handler Handles the events.
+     * @return Subscription to close once the events are not needed.
+     */
+    @NonNull
+    public synchronized Subscription subscribe(@NonNull String name, @NonNull Handler<E> handler) {
+        final Consumer<E> consumer = new Consumer<>(this, name, handler);
+        Consumer<?>[] consumers = Arrays.copyOf(mConsumers, mConsumers.length + 1);
+        consumers[consumers.length - 1] = consumer;
+        mConsumers = consumers;
+
+        String labels = "ring=\"" + mName + "\",consumer=\"" + name + "\"";
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("speaker_event_backlog", "Events published but not yet taken by the consumer.",
+                labels, new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return consumer.getBacklog();
+                    }
+                });
+        registry.counter("speaker_event_overruns_total",
+                "Events the consumer missed because it fell a whole ring behind.", labels, new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return consumer.mOverruns.get();
+                    }
+                });
+
+        consumer.mThread.start();
+        return consumer;
+    }
+
+    private synchronized void unsubscribe(@NonNull Consumer<?> consumer) {
+        int index = -1;
+        for (int i = 0; i < mConsumers.length; i++) {
+            if (mConsumers[i] == consumer) index = i;
+        }
+        if (index < 0) return;     //Already removed.
+
+        Consumer<?>[] consumers = new Consumer<?>[mConsumers.length - 1];
+        System.arraycopy(mConsumers, 0, consumers, 0, index);
+        System.arraycopy(mConsumers, index + 1, consumers, index, consumers.length - index);
+        mConsumers = consumers;
+    }
+
+    /**
+     * Event kept in the slots. Filled again for every publish, so it must be mutable.
+     */
+    public interface Event<E> {
+
+        /**
+         * Copy all the fields of the other event into this one.
+         */
+        void copyFrom(@NonNull E other);
+    }
+
+    public interface Factory<E> {
+
+        @NonNull
+        E create();
+    }
+
+    public interface Handler<E> {
+
+        /**
+         * Called on the thread of the consumer. The event is reused for the next one, so copy
+         * what is needed later.
+         */
+        void onEvent(@NonNull E event);
+    }
+
+    public interface Subscription {
+
+        /**
+         * Stop the consumer. Events not taken yet are dropped.
+         */
+        void close();
+    }
+
+    /**
+     * Thread taking the events for one {@link Handler}.
+     */
+    private static final class Consumer<E extends Event<E>> implements Subscription, Runnable {
+        @NonNull
+        private final EventRing<E> mRing;
+        @NonNull
+        private final Handler<E> mHandler;
+        @NonNull
+        private final Thread mThread;
+        @NonNull
+        private final E mEvent;
+
+        /**
+         * Sequence of the last event taken. Moved by the consumer one by one and by the producer
+         * over the events that are overwritten.
+         */
+        @NonNull
+        private final AtomicLong mSequence;
+        private final AtomicLong mOverruns = new AtomicLong();
+
+        private volatile boolean mIsWaiting = false;
+        private volatile boolean mIsRunning = true;
+
+        private Consumer(@NonNull EventRing<E> ring, @NonNull String name, @NonNull Handler<E> handler) {
+            mRing = ring;
+            mHandler = handler;
+            mEvent = ring.mFactory.create();
+            mSequence = new AtomicLong(ring.mCursor);
+            mThread = new Thread(this, "events-" + ring.mName + "-" + name);
+            mThread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (mIsRunning) {
+                long current = mSequence.get();
+                long next = current + 1;
+                if (next > mRing.mCursor) {
+                    //Check the cursor again after saying we wait, so the publish can't be missed.
+                    mIsWaiting = true;
+                    if (next > mRing.mCursor && mIsRunning) LockSupport.park(this);
+                    mIsWaiting = false;
+                    continue;
+                }
+
+                mEvent.copyFrom(mRing.slot(next));
+                long publishedAt = mRing.mPublishedAt[(int) next & mRing.mMask];
+
+                //Fails if the producer moved us forward meanwhile. The copy may be torn then.
+                if (!mSequence.compareAndSet(current, next)) continue;
+
+                mRing.mLatency.record((SystemClock.elapsedRealtimeNanos() - publishedAt) / 1000);
+                try {
+                    mHandler.onEvent(mEvent);
+                } catch (RuntimeException e) {
+                    LOG.e("run: {} failed to handle the event.", mThread.getName(), e);
+                }
+            }
+        }
+
+        /**
+         * Move past the event at the sequence if it is not taken yet. Called by the producer.
+         */
+        private void skipTo(long sequence) {
+            while (true) {
+                long current = mSequence.get();
+                if (current >= sequence) return;
+                if (mSequence.compareAndSet(current, sequence)) {
+                    mOverruns.addAndGet(sequence - current);
+                    return;
+                }
+            }
+        }
+
+        private void wake() {
+            if (mIsWaiting) LockSupport.unpark(mThread);
+        }
+
+        private long getBacklog() {
+            return Math.max(0, mRing.mCursor - mSequence.get());
+        }
+
+        @Override
+        public void close() {
+            if (!mIsRunning) return;
+            mIsRunning = false;
+            mRing.unsubscribe(this);
+            LockSupport.unpark(mThread);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.events;
+
+/**
+ * Event rings between the bluetooth service and the web layer. Only the typed events of each
+ * ring reach its consumers.
+ */
+
+public final class SpeakerEvents {
+    /**
+     * Number of the slots of each ring. A consumer further behind misses the oldest events.
+     */
+    private static final int CAPACITY = 256;
+
+    /**
+     * Changes of the speaker state. Published by the {@code SpeakerStateStore} under its lock.
+     */
+    public static final EventRing<StatusEvent> STATUS = new EventRing<>("status", CAPACITY, StatusEvent.FACTORY);
+
+    private SpeakerEvents() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+}
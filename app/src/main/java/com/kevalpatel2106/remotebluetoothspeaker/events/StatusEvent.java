@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.events;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Change of the speaker state, as the JSON delta sent to the web clients. Published by the
+ * {@code SpeakerStateStore} on {@link SpeakerEvents#STATUS}. It can also hold the full snapshot,
+ * when the store pushes the whole state again.
+ */
+
+public final class StatusEvent implements EventRing.Event<StatusEvent> {
+    static final EventRing.Factory<StatusEvent> FACTORY = new EventRing.Factory<StatusEvent>() {
+        @NonNull
+        @Override
+        public StatusEvent create() {
+            return new StatusEvent();
+        }
+    };
+
+    private long mVersion;
+    @NonNull
+    private String mDeltaJson = "";
+    private long mTraceId;
+
+    private StatusEvent() {
+    }
+
+    /**
+     * @param version   Version of the state after the change.
+     * @param deltaJson Delta frame of the change or the snapshot frame.
+     * @param traceId   Trace id of the command that made the change or 0.
+     */
+    public void set(long version, @NonNull String deltaJson, long traceId) {
+        mVersion = version;
+        mDeltaJson = deltaJson;
+        mTraceId = traceId;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    @NonNull
+    public String getDeltaJson() {
+        return mDeltaJson;
+    }
+
+    public long getTraceId() {
+        return mTraceId;
+    }
+
+    @Override
+    public void copyFrom(@NonNull StatusEvent other) {
+        mVersion = other.mVersion;
+        mDeltaJson = other.mDeltaJson;
+        mTraceId = other.mTraceId;
+    }
+}
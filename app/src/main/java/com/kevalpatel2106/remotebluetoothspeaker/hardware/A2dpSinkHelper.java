@@ -14,16 +14,16 @@
  * limitations under the License.
  */
 
-package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Intent;
-import android.util.Log;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
 /**
  * Helper methods and constants related to the A2DP_SINK profile.
@@ -93,7 +93,12 @@ final class A2dpSinkHelper {
      * {@link #ACTION_PLAYING_STATE_CHANGED} intent.
      */
     public static final int STATE_NOT_PLAYING = 11;
-    private static final String TAG = A2dpSinkHelper.class.getSimpleName();
+    private static final Logger LOG = Logger.get(A2dpSinkHelper.class);
+
+    //Hidden methods. Looked up once on the first call.
+    private static final HiddenMethod CONNECT = new HiddenMethod("connect", BluetoothDevice.class);
+    private static final HiddenMethod DISCONNECT = new HiddenMethod("disconnect", BluetoothDevice.class);
+    private static final HiddenMethod REMOVE_BOND = new HiddenMethod("removeBond");
 
     public static int getPreviousAdapterState(Intent intent) {
         return intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, -1);
@@ -125,36 +130,49 @@ final class A2dpSinkHelper {
      * @return
      */
     public static boolean disconnect(BluetoothProfile profile, BluetoothDevice device) {
-        try {
+        return call(DISCONNECT, profile, device);
+    }
 
-            //Reflation
-            Method m = profile.getClass().getMethod("disconnect", BluetoothDevice.class);
-            m.invoke(profile, device);
-            return true;
-        } catch (NoSuchMethodException e) {
-            Log.w(TAG, "No disconnect method in the " + profile.getClass().getName() +
-                    " class, ignoring request.");
-            return false;
-        } catch (InvocationTargetException | IllegalAccessException e) {
-            Log.w(TAG, "Could not execute method 'disconnect' in profile " +
-                    profile.getClass().getName() + ", ignoring request.", e);
-            return false;
-        }
+    /**
+     * Provides a way to call the connect method in the BluetoothA2dpSink class that is
+     * currently hidden from the public API. The result comes later with
+     * {@link #ACTION_CONNECTION_STATE_CHANGED}.
+     *
+     * @param profile
+     * @param device
+     * @return True if the connection is initiated.
+     */
+    public static boolean connect(BluetoothProfile profile, BluetoothDevice device) {
+        return call(CONNECT, profile, device);
     }
 
-    public static boolean unpairDevice(BluetoothAdapter bluetoothAdapter) {
+    /**
+     * Provides a way to call the removeBond method in the BluetoothDevice class that is
+     * currently hidden from the public API.
+     *
+     * @param device
+     * @return True if the unpairing is initiated.
+     */
+    public static boolean removeBond(BluetoothDevice device) {
+        return call(REMOVE_BOND, device);
+    }
+
+    private static boolean call(HiddenMethod method, Object target, Object... args) {
         try {
-            for (BluetoothDevice device: bluetoothAdapter.getBondedDevices()) { //Get all the devices
-                Method m = device.getClass().getMethod("removeBond", (Class[]) null);
-                m.invoke(bluetoothAdapter, (Object[]) null);
-            }
-            return true;
+            Object result = method.invoke(target, args);
+
+            //Some of the hidden methods return void.
+            return !Boolean.FALSE.equals(result);
         } catch (NoSuchMethodException e) {
-            Log.w(TAG, "No disconnect method in the " + bluetoothAdapter.getClass().getName() +
-                    " class, ignoring request.");
+            LOG.w("No {} method in the {} class, ignoring request.", method.getName(),
+                    target.getClass().getName());
             return false;
-        } catch (Exception e) {
-            Log.e("Removing failed.", e.getMessage());
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            LOG.atWarn("Could not execute method '{}' in {}, ignoring request.")
+                    .arg(method.getName())
+                    .arg(target.getClass().getName())
+                    .arg(e)
+                    .log();
             return false;
         }
     }
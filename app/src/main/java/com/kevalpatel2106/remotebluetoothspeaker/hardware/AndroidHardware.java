@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.media.AudioManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * {@link Hardware} of the Android Things board.
+ */
+
+public final class AndroidHardware implements Hardware {
+    @NonNull
+    private final Context mContext;
+    @Nullable
+    private final SpeakerAdapter mAdapter;
+    @NonNull
+    private final SpeakerAudio mAudio;
+
+    public AndroidHardware(@NonNull Context context) {
+        mContext = context.getApplicationContext();
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mAdapter = adapter == null ? null : new AndroidSpeakerAdapter(mContext, adapter);
+        mAudio = new AndroidSpeakerAudio((AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE));
+    }
+
+    @Nullable
+    @Override
+    public SpeakerAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    @NonNull
+    @Override
+    public SpeakerAudio getAudio() {
+        return mAudio;
+    }
+
+    @NonNull
+    @Override
+    public SpeechEngine createSpeechEngine(@NonNull SpeechEngine.Callback callback) {
+        return new AndroidSpeechEngine(mContext, callback);
+    }
+}
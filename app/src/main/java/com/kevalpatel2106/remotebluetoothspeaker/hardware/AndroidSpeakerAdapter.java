@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * {@link SpeakerAdapter} backed by the {@link BluetoothAdapter}. The events come from the
+ * adapter and the A2DP sink broadcasts.
+ */
+
+final class AndroidSpeakerAdapter implements SpeakerAdapter {
+    @NonNull
+    private final Context mContext;
+    @NonNull
+    private final BluetoothAdapter mAdapter;
+
+    @Nullable
+    private Receiver mReceiver;
+
+    AndroidSpeakerAdapter(@NonNull Context context, @NonNull BluetoothAdapter adapter) {
+        mContext = context;
+        mAdapter = adapter;
+    }
+
+    @Override
+    public int getState() {
+        return mAdapter.getState();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return mAdapter.isEnabled();
+    }
+
+    @Override
+    public boolean enable() {
+        return mAdapter.enable();
+    }
+
+    @Override
+    public boolean disable() {
+        return mAdapter.disable();
+    }
+
+    @Override
+    public int getScanMode() {
+        return mAdapter.getScanMode();
+    }
+
+    @Override
+    public boolean setName(@NonNull String name) {
+        return mAdapter.setName(name);
+    }
+
+    @NonNull
+    @Override
+    public Set<BluetoothDevice> getBondedDevices() {
+        return mAdapter.getBondedDevices();
+    }
+
+    @NonNull
+    @Override
+    public BluetoothDevice getRemoteDevice(@NonNull String address) {
+        return mAdapter.getRemoteDevice(address);
+    }
+
+    @Override
+    public boolean removeBond(@NonNull BluetoothDevice device) {
+        return A2dpSinkHelper.removeBond(device);
+    }
+
+    @Override
+    public void requestDiscoverable(int durationSec) {
+        Intent discoverableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
+        discoverableIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, durationSec);
+        discoverableIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);    //Not started from an activity.
+        mContext.startActivity(discoverableIntent);
+    }
+
+    @Override
+    public boolean openSinkProxy(@NonNull final ProxyListener listener) {
+        return mAdapter.getProfileProxy(mContext, new BluetoothProfile.ServiceListener() {
+
+            @Override
+            public void onServiceConnected(int profile, BluetoothProfile proxy) {
+                listener.onProxyConnected(new AndroidSinkProxy(proxy));
+            }
+
+            @Override
+            public void onServiceDisconnected(int profile) {
+                listener.onProxyDisconnected();
+            }
+        }, A2dpSinkHelper.A2DP_SINK_PROFILE);
+    }
+
+    @Override
+    public void closeSinkProxy(@Nullable SinkProxy proxy) {
+        mAdapter.closeProfileProxy(A2dpSinkHelper.A2DP_SINK_PROFILE,
+                proxy instanceof AndroidSinkProxy ? ((AndroidSinkProxy) proxy).getProfile() : null);
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        if (mReceiver != null) {
+            mContext.unregisterReceiver(mReceiver);
+            mReceiver = null;
+        }
+        if (listener == null) return;
+
+        mReceiver = new Receiver(listener);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        filter.addAction(BluetoothAdapter.ACTION_SCAN_MODE_CHANGED);
+        filter.addAction(A2dpSinkHelper.ACTION_CONNECTION_STATE_CHANGED);
+        filter.addAction(A2dpSinkHelper.ACTION_PLAYING_STATE_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+    }
+
+    /**
+     * Turns the broadcasts into the {@link Listener} calls.
+     */
+    private static final class Receiver extends BroadcastReceiver {
+        @NonNull
+        private final Listener mListener;
+
+        private Receiver(@NonNull Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+                mListener.onAdapterStateChanged(A2dpSinkHelper.getCurrentAdapterState(intent));
+            } else if (BluetoothAdapter.ACTION_SCAN_MODE_CHANGED.equals(action)) {
+                mListener.onScanModeChanged(intent.getIntExtra(BluetoothAdapter.EXTRA_SCAN_MODE,
+                        BluetoothAdapter.SCAN_MODE_NONE));
+            } else {
+                BluetoothDevice device = A2dpSinkHelper.getDevice(intent);
+                if (device == null) return;
+
+                if (A2dpSinkHelper.ACTION_CONNECTION_STATE_CHANGED.equals(action)) {
+                    mListener.onSinkStateChanged(device, A2dpSinkHelper.getCurrentProfileState(intent));
+                } else if (A2dpSinkHelper.ACTION_PLAYING_STATE_CHANGED.equals(action)) {
+                    mListener.onSinkPlayingChanged(device,
+                            A2dpSinkHelper.getCurrentProfileState(intent) == A2dpSinkHelper.STATE_PLAYING);
+                }
+            }
+        }
+    }
+}
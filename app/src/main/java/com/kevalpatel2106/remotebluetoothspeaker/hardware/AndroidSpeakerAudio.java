@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.media.AudioManager;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link SpeakerAudio} backed by the music stream of the {@link AudioManager}. The ring stream
+ * follows the music stream, so the announcements are as loud as the music.
+ */
+
+final class AndroidSpeakerAudio implements SpeakerAudio {
+    @NonNull
+    private final AudioManager mAudioManager;
+
+    AndroidSpeakerAudio(@NonNull AudioManager audioManager) {
+        mAudioManager = audioManager;
+    }
+
+    @Override
+    public int getVolume() {
+        return mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+    }
+
+    @Override
+    public int getMaxVolume() {
+        return mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+    }
+
+    @Override
+    public void setVolume(int volume) {
+        mAudioManager.setStreamVolume(AudioManager.STREAM_MUSIC, volume, AudioManager.FLAG_SHOW_UI);
+        mAudioManager.setStreamVolume(AudioManager.STREAM_RING,
+                Math.min(mAudioManager.getStreamMaxVolume(AudioManager.STREAM_RING), volume),
+                AudioManager.FLAG_SHOW_UI);
+    }
+}
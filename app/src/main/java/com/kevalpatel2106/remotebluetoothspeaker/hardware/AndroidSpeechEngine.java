@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.content.Context;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * {@link SpeechEngine} backed by the {@link TextToSpeech} of the device. US English at the
+ * normal pitch and rate.
+ */
+
+final class AndroidSpeechEngine implements SpeechEngine {
+    @NonNull
+    private final TextToSpeech mEngine;
+
+    AndroidSpeechEngine(@NonNull Context context, @NonNull final Callback callback) {
+        final TextToSpeech[] engine = new TextToSpeech[1];
+        engine[0] = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(int status) {
+                if (status == TextToSpeech.SUCCESS) {
+                    engine[0].setLanguage(Locale.US);
+                    engine[0].setPitch(1f);
+                    engine[0].setSpeechRate(1f);
+                    engine[0].setOnUtteranceProgressListener(new ProgressListener(callback));
+                }
+                callback.onInit(status == TextToSpeech.SUCCESS);
+            }
+        });
+        mEngine = engine[0];
+    }
+
+    @Override
+    public boolean speak(@NonNull String text, @NonNull String utteranceId) {
+        return mEngine.speak(text, TextToSpeech.QUEUE_ADD, null, utteranceId) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public boolean synthesizeToFile(@NonNull String text, @NonNull File file, @NonNull String utteranceId) {
+        return mEngine.synthesizeToFile(text, null, file, utteranceId) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public void stop() {
+        mEngine.stop();
+    }
+
+    /**
+     * Forwards the progress of the utterances to the {@link Callback}.
+     */
+    private static final class ProgressListener extends UtteranceProgressListener {
+        @NonNull
+        private final Callback mCallback;
+
+        private ProgressListener(@NonNull Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onStart(String utteranceId) {
+            mCallback.onStart(utteranceId);
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            mCallback.onDone(utteranceId, true);
+        }
+
+        @Override
+        public void onError(String utteranceId) {
+            mCallback.onDone(utteranceId, false);
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            mCallback.onDone(utteranceId, false);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Everything the speaker needs from the device. {@link AndroidHardware} on the device. Other
+ * implementations can stand in for it, so the speaker runs without the bluetooth or the Android
+ * framework. Install the one to use with {@link Platform}.
+ */
+
+public interface Hardware {
+
+    /**
+     * @return Bluetooth adapter or null if the device has no bluetooth.
+     */
+    @Nullable
+    SpeakerAdapter getAdapter();
+
+    @NonNull
+    SpeakerAudio getAudio();
+
+    /**
+     * Create and start initializing the engine.
+     */
+    @NonNull
+    SpeechEngine createSpeechEngine(@NonNull SpeechEngine.Callback callback);
+}
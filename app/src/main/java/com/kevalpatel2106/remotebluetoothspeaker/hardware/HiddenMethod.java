@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Method hidden from the public Android API, called through reflection. The method is looked up
+ * once for the class of the first target and then reused, so every call after the first is just
+ * {@link Method#invoke(Object, Object...)}. A method that does not exist is remembered as well.
+ * <p>
+ * {@code MethodHandle} would be cheaper to invoke, but it needs API 26.
+ */
+
+final class HiddenMethod {
+    @NonNull
+    private final String mName;
+    @NonNull
+    private final Class<?>[] mParameterTypes;
+
+    /**
+     * Last lookup or null if the method was never looked up.
+     */
+    @Nullable
+    private volatile Lookup mLookup;
+
+    /**
+     * @param name           Name of the method.
+     * @param parameterTypes Parameter types of the method.
+     */
+    HiddenMethod(@NonNull String name, @NonNull Class<?>... parameterTypes) {
+        mName = name;
+        mParameterTypes = parameterTypes;
+    }
+
+    @NonNull
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * Call the method on the target.
+     *
+     * @return Value returned by the method.
+     * @throws NoSuchMethodException     If the class of the target does not have the method.
+     * @throws InvocationTargetException If the method threw.
+     * @throws IllegalAccessException    If the method can't be called.
+     */
+    @Nullable
+    Object invoke(@NonNull Object target, Object... args)
+            throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        Lookup lookup = mLookup;
+        if (lookup == null || lookup.mType != target.getClass()) {
+            lookup = lookup(target.getClass());
+            mLookup = lookup;
+        }
+        if (lookup.mMethod == null) {
+            throw new NoSuchMethodException(mName + " in " + lookup.mType.getName());
+        }
+        return lookup.mMethod.invoke(target, args);
+    }
+
+    @NonNull
+    private Lookup lookup(@NonNull Class<?> type) {
+        try {
+            Method method = type.getMethod(mName, mParameterTypes);
+            method.setAccessible(true);
+            return new Lookup(type, method);
+        } catch (NoSuchMethodException e) {
+            return new Lookup(type, null);
+        }
+    }
+
+    /**
+     * Method found in the class or null if the class does not have it.
+     */
+    private static final class Lookup {
+        @NonNull
+        private final Class<?> mType;
+        @Nullable
+        private final Method mMethod;
+
+        private Lookup(@NonNull Class<?> type, @Nullable Method method) {
+            mType = type;
+            mMethod = method;
+        }
+    }
+}
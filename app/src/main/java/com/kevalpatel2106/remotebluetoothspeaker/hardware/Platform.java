@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Holder of the {@link Hardware} the speaker runs on. The entry points install it before
+ * anything else runs.
+ */
+
+public final class Platform {
+    private static volatile Hardware sHardware;
+
+    private Platform() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * Install the hardware unless one is installed already.
+     *
+     * @return Installed {@link Hardware}.
+     */
+    @NonNull
+    public static synchronized Hardware installIfAbsent(@NonNull Hardware hardware) {
+        if (sHardware == null) sHardware = hardware;
+        return sHardware;
+    }
+
+    /**
+     * @return Installed {@link Hardware}.
+     * @throws IllegalStateException If nothing is installed yet.
+     */
+    @NonNull
+    public static Hardware get() {
+        Hardware hardware = sHardware;
+        if (hardware == null) throw new IllegalStateException("No hardware installed.");
+        return hardware;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * Bound A2DP sink profile. Every call goes over binder on the device, so don't call it on the
+ * main thread more than needed.
+ */
+
+public interface SinkProxy {
+
+    @NonNull
+    List<BluetoothDevice> getConnectedDevices();
+
+    /**
+     * Start connecting the device. The result comes later with
+     * {@link SpeakerAdapter.Listener#onSinkStateChanged(BluetoothDevice, int)}.
+     *
+     * @return True if the connection is initiated.
+     */
+    boolean connect(@NonNull BluetoothDevice device);
+
+    /**
+     * Start disconnecting the device.
+     *
+     * @return True if the disconnection is initiated.
+     */
+    boolean disconnect(@NonNull BluetoothDevice device);
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * Bluetooth adapter of the speaker with its A2DP sink profile. Only what the speaker uses.
+ * <p>
+ * The states and the scan modes are the {@code BluetoothAdapter} constants and the connection
+ * states are the {@code BluetoothProfile} constants, so the callers are the same whichever
+ * implementation runs.
+ */
+
+public interface SpeakerAdapter {
+
+    /**
+     * @return Current state. One of the {@code BluetoothAdapter.STATE_*}.
+     */
+    int getState();
+
+    boolean isEnabled();
+
+    /**
+     * Start turning on. The result comes later with {@link Listener#onAdapterStateChanged(int)}.
+     */
+    boolean enable();
+
+    /**
+     * Start turning off. The result comes later with {@link Listener#onAdapterStateChanged(int)}.
+     */
+    boolean disable();
+
+    /**
+     * @return Current scan mode. One of the {@code BluetoothAdapter.SCAN_MODE_*}.
+     */
+    int getScanMode();
+
+    /**
+     * Set the name the phones see.
+     */
+    boolean setName(@NonNull String name);
+
+    /**
+     * @return All the paired devices.
+     */
+    @NonNull
+    Set<BluetoothDevice> getBondedDevices();
+
+    @NonNull
+    BluetoothDevice getRemoteDevice(@NonNull String address);
+
+    /**
+     * Unpair the device.
+     *
+     * @return True if the unpairing is initiated.
+     */
+    boolean removeBond(@NonNull BluetoothDevice device);
+
+    /**
+     * Let the phones find the speaker for the given time.
+     */
+    void requestDiscoverable(int durationSec);
+
+    /**
+     * Bind the A2DP sink proxy. Only call this while the adapter is on.
+     *
+     * @param listener Notified once the proxy is bound and when it is lost.
+     * @return True if the proxy is requested.
+     */
+    boolean openSinkProxy(@NonNull ProxyListener listener);
+
+    void closeSinkProxy(@Nullable SinkProxy proxy);
+
+    /**
+     * Start reporting the events to the listener, or stop if it is null. The events are
+     * reported on the main thread.
+     */
+    void setListener(@Nullable Listener listener);
+
+    /**
+     * Events of the adapter and the A2DP sink profile.
+     */
+    interface Listener {
+
+        /**
+         * @param state New state. One of the {@code BluetoothAdapter.STATE_*}.
+         */
+        void onAdapterStateChanged(int state);
+
+        /**
+         * @param scanMode New scan mode. One of the {@code BluetoothAdapter.SCAN_MODE_*}.
+         */
+        void onScanModeChanged(int scanMode);
+
+        /**
+         * @param state New connection state. One of the {@code BluetoothProfile.STATE_*}.
+         */
+        void onSinkStateChanged(@NonNull BluetoothDevice device, int state);
+
+        /**
+         * @param playing True if the device started streaming the audio.
+         */
+        void onSinkPlayingChanged(@NonNull BluetoothDevice device, boolean playing);
+    }
+
+    /**
+     * Result of {@link #openSinkProxy(ProxyListener)}. Called on the main thread.
+     */
+    interface ProxyListener {
+
+        void onProxyConnected(@NonNull SinkProxy proxy);
+
+        void onProxyDisconnected();
+    }
+}
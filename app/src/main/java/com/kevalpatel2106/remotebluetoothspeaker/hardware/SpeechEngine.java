@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Text to speech engine. Created by {@link Hardware#createSpeechEngine(Callback)}. Nothing can be
+ * spoken until {@link Callback#onInit(boolean)} reports success.
+ */
+
+public interface SpeechEngine {
+
+    /**
+     * Queue the text after whatever is being spoken.
+     *
+     * @return True if the text is queued. The progress is reported to the {@link Callback}.
+     */
+    boolean speak(@NonNull String text, @NonNull String utteranceId);
+
+    /**
+     * Render the text into the WAV file instead of speaking it.
+     *
+     * @return True if the render is queued. The progress is reported to the {@link Callback}.
+     */
+    boolean synthesizeToFile(@NonNull String text, @NonNull File file, @NonNull String utteranceId);
+
+    /**
+     * Stop speaking and drop everything queued.
+     */
+    void stop();
+
+    /**
+     * Initialization and progress of the utterances. Called on the engine threads, never from
+     * within the call that created the engine.
+     */
+    interface Callback {
+
+        void onInit(boolean success);
+
+        void onStart(@NonNull String utteranceId);
+
+        /**
+         * @param success False if the utterance failed or was stopped.
+         */
+        void onDone(@NonNull String utteranceId, boolean success);
+    }
+}
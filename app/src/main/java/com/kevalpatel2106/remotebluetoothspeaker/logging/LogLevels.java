@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.logging;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lowest priority logged by each package of the app. Packages are named relative to the app, like
+ * {@code server} or {@code bluetooth}, and {@link #APP} is the root package.
+ * <p>
+ * Every package starts at {@code debug}, like the plain {@link Log} calls did. The levels can be
+ * changed at any time from any thread and the {@link Logger}s of the package see the change on
+ * their next call.
+ */
+
+public final class LogLevels {
+    static final String APP = "app";
+
+    private static final String ROOT_PACKAGE = "com.kevalpatel2106.remotebluetoothspeaker";
+    private static final int DEFAULT_PRIORITY = Log.DEBUG;
+
+    /**
+     * Priority that is never logged.
+     */
+    private static final int OFF = Integer.MAX_VALUE;
+
+    private static final ConcurrentHashMap<String, Level> sLevels = new ConcurrentHashMap<>();
+
+    static {
+        //Known up front, so they can be set before their first class is loaded.
+        level("server");
+        level("bluetooth");
+        level("scheduler");
+        level("tts");
+    }
+
+    private LogLevels() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * @return Level of the package of the class.
+     */
+    @NonNull
+    static Level of(@NonNull Class<?> cls) {
+        String name = cls.getName();
+        int end = name.lastIndexOf('.');
+        String packageName = end < 0 ? "" : name.substring(0, end);
+
+        if (packageName.equals(ROOT_PACKAGE)) return level(APP);
+        if (packageName.startsWith(ROOT_PACKAGE + ".")) {
+            String relative = packageName.substring(ROOT_PACKAGE.length() + 1);
+            int dot = relative.indexOf('.');
+            return level(dot < 0 ? relative : relative.substring(0, dot));
+        }
+        return level(packageName);
+    }
+
+    @NonNull
+    private static Level level(@NonNull String name) {
+        Level level = sLevels.get(name);
+        if (level != null) return level;
+
+        level = new Level();
+        Level existing = sLevels.putIfAbsent(name, level);
+        return existing == null ? level : existing;
+    }
+
+    /**
+     * @return Name of the level of every known package, sorted by the package.
+     */
+    @NonNull
+    public static Map<String, String> getLevels() {
+        Map<String, String> levels = new TreeMap<>();
+        for (Map.Entry<String, Level> entry : sLevels.entrySet()) {
+            levels.put(entry.getKey(), getName(entry.getValue().mPriority));
+        }
+        return levels;
+    }
+
+    /**
+     * Change the levels of the packages. Nothing is changed if any of them is not valid.
+     *
+     * @param levels Name of the level by the package relative to the app, like {@code server}.
+     *               One of {@code verbose}, {@code debug}, {@code info}, {@code warn},
+     *               {@code error} or {@code off}.
+     * @throws IllegalArgumentException If a package is not known or a level is not valid.
+     */
+    public static void set(@NonNull Map<String, String> levels) {
+        Map<Level, Integer> priorities = new HashMap<>();
+        for (Map.Entry<String, String> entry : levels.entrySet()) {
+            Level level = sLevels.get(entry.getKey());
+            if (level == null) throw new IllegalArgumentException("Unknown package: " + entry.getKey());
+            priorities.put(level, parse(entry.getValue()));
+        }
+        for (Map.Entry<Level, Integer> entry : priorities.entrySet()) {
+            entry.getKey().mPriority = entry.getValue();
+        }
+    }
+
+    private static int parse(@NonNull String levelName) {
+        switch (levelName.toLowerCase(Locale.US)) {
+            case "verbose":
+                return Log.VERBOSE;
+            case "debug":
+                return Log.DEBUG;
+            case "info":
+                return Log.INFO;
+            case "warn":
+                return Log.WARN;
+            case "error":
+                return Log.ERROR;
+            case "off":
+                return OFF;
+            default:
+                throw new IllegalArgumentException("Unknown level: " + levelName);
+        }
+    }
+
+    @NonNull
+    private static String getName(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return "verbose";
+            case Log.DEBUG:
+                return "debug";
+            case Log.INFO:
+                return "info";
+            case Log.WARN:
+                return "warn";
+            case Log.ERROR:
+                return "error";
+            default:
+                return "off";
+        }
+    }
+
+    /**
+     * Level of one package, shared by all its {@link Logger}s.
+     */
+    static final class Level {
+        volatile int mPriority = DEFAULT_PRIORITY;
+
+        private Level() {
+            //Created by the LogLevels.
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.logging;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Unformatted log message: the format with its arguments. Numbers are kept as primitives, so
+ * nothing is boxed. Reused for every message, both by the {@link Logger.Entry} and in the slots
+ * of the {@link LogRing}.
+ */
+
+final class LogRecord {
+    static final int MAX_ARGS = 6;
+
+    private static final String PLACEHOLDER = "{}";
+
+    private int mPriority;
+    private String mTag;
+    private String mFormat;
+    private final Object[] mObjects = new Object[MAX_ARGS];
+    private final long[] mNumbers = new long[MAX_ARGS];
+
+    /**
+     * Bit of every argument kept in {@link #mNumbers}.
+     */
+    private int mNumberMask;
+    private int mCount;
+
+    /**
+     * Sequence the slot of the {@link LogRing} is waiting for. Not used by the entries.
+     */
+    volatile long mSequence;
+
+    void reset(int priority, @NonNull String tag, @NonNull String format) {
+        clear();
+        mPriority = priority;
+        mTag = tag;
+        mFormat = format;
+    }
+
+    /**
+     * Add the next argument. Arguments after {@link #MAX_ARGS} are ignored.
+     */
+    void add(Object arg) {
+        if (mCount == MAX_ARGS) return;
+        mObjects[mCount++] = arg;
+    }
+
+    /**
+     * Add the next argument. Arguments after {@link #MAX_ARGS} are ignored.
+     */
+    void add(long arg) {
+        if (mCount == MAX_ARGS) return;
+        mNumbers[mCount] = arg;
+        mNumberMask |= 1 << mCount;
+        mCount++;
+    }
+
+    void copyFrom(@NonNull LogRecord other) {
+        mPriority = other.mPriority;
+        mTag = other.mTag;
+        mFormat = other.mFormat;
+        System.arraycopy(other.mObjects, 0, mObjects, 0, MAX_ARGS);
+        System.arraycopy(other.mNumbers, 0, mNumbers, 0, MAX_ARGS);
+        mNumberMask = other.mNumberMask;
+        mCount = other.mCount;
+    }
+
+    /**
+     * Drop the references to the arguments, so they can be collected.
+     */
+    void clear() {
+        for (int i = 0; i < mCount; i++) mObjects[i] = null;
+        mTag = null;
+        mFormat = null;
+        mNumberMask = 0;
+        mCount = 0;
+    }
+
+    int getPriority() {
+        return mPriority;
+    }
+
+    String getTag() {
+        return mTag;
+    }
+
+    /**
+     * Replace every {@code {}} of the format with the next argument. A {@link Throwable} left
+     * after the last placeholder is appended with its stack trace.
+     */
+    void format(@NonNull StringBuilder builder) {
+        int arg = 0;
+        int start = 0;
+        while (arg < mCount) {
+            int at = mFormat.indexOf(PLACEHOLDER, start);
+            if (at < 0) break;
+            builder.append(mFormat, start, at);
+            if ((mNumberMask & (1 << arg)) != 0) {
+                builder.append(mNumbers[arg]);
+            } else {
+                builder.append(mObjects[arg]);
+            }
+            arg++;
+            start = at + PLACEHOLDER.length();
+        }
+        builder.append(mFormat, start, mFormat.length());
+
+        int last = mCount - 1;
+        if (arg <= last && (mNumberMask & (1 << last)) == 0 && mObjects[last] instanceof Throwable) {
+            builder.append('\n').append(Log.getStackTraceString((Throwable) mObjects[last]));
+        }
+    }
+}
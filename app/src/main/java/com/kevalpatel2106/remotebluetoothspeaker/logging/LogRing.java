@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.logging;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of preallocated {@link LogRecord}s from any number of threads to one drain thread.
+ * The drain formats the records and writes them to the logcat, so the threads that log never
+ * format, never wait for the I/O and never allocate.
+ * <p>
+ * A thread claims the next slot by moving the head, copies its record in and publishes it by
+ * setting the sequence of the slot. If the drain is a whole ring behind, the record is dropped
+ * and counted instead of waiting for a free slot.
+ */
+
+final class LogRing implements Runnable {
+    private static final String TAG = LogRing.class.getSimpleName();
+
+    @NonNull
+    private final LogRecord[] mSlots;
+    private final int mMask;
+
+    /**
+     * Sequence of the next record to claim.
+     */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /**
+     * Sequence of the next record to drain. Written only by the drain.
+     */
+    private volatile long mTail = 0;
+
+    private final AtomicLong mDropped = new AtomicLong();
+    @NonNull
+    private final Thread mThread;
+    private volatile boolean mIsWaiting = false;
+
+    //Accessed only on the drain thread
+    private final StringBuilder mBuilder = new StringBuilder(256);
+
+    /**
+     * @param capacity Number of the slots. Must be a power of two.
+     */
+    LogRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mMask = capacity - 1;
+        mSlots = new LogRecord[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = new LogRecord();
+            mSlots[i].mSequence = i;
+        }
+
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("speaker_log_backlog", "Log records waiting to be written.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return getBacklog();
+            }
+        });
+        registry.counter("speaker_log_dropped_total",
+                "Log records dropped because the drain was a whole ring behind.", "", new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return mDropped.get();
+                    }
+                });
+
+        mThread = new Thread(this, "log-drain");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Copy the record into the ring. Safe to call from any thread.
+     *
+     * @return False if the ring is full and the record is dropped.
+     */
+    boolean offer(@NonNull LogRecord record) {
+        while (true) {
+            long head = mHead.get();
+            LogRecord slot = mSlots[(int) head & mMask];
+            long sequence = slot.mSequence;
+            if (sequence == head) {
+                if (mHead.compareAndSet(head, head + 1)) {
+                    slot.copyFrom(record);
+                    slot.mSequence = head + 1;
+                    if (mIsWaiting) LockSupport.unpark(mThread);
+                    return true;
+                }
+            } else if (sequence < head) {
+                //Still holds the record of the previous lap.
+                mDropped.incrementAndGet();
+                return false;
+            }
+            //Else another thread claimed it first. Try the next one.
+        }
+    }
+
+    @Override
+    public void run() {
+        long tail = 0;
+        while (true) {
+            LogRecord slot = mSlots[(int) tail & mMask];
+            if (slot.mSequence != tail + 1) {
+                //Check again after saying we wait, so the publish can't be missed.
+                mIsWaiting = true;
+                if (slot.mSequence != tail + 1) LockSupport.park(this);
+                mIsWaiting = false;
+                continue;
+            }
+
+            write(slot);
+            slot.clear();
+            slot.mSequence = tail + mSlots.length;
+            mTail = ++tail;
+        }
+    }
+
+    private void write(@NonNull LogRecord record) {
+        mBuilder.setLength(0);
+        try {
+            record.format(mBuilder);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "write: Cannot format the message of " + record.getTag() + ".", e);
+            return;
+        }
+        Log.println(record.getPriority(), record.getTag(), mBuilder.toString());
+    }
+
+    long getBacklog() {
+        return Math.max(0, mHead.get() - mTail);
+    }
+
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.logging;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Logger of one class. Messages are formats with {@code {}} placeholders, formatted later on the
+ * drain thread of the {@link LogRing}:
+ * <pre>
+ * private static final Logger LOG = Logger.get(Socket.class);
+ *
+ * LOG.d("onMessage: WebSocket Command -> {}", command);
+ * </pre>
+ * A message below the {@link LogLevels} of the package returns right after reading the level.
+ * Otherwise it is copied into the ring without formatting, boxing or allocating. Numbers should
+ * go in as primitives for that. A {@link Throwable} after the last placeholder is written with
+ * its stack trace.
+ * <p>
+ * The arguments are turned into text on the drain thread, a moment after the call. Pass only the
+ * objects that don't change after that and can be printed from any thread.
+ * <p>
+ * Up to two arguments fit the short methods. For more, build the message with the entry, and
+ * don't log anything else while building it:
+ * <pre>
+ * LOG.atDebug("runBatch: {} took {}us after {}us in the queue.")
+ *         .arg(batch).arg(batch.getTookMicros()).arg(batch.getQueuedMicros()).log();
+ * </pre>
+ */
+
+public final class Logger {
+    private static final LogRing sRing = new LogRing(1024);
+
+    /**
+     * Entry of the thread, reused for every message it builds.
+     */
+    private static final ThreadLocal<Entry> sEntries = new ThreadLocal<Entry>() {
+        @Override
+        protected Entry initialValue() {
+            return new Entry(new LogRecord());
+        }
+    };
+
+    /**
+     * Entry of the messages below the level. Ignores everything, so it can be shared.
+     */
+    private static final Entry DISABLED = new Entry(null);
+
+    @NonNull
+    private final String mTag;
+    @NonNull
+    private final LogLevels.Level mLevel;
+
+    private Logger(@NonNull String tag, @NonNull LogLevels.Level level) {
+        mTag = tag;
+        mLevel = level;
+    }
+
+    /**
+     * @param cls Class that logs. Its simple name is the tag and its package decides the level.
+     * @return New logger. Keep it in a static field.
+     */
+    @NonNull
+    public static Logger get(@NonNull Class<?> cls) {
+        return new Logger(cls.getSimpleName(), LogLevels.of(cls));
+    }
+
+    /**
+     * @return Number of the messages dropped because the drain was too far behind.
+     */
+    public static long getDroppedCount() {
+        return sRing.getDroppedCount();
+    }
+
+    /**
+     * @param priority One of the priorities of {@link Log}, like {@link Log#DEBUG}.
+     * @return True if the messages of the priority are logged.
+     */
+    public boolean isLoggable(int priority) {
+        return priority >= mLevel.mPriority;
+    }
+
+    public boolean isDebugEnabled() {
+        return isLoggable(Log.DEBUG);
+    }
+
+    @NonNull
+    public Entry atDebug(@NonNull String format) {
+        return at(Log.DEBUG, format);
+    }
+
+    @NonNull
+    public Entry atInfo(@NonNull String format) {
+        return at(Log.INFO, format);
+    }
+
+    @NonNull
+    public Entry atWarn(@NonNull String format) {
+        return at(Log.WARN, format);
+    }
+
+    @NonNull
+    public Entry atError(@NonNull String format) {
+        return at(Log.ERROR, format);
+    }
+
+    @NonNull
+    private Entry at(int priority, @NonNull String format) {
+        if (!isLoggable(priority)) return DISABLED;
+        Entry entry = sEntries.get();
+        entry.mRecord.reset(priority, mTag, format);
+        return entry;
+    }
+
+    public void d(@NonNull String message) {
+        atDebug(message).log();
+    }
+
+    public void d(@NonNull String format, Object arg) {
+        atDebug(format).arg(arg).log();
+    }
+
+    public void d(@NonNull String format, long arg) {
+        atDebug(format).arg(arg).log();
+    }
+
+    public void d(@NonNull String format, Object arg1, Object arg2) {
+        atDebug(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void d(@NonNull String format, Object arg1, long arg2) {
+        atDebug(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void i(@NonNull String message) {
+        atInfo(message).log();
+    }
+
+    public void i(@NonNull String format, Object arg) {
+        atInfo(format).arg(arg).log();
+    }
+
+    public void i(@NonNull String format, long arg) {
+        atInfo(format).arg(arg).log();
+    }
+
+    public void i(@NonNull String format, Object arg1, Object arg2) {
+        atInfo(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void i(@NonNull String format, Object arg1, long arg2) {
+        atInfo(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void w(@NonNull String message) {
+        atWarn(message).log();
+    }
+
+    public void w(@NonNull String format, Object arg) {
+        atWarn(format).arg(arg).log();
+    }
+
+    public void w(@NonNull String format, long arg) {
+        atWarn(format).arg(arg).log();
+    }
+
+    public void w(@NonNull String format, Object arg1, Object arg2) {
+        atWarn(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void w(@NonNull String format, Object arg1, long arg2) {
+        atWarn(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void e(@NonNull String message) {
+        atError(message).log();
+    }
+
+    public void e(@NonNull String format, Object arg) {
+        atError(format).arg(arg).log();
+    }
+
+    public void e(@NonNull String format, long arg) {
+        atError(format).arg(arg).log();
+    }
+
+    public void e(@NonNull String format, Object arg1, Object arg2) {
+        atError(format).arg(arg1).arg(arg2).log();
+    }
+
+    public void e(@NonNull String format, Object arg1, long arg2) {
+        atError(format).arg(arg1).arg(arg2).log();
+    }
+
+    /**
+     * Message being built. Finish it with {@link #log()}.
+     */
+    public static final class Entry {
+        private final LogRecord mRecord;
+
+        private Entry(LogRecord record) {
+            mRecord = record;
+        }
+
+        @NonNull
+        public Entry arg(Object arg) {
+            if (mRecord != null) mRecord.add(arg);
+            return this;
+        }
+
+        @NonNull
+        public Entry arg(long arg) {
+            if (mRecord != null) mRecord.add(arg);
+            return this;
+        }
+
+        /**
+         * Hand the message to the drain thread.
+         */
+        public void log() {
+            if (mRecord == null) return;
+            sRing.offer(mRecord);
+            mRecord.clear();
+        }
+    }
+}
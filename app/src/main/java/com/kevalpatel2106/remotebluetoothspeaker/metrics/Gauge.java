@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.metrics;
+
+/**
+ * Value read only when the metrics are scraped, like the depth of a queue. Nothing is recorded on
+ * the hot path.
+ */
+
+public interface Gauge {
+
+    /**
+     * @return Current value. Called on the web server thread.
+     */
+    long getValue();
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with fixed buckets. The values are recorded as primitives in the unit of the buckets
+ * (like micro seconds), so {@link #record(long)} is lock free and never allocates. The values are
+ * converted to the base unit (seconds) only when the metrics are scraped.
+ */
+
+public final class Histogram {
+    /**
+     * Inclusive upper bound of each bucket in ascending order. The last bucket is +Inf.
+     */
+    @NonNull
+    private final long[] mUpperBounds;
+
+    /**
+     * Power of ten to convert the recorded unit to the base unit. -6 for micro seconds.
+     */
+    private final int mUnitExponent;
+
+    /**
+     * Count of each bucket, not cumulative. One more than the bounds for +Inf.
+     */
+    @NonNull
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mSum = new AtomicLong();
+
+    Histogram(@NonNull long[] upperBounds, int unitExponent) {
+        mUpperBounds = upperBounds.clone();
+        mUnitExponent = unitExponent;
+        mBuckets = new AtomicLongArray(upperBounds.length + 1);
+    }
+
+    /**
+     * Record the value in the unit of the buckets.
+     */
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < mUpperBounds.length && value > mUpperBounds[bucket]) bucket++;
+        mBuckets.incrementAndGet(bucket);
+        mSum.addAndGet(value);
+    }
+
+    /**
+     * @return Number of the values recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < mBuckets.length(); i++) count += mBuckets.get(i);
+        return count;
+    }
+
+    /**
+     * Write the buckets, sum and count in the Prometheus text format.
+     *
+     * @param builder Output.
+     * @param name    Name of the metric family.
+     * @param labels  Labels of this histogram like {@code command="turn_on"} or empty.
+     */
+    void write(@NonNull StringBuilder builder, @NonNull String name, @NonNull String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i <= mUpperBounds.length; i++) {
+            cumulative += mBuckets.get(i);
+            String bound = i < mUpperBounds.length ? toBaseUnit(mUpperBounds[i]) : "+Inf";
+            builder.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+        }
+
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        builder.append(name).append("_sum").append(braces).append(' ')
+                .append(toBaseUnit(mSum.get())).append('\n');
+        builder.append(name).append("_count").append(braces).append(' ')
+                .append(cumulative).append('\n');
+    }
+
+    @NonNull
+    private String toBaseUnit(long value) {
+        if (value == 0) return "0";
+        return BigDecimal.valueOf(value).scaleByPowerOfTen(mUnitExponent).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.metrics;
+
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+
+/**
+ * Metrics recorded on the hot paths of the app. All of them are created up front, so recording is
+ * only a few atomic operations on primitives.
+ * <p>
+ * Gauges of the live objects, like the queue depths, are registered by their owners in the
+ * {@link MetricsRegistry}.
+ */
+
+public final class Metrics {
+    /**
+     * Buckets for the latencies recorded in micro seconds. 100us to 10s.
+     */
+    private static final long[] LATENCY_BUCKETS_US = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000
+    };
+
+    /**
+     * Buckets for the slow operations recorded in milliseconds. 10ms to 30s.
+     */
+    private static final long[] SLOW_BUCKETS_MS = {
+            10, 25, 50, 100, 250, 500, 1000, 2000, 3000, 5000, 10000, 30000
+    };
+
+    /**
+     * Buckets for the listening sessions recorded in milliseconds. 1 minute to 8 hours.
+     */
+    private static final long[] SESSION_BUCKETS_MS = {
+            60000, 300000, 900000, 1800000, 3600000, 7200000, 14400000, 28800000
+    };
+
+    private static final int MICROS = -6;
+    private static final int MILLIS = -3;
+
+    private static final MetricsRegistry sRegistry = MetricsRegistry.getInstance();
+
+    private static final Counter[] sCommandsReceived = new Counter[Command.values().length];
+    private static final Histogram[] sCommandLatency = new Histogram[Command.values().length];
+
+    static {
+        for (Command command : Command.values()) {
+            String labels = "command=\"" + command.getName() + "\"";
+            sCommandsReceived[command.ordinal()] = sRegistry.counter("speaker_commands_received_total",
+                    "Commands received from the web clients.", labels);
+            sCommandLatency[command.ordinal()] = sRegistry.histogram("speaker_command_latency_seconds",
+                    "Time from receiving the command to executing it.", labels,
+                    LATENCY_BUCKETS_US, MICROS);
+        }
+    }
+
+    public static final Counter COMMAND_RETRIES = sRegistry.counter("speaker_command_retries_total",
+            "Command envelopes resent by the web clients. None of them ran again.", "");
+
+    public static final Counter COMMANDS_REJECTED_FLOOD = commandsRejected("flood");
+
+    public static final Counter COMMANDS_REJECTED_OVERLOAD = commandsRejected("overload");
+
+    public static final Counter STATUS_PUBLISHED = sRegistry.counter("speaker_status_published_total",
+            "State changes pushed to the web clients.", "");
+
+    public static final Histogram STATUS_PUSH_LATENCY = sRegistry.histogram("speaker_status_push_latency_seconds",
+            "Time from broadcasting the status frame to writing it to the socket.", "",
+            LATENCY_BUCKETS_US, MICROS);
+
+    public static final Counter WEBSOCKET_FRAMES_SENT = sRegistry.counter("speaker_websocket_frames_sent_total",
+            "Frames written to the web sockets.", "");
+
+    public static final Counter WEBSOCKET_BYTES_SENT = sRegistry.counter("speaker_websocket_bytes_sent_total",
+            "Bytes written to the web sockets including the frame headers.", "");
+
+    public static final Counter WEBSOCKET_FRAMES_DROPPED = sRegistry.counter("speaker_websocket_frames_dropped_total",
+            "Frames replaced by the snapshot because the client was too slow.", "");
+
+    public static final Histogram TTS_TIME_TO_SPEECH = sRegistry.histogram("speaker_tts_time_to_speech_seconds",
+            "Time from queuing the announcement to the start of the speech.", "",
+            SLOW_BUCKETS_MS, MILLIS);
+
+    public static final Counter RECONNECT_CONNECTED = sRegistry.counter("speaker_reconnect_attempts_total",
+            "Attempts to reconnect the recent devices after the A2DP proxy is bound.", "result=\"connected\"");
+
+    public static final Counter RECONNECT_FAILED = sRegistry.counter("speaker_reconnect_attempts_total",
+            "Attempts to reconnect the recent devices after the A2DP proxy is bound.", "result=\"failed\"");
+
+    public static final Histogram TIME_TO_FIRST_CONNECTION = sRegistry.histogram("speaker_time_to_first_connection_seconds",
+            "Time from binding the A2DP proxy to the first connected device.", "",
+            SLOW_BUCKETS_MS, MILLIS);
+
+    public static final Histogram ADAPTER_TURN_ON = sRegistry.histogram("speaker_adapter_transition_seconds",
+            "Time the bluetooth adapter takes to turn on or off.", "to=\"on\"",
+            SLOW_BUCKETS_MS, MILLIS);
+
+    public static final Histogram ADAPTER_TURN_OFF = sRegistry.histogram("speaker_adapter_transition_seconds",
+            "Time the bluetooth adapter takes to turn on or off.", "to=\"off\"",
+            SLOW_BUCKETS_MS, MILLIS);
+
+    public static final Histogram DEVICE_BATCH_DISCONNECT = sRegistry.histogram("speaker_device_batch_seconds",
+            "Time to run the operation on all the devices.", "operation=\"disconnect\"",
+            LATENCY_BUCKETS_US, MICROS);
+
+    public static final Histogram DEVICE_BATCH_UNPAIR = sRegistry.histogram("speaker_device_batch_seconds",
+            "Time to run the operation on all the devices.", "operation=\"unpair\"",
+            LATENCY_BUCKETS_US, MICROS);
+
+    public static final Counter PLAYBACK_STARTED = sRegistry.counter("speaker_playback_changes_total",
+            "Times a connected device started or stopped streaming the audio.", "to=\"playing\"");
+
+    public static final Counter PLAYBACK_PAUSED = sRegistry.counter("speaker_playback_changes_total",
+            "Times a connected device started or stopped streaming the audio.", "to=\"paused\"");
+
+    public static final Counter LISTENED_MILLIS = sRegistry.counter("speaker_listened_milliseconds_total",
+            "Time the connected devices were streaming the audio.", "");
+
+    public static final Histogram LISTENING_SESSION = sRegistry.histogram("speaker_listening_session_seconds",
+            "Time the audio was streamed in one listening session of a device.", "",
+            SESSION_BUCKETS_MS, MILLIS);
+
+    public static final Counter SCHEDULE_RUNS = sRegistry.counter("speaker_schedule_runs_total",
+            "Commands sent by the schedules.", "");
+
+    public static final Counter SCHEDULE_RETRIES = sRegistry.counter("speaker_schedule_retries_total",
+            "Commands of the schedules sent again because too many commands were in flight.", "");
+
+    private Metrics() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * @return Counter of the received commands.
+     */
+    @NonNull
+    public static Counter commandReceived(@NonNull Command command) {
+        return sCommandsReceived[command.ordinal()];
+    }
+
+    /**
+     * @param reason Why the commands were rejected. Like {@code overload}.
+     * @return Counter of the commands rejected before reaching the service. Keep it, don't look
+     * it up on the hot path.
+     */
+    @NonNull
+    public static Counter commandsRejected(@NonNull String reason) {
+        return sRegistry.counter("speaker_commands_rejected_total",
+                "Commands rejected by the rate limits before reaching the service.",
+                "reason=\"" + reason + "\"");
+    }
+
+    /**
+     * @return Receive-to-execute latency of the command in micro seconds.
+     */
+    @NonNull
+    public static Histogram commandLatency(@NonNull Command command) {
+        return sCommandLatency[command.ordinal()];
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of all the metrics of the app, scraped by the web server in the Prometheus text format.
+ * <p>
+ * Metrics are created once, usually in static fields, and then recorded without any lookup or
+ * allocation. Asking for the same name and labels again returns the same metric, so the owners
+ * can be recreated, like the service. Gauges are replaced instead, so they always read the live
+ * owner.
+ *
+ * @see Metrics
+ */
+
+public final class MetricsRegistry {
+    private static final String TYPE_COUNTER = "counter";
+    private static final String TYPE_GAUGE = "gauge";
+    private static final String TYPE_HISTOGRAM = "histogram";
+
+    private static final MetricsRegistry sInstance = new MetricsRegistry();
+
+    /**
+     * Metric families by name in the order they were registered. Guarded by this.
+     */
+    private final Map<String, Family> mFamilies = new LinkedHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    @NonNull
+    public static MetricsRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param labels Labels like {@code command="turn_on"} or empty.
+     * @return {@link Counter} with the name and labels.
+     */
+    @NonNull
+    public synchronized Counter counter(@NonNull String name, @NonNull String help, @NonNull String labels) {
+        Family family = family(name, help, TYPE_COUNTER);
+        Object metric = family.get(labels);
+        if (metric == null) {
+            metric = new Counter();
+            family.put(labels, metric);
+        }
+        return (Counter) metric;
+    }
+
+    /**
+     * @param labels       Labels like {@code command="turn_on"} or empty.
+     * @param upperBounds  Upper bounds of the buckets in ascending order.
+     * @param unitExponent Power of ten to convert the recorded values to the base unit. -6 if the
+     *                     values are recorded in micro seconds and scraped in seconds.
+     * @return {@link Histogram} with the name and labels.
+     */
+    @NonNull
+    public synchronized Histogram histogram(@NonNull String name,
+                                            @NonNull String help,
+                                            @NonNull String labels,
+                                            @NonNull long[] upperBounds,
+                                            int unitExponent) {
+        Family family = family(name, help, TYPE_HISTOGRAM);
+        Object metric = family.get(labels);
+        if (metric == null) {
+            metric = new Histogram(upperBounds, unitExponent);
+            family.put(labels, metric);
+        }
+        return (Histogram) metric;
+    }
+
+    /**
+     * Register the gauge. It replaces the gauge registered with the same name and labels.
+     *
+     * @param labels Labels like {@code command="turn_on"} or empty.
+     */
+    public synchronized void gauge(@NonNull String name,
+                                   @NonNull String help,
+                                   @NonNull String labels,
+                                   @NonNull Gauge gauge) {
+        family(name, help, TYPE_GAUGE).put(labels, gauge);
+    }
+
+    /**
+     * Register the counter kept by its owner. Read only while scraping, like a gauge. It replaces
+     * the counter registered with the same name and labels.
+     *
+     * @param labels Labels like {@code command="turn_on"} or empty.
+     */
+    public synchronized void counter(@NonNull String name,
+                                     @NonNull String help,
+                                     @NonNull String labels,
+                                     @NonNull Gauge value) {
+        family(name, help, TYPE_COUNTER).put(labels, value);
+    }
+
+    /**
+     * Remove the metric with the name. Use this to drop the gauges of an owner that is gone, so
+     * the owner can be garbage collected.
+     */
+    public synchronized void remove(@NonNull String name) {
+        mFamilies.remove(name);
+    }
+
+    /**
+     * @return All the metrics in the Prometheus text format.
+     */
+    @NonNull
+    public synchronized String scrape() {
+        StringBuilder builder = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : mFamilies.entrySet()) {
+            entry.getValue().write(builder, entry.getKey());
+        }
+        return builder.toString();
+    }
+
+    @NonNull
+    private Family family(@NonNull String name, @NonNull String help, @NonNull String type) {
+        Family family = mFamilies.get(name);
+        if (family == null) {
+            family = new Family(help, type);
+            mFamilies.put(name, family);
+        } else if (!family.mType.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as " + family.mType);
+        }
+        return family;
+    }
+
+    /**
+     * All the metrics with the same name and different labels.
+     */
+    private static final class Family {
+        @NonNull
+        private final String mHelp;
+        @NonNull
+        private final String mType;
+        private final List<String> mLabels = new ArrayList<>();
+        private final List<Object> mMetrics = new ArrayList<>();
+
+        private Family(@NonNull String help, @NonNull String type) {
+            mHelp = help;
+            mType = type;
+        }
+
+        private Object get(@NonNull String labels) {
+            int index = mLabels.indexOf(labels);
+            return index < 0 ? null : mMetrics.get(index);
+        }
+
+        private void put(@NonNull String labels, @NonNull Object metric) {
+            int index = mLabels.indexOf(labels);
+            if (index < 0) {
+                mLabels.add(labels);
+                mMetrics.add(metric);
+            } else {
+                mMetrics.set(index, metric);
+            }
+        }
+
+        private void write(@NonNull StringBuilder builder, @NonNull String name) {
+            builder.append("# HELP ").append(name).append(' ').append(mHelp).append('\n');
+            builder.append("# TYPE ").append(name).append(' ').append(mType).append('\n');
+            for (int i = 0; i < mMetrics.size(); i++) {
+                String labels = mLabels.get(i);
+                Object metric = mMetrics.get(i);
+                if (metric instanceof Histogram) {
+                    ((Histogram) metric).write(builder, name, labels);
+                    continue;
+                }
+
+                long value = metric instanceof Counter
+                        ? ((Counter) metric).get()
+                        : ((Gauge) metric).getValue();
+                builder.append(name);
+                if (!labels.isEmpty()) builder.append('{').append(labels).append('}');
+                builder.append(' ').append(value).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBus;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link Schedule}s, such as turning off the speaker every night or fading the volume
+ * down one step a minute. The commands are sent through the {@link CommandBus}, the same way as
+ * the commands of the web clients.
+ * <p>
+ * The timers live in a {@link TimingWheel}, so thousands of schedules cost the same per tick as
+ * one. The wheel only ticks while it has timers. The schedules are saved to a file shortly after
+ * every change and loaded on their own thread at the start. Runs missed while the speaker was off
+ * by less than {@link #MISSED_GRACE_MS} still run, older ones are skipped.
+ * <p>
+ * The schedules are set in the wall clock, but the wheel ticks in the
+ * {@link SystemClock#elapsedRealtime()}. If the wall clock jumps, for example when it is synced
+ * from the network after the boot, all the timers are placed again.
+ * <p>
+ * All the public methods can be called from any thread.
+ */
+
+public final class CommandScheduler {
+    private static final Logger LOG = Logger.get(CommandScheduler.class);
+
+    /**
+     * Most schedules at the same time.
+     */
+    public static final int MAX_SCHEDULES = 4096;
+
+    /**
+     * Shortest period of the repeating schedules.
+     */
+    public static final long MIN_PERIOD_MS = 1000;
+
+    /**
+     * Furthest time ahead of now a schedule can start, and longest period.
+     */
+    public static final long MAX_AHEAD_MS = TimeUnit.DAYS.toMillis(366);
+
+    private static final long TICK_MS = 250;
+
+    /**
+     * Buckets of the wheel. One turn is about two minutes.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    private static final long MISSED_GRACE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Wait before sending the command again if the {@link CommandBus} is full.
+     */
+    private static final long RETRY_MS = 1000;
+
+    /**
+     * Wait after a change before saving, so a burst of changes is written once.
+     */
+    private static final long SAVE_DELAY_MS = 1000;
+
+    /**
+     * Smallest change of the wall clock against the elapsed time that places the timers again.
+     */
+    private static final long CLOCK_JUMP_MS = 2000;
+
+    private static final String METRIC_SCHEDULES = "speaker_schedules";
+
+    private static volatile CommandScheduler sRunning;
+
+    @NonNull
+    private final Context mContext;
+    @NonNull
+    private final ScheduleStore mStore;
+    @NonNull
+    private final HandlerThread mThread;
+    @NonNull
+    private final Handler mHandler;
+
+    //Guarded by this
+    @NonNull
+    private final TimingWheel mWheel;
+    private final Map<Long, Job> mJobs = new HashMap<>();
+    private long mNextId = 1;
+
+    /**
+     * Wall clock minus the elapsed time when the timers were placed.
+     */
+    private long mClockOffset;
+    private boolean mIsTickPosted = false;
+    private boolean mIsSavePosted = false;
+    private boolean mIsQuit = false;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CommandScheduler.this) {
+                mIsTickPosted = false;
+                if (mIsQuit) return;
+
+                long elapsed = SystemClock.elapsedRealtime();
+                checkClock(System.currentTimeMillis(), elapsed);
+                for (Runnable job : mWheel.advance(elapsed)) job.run();
+                postTick(elapsed);
+            }
+        }
+    };
+
+    private final Runnable mSave = new Runnable() {
+        @Override
+        public void run() {
+            List<Schedule> schedules;
+            synchronized (CommandScheduler.this) {
+                mIsSavePosted = false;
+                schedules = getSchedules();
+            }
+            mStore.save(schedules);
+        }
+    };
+
+    /**
+     * @param context Context to send the commands with.
+     * @param file    File to keep the schedules in.
+     */
+    public CommandScheduler(@NonNull Context context, @NonNull File file) {
+        mContext = context;
+        mStore = new ScheduleStore(file);
+        mThread = new HandlerThread("scheduler");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        long elapsed = SystemClock.elapsedRealtime();
+        mWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, elapsed);
+        mClockOffset = System.currentTimeMillis() - elapsed;
+    }
+
+    /**
+     * @return Scheduler that is loaded and not quit yet or null.
+     */
+    @Nullable
+    public static CommandScheduler getRunning() {
+        return sRunning;
+    }
+
+    /**
+     * Load the saved schedules and start running them. Returns right away.
+     */
+    public void start() {
+        MetricsRegistry.getInstance().gauge(METRIC_SCHEDULES, "Schedules waiting to run.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                synchronized (CommandScheduler.this) {
+                    return mJobs.size();
+                }
+            }
+        });
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Stop running the schedules and save them. Nothing can be called after this.
+     */
+    public void quit() {
+        synchronized (this) {
+            mIsQuit = true;
+            if (sRunning == this) sRunning = null;
+            if (mIsSavePosted) {
+                mHandler.removeCallbacks(mSave);
+                mHandler.post(mSave);
+            }
+        }
+        MetricsRegistry.getInstance().remove(METRIC_SCHEDULES);
+        mThread.quitSafely();
+    }
+
+    /**
+     * Add the schedule.
+     *
+     * @param command  One of the {@link com.kevalpatel2106.remotebluetoothspeaker.Commands}.
+     * @param at       Time of the first run in ms since epoch. A run missed by less than
+     *                 {@link #MISSED_GRACE_MS} runs right away, older runs are skipped.
+     * @param periodMs Time between the runs or 0 to run once.
+     * @param count    Number of runs or 0 to repeat forever. Ignored if it runs once.
+     * @return New {@link Schedule}.
+     * @throws IllegalArgumentException If the command is unknown or the times are not valid.
+     * @throws IllegalStateException    If there are too many schedules or the scheduler is quit.
+     */
+    @NonNull
+    public synchronized Schedule create(@NonNull String command, long at, long periodMs, int count) {
+        if (mIsQuit) throw new IllegalStateException("Scheduler is stopped.");
+        if (periodMs != 0 && periodMs < MIN_PERIOD_MS) {
+            throw new IllegalArgumentException("Period must be at least " + MIN_PERIOD_MS + "ms.");
+        }
+        if (periodMs > MAX_AHEAD_MS) {
+            throw new IllegalArgumentException("Period must be at most " + MAX_AHEAD_MS + "ms.");
+        }
+        long now = System.currentTimeMillis();
+        if (at - now > MAX_AHEAD_MS) {
+            throw new IllegalArgumentException("Start must be at most " + MAX_AHEAD_MS + "ms ahead.");
+        }
+        if (mJobs.size() >= MAX_SCHEDULES) {
+            throw new IllegalStateException("Too many schedules. Most " + MAX_SCHEDULES + ".");
+        }
+
+        //Skip the past runs like the missed ones, else a repeating schedule catches up on every tick.
+        Schedule schedule = new Schedule(mNextId, command, at, periodMs, count)
+                .skipMissed(now, MISSED_GRACE_MS);
+        if (schedule == null) throw new IllegalArgumentException("All the runs are in the past.");
+        mNextId++;
+
+        long elapsed = SystemClock.elapsedRealtime();
+        checkClock(now, elapsed);
+        add(schedule, elapsed);
+        postSave();
+        LOG.d("create: {}", schedule);
+        return schedule;
+    }
+
+    /**
+     * @return All the schedules, the next to run first.
+     */
+    @NonNull
+    public synchronized List<Schedule> list() {
+        List<Schedule> schedules = getSchedules();
+        Collections.sort(schedules, new Comparator<Schedule>() {
+            @Override
+            public int compare(Schedule first, Schedule second) {
+                int byTime = Long.compare(first.getNextAt(), second.getNextAt());
+                return byTime != 0 ? byTime : Long.compare(first.getId(), second.getId());
+            }
+        });
+        return schedules;
+    }
+
+    /**
+     * Remove the schedule. It doesn't run again.
+     *
+     * @return False if there is no schedule with the id.
+     */
+    public synchronized boolean cancel(long id) {
+        Job job = mJobs.remove(id);
+        if (job == null) return false;
+
+        mWheel.cancel(job.mTimeout);
+        postSave();
+        LOG.d("cancel: {}", job.mSchedule);
+        return true;
+    }
+
+    private void load() {
+        long startedAt = SystemClock.elapsedRealtime();
+        List<Schedule> saved = mStore.load();
+
+        int skipped = 0;
+        synchronized (this) {
+            if (mIsQuit) return;
+
+            long elapsed = SystemClock.elapsedRealtime();
+            long now = System.currentTimeMillis();
+            mClockOffset = now - elapsed;
+            for (Schedule schedule : saved) {
+                mNextId = Math.max(mNextId, schedule.getId() + 1);
+                Schedule next = schedule.skipMissed(now, MISSED_GRACE_MS);
+                if (next != schedule) skipped++;
+                if (next != null && mJobs.size() < MAX_SCHEDULES) add(next, elapsed);
+            }
+            if (skipped > 0) postSave();
+            sRunning = this;
+        }
+
+        LOG.atInfo("load: {} schedules in {}ms. Skipped the missed runs of {}.")
+                .arg(saved.size())
+                .arg(SystemClock.elapsedRealtime() - startedAt)
+                .arg(skipped)
+                .log();
+    }
+
+    /**
+     * Place the timer of the schedule.
+     */
+    private void add(@NonNull Schedule schedule, long elapsed) {
+        Job job = new Job(schedule);
+        job.mTimeout = mWheel.schedule(job, schedule.getNextAt() - mClockOffset - elapsed, elapsed);
+        mJobs.put(schedule.getId(), job);
+        postTick(elapsed);
+    }
+
+    /**
+     * Send the command of the job and place the timer of its next run.
+     */
+    private void fire(@NonNull Job job) {
+        if (mJobs.get(job.mSchedule.getId()) != job) return;     //Cancelled
+
+        long traceId = Tracer.newTraceId();
+        long startedAt = Tracer.now();
+        long elapsed = SystemClock.elapsedRealtime();
+        if (!CommandBus.dispatch(mContext, job.mSchedule.getCommand(), traceId)) {
+            Metrics.SCHEDULE_RETRIES.inc();
+            LOG.w("fire: Too many commands in flight. Retrying {} in {}ms.", job.mSchedule, RETRY_MS);
+            job.mTimeout = mWheel.schedule(job, RETRY_MS, elapsed);
+            return;
+        }
+        Tracer.record("scheduler.fire", traceId, startedAt);
+        Metrics.SCHEDULE_RUNS.inc();
+        LOG.d("fire: {}", job.mSchedule);
+
+        //Runs that fell behind the clock, for example while the bus was full, are skipped.
+        Schedule next = job.mSchedule.next();
+        if (next != null) next = next.skipMissed(mClockOffset + elapsed, 0);
+        if (next == null) {
+            mJobs.remove(job.mSchedule.getId());
+        } else {
+            job.mSchedule = next;
+            job.mTimeout = mWheel.schedule(job, next.getNextAt() - mClockOffset - elapsed, elapsed);
+        }
+        postSave();
+    }
+
+    /**
+     * Place all the timers again if the wall clock moved against the elapsed time.
+     */
+    private void checkClock(long now, long elapsed) {
+        long offset = now - elapsed;
+        if (Math.abs(offset - mClockOffset) < CLOCK_JUMP_MS) return;
+
+        LOG.i("checkClock: Wall clock jumped by {}ms. Placing the timers again.", offset - mClockOffset);
+        mClockOffset = offset;
+        for (Job job : mJobs.values()) {
+            mWheel.cancel(job.mTimeout);
+            job.mTimeout = mWheel.schedule(job, job.mSchedule.getNextAt() - offset - elapsed, elapsed);
+        }
+    }
+
+    private void postTick(long elapsed) {
+        if (mIsTickPosted || mIsQuit || mWheel.size() == 0) return;
+        mIsTickPosted = true;
+        mHandler.postDelayed(mTick, Math.max(0, mWheel.getNextTickAt() - elapsed));
+    }
+
+    private void postSave() {
+        if (mIsSavePosted || mIsQuit) return;
+        mIsSavePosted = true;
+        mHandler.postDelayed(mSave, SAVE_DELAY_MS);
+    }
+
+    @NonNull
+    private List<Schedule> getSchedules() {
+        List<Schedule> schedules = new ArrayList<>(mJobs.size());
+        for (Job job : mJobs.values()) schedules.add(job.mSchedule);
+        return schedules;
+    }
+
+    /**
+     * Schedule with its timer in the wheel.
+     */
+    private final class Job implements Runnable {
+        @NonNull
+        private Schedule mSchedule;
+        private TimingWheel.Timeout mTimeout;
+
+        private Job(@NonNull Schedule schedule) {
+            mSchedule = schedule;
+        }
+
+        @Override
+        public void run() {
+            fire(this);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Command to run at the set time, once or every period. Immutable. Every run gives the
+ * {@link #next()} schedule.
+ * <p>
+ * The times are the wall clock in milliseconds since epoch, so the schedules keep their meaning
+ * across the reboots.
+ */
+
+public final class Schedule {
+    private final long mId;
+    @NonNull
+    private final String mCommand;
+    private final long mNextAt;
+    private final long mPeriodMs;
+    private final int mCount;
+
+    /**
+     * @param id       Unique id of the schedule.
+     * @param command  One of the {@link com.kevalpatel2106.remotebluetoothspeaker.Commands}.
+     * @param nextAt   Time of the next run in ms since epoch.
+     * @param periodMs Time between the runs or 0 to run once.
+     * @param count    Runs left including the next one or 0 to repeat forever. Ignored if it runs
+     *                 once.
+     */
+    Schedule(long id, @NonNull String command, long nextAt, long periodMs, int count) {
+        if (Command.parse(command) == null) {
+            throw new IllegalArgumentException("Unknown command " + command + ".");
+        }
+        if (periodMs < 0) throw new IllegalArgumentException("Period cannot be negative.");
+        if (count < 0) throw new IllegalArgumentException("Count cannot be negative.");
+        mId = id;
+        mCommand = command;
+        mNextAt = nextAt;
+        mPeriodMs = periodMs;
+        mCount = periodMs == 0 ? 1 : count;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * @return Raw command string as defined in
+     * {@link com.kevalpatel2106.remotebluetoothspeaker.Commands}.
+     */
+    @NonNull
+    public String getCommand() {
+        return mCommand;
+    }
+
+    /**
+     * @return Time of the next run in ms since epoch.
+     */
+    public long getNextAt() {
+        return mNextAt;
+    }
+
+    /**
+     * @return Time between the runs in ms or 0 if it runs once.
+     */
+    public long getPeriodMs() {
+        return mPeriodMs;
+    }
+
+    /**
+     * @return Runs left including the next one or 0 if it repeats forever.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Schedule after the next run or null if that was the last one.
+     */
+    @Nullable
+    Schedule next() {
+        if (mCount == 1) return null;
+        return new Schedule(mId, mCommand, mNextAt + mPeriodMs, mPeriodMs, mCount == 0 ? 0 : mCount - 1);
+    }
+
+    /**
+     * Skip the runs that were missed while the speaker was off.
+     *
+     * @param now     Current time in ms since epoch.
+     * @param graceMs Runs missed by less than this still run now.
+     * @return Schedule with the next run not missed by more than the grace or null if no runs
+     * are left.
+     */
+    @Nullable
+    Schedule skipMissed(long now, long graceMs) {
+        long missedBy = now - mNextAt;
+        if (missedBy <= graceMs) return this;
+        if (mPeriodMs == 0) return null;
+
+        //Skip to the first run that is not missed by more than the grace.
+        long skipped = (missedBy - graceMs + mPeriodMs - 1) / mPeriodMs;
+        if (mCount != 0 && skipped >= mCount) return null;
+        return new Schedule(mId, mCommand, mNextAt + skipped * mPeriodMs, mPeriodMs,
+                mCount == 0 ? 0 : (int) (mCount - skipped));
+    }
+
+    /**
+     * @return JSON object of the schedule. Read it back with {@link #fromJson(JSONObject)}.
+     */
+    @NonNull
+    public String toJson() {
+        return "{\"id\":" + mId
+                + ",\"command\":" + JSONObject.quote(mCommand)
+                + ",\"nextAt\":" + mNextAt
+                + ",\"periodMs\":" + mPeriodMs
+                + ",\"count\":" + mCount + "}";
+    }
+
+    @NonNull
+    static Schedule fromJson(@NonNull JSONObject json) throws JSONException {
+        try {
+            return new Schedule(json.getLong("id"), json.getString("command"),
+                    json.getLong("nextAt"), json.optLong("periodMs"), json.optInt("count"));
+        } catch (IllegalArgumentException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mId + " " + mCommand + " at " + mNextAt
+                + (mPeriodMs == 0 ? "" : " every " + mPeriodMs + "ms"
+                + (mCount == 0 ? "" : " " + mCount + " times"));
+    }
+}
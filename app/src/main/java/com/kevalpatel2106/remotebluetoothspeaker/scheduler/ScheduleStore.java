@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * JSON file with the {@link Schedule}s, so they survive the reboot.
+ * <p>
+ * The whole list is written to a temp file first and then moved in place, so a power cut never
+ * leaves a half written file. The schedules write their own JSON, so saving doesn't build a
+ * tree of objects.
+ * <p>
+ * This class is not thread safe. It is used only on the thread of the {@link CommandScheduler}.
+ */
+
+final class ScheduleStore {
+    private static final Logger LOG = Logger.get(ScheduleStore.class);
+
+    @NonNull
+    private final File mFile;
+
+    /**
+     * @param file File to keep the schedules in.
+     */
+    ScheduleStore(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Read the schedules. This reads the disk.
+     *
+     * @return Saved schedules. Empty if there is no file or it is corrupt.
+     */
+    @NonNull
+    List<Schedule> load() {
+        List<Schedule> schedules = new ArrayList<>();
+        if (!mFile.exists()) return schedules;
+
+        try {
+            JSONArray array = new JSONArray(new String(read(mFile), "UTF-8"));
+            for (int i = 0; i < array.length(); i++) {
+                schedules.add(Schedule.fromJson(array.getJSONObject(i)));
+            }
+        } catch (IOException | JSONException e) {
+            LOG.w("load: Corrupt {}. Starting empty.", mFile, e);
+            schedules.clear();
+        }
+        return schedules;
+    }
+
+    /**
+     * Replace the saved schedules. This writes the disk.
+     */
+    void save(@NonNull Collection<Schedule> schedules) {
+        StringBuilder builder = new StringBuilder(64 * schedules.size() + 2).append('[');
+        for (Schedule schedule : schedules) {
+            if (builder.length() > 1) builder.append(',');
+            builder.append(schedule.toJson());
+        }
+        builder.append(']');
+
+        try {
+            File temp = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(builder.toString().getBytes("UTF-8"));
+                out.getFD().sync();     //Else the rename may reach the disk before the data.
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mFile)) LOG.w("save: Cannot move {} in place.", temp);
+        } catch (IOException e) {
+            LOG.w("save: Cannot write {}", mFile, e);
+        }
+    }
+
+    @NonNull
+    private static byte[] read(@NonNull File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) throw new IOException("Unexpected end of " + file);
+                read += count;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel. The time is cut into ticks and every timer is put in the bucket of the
+ * tick it expires on, modulo the size of the wheel. Timers further away than one turn of the
+ * wheel keep the number of turns left in their rounds.
+ * <p>
+ * Adding and cancelling a timer are O(1). Every tick only visits the one bucket, so the cost of
+ * a tick doesn't grow with the number of timers, only with the timers in that bucket. Ticks
+ * while the wheel is empty are skipped without visiting anything.
+ * <p>
+ * Timers expire on the first tick at or after their deadline, so they can be up to one tick
+ * late, never early.
+ * <p>
+ * This class is not thread safe. It is used only under the lock of the {@link CommandScheduler}.
+ */
+
+final class TimingWheel {
+    private final long mTickMs;
+    private final long mOrigin;
+    private final int mMask;
+
+    /**
+     * Head of the list of the timers in each bucket.
+     */
+    @NonNull
+    private final Timeout[] mBuckets;
+
+    /**
+     * Last tick that is processed, counted from the origin.
+     */
+    private long mTick = 0;
+    private int mSize = 0;
+
+    /**
+     * @param tickMs    Length of a tick in ms.
+     * @param wheelSize Number of buckets. Must be a power of two.
+     * @param now       Current time in ms. The ticks are counted from it.
+     */
+    TimingWheel(long tickMs, int wheelSize, long now) {
+        if (tickMs <= 0) throw new IllegalArgumentException("Tick must be positive.");
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("Wheel size must be a power of two.");
+        }
+        mTickMs = tickMs;
+        mOrigin = now;
+        mMask = wheelSize - 1;
+        mBuckets = new Timeout[wheelSize];
+    }
+
+    /**
+     * Add the timer.
+     *
+     * @param task    Task to return from {@link #advance(long)} once the timer expires.
+     * @param delayMs Time from now until the timer expires.
+     * @param now     Current time in ms.
+     * @return Handle to cancel the timer with.
+     */
+    @NonNull
+    Timeout schedule(@NonNull Runnable task, long delayMs, long now) {
+        //Far enough that it never expires, without overflowing the deadline below.
+        delayMs = Math.min(Math.max(0, delayMs), Long.MAX_VALUE / 4);
+        long current = getTick(now);
+
+        //Nothing to expire in the ticks we missed, so skip them.
+        if (mSize == 0 && current > mTick) mTick = current;
+
+        //Expire on the first tick that starts at or after the deadline.
+        long deadline = Math.max(getTick(now + delayMs + mTickMs - 1), mTick + 1);
+        Timeout timeout = new Timeout(task);
+        timeout.mRounds = (deadline - mTick - 1) / mBuckets.length;
+        timeout.mBucket = (int) (deadline & mMask);
+        link(timeout);
+        return timeout;
+    }
+
+    /**
+     * Remove the timer. Does nothing if it already expired or is cancelled.
+     */
+    void cancel(@NonNull Timeout timeout) {
+        if (timeout.mIsLinked) unlink(timeout);
+    }
+
+    /**
+     * Process all the ticks up to now.
+     *
+     * @param now Current time in ms.
+     * @return Tasks of the timers that expired, the earliest first. Run them after this returns,
+     * so they can add and cancel the timers.
+     */
+    @NonNull
+    List<Runnable> advance(long now) {
+        List<Runnable> expired = new ArrayList<>();
+        long target = getTick(now);
+        while (mTick < target) {
+            if (mSize == 0) {
+                mTick = target;
+                break;
+            }
+            mTick++;
+
+            Timeout timeout = mBuckets[(int) (mTick & mMask)];
+            while (timeout != null) {
+                Timeout next = timeout.mNext;
+                if (timeout.mRounds == 0) {
+                    unlink(timeout);
+                    expired.add(timeout.mTask);
+                } else {
+                    timeout.mRounds--;
+                }
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return Time in ms the next tick starts at. Call {@link #advance(long)} then.
+     */
+    long getNextTickAt() {
+        return mOrigin + (mTick + 1) * mTickMs;
+    }
+
+    /**
+     * @return Number of timers that are waiting.
+     */
+    int size() {
+        return mSize;
+    }
+
+    private long getTick(long time) {
+        return (time - mOrigin) / mTickMs;
+    }
+
+    private void link(@NonNull Timeout timeout) {
+        Timeout head = mBuckets[timeout.mBucket];
+        timeout.mNext = head;
+        if (head != null) head.mPrev = timeout;
+        mBuckets[timeout.mBucket] = timeout;
+        timeout.mIsLinked = true;
+        mSize++;
+    }
+
+    private void unlink(@NonNull Timeout timeout) {
+        if (timeout.mPrev != null) {
+            timeout.mPrev.mNext = timeout.mNext;
+        } else {
+            mBuckets[timeout.mBucket] = timeout.mNext;
+        }
+        if (timeout.mNext != null) timeout.mNext.mPrev = timeout.mPrev;
+        timeout.mPrev = null;
+        timeout.mNext = null;
+        timeout.mIsLinked = false;
+        mSize--;
+    }
+
+    /**
+     * Single timer in the wheel.
+     */
+    static final class Timeout {
+        @NonNull
+        private final Runnable mTask;
+        private long mRounds;
+        private int mBucket;
+        private Timeout mPrev;
+        private Timeout mNext;
+        private boolean mIsLinked;
+
+        private Timeout(@NonNull Runnable task) {
+            mTask = task;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.content.res.AssetManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * In-memory cache of the static web assets. All the assets are read from the {@link AssetManager}
+ * once, gzipped and tagged with a strong ETag while the server starts. Requests are then served
+ * from memory without touching the flash.
+ *
+ * @see WebServer
+ */
+
+final class AssetCache {
+    private static final String HEADER_IF_NONE_MATCH = "if-none-match";
+    private static final String HEADER_ACCEPT_ENCODING = "accept-encoding";
+
+    /**
+     * Assets only change with the APK, so let the browser keep them for a week. The ETag lets
+     * it revalidate cheaply after that.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=604800";
+
+    /**
+     * Uri to the asset. Never modified after the constructor.
+     */
+    private final Map<String, Asset> mAssets;
+
+    /**
+     * Load all the assets in memory.
+     *
+     * @param assetManager {@link AssetManager} to load the assets from.
+     * @throws IOException If failed to read any asset.
+     */
+    AssetCache(@NonNull AssetManager assetManager) throws IOException {
+        Map<String, Asset> assets = new HashMap<>();
+        assets.put("/", load(assetManager, "home.html", "text/html"));
+        assets.put("/css/style.css", load(assetManager, "css/style.css", "text/css"));
+        assets.put("/script/script.js", load(assetManager, "script/script.js", "text/javascript"));
+        mAssets = Collections.unmodifiableMap(assets);
+    }
+
+    @NonNull
+    private static Asset load(@NonNull AssetManager assetManager,
+                              @NonNull String path,
+                              @NonNull String mimeType) throws IOException {
+        InputStream inputStream = assetManager.open(path);
+        try {
+            return new Asset(mimeType, readFully(inputStream));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @NonNull
+    private static byte[] readFully(@NonNull InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) outputStream.write(buffer, 0, read);
+        return outputStream.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] gzip(@NonNull byte[] raw) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(raw.length);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+        try {
+            gzipStream.write(raw);
+        } finally {
+            gzipStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+
+    @NonNull
+    private static String etag(@NonNull byte[] raw) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(raw);
+            StringBuilder builder = new StringBuilder(digest.length * 2 + 2).append('"');
+            for (byte b : digest) builder.append(String.format("%02x", b));
+            return builder.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-1 is always available on Android.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Build the response for the request if the uri points to a cached asset.
+     *
+     * @param session Current request.
+     * @return {@link fi.iki.elonen.NanoHTTPD.Response} for the asset or null if the uri is not a
+     * known asset.
+     */
+    @Nullable
+    NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session) {
+        Asset asset = mAssets.get(session.getUri());
+        if (asset == null) return null;
+
+        Map<String, String> headers = session.getHeaders();
+        String ifNoneMatch = headers.get(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(asset.mETag) || ifNoneMatch.trim().equals("*"))) {
+            NanoHTTPD.Response response = new NanoHTTPD.Response(NanoHTTPD.Response.Status.NOT_MODIFIED,
+                    asset.mMimeType, new ByteArrayInputStream(new byte[0]));
+            addCacheHeaders(response, asset);
+            return response;
+        }
+
+        String acceptEncoding = headers.get(HEADER_ACCEPT_ENCODING);
+        boolean useGzip = asset.mGzip != null
+                && acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = useGzip ? asset.mGzip : asset.mRaw;
+
+        NanoHTTPD.Response response = new NanoHTTPD.Response(NanoHTTPD.Response.Status.OK,
+                asset.mMimeType, new ByteArrayInputStream(body));
+        response.addHeader("Content-Length", String.valueOf(body.length));
+        if (useGzip) response.addHeader("Content-Encoding", "gzip");
+        addCacheHeaders(response, asset);
+        return response;
+    }
+
+    private void addCacheHeaders(@NonNull NanoHTTPD.Response response, @NonNull Asset asset) {
+        response.addHeader("ETag", asset.mETag);
+        response.addHeader("Cache-Control", CACHE_CONTROL);
+        response.addHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * Single immutable cached asset.
+     */
+    private static final class Asset {
+        @NonNull
+        private final String mMimeType;
+        @NonNull
+        private final byte[] mRaw;
+
+        /**
+         * Gzipped body or null if gzip doesn't make the asset smaller.
+         */
+        @Nullable
+        private final byte[] mGzip;
+        @NonNull
+        private final String mETag;
+
+        private Asset(@NonNull String mimeType, @NonNull byte[] raw) throws IOException {
+            mMimeType = mimeType;
+            mRaw = raw;
+            byte[] gzip = gzip(raw);
+            mGzip = gzip.length < raw.length ? gzip : null;
+            mETag = etag(raw);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBatch;
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBus;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * REST endpoint to run a sequence of commands in one request.
+ * <p>
+ * {@code POST /api/commands} with a JSON array of the commands. Each item is either the command
+ * name or an object with the name and the value:
+ * <pre>
+ * ["turn_on", "make_discoverable", {"command": "set_volume", "value": 8}]
+ * </pre>
+ * The commands run in order as one {@link CommandBatch} and the response is sent once the batch
+ * is done. It holds the outcome and the execution time of every command:
+ * <pre>
+ * {"expired":false,"queuedUs":310,"tookUs":5120,"v":42,"results":[
+ *   {"command":"turn_on","result":"ok","tookUs":4800}, ...]}
+ * </pre>
+ * Commands that run on all the devices, like {@code disconnect_device}, also hold the outcome of
+ * every device in {@code devices}.
+ * If the {@link CommandBus} has no room for the whole batch, it is refused with
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header.
+ */
+
+final class CommandApi {
+    static final String URI = "/api/commands";
+    static final String MIME_JSON = "application/json";
+
+    /**
+     * Extra time to wait for the batch on top of its own timeout. Covers the cold start of the
+     * service.
+     */
+    private static final long START_MARGIN_MS = 5000;
+
+    /**
+     * Seconds to wait before sending the refused batch again.
+     */
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @NonNull
+    private final Context mContext;
+
+    CommandApi(@NonNull Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Parse the batch and send it to the service.
+     *
+     * @return {@link DeferredResponse} completed once the batch is done or an error response if
+     * the request is not valid.
+     */
+    @NonNull
+    NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session) {
+        if (session.getMethod() != NanoHTTPD.Method.POST) {
+            NanoHTTPD.Response response = error(NanoHTTPD.Response.Status.METHOD_NOT_ALLOWED, "Use POST.");
+            response.addHeader("Allow", "POST");
+            return response;
+        }
+
+        List<CommandBatch.Step> steps;
+        try {
+            Map<String, String> body = new HashMap<>();
+            session.parseBody(body);
+            steps = parseSteps(body.get("postData"));
+        } catch (IOException | NanoHTTPD.ResponseException | JSONException e) {
+            return error(NanoHTTPD.Response.Status.BAD_REQUEST, e.getMessage());
+        }
+        if (steps.isEmpty() || steps.size() > CommandBatch.MAX_STEPS) {
+            return error(NanoHTTPD.Response.Status.BAD_REQUEST,
+                    "Send 1 to " + CommandBatch.MAX_STEPS + " commands.");
+        }
+
+        final DeferredResponse response = new DeferredResponse(
+                CommandBatch.getTimeoutMs(steps) + START_MARGIN_MS);
+        final long traceId = Tracer.newTraceId();
+        boolean isAccepted = CommandBus.dispatchBatch(mContext, new CommandBatch(steps, new CommandBatch.Callback() {
+            @Override
+            public void onBatchDone(@NonNull CommandBatch batch) {
+                long startedAt = Tracer.now();
+                response.complete(NanoHTTPD.Response.Status.OK, MIME_JSON, toJson(batch));
+                Tracer.record("api.respond", traceId, startedAt);
+            }
+        }, traceId));
+        if (!isAccepted) {
+            NanoHTTPD.Response refused = error(UnavailableStatus.INSTANCE, "Too many commands in flight.");
+            refused.addHeader("Retry-After", RETRY_AFTER_SECONDS);
+            return refused;
+        }
+        return response;
+    }
+
+    @NonNull
+    private static List<CommandBatch.Step> parseSteps(@Nullable String body) throws JSONException {
+        if (body == null) throw new JSONException("Body must be a JSON array of the commands.");
+
+        JSONArray array = new JSONArray(body);
+        List<CommandBatch.Step> steps = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            Object item = array.get(i);
+            if (item instanceof String) {
+                steps.add(CommandBatch.Step.of((String) item, null));
+            } else if (item instanceof JSONObject) {
+                JSONObject command = (JSONObject) item;
+                steps.add(CommandBatch.Step.of(command.getString("command"),
+                        command.has("value") ? command.getInt("value") : null));
+            } else {
+                throw new JSONException("Command " + i + " must be a string or an object.");
+            }
+        }
+        return steps;
+    }
+
+    @NonNull
+    private static String toJson(@NonNull CommandBatch batch) {
+        StringBuilder builder = new StringBuilder(64 + 64 * batch.getSteps().size())
+                .append("{\"expired\":").append(batch.isExpired())
+                .append(",\"queuedUs\":").append(batch.getQueuedMicros())
+                .append(",\"tookUs\":").append(batch.getTookMicros())
+                .append(",\"v\":").append(batch.getVersion())
+                .append(",\"results\":[");
+        List<CommandBatch.Step> steps = batch.getSteps();
+        for (int i = 0; i < steps.size(); i++) {
+            CommandBatch.Step step = steps.get(i);
+            if (i > 0) builder.append(',');
+            builder.append("{\"command\":").append(JSONObject.quote(step.getName()))
+                    .append(",\"result\":\"").append(step.getOutcome().name().toLowerCase(Locale.US))
+                    .append("\",\"tookUs\":").append(step.getTookMicros());
+            if (step.getError() != null) {
+                builder.append(",\"error\":").append(JSONObject.quote(step.getError()));
+            }
+            if (step.getDevicesJson() != null) builder.append(",\"devices\":").append(step.getDevicesJson());
+            builder.append('}');
+        }
+        return builder.append("]}").toString();
+    }
+
+    @NonNull
+    private static NanoHTTPD.Response error(@NonNull NanoHTTPD.Response.IStatus status,
+                                            @Nullable String message) {
+        return new NanoHTTPD.Response(status, MIME_JSON,
+                "{\"error\":" + JSONObject.quote(String.valueOf(message)) + "}");
+    }
+
+    /**
+     * {@code 503 Service Unavailable}. Not one of the {@link NanoHTTPD.Response.Status} of the
+     * bundled NanoHTTPD.
+     */
+    enum UnavailableStatus implements NanoHTTPD.Response.IStatus {
+        INSTANCE;
+
+        @Override
+        public int getRequestStatus() {
+            return 503;
+        }
+
+        @Override
+        public String getDescription() {
+            return "503 Service Unavailable";
+        }
+    }
+}
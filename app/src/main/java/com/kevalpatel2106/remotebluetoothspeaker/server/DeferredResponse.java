@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Response that is completed later from another thread, like when the request waits for the
+ * commands to execute. The {@link ServerEngine} sends it once it is completed. The
+ * {@link NanoHttpdEngine} blocks the connection thread until then, the {@link NioServerEngine}
+ * holds the connection and keeps serving the others.
+ * <p>
+ * If the response is not completed within the timeout, it is completed with an error.
+ */
+
+final class DeferredResponse extends NanoHTTPD.Response {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long mDeadline;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+
+    //Guarded by this.
+    private boolean mIsCompleted = false;
+    @Nullable
+    private Runnable mListener;
+
+    /**
+     * @param timeoutMs Maximum time to wait for {@link #complete(Status, String, String)}.
+     */
+    DeferredResponse(long timeoutMs) {
+        super(Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT, "");
+        mDeadline = SystemClock.elapsedRealtime() + timeoutMs;
+    }
+
+    /**
+     * Set the content and send the response. Only the first call counts. Can be called from any
+     * thread.
+     */
+    void complete(@NonNull Status status, @NonNull String mimeType, @NonNull String text) {
+        Runnable listener;
+        synchronized (this) {
+            if (mIsCompleted) return;
+            setStatus(status);
+            setMimeType(mimeType);
+            setData(new ByteArrayInputStream(text.getBytes(UTF_8)));
+
+            mIsCompleted = true;
+            listener = mListener;
+            mListener = null;
+        }
+        mDone.countDown();
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Run the listener once the response is completed. Runs right away if it is completed already.
+     */
+    void setListener(@NonNull Runnable listener) {
+        synchronized (this) {
+            if (!mIsCompleted) {
+                mListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Block until the response is completed or the timeout passes.
+     */
+    void await() {
+        try {
+            long remaining = mDeadline - SystemClock.elapsedRealtime();
+            if (remaining > 0) mDone.await(remaining, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        //No-op if it is completed already.
+        complete(Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT, "Timed out.");
+    }
+
+    /**
+     * Complete the response with an error if the timeout has passed.
+     *
+     * @param now Current time in {@link SystemClock#elapsedRealtime()}.
+     */
+    void expireIfLate(long now) {
+        if (now >= mDeadline) complete(Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT, "Timed out.");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+
+/**
+ * Text frame waiting in the outbound queue of the {@link Socket}. One frame is shared by all the
+ * sockets it is broadcast to, so the text is encoded only once.
+ * <p>
+ * The text is encoded here instead of by {@code WebSocketFrame}. The bundled NanoHTTPD returns
+ * the whole buffer of the encoder, so its frames end with the zero bytes and the clients can't
+ * parse them.
+ */
+
+final class Frame {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final byte[] mPayload;
+    private final long mQueuedAt;
+    private final long mTraceId;
+
+    Frame(@NonNull String text) {
+        this(text, 0);
+    }
+
+    /**
+     * @param traceId Trace id of the command the frame is about or 0.
+     */
+    Frame(@NonNull String text, long traceId) {
+        mPayload = text.getBytes(UTF_8);
+        mQueuedAt = SystemClock.elapsedRealtimeNanos();
+        mTraceId = traceId;
+    }
+
+    /**
+     * @return Text in UTF-8. Don't modify it, it is shared.
+     */
+    @NonNull
+    byte[] getPayload() {
+        return mPayload;
+    }
+
+    /**
+     * @return Time when the frame was queued in {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    long getQueuedAt() {
+        return mQueuedAt;
+    }
+
+    long getTraceId() {
+        return mTraceId;
+    }
+}
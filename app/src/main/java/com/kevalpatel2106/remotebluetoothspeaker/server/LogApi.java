@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.LogLevels;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * REST endpoint to read and change the {@link LogLevels} while the speaker runs.
+ * <p>
+ * {@code GET /api/log} returns the level of every package and the number of dropped messages:
+ * <pre>
+ * {"levels":{"bluetooth":"info","server":"info","tts":"info"},"dropped":0}
+ * </pre>
+ * {@code POST /api/log} with a JSON object of the packages to change sets their levels and
+ * returns the same as the {@code GET}. Nothing is changed if any of them is not valid.
+ * <pre>
+ * {"server": "debug"}
+ * </pre>
+ */
+
+final class LogApi {
+    static final String URI = "/api/log";
+
+    @NonNull
+    NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session) {
+        if (session.getMethod() == NanoHTTPD.Method.POST) {
+            try {
+                Map<String, String> body = new HashMap<>();
+                session.parseBody(body);
+                setLevels(body.get("postData"));
+            } catch (IOException | NanoHTTPD.ResponseException | JSONException
+                    | IllegalArgumentException e) {
+                return error(NanoHTTPD.Response.Status.BAD_REQUEST, e.getMessage());
+            }
+        } else if (session.getMethod() != NanoHTTPD.Method.GET) {
+            NanoHTTPD.Response response = error(NanoHTTPD.Response.Status.METHOD_NOT_ALLOWED,
+                    "Use GET or POST.");
+            response.addHeader("Allow", "GET, POST");
+            return response;
+        }
+        return new NanoHTTPD.Response(NanoHTTPD.Response.Status.OK, CommandApi.MIME_JSON, toJson());
+    }
+
+    private static void setLevels(@Nullable String body) throws JSONException {
+        if (body == null) throw new JSONException("Body must be a JSON object of the levels.");
+
+        JSONObject levels = new JSONObject(body);
+        Map<String, String> changes = new HashMap<>();
+        Iterator<String> keys = levels.keys();
+        while (keys.hasNext()) {
+            String packageName = keys.next();
+            changes.put(packageName, levels.getString(packageName));
+        }
+        LogLevels.set(changes);
+    }
+
+    @NonNull
+    private static String toJson() {
+        StringBuilder builder = new StringBuilder(128).append("{\"levels\":{");
+        boolean isFirst = true;
+        for (Map.Entry<String, String> level : LogLevels.getLevels().entrySet()) {
+            if (!isFirst) builder.append(',');
+            isFirst = false;
+            builder.append(JSONObject.quote(level.getKey())).append(':')
+                    .append(JSONObject.quote(level.getValue()));
+        }
+        return builder.append("},\"dropped\":").append(Logger.getDroppedCount()).append('}').toString();
+    }
+
+    @NonNull
+    private static NanoHTTPD.Response error(@NonNull NanoHTTPD.Response.IStatus status,
+                                            @Nullable String message) {
+        return new NanoHTTPD.Response(status, CommandApi.MIME_JSON,
+                "{\"error\":" + JSONObject.quote(String.valueOf(message)) + "}");
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+
+import fi.iki.elonen.IWebSocketFactory;
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.WebSocket;
+import fi.iki.elonen.WebSocketResponseHandler;
+
+/**
+ * {@link ServerEngine} backed by the bundled NanoHTTPD. Every connection gets its own thread and
+ * blocking streams, including every open web socket.
+ */
+
+final class NanoHttpdEngine extends NanoHTTPD implements ServerEngine {
+    @NonNull
+    private final Handler mHandler;
+    @NonNull
+    private final WebSocketResponseHandler mResponseHandler;
+
+    NanoHttpdEngine(int port, @NonNull final Handler handler) {
+        super(port);
+        mHandler = handler;
+        mResponseHandler = new WebSocketResponseHandler(new IWebSocketFactory() {
+
+            @Override
+            public WebSocket openWebSocket(IHTTPSession handshake) {
+                return handler.openWebSocket(handshake);
+            }
+        });
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        Response ws = mResponseHandler.serve(session);
+        if (ws != null) return ws;
+
+        Response response = mHandler.serve(session);
+
+        //Every connection has its own thread, so just wait here.
+        if (response instanceof DeferredResponse) ((DeferredResponse) response).await();
+        return response;
+    }
+}
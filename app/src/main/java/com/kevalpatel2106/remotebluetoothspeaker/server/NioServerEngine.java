@@ -0,0 +1,763 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.WebSocketFrame;
+import fi.iki.elonen.WebSocketResponseHandler;
+
+/**
+ * {@link ServerEngine} that serves all the HTTP and web socket connections from a single
+ * {@link Selector} loop, so an open dashboard costs a few buffers instead of a thread.
+ * <ul>
+ * <li>HTTP/1.1 keep alive. Requests are parsed in memory and the responses are rendered by
+ * NanoHTTPD, so both engines send the same bytes.</li>
+ * <li>Web socket upgrade. The handshake is written here and the frames are parsed here and
+ * handed to the {@link Socket}. The socket writes into the outbound queue of the connection,
+ * which the loop flushes. The socket holds its next frames while the connection has unsent
+ * bytes, so a slow client fills the bounded queue of the socket and gets the snapshot instead.</li>
+ * <li>{@link DeferredResponse}s are sent when they complete. The connection reads no further
+ * requests until then, while the loop keeps serving the other connections.</li>
+ * <li>Idle web sockets are pinged and closed if they stop answering. Idle HTTP connections are
+ * closed.</li>
+ * </ul>
+ * The loop reads and writes through two direct buffers that are reused for every connection.
+ * A connection that has more than {@link #MAX_OUTBOUND_BYTES} waiting to be sent is closed.
+ * <p>
+ * A {@link RuntimeException} while serving a connection only closes that connection. The loop
+ * keeps serving the others, the same as NanoHTTPD only loses the thread of the connection.
+ */
+
+final class NioServerEngine implements ServerEngine {
+    private static final Logger LOG = Logger.get(NioServerEngine.class);
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest request, or web socket frame, kept in memory. Larger ones close the connection.
+     */
+    private static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+    /**
+     * Most bytes waiting to be sent to one connection. Only a client that stopped reading gets
+     * there, so it is closed.
+     */
+    private static final int MAX_OUTBOUND_BYTES = 256 * 1024;
+
+    private static final long HOUSEKEEPING_INTERVAL_MS = 5000;
+    private static final long HTTP_IDLE_TIMEOUT_MS = 30000;
+    private static final long PING_INTERVAL_MS = 20000;
+    private static final byte[] PING_PAYLOAD = new byte[0];
+
+    /**
+     * {@code Response.send(OutputStream)} of NanoHTTPD. It is protected, but it is the only way to
+     * render the response with all its headers.
+     */
+    private static final Method sSendResponse;
+
+    static {
+        try {
+            sSendResponse = NanoHTTPD.Response.class.getDeclaredMethod("send", OutputStream.class);
+            sSendResponse.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported NanoHTTPD version.", e);
+        }
+    }
+
+    private final int mPort;
+    @NonNull
+    private final Handler mHandler;
+
+    //Reused for every connection. Accessed only on the loop thread.
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ByteBuffer mWriteBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+    /**
+     * Connections with the new outbound data written from the other threads.
+     */
+    private final Queue<Connection> mPendingWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Work posted from the other threads to run on the loop thread.
+     */
+    private final Queue<Runnable> mLoopTasks = new ConcurrentLinkedQueue<>();
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mLoopThread;
+    private volatile boolean mIsRunning = false;
+
+    NioServerEngine(int port, @NonNull Handler handler) {
+        mPort = port;
+        mHandler = handler;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (mIsRunning) return;
+
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(mPort));
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        mIsRunning = true;
+        mLoopThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "nio-server");
+        mLoopThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!mIsRunning) return;
+        mIsRunning = false;
+        mSelector.wakeup();
+        try {
+            mLoopThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getListeningPort() {
+        return mServerChannel == null ? -1 : mServerChannel.socket().getLocalPort();
+    }
+
+    private void loop() {
+        long nextHousekeepingAt = System.currentTimeMillis() + HOUSEKEEPING_INTERVAL_MS;
+        while (mIsRunning) {
+            try {
+                mSelector.select(HOUSEKEEPING_INTERVAL_MS);
+            } catch (IOException e) {
+                LOG.w("loop: {}", e.getMessage());
+                break;
+            }
+
+            Runnable task;
+            while ((task = mLoopTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.e("loop: Task failed.", e);
+                }
+            }
+
+            Connection pending;
+            while ((pending = mPendingWrites.poll()) != null) {
+                if (pending.mKey.isValid()) flushSafely(pending);
+            }
+
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) read(connection);
+                    if (key.isValid() && key.isWritable()) flush(connection);
+                } catch (IOException e) {
+                    LOG.d("loop: {}", e.getMessage());
+                    close(connection);
+                } catch (RuntimeException e) {
+                    onFailed(connection, e);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= nextHousekeepingAt) {
+                housekeeping(now);
+                nextHousekeepingAt = now + HOUSEKEEPING_INTERVAL_MS;
+            }
+        }
+
+        shutdown();
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = mServerChannel.accept();
+            if (channel == null) return;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Connection connection = new Connection(channel);
+            connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            LOG.w("accept: {}", e.getMessage());
+        }
+    }
+
+    private void read(@NonNull Connection connection) throws IOException {
+        mReadBuffer.clear();
+        int read = connection.mChannel.read(mReadBuffer);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+
+        //What is left from the last read is at most one request, unless nothing was consumed
+        //because a response is pending or the connection is closing. Don't buffer more then.
+        if (connection.mInboundLength > MAX_REQUEST_SIZE) {
+            LOG.w("read: Closing {}. Too much unread input.", connection.mRemoteAddress);
+            close(connection);
+            return;
+        }
+
+        mReadBuffer.flip();
+        connection.append(mReadBuffer);
+        connection.mLastReadAt = System.currentTimeMillis();
+
+        if (connection.mWebSocket == null) {
+            readRequests(connection);
+        } else {
+            readFrames(connection);
+        }
+    }
+
+    /**
+     * Serve all the complete requests in the inbound buffer. Pipelined requests are answered in
+     * order.
+     */
+    private void readRequests(@NonNull Connection connection) throws IOException {
+        while (connection.mWebSocket == null && connection.mDeferred == null && !connection.mCloseAfterWrite) {
+            int headerEnd = connection.indexOfHeaderEnd();
+            if (headerEnd < 0) {
+                if (connection.mInboundLength > MAX_REQUEST_SIZE) {
+                    respondAndClose(connection, NanoHTTPD.Response.Status.BAD_REQUEST, "Request too large.");
+                }
+                return;
+            }
+
+            String[] lines = new String(connection.mInbound, 0, headerEnd, ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                respondAndClose(connection, NanoHTTPD.Response.Status.BAD_REQUEST, "Bad request line.");
+                return;
+            }
+
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int separator = lines[i].indexOf(':');
+                if (separator <= 0) continue;
+                headers.put(lines[i].substring(0, separator).trim().toLowerCase(Locale.US),
+                        lines[i].substring(separator + 1).trim());
+            }
+            headers.put("remote-addr", connection.mRemoteAddress);
+            headers.put("http-client-ip", connection.mRemoteAddress);
+
+            int bodyLength;
+            try {
+                String contentLength = headers.get("content-length");
+                bodyLength = contentLength == null ? 0 : Integer.parseInt(contentLength);
+            } catch (NumberFormatException e) {
+                bodyLength = -1;
+            }
+            if (bodyLength < 0 || headerEnd + 4 + bodyLength > MAX_REQUEST_SIZE) {
+                respondAndClose(connection, NanoHTTPD.Response.Status.BAD_REQUEST, "Bad body.");
+                return;
+            }
+            if (connection.mInboundLength < headerEnd + 4 + bodyLength) return;   //Body not read yet
+
+            byte[] body = new byte[bodyLength];
+            System.arraycopy(connection.mInbound, headerEnd + 4, body, 0, bodyLength);
+            connection.consume(headerEnd + 4 + bodyLength);
+
+            NanoHTTPD.Method method = NioSession.parseMethod(requestLine[0]);
+            if (method == null) {
+                respondAndClose(connection, NanoHTTPD.Response.Status.METHOD_NOT_ALLOWED, "Method not allowed.");
+                return;
+            }
+
+            NioSession session = new NioSession(method, requestLine[1], headers, body);
+            if (isWebSocketUpgrade(headers)) {
+                upgrade(connection, session);
+                readFrames(connection);
+                return;
+            }
+
+            String connectionHeader = headers.get("connection");
+            boolean keepAlive = "HTTP/1.1".equals(requestLine[2])
+                    ? connectionHeader == null || !connectionHeader.equalsIgnoreCase("close")
+                    : connectionHeader != null && connectionHeader.equalsIgnoreCase("keep-alive");
+
+            NanoHTTPD.Response response = mHandler.serve(session);
+            if (response == null) {
+                response = new NanoHTTPD.Response(NanoHTTPD.Response.Status.NOT_FOUND,
+                        NanoHTTPD.MIME_PLAINTEXT, "Not found.");
+            }
+            if (response instanceof DeferredResponse) {
+                respondLater(connection, (DeferredResponse) response, method, keepAlive);
+                return;
+            }
+            respond(connection, response, method, keepAlive);
+        }
+    }
+
+    /**
+     * Send the response once it completes and then continue with the pipelined requests.
+     */
+    private void respondLater(@NonNull final Connection connection,
+                              @NonNull final DeferredResponse response,
+                              @NonNull final NanoHTTPD.Method method,
+                              final boolean keepAlive) {
+        connection.mDeferred = response;
+        response.setListener(new Runnable() {
+            @Override
+            public void run() {
+                runOnLoop(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.mDeferred = null;
+                        if (!connection.mKey.isValid()) return;
+                        try {
+                            respond(connection, response, method, keepAlive);
+                            readRequests(connection);
+                        } catch (IOException e) {
+                            LOG.d("respondLater: {}", e.getMessage());
+                            close(connection);
+                        } catch (RuntimeException e) {
+                            onFailed(connection, e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static boolean isWebSocketUpgrade(@NonNull Map<String, String> headers) {
+        String upgrade = headers.get(WebSocketResponseHandler.HEADER_UPGRADE.toLowerCase(Locale.US));
+        String connection = headers.get(WebSocketResponseHandler.HEADER_CONNECTION.toLowerCase(Locale.US));
+        return upgrade != null && upgrade.equalsIgnoreCase(WebSocketResponseHandler.HEADER_UPGRADE_VALUE)
+                && connection != null && connection.toLowerCase(Locale.US).contains("upgrade");
+    }
+
+    /**
+     * Write the handshake and start the socket.
+     */
+    private void upgrade(@NonNull Connection connection, @NonNull NioSession session) throws IOException {
+        Map<String, String> headers = session.getHeaders();
+        String key = headers.get(WebSocketResponseHandler.HEADER_WEBSOCKET_KEY.toLowerCase(Locale.US));
+        String version = headers.get(WebSocketResponseHandler.HEADER_WEBSOCKET_VERSION.toLowerCase(Locale.US));
+        if (key == null || !WebSocketResponseHandler.HEADER_WEBSOCKET_VERSION_VALUE.equals(version)) {
+            respondAndClose(connection, NanoHTTPD.Response.Status.BAD_REQUEST, "Invalid web socket handshake.");
+            return;
+        }
+
+        String acceptKey;
+        try {
+            acceptKey = WebSocketResponseHandler.makeAcceptKey(key);
+        } catch (NoSuchAlgorithmException e) {
+            respondAndClose(connection, NanoHTTPD.Response.Status.INTERNAL_ERROR, "SHA-1 is not available.");
+            return;
+        }
+
+        StringBuilder handshake = new StringBuilder(160)
+                .append("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append(WebSocketResponseHandler.HEADER_WEBSOCKET_ACCEPT).append(": ").append(acceptKey).append("\r\n");
+        String protocol = headers.get(WebSocketResponseHandler.HEADER_WEBSOCKET_PROTOCOL.toLowerCase(Locale.US));
+        if (protocol != null) {
+            handshake.append(WebSocketResponseHandler.HEADER_WEBSOCKET_PROTOCOL).append(": ")
+                    .append(protocol.split(",")[0].trim()).append("\r\n");
+        }
+        enqueue(connection, handshake.append("\r\n").toString().getBytes(ISO_8859_1));
+
+        Socket socket = mHandler.openWebSocket(session);
+        connection.mWebSocket = socket;
+        connection.mLastPingAt = System.currentTimeMillis();
+        ConnectionOutputStream outputStream = new ConnectionOutputStream(connection);
+        socket.open(outputStream, outputStream);
+        flush(connection);
+    }
+
+    /**
+     * Hand all the complete frames in the inbound buffer to the socket.
+     */
+    private void readFrames(@NonNull Connection connection) {
+        Socket socket = connection.mWebSocket;
+        while (socket != null && connection.mInboundLength > 0 && !socket.isClosed()) {
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(connection.mInbound, 0,
+                    connection.mInboundLength);
+            WebSocketFrame frame;
+            try {
+                frame = WebSocketFrame.read(inputStream);
+            } catch (EOFException e) {
+                //Frame is not complete yet.
+                if (connection.mInboundLength > MAX_REQUEST_SIZE) close(connection);
+                return;
+            } catch (IOException e) {
+                LOG.d("readFrames: {}", e.getMessage());
+                close(connection);
+                return;
+            }
+
+            connection.consume(connection.mInboundLength - inputStream.available());
+            socket.onFrame(frame);
+        }
+    }
+
+    private void respond(@NonNull Connection connection,
+                         @NonNull NanoHTTPD.Response response,
+                         @NonNull NanoHTTPD.Method method,
+                         boolean keepAlive) throws IOException {
+        if (!keepAlive) response.addHeader("Connection", "close");
+        response.setRequestMethod(method);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
+        try {
+            sSendResponse.invoke(response, outputStream);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IOException("Cannot render the response.", e);
+        }
+
+        enqueue(connection, outputStream.toByteArray());
+        if (!keepAlive) connection.mCloseAfterWrite = true;
+        flush(connection);
+    }
+
+    private void respondAndClose(@NonNull Connection connection,
+                                 @NonNull NanoHTTPD.Response.Status status,
+                                 @NonNull String message) throws IOException {
+        connection.mInboundLength = 0;
+        respond(connection, new NanoHTTPD.Response(status, NanoHTTPD.MIME_PLAINTEXT, message),
+                NanoHTTPD.Method.GET, false);
+    }
+
+    /**
+     * Queue the data on the connection. Runs on the loop thread.
+     *
+     * @throws IOException If the connection has too much unsent data. Close it then.
+     */
+    private static void enqueue(@NonNull Connection connection, @NonNull byte[] data) throws IOException {
+        if (!connection.enqueue(data)) throw new IOException("Too much unsent data. Client is not reading.");
+    }
+
+    private void flushSafely(@NonNull Connection connection) {
+        try {
+            flush(connection);
+        } catch (IOException e) {
+            LOG.d("flush: {}", e.getMessage());
+            close(connection);
+        } catch (RuntimeException e) {
+            onFailed(connection, e);
+        }
+    }
+
+    /**
+     * Close the connection that failed with a bug, so the loop can go on with the others.
+     */
+    private void onFailed(@NonNull Connection connection, @NonNull RuntimeException e) {
+        LOG.e("onFailed: Closing {} after", connection.mRemoteAddress, e);
+        close(connection);
+    }
+
+    /**
+     * Write as much of the outbound queue as the socket takes and wait for
+     * {@link SelectionKey#OP_WRITE} for the rest. Once everything is written, the web socket can
+     * send its next frames. Runs on the loop thread.
+     */
+    private void flush(@NonNull Connection connection) throws IOException {
+        boolean isDrained;
+        synchronized (connection) {
+            ByteBuffer head;
+            while ((head = connection.mOutbound.peek()) != null) {
+                int start = head.position();
+                int length = Math.min(head.remaining(), mWriteBuffer.capacity());
+                mWriteBuffer.clear();
+                mWriteBuffer.put(head.array(), head.arrayOffset() + start, length);
+                mWriteBuffer.flip();
+
+                int written = connection.mChannel.write(mWriteBuffer);
+                head.position(start + written);
+                connection.mOutboundBytes -= written;
+                if (!head.hasRemaining()) connection.mOutbound.poll();
+                if (written < length) break;    //Socket buffer is full.
+            }
+            isDrained = connection.mOutbound.isEmpty();
+        }
+
+        if (!isDrained) {
+            connection.mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else if (connection.mCloseAfterWrite) {
+            close(connection);
+        } else {
+            connection.mKey.interestOps(SelectionKey.OP_READ);
+            Socket socket = connection.mWebSocket;
+            if (socket != null) socket.onWritable();
+        }
+    }
+
+    /**
+     * Ping the idle web sockets, close the ones that stopped answering and the idle HTTP
+     * connections. Time out the late deferred responses.
+     */
+    private void housekeeping(long now) {
+        List<Connection> toClose = new ArrayList<>();
+        for (SelectionKey key : mSelector.keys()) {
+            if (!(key.attachment() instanceof Connection) || !key.isValid()) continue;
+
+            Connection connection = (Connection) key.attachment();
+            long idle = now - connection.mLastReadAt;
+            DeferredResponse deferred = connection.mDeferred;
+            if (deferred != null) {
+                deferred.expireIfLate(SystemClock.elapsedRealtime());
+            } else if (connection.mWebSocket == null) {
+                if (idle > HTTP_IDLE_TIMEOUT_MS && connection.isOutboundEmpty()) toClose.add(connection);
+            } else if (idle > 2 * PING_INTERVAL_MS) {
+                toClose.add(connection);
+            } else if (idle > PING_INTERVAL_MS && now - connection.mLastPingAt > PING_INTERVAL_MS) {
+                connection.mLastPingAt = now;
+                try {
+                    connection.mWebSocket.ping(PING_PAYLOAD);
+                } catch (IOException | RuntimeException e) {
+                    toClose.add(connection);
+                }
+            }
+        }
+        for (Connection connection : toClose) close(connection);
+    }
+
+    private void close(@NonNull Connection connection) {
+        if (connection.mKey != null) connection.mKey.cancel();
+        try {
+            connection.mChannel.close();
+        } catch (IOException e) {
+            //Already closed.
+        }
+        Socket socket = connection.mWebSocket;
+        if (socket == null) return;
+        try {
+            socket.onConnectionLost();
+        } catch (RuntimeException e) {
+            LOG.e("close: Socket failed to close.", e);
+        }
+    }
+
+    private void shutdown() {
+        for (SelectionKey key : mSelector.keys()) {
+            if (key.attachment() instanceof Connection) close((Connection) key.attachment());
+        }
+        try {
+            mServerChannel.close();
+            mSelector.close();
+        } catch (IOException e) {
+            LOG.w("shutdown: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Run the task on the loop thread. Can be called from any thread.
+     */
+    private void runOnLoop(@NonNull Runnable task) {
+        mLoopTasks.offer(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Ask the loop to flush the connection. Can be called from any thread, including the loop
+     * thread itself, like when the socket answers a ping.
+     */
+    private void requestFlush(@NonNull Connection connection) {
+        mPendingWrites.offer(connection);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Single client connection.
+     */
+    private static final class Connection {
+        @NonNull
+        private final SocketChannel mChannel;
+        @NonNull
+        private final String mRemoteAddress;
+        private SelectionKey mKey;
+
+        //Accessed only on the loop thread.
+        private byte[] mInbound = new byte[1024];
+        private int mInboundLength = 0;
+        private long mLastReadAt = System.currentTimeMillis();
+        private long mLastPingAt;
+        @Nullable
+        private volatile Socket mWebSocket;
+
+        /**
+         * Response being waited for or null. No more requests are read until it is sent.
+         */
+        @Nullable
+        private DeferredResponse mDeferred;
+
+        /**
+         * Data waiting to be written and its size in bytes. Guarded by this.
+         */
+        private final Queue<ByteBuffer> mOutbound = new ArrayDeque<>();
+        private int mOutboundBytes = 0;
+        private volatile boolean mCloseAfterWrite = false;
+
+        private Connection(@NonNull SocketChannel channel) {
+            mChannel = channel;
+            mRemoteAddress = channel.socket().getInetAddress().getHostAddress();
+        }
+
+        private void append(@NonNull ByteBuffer buffer) {
+            int length = buffer.remaining();
+            if (mInboundLength + length > mInbound.length) {
+                byte[] grown = new byte[Math.max(mInbound.length * 2, mInboundLength + length)];
+                System.arraycopy(mInbound, 0, grown, 0, mInboundLength);
+                mInbound = grown;
+            }
+            buffer.get(mInbound, mInboundLength, length);
+            mInboundLength += length;
+        }
+
+        private void consume(int length) {
+            System.arraycopy(mInbound, length, mInbound, 0, mInboundLength - length);
+            mInboundLength -= length;
+        }
+
+        /**
+         * @return Index of the empty line that ends the headers or -1 if not received yet.
+         */
+        private int indexOfHeaderEnd() {
+            for (int i = 0; i + 3 < mInboundLength; i++) {
+                if (mInbound[i] == '\r' && mInbound[i + 1] == '\n'
+                        && mInbound[i + 2] == '\r' && mInbound[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return False if the data would take the unsent bytes over {@link #MAX_OUTBOUND_BYTES}.
+         * Nothing is queued then.
+         */
+        private synchronized boolean enqueue(@NonNull byte[] data) {
+            if (mOutboundBytes + data.length > MAX_OUTBOUND_BYTES) return false;
+            mOutbound.add(ByteBuffer.wrap(data));
+            mOutboundBytes += data.length;
+            return true;
+        }
+
+        private synchronized boolean isOutboundEmpty() {
+            return mOutbound.isEmpty();
+        }
+    }
+
+    /**
+     * Stream the {@link Socket} writes its frames to. The frame is collected until
+     * {@link #flush()} and then queued on the connection as a whole, so the frames from the
+     * different threads never interleave.
+     */
+    private final class ConnectionOutputStream extends OutputStream implements Socket.Backlog {
+        @NonNull
+        private final Connection mConnection;
+        private final ByteArrayOutputStream mFrame = new ByteArrayOutputStream(256);
+
+        private ConnectionOutputStream(@NonNull Connection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            mFrame.write(b);
+        }
+
+        @Override
+        public synchronized void write(@NonNull byte[] b, int off, int len) {
+            mFrame.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (mFrame.size() == 0) return;
+            if (!mConnection.mChannel.isOpen()) throw new IOException("Connection closed.");
+
+            boolean isQueued = mConnection.enqueue(mFrame.toByteArray());
+            mFrame.reset();
+            if (!isQueued) {
+                runOnLoop(new Runnable() {
+                    @Override
+                    public void run() {
+                        NioServerEngine.this.close(mConnection);
+                    }
+                });
+                throw new IOException("Too much unsent data. Client is not reading.");
+            }
+            requestFlush(mConnection);
+        }
+
+        @Override
+        public boolean hasUnsentBytes() {
+            return !mConnection.isOutboundEmpty();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            mConnection.mCloseAfterWrite = true;
+            requestFlush(mConnection);
+        }
+    }
+}
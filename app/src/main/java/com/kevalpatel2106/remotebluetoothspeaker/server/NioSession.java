@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Request parsed by the {@link NioServerEngine}. The whole request, including the body, is already
+ * in memory when this is created.
+ */
+
+final class NioSession implements NanoHTTPD.IHTTPSession {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Key of the body in {@link #parseBody(Map)}. Same as NanoHTTPD uses.
+     */
+    private static final String POST_DATA = "postData";
+
+    @NonNull
+    private final NanoHTTPD.Method mMethod;
+    @NonNull
+    private final String mUri;
+    @Nullable
+    private final String mQuery;
+    @NonNull
+    private final Map<String, String> mHeaders;
+    @NonNull
+    private final byte[] mBody;
+
+    private Map<String, String> mParms;
+
+    /**
+     * @param method  Method of the request.
+     * @param target  Request target like {@code /path?query}.
+     * @param headers Headers with the names in lower case.
+     * @param body    Body of the request. Empty if there is none.
+     */
+    NioSession(@NonNull NanoHTTPD.Method method,
+               @NonNull String target,
+               @NonNull Map<String, String> headers,
+               @NonNull byte[] body) {
+        mMethod = method;
+        mHeaders = headers;
+        mBody = body;
+
+        int queryStart = target.indexOf('?');
+        mUri = decode(queryStart < 0 ? target : target.substring(0, queryStart));
+        mQuery = queryStart < 0 ? null : target.substring(queryStart + 1);
+    }
+
+    /**
+     * @return Method or null if the name is not supported.
+     */
+    @Nullable
+    static NanoHTTPD.Method parseMethod(@NonNull String name) {
+        try {
+            return NanoHTTPD.Method.valueOf(name.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static String decode(@NonNull String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    @Override
+    public void execute() {
+        throw new UnsupportedOperationException("Executed by the NioServerEngine.");
+    }
+
+    @Override
+    public synchronized Map<String, String> getParms() {
+        if (mParms == null) {
+            mParms = new HashMap<>();
+            if (mQuery != null) {
+                for (String pair : mQuery.split("&")) {
+                    if (pair.isEmpty()) continue;
+                    int separator = pair.indexOf('=');
+                    if (separator < 0) {
+                        mParms.put(decode(pair), "");
+                    } else {
+                        mParms.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+                    }
+                }
+            }
+        }
+        return mParms;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    @Override
+    public String getUri() {
+        return mUri;
+    }
+
+    @Override
+    public String getQueryParameterString() {
+        return mQuery;
+    }
+
+    @Override
+    public NanoHTTPD.Method getMethod() {
+        return mMethod;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(mBody);
+    }
+
+    @Override
+    public NanoHTTPD.CookieHandler getCookies() {
+        //Not used by the app.
+        return null;
+    }
+
+    /**
+     * Put the body in the files under {@code postData}, same as NanoHTTPD does for the body that
+     * is not a form.
+     */
+    @Override
+    public void parseBody(Map<String, String> files) {
+        if (mBody.length > 0) files.put(POST_DATA, new String(mBody, UTF_8));
+    }
+}
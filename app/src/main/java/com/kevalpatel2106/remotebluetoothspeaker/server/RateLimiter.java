@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+import com.kevalpatel2106.remotebluetoothspeaker.Commands;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Counter;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+
+/**
+ * Rate limits of one web socket client.
+ * <p>
+ * Every message of the client takes a token from the connection bucket, so a stuck script can't
+ * keep the connection thread busy. Every command also takes a token from the bucket of its
+ * {@link CommandClass}, so the commands that keep the bluetooth stack busy for seconds are
+ * limited much harder than the volume clicks. Refused commands are only counted, they never
+ * reach the service.
+ * <p>
+ * The buckets are lock free, see {@link TokenBucket}. The commands that pass here still have to
+ * pass the global cap of the {@link com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBus}.
+ */
+
+final class RateLimiter {
+    /**
+     * Messages of any kind the client may send at once.
+     */
+    private static final int MESSAGE_BURST = 40;
+
+    /**
+     * Time to earn one more message in milliseconds. 40 messages per second.
+     */
+    private static final long MESSAGE_INTERVAL_MS = 25;
+
+    private final TokenBucket mMessages = new TokenBucket(MESSAGE_BURST, MESSAGE_INTERVAL_MS);
+    private final TokenBucket[] mCommands = new TokenBucket[CommandClass.values().length];
+
+    RateLimiter() {
+        for (CommandClass commandClass : CommandClass.values()) {
+            mCommands[commandClass.ordinal()] = new TokenBucket(commandClass.mBurst, commandClass.mIntervalMs);
+        }
+    }
+
+    /**
+     * Take the token for the message. Call this for every message before looking at it.
+     *
+     * @return True if the message may be handled.
+     */
+    boolean tryMessage() {
+        if (mMessages.tryTake(System.nanoTime()) == 0) return true;
+        Metrics.COMMANDS_REJECTED_FLOOD.inc();
+        return false;
+    }
+
+    /**
+     * Take the token for the command.
+     *
+     * @param name Raw command name. See {@link CommandClass#of(String)}.
+     * @return 0 if the command may run. Else the time until it may be sent again in milliseconds.
+     */
+    long tryCommand(@Nullable String name) {
+        CommandClass commandClass = CommandClass.of(name);
+        long wait = mCommands[commandClass.ordinal()].tryTake(System.nanoTime());
+        if (wait != 0) commandClass.mRejected.inc();
+        return wait;
+    }
+
+    /**
+     * Commands that share the same limit.
+     */
+    enum CommandClass {
+        /**
+         * Turning the adapter on or off and the discoverable mode. Each takes seconds.
+         */
+        POWER(4, 1000, "power"),
+
+        /**
+         * Disconnecting and unpairing the devices. Each goes through every device.
+         */
+        DEVICES(2, 5000, "devices"),
+
+        /**
+         * Volume changes. Cheap and clicked in bursts, so they are coalesced by the service.
+         */
+        VOLUME(20, 50, "volume");
+
+        private final int mBurst;
+        private final long mIntervalMs;
+        @NonNull
+        private final Counter mRejected;
+
+        CommandClass(int burst, long intervalMs, @NonNull String label) {
+            mBurst = burst;
+            mIntervalMs = intervalMs;
+            mRejected = Metrics.commandsRejected("rate_" + label);
+        }
+
+        /**
+         * @param name Raw command name.
+         * @return Class of the command. Unknown commands turn on the bluetooth, so they are
+         * {@link #POWER}.
+         */
+        @NonNull
+        static CommandClass of(@Nullable String name) {
+            Command command = Command.parse(name);
+            if (command == null) return Commands.SET_VOLUME.equals(name) ? VOLUME : POWER;
+
+            switch (command) {
+                case DISCONNECT_ALL:
+                case UNPAIR_ALL:
+                    return DEVICES;
+                case VOLUME_UP:
+                case VOLUME_DOWN:
+                    return VOLUME;
+                default:
+                    return POWER;
+            }
+        }
+    }
+}
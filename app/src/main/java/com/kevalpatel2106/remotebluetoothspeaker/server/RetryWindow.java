@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Window of the recent command ids of one connection, so a retried command runs at most once.
+ * <p>
+ * The client numbers its commands in increasing order. Only the last {@link #SIZE} ids are kept
+ * with their done frames. Any id older than the window is stale and never runs again.
+ */
+
+final class RetryWindow {
+
+    /**
+     * Number of the ids remembered.
+     */
+    static final int SIZE = 32;
+
+    /**
+     * Highest id that fell out of the window. Guarded by this.
+     */
+    private long mHighestEvicted = Long.MIN_VALUE;
+
+    /**
+     * Id to its done frame, or null while the command is still running. Guarded by this.
+     */
+    private final Map<Long, String> mEntries = new LinkedHashMap<Long, String>(SIZE * 2) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+            if (size() <= SIZE) return false;
+            mHighestEvicted = Math.max(mHighestEvicted, eldest.getKey());
+            return true;
+        }
+    };
+
+    /**
+     * Start tracking the command.
+     *
+     * @param id Id assigned by the client.
+     * @return {@link Status#NEW} if the command should run. Anything else if it is a retry.
+     */
+    @NonNull
+    synchronized Status begin(long id) {
+        if (mEntries.containsKey(id)) return mEntries.get(id) == null ? Status.RUNNING : Status.DONE;
+        if (id <= mHighestEvicted) return Status.STALE;
+
+        mEntries.put(id, null);
+        return Status.NEW;
+    }
+
+    /**
+     * Forget the command that was refused after {@link #begin(long)}, so the client can send it
+     * again with the same id.
+     */
+    synchronized void forget(long id) {
+        if (mEntries.containsKey(id) && mEntries.get(id) == null) mEntries.remove(id);
+    }
+
+    /**
+     * Remember the done frame of the command, so it can be sent again to a retry.
+     */
+    synchronized void done(long id, @NonNull String doneFrame) {
+        if (mEntries.containsKey(id)) mEntries.put(id, doneFrame);
+    }
+
+    /**
+     * @return Done frame of the command or null if it is still running or not known.
+     */
+    @Nullable
+    synchronized String getDone(long id) {
+        return mEntries.get(id);
+    }
+
+    enum Status {
+        /**
+         * Never seen. Run it.
+         */
+        NEW,
+
+        /**
+         * Retry of the command that is still running.
+         */
+        RUNNING,
+
+        /**
+         * Retry of the command that is done.
+         */
+        DONE,
+
+        /**
+         * Older than the window. It may or may not have run.
+         */
+        STALE
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.scheduler.CommandScheduler;
+import com.kevalpatel2106.remotebluetoothspeaker.scheduler.Schedule;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * REST endpoint to create, list and cancel the {@link Schedule}s of the {@link CommandScheduler}.
+ * <p>
+ * {@code POST /api/schedules} with the command and either the time of the first run in ms since
+ * epoch ({@code at}) or the delay from now ({@code delayMs}). Add {@code periodMs} to repeat it
+ * and {@code count} to stop after that many runs. This fades the volume down one step a minute
+ * ten times, starting in an hour:
+ * <pre>
+ * {"command": "volume_down", "delayMs": 3600000, "periodMs": 60000, "count": 10}
+ * </pre>
+ * It returns {@code 201 Created} with the new schedule:
+ * <pre>
+ * {"id":7,"command":"volume_down","nextAt":1497000000000,"periodMs":60000,"count":10}
+ * </pre>
+ * {@code GET /api/schedules} returns all the schedules, the next to run first, and the current
+ * time of the speaker: {@code {"now":1496996400000,"schedules":[...]}}.
+ * <p>
+ * {@code DELETE /api/schedules/7} cancels the schedule.
+ * <p>
+ * Everything is refused with {@code 503 Service Unavailable} until the scheduler has loaded the
+ * saved schedules.
+ */
+
+final class ScheduleApi {
+    static final String URI = "/api/schedules";
+
+    /**
+     * @return True if the uri is the list or one of the schedules.
+     */
+    static boolean matches(@NonNull String uri) {
+        return uri.equals(URI) || uri.startsWith(URI + "/");
+    }
+
+    @NonNull
+    NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session) {
+        CommandScheduler scheduler = CommandScheduler.getRunning();
+        if (scheduler == null) {
+            return error(CommandApi.UnavailableStatus.INSTANCE, "Scheduler is not running.");
+        }
+
+        String uri = session.getUri();
+        if (!uri.equals(URI)) {
+            if (session.getMethod() != NanoHTTPD.Method.DELETE) return notAllowed("DELETE");
+            return cancel(scheduler, uri.substring(URI.length() + 1));
+        }
+
+        if (session.getMethod() == NanoHTTPD.Method.POST) {
+            return create(scheduler, session);
+        } else if (session.getMethod() == NanoHTTPD.Method.GET) {
+            return new NanoHTTPD.Response(NanoHTTPD.Response.Status.OK, CommandApi.MIME_JSON,
+                    toJson(scheduler));
+        }
+        return notAllowed("GET, POST");
+    }
+
+    @NonNull
+    private static NanoHTTPD.Response create(@NonNull CommandScheduler scheduler,
+                                             @NonNull NanoHTTPD.IHTTPSession session) {
+        Schedule schedule;
+        try {
+            Map<String, String> body = new HashMap<>();
+            session.parseBody(body);
+            String postData = body.get("postData");
+            if (postData == null) throw new JSONException("Body must be a JSON object of the schedule.");
+
+            JSONObject json = new JSONObject(postData);
+            long at;
+            if (json.has("at")) {
+                at = json.getLong("at");
+            } else if (json.has("delayMs")) {
+                long delayMs = json.getLong("delayMs");
+                if (delayMs < 0 || delayMs > CommandScheduler.MAX_AHEAD_MS) {
+                    throw new IllegalArgumentException("Delay must be 0 to " + CommandScheduler.MAX_AHEAD_MS + "ms.");
+                }
+                at = System.currentTimeMillis() + delayMs;
+            } else {
+                throw new JSONException("Set either at or delayMs.");
+            }
+            schedule = scheduler.create(json.getString("command"), at,
+                    json.optLong("periodMs"), json.optInt("count"));
+        } catch (IOException | NanoHTTPD.ResponseException | JSONException
+                | IllegalArgumentException e) {
+            return error(NanoHTTPD.Response.Status.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            return error(CommandApi.UnavailableStatus.INSTANCE, e.getMessage());
+        }
+        return new NanoHTTPD.Response(NanoHTTPD.Response.Status.CREATED, CommandApi.MIME_JSON,
+                schedule.toJson());
+    }
+
+    @NonNull
+    private static NanoHTTPD.Response cancel(@NonNull CommandScheduler scheduler, @NonNull String id) {
+        try {
+            if (scheduler.cancel(Long.parseLong(id))) {
+                return new NanoHTTPD.Response(NanoHTTPD.Response.Status.OK, CommandApi.MIME_JSON,
+                        "{\"cancelled\":" + id + "}");
+            }
+        } catch (NumberFormatException ignore) {
+            //Not an id. Not found either.
+        }
+        return error(NanoHTTPD.Response.Status.NOT_FOUND, "No schedule " + id + ".");
+    }
+
+    @NonNull
+    private static String toJson(@NonNull CommandScheduler scheduler) {
+        StringBuilder builder = new StringBuilder(256).append("{\"now\":")
+                .append(System.currentTimeMillis())
+                .append(",\"schedules\":[");
+        boolean isFirst = true;
+        for (Schedule schedule : scheduler.list()) {
+            if (!isFirst) builder.append(',');
+            isFirst = false;
+            builder.append(schedule.toJson());
+        }
+        return builder.append("]}").toString();
+    }
+
+    @NonNull
+    private static NanoHTTPD.Response notAllowed(@NonNull String allow) {
+        NanoHTTPD.Response response = error(NanoHTTPD.Response.Status.METHOD_NOT_ALLOWED,
+                "Use " + allow + ".");
+        response.addHeader("Allow", allow);
+        return response;
+    }
+
+    @NonNull
+    private static NanoHTTPD.Response error(@NonNull NanoHTTPD.Response.IStatus status,
+                                            @Nullable String message) {
+        return new NanoHTTPD.Response(status, CommandApi.MIME_JSON,
+                "{\"error\":" + JSONObject.quote(String.valueOf(message)) + "}");
+    }
+}
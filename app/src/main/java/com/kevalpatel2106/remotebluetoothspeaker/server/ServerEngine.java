@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Network engine of the {@link WebServer}. The engine owns the connections and the threads and
+ * hands the parsed requests to the {@link Handler}, so the engines can be swapped without
+ * touching the pages or the sockets.
+ *
+ * @see NanoHttpdEngine
+ * @see NioServerEngine
+ */
+
+interface ServerEngine {
+
+    /**
+     * Start listening. Returns once the port is bound.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    void start() throws IOException;
+
+    /**
+     * Stop listening and close all the connections.
+     */
+    void stop();
+
+    /**
+     * @return Port the engine listens on. Useful if it was started on port 0.
+     */
+    int getListeningPort();
+
+    /**
+     * Handler of the requests parsed by the engine.
+     */
+    interface Handler {
+
+        /**
+         * Handle the plain HTTP request.
+         *
+         * @param session Parsed request.
+         * @return Response to send. Null if nothing matches the request. A
+         * {@link DeferredResponse} is sent once it is completed.
+         */
+        @Nullable
+        NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session);
+
+        /**
+         * Create the socket for the web socket upgrade request. The engine sends the handshake
+         * and then starts the socket.
+         *
+         * @param handshake Upgrade request.
+         * @return New {@link Socket}.
+         */
+        @NonNull
+        Socket openWebSocket(@NonNull NanoHTTPD.IHTTPSession handshake);
+    }
+}
@@ -17,29 +17,335 @@
 package com.kevalpatel2106.remotebluetoothspeaker.server;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
-import android.util.Log;
+import android.support.annotation.Nullable;
 
 import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.BluetoothA2DPService;
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBatch;
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBus;
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.SpeakerStateStore;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.CharacterCodingException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fi.iki.elonen.NanoHTTPD;
 import fi.iki.elonen.WebSocket;
+import fi.iki.elonen.WebSocketException;
 import fi.iki.elonen.WebSocketFrame;
 
 /**
  * Created by Keval on 19-May-17.
  * Socket to maintain the connection for commands.
+ * <p>
+ * Outgoing messages are not written directly. They are added to a bounded queue and sent from the
+ * {@link SocketRegistry} writer threads. Status frames are deltas, so if the client can't keep up
+ * all the pending frames are replaced by one full snapshot of the latest state. On the engines
+ * that queue the written frames instead of blocking, the {@link Backlog} of the engine holds the
+ * next frames here until the previous ones are sent, so the same applies there.
+ * <p>
+ * The client can ask for the snapshot any time by sending {@link #MESSAGE_SYNC}. It should do that
+ * if it sees a gap in the state versions. If it sends {@code sync:<epoch>:<version>} with the last
+ * version it has applied, it only gets what changed since then as one {@code resume} frame, or
+ * the snapshot if that version is too old. Reconnecting clients pass the same in the query of
+ * the handshake, see {@link #enqueueResume(String, String)}.
+ * <p>
+ * Commands come either as the raw command name, which is never answered, or as the envelope with
+ * the id assigned by the client:
+ * <pre>
+ * {"id": 17, "command": "disconnect_device", "t": 1234.5}
+ * </pre>
+ * The envelope is answered with {@code {"type":"ack","id":17,"t":1234.5}} once it is accepted and
+ * {@code {"type":"done","id":17,"t":1234.5,"result":"ok","queuedUs":..,"tookUs":..,"v":..}} once it
+ * has run. The optional {@code t} is echoed back, so the client can measure the round trip. A retry
+ * with the same id is acked again with {@code "duplicate":true} and never runs twice, see
+ * {@link RetryWindow}. Replies have their own queue and are never replaced by the snapshot.
+ * <p>
+ * Every message and every command has to pass the {@link RateLimiter} of the connection and then
+ * the global cap of the {@link CommandBus}. Refused raw commands are dropped silently. Refused
+ * envelopes are answered with {@code {"type":"error","id":17,"error":"rate_limited","retryMs":..}}
+ * or {@code "error":"overloaded"} and may be sent again with the same id.
  */
 
 class Socket extends WebSocket {
-    private static final String TAG = Socket.class.getSimpleName();
+    private static final Logger LOG = Logger.get(Socket.class);
+
+    /**
+     * Maximum number of frames waiting to be sent to this client.
+     */
+    private static final int MAX_PENDING_FRAMES = 8;
+
+    /**
+     * Maximum number of replies waiting to be sent to this client. Extra replies are dropped. The
+     * client gets them again when it retries.
+     */
+    private static final int MAX_PENDING_REPLIES = 2 * RetryWindow.SIZE;
+
+    /**
+     * Message from the client to request the full snapshot of the state.
+     */
+    private static final String MESSAGE_SYNC = "sync";
+
+    /**
+     * Time the client should wait before resending the command refused by the global cap.
+     */
+    private static final long OVERLOADED_RETRY_MS = 1000;
+
     private final Context mContext;
+    private final SocketRegistry mRegistry;
+
+    private final BlockingQueue<Frame> mOutbound = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+    private final BlockingQueue<Frame> mReplies = new ArrayBlockingQueue<>(MAX_PENDING_REPLIES);
+    private final AtomicBoolean mDraining = new AtomicBoolean(false);
+    private final RetryWindow mRetryWindow = new RetryWindow();
+    private final RateLimiter mRateLimiter = new RateLimiter();
+
+    /**
+     * True once the handshake is written. Frames sent before that would corrupt the handshake.
+     */
+    private volatile boolean mIsOpen = false;
+
+    /**
+     * Unsent data of the engine or null if the writes block until they are sent.
+     */
+    @Nullable
+    private volatile Backlog mBacklog;
+    private final AtomicInteger mDroppedFrames = new AtomicInteger();
 
-    Socket(@NonNull NanoHTTPD.IHTTPSession handshakeRequest, Context context) {
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    Socket(@NonNull NanoHTTPD.IHTTPSession handshakeRequest,
+           @NonNull Context context,
+           @NonNull SocketRegistry registry) {
         super(handshakeRequest);
         mContext = context;
+        mRegistry = registry;
+    }
+
+    /**
+     * Queue the message for this client and schedule the drain if it is not running already.
+     * This never blocks the caller.
+     *
+     * @param frame {@link Frame} to send.
+     */
+    void enqueue(@NonNull Frame frame) {
+        if (!mOutbound.offer(frame)) {
+            //Queue is full. The snapshot already contains every pending delta, including this one.
+            int dropped = mOutbound.size() + 1;
+            mDroppedFrames.addAndGet(dropped);
+            Metrics.WEBSOCKET_FRAMES_DROPPED.add(dropped);
+            mOutbound.clear();
+            mOutbound.offer(new Frame(SpeakerStateStore.getInstance().getSnapshotJson()));
+        }
+
+        scheduleDrain();
+    }
+
+    /**
+     * Queue the full snapshot of the current state.
+     */
+    void enqueueSnapshot() {
+        enqueue(new Frame(SpeakerStateStore.getInstance().getSnapshotJson()));
+    }
+
+    /**
+     * Queue the changes since the version the client has or the full snapshot if the changes
+     * are not known anymore.
+     *
+     * @param epoch   Epoch of the client's version or null.
+     * @param version Last version the client has applied or null if it has nothing.
+     */
+    void enqueueResume(@Nullable String epoch, @Nullable String version) {
+        String resume = null;
+        if (epoch != null && version != null) {
+            try {
+                resume = SpeakerStateStore.getInstance().getResumeJson(epoch, Long.parseLong(version));
+            } catch (NumberFormatException e) {
+                LOG.d("enqueueResume: Invalid version {}", version);
+            }
+        }
+
+        if (resume == null) {
+            enqueueSnapshot();
+        } else {
+            enqueue(new Frame(resume));
+        }
+    }
+
+    /**
+     * Queue the reply to the command of this client.
+     */
+    private void reply(@NonNull String text) {
+        reply(text, 0);
+    }
+
+    /**
+     * Queue the reply to the traced command of this client.
+     */
+    private void reply(@NonNull String text, long traceId) {
+        if (!mReplies.offer(new Frame(text, traceId))) LOG.w("reply: Too many pending replies. Dropping {}", text);
+        scheduleDrain();
+    }
+
+    /**
+     * Write all the pending frames to the client. Replies go first. Runs on the writer thread.
+     */
+    private void drain() {
+        try {
+            while (!isBacklogged()) {
+                Frame reply = mReplies.poll();
+                Frame frame = reply != null ? reply : mOutbound.poll();
+                if (frame == null) break;
+
+                try {
+                    long startedAt = Tracer.now();
+                    sendFrame(new WebSocketFrame(WebSocketFrame.OpCode.Text, true, frame.getPayload()));
+                    Tracer.record(reply != null ? "socket.reply" : "socket.push", frame.getTraceId(), startedAt);
+                    if (reply == null) {
+                        Metrics.STATUS_PUSH_LATENCY.record((SystemClock.elapsedRealtimeNanos() - frame.getQueuedAt()) / 1000);
+                    }
+                } catch (IOException e) {
+                    LOG.d("drain: {}", e.getMessage());
+                    mReplies.clear();
+                    mOutbound.clear();
+                    mRegistry.unregister(this);
+                    return;
+                }
+            }
+        } finally {
+            mDraining.set(false);
+        }
+
+        //A frame may have been queued, or the backlog sent, after the last check but before the
+        //flag was cleared.
+        if ((!mReplies.isEmpty() || !mOutbound.isEmpty()) && !isBacklogged()) scheduleDrain();
+    }
+
+    private boolean isBacklogged() {
+        Backlog backlog = mBacklog;
+        return backlog != null && backlog.hasUnsentBytes();
+    }
+
+    /**
+     * Called by the engine once everything written so far is sent. Send the frames held back
+     * until then.
+     */
+    void onWritable() {
+        if (!mReplies.isEmpty() || !mOutbound.isEmpty()) scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (mIsOpen && mDraining.compareAndSet(false, true)) mRegistry.schedule(mDrainTask);
+    }
+
+    /**
+     * Called by {@link WebSocket} on the connection thread once the handshake is sent. Start
+     * sending the frames queued so far and then keep reading the frames until the socket closes.
+     */
+    @Override
+    protected void readWebsocket() {
+        onHandshakeSent();
+        super.readWebsocket();
+    }
+
+    /**
+     * Mark the socket open and start sending the frames queued so far.
+     */
+    void onHandshakeSent() {
+        mIsOpen = true;
+        scheduleDrain();
+    }
+
+    /**
+     * Open the socket on the engine that wrote the handshake itself. The frames are read by the
+     * engine and handed to {@link #onFrame(WebSocketFrame)}.
+     *
+     * @param outputStream Stream to write the frames to.
+     * @param backlog      Unsent data of the stream. The engine calls {@link #onWritable()} once
+     *                     it is all sent.
+     */
+    void open(@NonNull OutputStream outputStream, @NonNull Backlog backlog) {
+        mBacklog = backlog;
+        out = outputStream;
+        state = State.OPEN;
+        onHandshakeSent();
+    }
+
+    /**
+     * Handle the frame read by the engine. Same as {@link #readWebsocket()} does for each frame.
+     */
+    void onFrame(@NonNull WebSocketFrame frame) {
+        try {
+            handleWebsocketFrame(frame);
+        } catch (CharacterCodingException e) {
+            onException(e);
+            doClose(WebSocketFrame.CloseCode.InvalidFramePayloadData, e.toString(), false);
+        } catch (WebSocketException e) {
+            onException(e);
+            doClose(e.getCode(), e.getReason(), false);
+        } catch (IOException e) {
+            onException(e);
+            doClose(WebSocketFrame.CloseCode.InternalServerError, e.toString(), false);
+        }
+    }
+
+    /**
+     * Called by the engine when the connection is closed without the close frame.
+     */
+    void onConnectionLost() {
+        doClose(WebSocketFrame.CloseCode.AbnormalClosure, "Connection lost.", true);
+    }
+
+    /**
+     * @return True once the socket is closed.
+     */
+    boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * @return Number of frames dropped because the client was too slow.
+     */
+    int getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * @return Number of frames waiting to be sent.
+     */
+    int getPendingFrames() {
+        return mReplies.size() + mOutbound.size();
+    }
+
+    /**
+     * Write the frame and count it. All the frames, including pings and close, go through here.
+     */
+    @Override
+    public synchronized void sendFrame(WebSocketFrame frame) throws IOException {
+        super.sendFrame(frame);
+
+        int length = frame.getBinaryPayload().length;
+        int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        Metrics.WEBSOCKET_FRAMES_SENT.inc();
+        Metrics.WEBSOCKET_BYTES_SENT.add(header + length);
     }
 
     @Override
@@ -49,18 +355,134 @@ class Socket extends WebSocket {
 
     @Override
     protected void onMessage(WebSocketFrame webSocketFrame) {
+        //Refuse the flood before doing any work for it.
+        if (!mRateLimiter.tryMessage()) return;
+
+        long startedAt = Tracer.now();
         String command = webSocketFrame.getTextPayload();
-        Log.d(TAG, "onMessage: WebSocket Command ->" + command);
-        BluetoothA2DPService.passCommand(mContext, command);    //Send command to BT
+        LOG.d("onMessage: WebSocket Command -> {}", command);
+        if (MESSAGE_SYNC.equals(command)) {
+            enqueueSnapshot();
+            return;
+        }
+        if (command.startsWith(MESSAGE_SYNC + ":")) {
+            String[] parts = command.split(":");
+            enqueueResume(parts.length == 3 ? parts[1] : null, parts.length == 3 ? parts[2] : null);
+            return;
+        }
+        if (command.startsWith("{")) {
+            onEnvelope(command, startedAt);
+            return;
+        }
+        if (mRateLimiter.tryCommand(command) != 0) return;
+        long traceId = Tracer.newTraceId();
+        BluetoothA2DPService.passCommand(mContext, command, traceId);    //Send command to BT
+        Tracer.record("socket.onMessage", traceId, startedAt);
+    }
+
+    /**
+     * Ack the command in the envelope, run it once and send the done frame.
+     *
+     * @param startedAt {@link Tracer#now()} when the message arrived.
+     */
+    private void onEnvelope(@NonNull String text, long startedAt) {
+        final long id;
+        final String echo;
+        CommandBatch.Step step;
+        try {
+            JSONObject envelope = new JSONObject(text);
+            id = envelope.getLong("id");
+            Object time = envelope.opt("t");
+            echo = "\"id\":" + id + (time instanceof Number ? ",\"t\":" + time : "");
+            step = CommandBatch.Step.of(envelope.getString("command"),
+                    envelope.has("value") ? envelope.getInt("value") : null);
+        } catch (JSONException e) {
+            reply("{\"type\":\"error\",\"error\":" + JSONObject.quote(String.valueOf(e.getMessage())) + "}");
+            return;
+        }
+
+        switch (mRetryWindow.begin(id)) {
+            case NEW:
+                break;
+            case STALE:
+                Metrics.COMMAND_RETRIES.inc();
+                reply("{\"type\":\"error\"," + echo + ",\"error\":\"stale\"}");
+                return;
+            default:
+                //Retry. Tell the client it is known and resend the result if there is one.
+                Metrics.COMMAND_RETRIES.inc();
+                reply("{\"type\":\"ack\"," + echo + ",\"duplicate\":true}");
+                String done = mRetryWindow.getDone(id);
+                if (done != null) reply(done);
+                return;
+        }
+
+        long retryMs = mRateLimiter.tryCommand(step.getName());
+        if (retryMs != 0) {
+            refuse(id, echo, "rate_limited", retryMs);
+            return;
+        }
+
+        final long traceId = Tracer.newTraceId();
+        boolean isAccepted = CommandBus.dispatchBatch(mContext, new CommandBatch(Collections.singletonList(step),
+                new CommandBatch.Callback() {
+                    @Override
+                    public void onBatchDone(@NonNull CommandBatch batch) {
+                        String done = toDoneJson(echo, batch);
+                        mRetryWindow.done(id, done);
+                        reply(done, traceId);
+                    }
+                }, traceId));
+        if (isAccepted) {
+            reply("{\"type\":\"ack\"," + echo + "}", traceId);
+        } else {
+            refuse(id, echo, "overloaded", OVERLOADED_RETRY_MS);
+        }
+        Tracer.record("socket.onMessage", traceId, startedAt);
+    }
+
+    /**
+     * Tell the client the command did not run and forget its id, so it can be sent again.
+     */
+    private void refuse(long id, @NonNull String echo, @NonNull String error, long retryMs) {
+        mRetryWindow.forget(id);
+        reply("{\"type\":\"error\"," + echo + ",\"error\":\"" + error + "\",\"retryMs\":" + retryMs + "}");
+    }
+
+    @NonNull
+    private static String toDoneJson(@NonNull String echo, @NonNull CommandBatch batch) {
+        CommandBatch.Step step = batch.getSteps().get(0);
+        StringBuilder builder = new StringBuilder(128)
+                .append("{\"type\":\"done\",").append(echo)
+                .append(",\"result\":\"").append(step.getOutcome().name().toLowerCase(Locale.US))
+                .append("\",\"queuedUs\":").append(batch.getQueuedMicros())
+                .append(",\"tookUs\":").append(step.getTookMicros())
+                .append(",\"v\":").append(batch.getVersion());
+        if (step.getError() != null) builder.append(",\"error\":").append(JSONObject.quote(step.getError()));
+        if (step.getDevicesJson() != null) builder.append(",\"devices\":").append(step.getDevicesJson());
+        return builder.append('}').toString();
     }
 
     @Override
     protected void onClose(WebSocketFrame.CloseCode closeCode, String s, boolean b) {
-        //Do nothing
+        mIsOpen = false;
+        mRegistry.unregister(this);
     }
 
     @Override
     protected void onException(IOException e) {
-        Log.d(TAG, "onException: " + e.getMessage());
+        LOG.d("onException: {}", e.getMessage());
+        mRegistry.unregister(this);
+    }
+
+    /**
+     * Data written to the engine that did not reach the network yet.
+     */
+    interface Backlog {
+
+        /**
+         * @return True if some of the written data is not sent yet. Can be called from any thread.
+         */
+        boolean hasUnsentBytes();
     }
 }
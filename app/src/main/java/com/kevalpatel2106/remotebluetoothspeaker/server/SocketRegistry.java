@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of all the open {@link Socket}s. Every status frame is fanned out to each socket's
+ * own bounded outbound queue, so one slow client can never hold up the rest.
+ *
+ * @see Socket
+ */
+
+final class SocketRegistry {
+    private static final Logger LOG = Logger.get(SocketRegistry.class);
+
+    /**
+     * Open sockets. Iterated on every broadcast and modified only on connect/disconnect.
+     */
+    private final Set<Socket> mSockets = new CopyOnWriteArraySet<>();
+
+    /**
+     * Executor that drains the outbound queues. Each socket has at most one drain task running
+     * at a time, so a client blocked on a slow network only ties up its own thread. Null if the
+     * engine never blocks on the writes, then the queues are drained on the broadcasting thread.
+     */
+    @Nullable
+    private final ExecutorService mSendExecutor;
+
+    SocketRegistry() {
+        this(true);
+    }
+
+    /**
+     * @param isBlockingWrite False if the engine only queues the written frames and sends them on
+     *                        its own thread, like the {@link NioServerEngine}. No writer threads
+     *                        are started then.
+     */
+    SocketRegistry(boolean isBlockingWrite) {
+        mSendExecutor = isBlockingWrite ? Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "socket-writer-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    /**
+     * Add newly opened socket to the registry.
+     *
+     * @param socket {@link Socket} to register.
+     */
+    void register(@NonNull Socket socket) {
+        mSockets.add(socket);
+        LOG.d("register: Open sockets {}", mSockets.size());
+    }
+
+    /**
+     * Remove the socket from the registry. It is safe to call this more than once for the
+     * same socket.
+     *
+     * @param socket {@link Socket} to remove.
+     */
+    void unregister(@NonNull Socket socket) {
+        if (mSockets.remove(socket)) {
+            LOG.d("unregister: Open sockets {}", mSockets.size());
+        }
+    }
+
+    /**
+     * Queue the message for every open socket. This never blocks on the network.
+     *
+     * @param msg Message to send.
+     */
+    void broadcast(@NonNull String msg) {
+        broadcast(msg, 0);
+    }
+
+    /**
+     * Same as {@link #broadcast(String)} for the message about the traced command.
+     *
+     * @param traceId Trace id of the command or 0.
+     */
+    void broadcast(@NonNull String msg, long traceId) {
+        Frame frame = new Frame(msg, traceId);
+        for (Socket socket : mSockets) socket.enqueue(frame);
+    }
+
+    /**
+     * @return Number of open sockets.
+     */
+    int size() {
+        return mSockets.size();
+    }
+
+    /**
+     * @return Number of frames waiting to be sent to all the sockets.
+     */
+    int getPendingFrames() {
+        int pending = 0;
+        for (Socket socket : mSockets) pending += socket.getPendingFrames();
+        return pending;
+    }
+
+    /**
+     * Run the drain task of the socket on the writer threads, or right away if the writes do not
+     * block.
+     */
+    void schedule(@NonNull Runnable drainTask) {
+        if (mSendExecutor == null) {
+            drainTask.run();
+        } else {
+            mSendExecutor.execute(drainTask);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket. It holds up to the capacity tokens and earns one token every interval.
+ * <p>
+ * Instead of the tokens, the bucket keeps the time when it will be full again. Taking a token
+ * moves that time one interval ahead, and the token is refused if it would move more than the
+ * capacity intervals past now. That is the whole state, so it fits in one {@link AtomicLong} and
+ * taking a token is a single compare and set without any allocation.
+ */
+
+final class TokenBucket {
+    private final long mIntervalNanos;
+    private final long mCapacityNanos;
+
+    /**
+     * Time when the bucket is full again in {@link System#nanoTime()}. Full if it is in the past.
+     */
+    private final AtomicLong mFullAt;
+
+    /**
+     * @param capacity   Most tokens that can be taken at once.
+     * @param intervalMs Time to earn one token in milliseconds.
+     */
+    TokenBucket(int capacity, long intervalMs) {
+        mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        mCapacityNanos = capacity * mIntervalNanos;
+        mFullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take one token.
+     *
+     * @param now Current time in {@link System#nanoTime()}.
+     * @return 0 if the token is taken. Else the time until the next token in milliseconds, at
+     * least 1.
+     */
+    long tryTake(long now) {
+        while (true) {
+            long fullAt = mFullAt.get();
+            long next = Math.max(fullAt, now) + mIntervalNanos;
+            long wait = next - now - mCapacityNanos;
+            if (wait > 0) return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            if (mFullAt.compareAndSet(fullAt, next)) return 0;
+        }
+    }
+}
@@ -19,120 +19,205 @@ package com.kevalpatel2106.remotebluetoothspeaker.server;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.util.Log;
 
-import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
-import org.greenrobot.eventbus.ThreadMode;
+import com.kevalpatel2106.remotebluetoothspeaker.events.EventRing;
+import com.kevalpatel2106.remotebluetoothspeaker.events.SpeakerEvents;
+import com.kevalpatel2106.remotebluetoothspeaker.events.StatusEvent;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+import com.kevalpatel2106.remotebluetoothspeaker.tracing.Tracer;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Map;
 
-import fi.iki.elonen.IWebSocketFactory;
 import fi.iki.elonen.NanoHTTPD;
-import fi.iki.elonen.WebSocket;
-import fi.iki.elonen.WebSocketResponseHandler;
 
 /**
  * Created by Keval Patel on 14/05/17.
  * This is a small web server running on your Raspberry PI. Connect to the local ip of the
  * raspberry Pi with port 8085 and issue the commands.
+ * <p>
+ * The connections are handled by the {@link ServerEngine} selected with {@link Engine}. This class
+ * only decides what to serve. The state changes come from {@link SpeakerEvents#STATUS} on its
+ * own consumer thread. A client that misses some of them because the consumer fell behind sees
+ * the gap in the versions and asks for the sync.
  *
  * @author Keval {https://github.com/kevalpatel2106}
  * @see <a href='https://github.com/NanoHttpd/nanohttpd'>'https://github.com/NanoHttpd/nanohttpd'</a>
  */
 
-public final class WebServer extends NanoHTTPD {
-    private static final String TAG = WebServer.class.getSimpleName();
-    @NonNull
-    private final AssetManager mAssetManager;
+public final class WebServer implements ServerEngine.Handler {
+    private static final Logger LOG = Logger.get(WebServer.class);
+    private static final int PORT = 8085;
+    private static final String URI_METRICS = "/metrics";
+    private static final String MIME_METRICS = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Spans of the recent commands from the {@link Tracer}. Open it in chrome://tracing.
+     */
+    private static final String URI_TRACE = "/debug/trace";
 
-    private Socket mSocket;
-    private WebSocketResponseHandler mResponseHandler;
+    //Query of the web socket handshake to resume from the version the client has.
+    private static final String PARAM_EPOCH = "epoch";
+    private static final String PARAM_VERSION = "v";
 
+    @NonNull
+    private final Context mContext;
+    @NonNull
+    private final AssetCache mAssetCache;
+    @NonNull
+    private final CommandApi mCommandApi;
+    @NonNull
+    private final LogApi mLogApi;
+    @NonNull
+    private final ScheduleApi mScheduleApi;
+
+    @NonNull
+    private final SocketRegistry mSocketRegistry;
+    @NonNull
+    private final ServerEngine mEngine;
+    @NonNull
+    private final EventRing.Subscription mStatusSubscription;
 
     /**
-     * Start the web server.
+     * Start the web server on the {@link Engine#NANO_HTTPD} engine. The {@link Engine#NIO} engine
+     * is opt in until it is compared with it on the device.
      *
-     * @param assetManager {@link AssetManager} to load html wepages from assets.
+     * @param assetManager {@link AssetManager} to load html wepages from assets. All the assets
+     *                     are loaded in memory once while starting the server.
      * @throws IOException If failed to initialize.
      */
-    public WebServer(@NonNull final Context context,
+    public WebServer(@NonNull Context context,
                      @NonNull AssetManager assetManager) throws IOException {
-        super(8085);
+        this(context, assetManager, Engine.NANO_HTTPD);
+    }
 
-        mAssetManager = assetManager;
+    /**
+     * Start the web server.
+     *
+     * @param assetManager {@link AssetManager} to load html wepages from assets. All the assets
+     *                     are loaded in memory once while starting the server.
+     * @param engine       {@link Engine} to handle the connections.
+     * @throws IOException If failed to initialize.
+     */
+    public WebServer(@NonNull Context context,
+                     @NonNull AssetManager assetManager,
+                     @NonNull Engine engine) throws IOException {
+        mContext = context;
+        mAssetCache = new AssetCache(assetManager);
+        mCommandApi = new CommandApi(context);
+        mLogApi = new LogApi();
+        mScheduleApi = new ScheduleApi();
+        mSocketRegistry = new SocketRegistry(engine != Engine.NIO);
+        mEngine = engine == Engine.NIO
+                ? new NioServerEngine(PORT, this)
+                : new NanoHttpdEngine(PORT, this);
+
+        registerGauges();
 
-        //Create socket
-        mResponseHandler = new WebSocketResponseHandler(new IWebSocketFactory() {
+        //Start the server
+        mEngine.start();
 
+        mStatusSubscription = SpeakerEvents.STATUS.subscribe("web", new EventRing.Handler<StatusEvent>() {
             @Override
-            public WebSocket openWebSocket(IHTTPSession handshake) {
-                mSocket = new Socket(handshake, context);
-                return mSocket;
+            public void onEvent(@NonNull StatusEvent event) {
+                long startedAt = Tracer.now();
+                writeMessage(event.getDeltaJson(), event.getTraceId());
+                Tracer.record("web.writeMessage", event.getTraceId(), startedAt);
             }
         });
+        LOG.i("WebServer: Starting server on {}.", engine);
+    }
 
-        //Start the server
-        start();
+    private void registerGauges() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("speaker_websocket_connections", "Open web sockets.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mSocketRegistry.size();
+            }
+        });
+        registry.gauge("speaker_websocket_pending_frames", "Frames waiting to be sent to all the web sockets.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return mSocketRegistry.getPendingFrames();
+            }
+        });
+    }
 
-        EventBus.getDefault().register(this);
-        Log.d(TAG, "WebServer: Starting server.");
+    /**
+     * Stop the server and close all the connections.
+     */
+    public void stop() {
+        mStatusSubscription.close();
+        mEngine.stop();
     }
 
     /**
      * Handle the HTML request.
      */
+    @NonNull
     @Override
-    public Response serve(IHTTPSession session) {
-        NanoHTTPD.Response ws = mResponseHandler.serve(session);
-        if (ws == null) {
-            String uri = session.getUri();
-            try {
-                switch (uri) {
-                    case "/":
-                        return getHTMLResponse();
-                    case "/css/style.css":
-                        InputStream inputStream = mAssetManager.open("css/style.css");
-                        return new NanoHTTPD.Response(Response.Status.OK, "text/css", inputStream);
-                    case "/script/script.js":
-                        inputStream = mAssetManager.open("script/script.js");
-                        return new NanoHTTPD.Response(Response.Status.OK, "text/javascript", inputStream);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    public NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session) {
+        if (URI_METRICS.equals(session.getUri())) {
+            return new NanoHTTPD.Response(NanoHTTPD.Response.Status.OK, MIME_METRICS,
+                    MetricsRegistry.getInstance().scrape());
+        }
+        if (CommandApi.URI.equals(session.getUri())) return mCommandApi.serve(session);
+        if (LogApi.URI.equals(session.getUri())) return mLogApi.serve(session);
+        if (ScheduleApi.matches(session.getUri())) return mScheduleApi.serve(session);
+        if (URI_TRACE.equals(session.getUri())) {
+            NanoHTTPD.Response response = new NanoHTTPD.Response(NanoHTTPD.Response.Status.OK,
+                    CommandApi.MIME_JSON, Tracer.toJson());
+            response.addHeader("Content-Disposition", "attachment; filename=\"trace.json\"");
+            return response;
         }
-        return ws;
+
+        NanoHTTPD.Response asset = mAssetCache.serve(session);
+        if (asset != null) return asset;
+
+        return new NanoHTTPD.Response(NanoHTTPD.Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT,
+                "Not found.");
+    }
+
+    @NonNull
+    @Override
+    public Socket openWebSocket(@NonNull NanoHTTPD.IHTTPSession handshake) {
+        Socket socket = new Socket(handshake, mContext, mSocketRegistry);
+        mSocketRegistry.register(socket);
+
+        //New clients start from the full snapshot and then receive the deltas. Reconnecting
+        //clients only get what they missed.
+        Map<String, String> parms = handshake.getParms();
+        socket.enqueueResume(parms.get(PARAM_EPOCH), parms.get(PARAM_VERSION));
+        return socket;
     }
 
     /**
-     * Get the HTML webpage from the assets folder and return the fixed length {@link fi.iki.elonen.NanoHTTPD.Response}.
+     * Write the text on all the open sockets. This only queues the message for each client, so
+     * it never blocks on the network.
      *
-     * @return Fixed length {@link fi.iki.elonen.NanoHTTPD.Response}
-     * @throws IOException If asset not found or failed to read asset file
+     * @param msg     String message to write on socket
+     * @param traceId Trace id of the command that caused the message or 0.
      */
-    @NonNull
-    private Response getHTMLResponse() throws IOException {
-        InputStream inputStream = mAssetManager.open("home.html");
-        return new NanoHTTPD.Response(Response.Status.OK, "text/html", inputStream);
+    private void writeMessage(@NonNull String msg, long traceId) {
+        LOG.d("writeMessage: {}", msg);
+        mSocketRegistry.broadcast(msg, traceId);
     }
 
     /**
-     * Write the text on the socket.
-     * It is advisable to make this method synchronised.
-     *
-     * @param msg String message to write on socket
+     * Engines to handle the connections.
      */
-    @Subscribe(threadMode = ThreadMode.BACKGROUND)
-    public synchronized void writeMessage(@Nullable final String msg) {
-        Log.d(TAG, "writeMessage: " + msg);
-        if (msg == null || mSocket == null) return;
-        try {
-            mSocket.send(msg);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public enum Engine {
+        /**
+         * Bundled NanoHTTPD. One thread per connection.
+         */
+        NANO_HTTPD,
+
+        /**
+         * Single thread {@link java.nio.channels.Selector} loop for all the connections.
+         */
+        NIO
     }
 }
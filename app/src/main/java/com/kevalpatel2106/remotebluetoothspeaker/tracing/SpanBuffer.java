@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.tracing;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Last spans recorded by the {@link Tracer}, in parallel preallocated arrays. Once it is full,
+ * every new span replaces the oldest one, so it never grows and never allocates.
+ */
+
+final class SpanBuffer {
+    private final String[] mNames;
+    private final long[] mTraceIds;
+    private final long[] mStartedAt;
+    private final long[] mEndedAt;
+    private final long[] mThreadIds;
+    private final String[] mThreadNames;
+
+    /**
+     * Number of the spans ever recorded. The next one goes to this modulo the capacity.
+     */
+    private long mCount = 0;
+
+    SpanBuffer(int capacity) {
+        mNames = new String[capacity];
+        mTraceIds = new long[capacity];
+        mStartedAt = new long[capacity];
+        mEndedAt = new long[capacity];
+        mThreadIds = new long[capacity];
+        mThreadNames = new String[capacity];
+    }
+
+    synchronized void add(@NonNull String name, long traceId, long startedAt, long endedAt,
+                          @NonNull Thread thread) {
+        int i = (int) (mCount++ % mNames.length);
+        mNames[i] = name;
+        mTraceIds[i] = traceId;
+        mStartedAt[i] = startedAt;
+        mEndedAt[i] = endedAt;
+        mThreadIds[i] = thread.getId();
+        mThreadNames[i] = thread.getName();
+    }
+
+    /**
+     * Copy the spans out, oldest first.
+     *
+     * @param spans Gets every span.
+     * @return Number of the spans replaced by the newer ones so far.
+     */
+    synchronized long forEach(@NonNull Visitor spans) {
+        int size = (int) Math.min(mCount, mNames.length);
+        for (long n = mCount - size; n < mCount; n++) {
+            int i = (int) (n % mNames.length);
+            spans.onSpan(mNames[i], mTraceIds[i], mStartedAt[i], mEndedAt[i], mThreadIds[i], mThreadNames[i]);
+        }
+        return mCount - size;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < mNames.length; i++) {
+            mNames[i] = null;
+            mThreadNames[i] = null;
+        }
+        mCount = 0;
+    }
+
+    interface Visitor {
+
+        /**
+         * Called with the lock of the buffer held. Only copy the span.
+         */
+        void onSpan(@NonNull String name, long traceId, long startedAt, long endedAt, long threadId,
+                    @NonNull String threadName);
+    }
+}
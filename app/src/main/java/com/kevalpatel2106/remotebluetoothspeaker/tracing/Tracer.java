@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.tracing;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spans of the commands, from the web socket to the adapter and back to the clients.
+ * <p>
+ * Each command gets a trace id where it enters the app. The id travels with the command through
+ * the {@link com.kevalpatel2106.remotebluetoothspeaker.bluetooth.CommandBus}, the service and the
+ * executor, and with the status change it causes back to the web sockets. Every step on the way
+ * records how long it took with {@link #record(String, long, long)}. Id 0 means the command is
+ * not traced and its spans are not recorded.
+ * <p>
+ * The last {@link #CAPACITY} spans are kept in memory. Recording takes two clock reads and a
+ * short lock, and allocates nothing. {@link #toJson()} exports them in the Chrome trace event
+ * format. Open it in {@code chrome://tracing} or Perfetto: the spans are on the tracks of their
+ * threads, and the spans of one command are connected by arrows.
+ */
+
+public final class Tracer {
+    /**
+     * Number of the spans kept.
+     */
+    private static final int CAPACITY = 4096;
+
+    private static final SpanBuffer sSpans = new SpanBuffer(CAPACITY);
+    private static final AtomicLong sNextTraceId = new AtomicLong(1);
+
+    /**
+     * Trace of the command running on the thread. Held in an array, so setting it doesn't box.
+     */
+    private static final ThreadLocal<long[]> sCurrent = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private Tracer() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    /**
+     * @return New trace id. Never 0.
+     */
+    public static long newTraceId() {
+        return sNextTraceId.getAndIncrement();
+    }
+
+    /**
+     * @return Current time for the spans, in {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Record the span from the time until now on the calling thread.
+     *
+     * @param name      Name of the step. Pass a constant, it is kept until the span is replaced.
+     * @param traceId   Trace of the command or 0 to record nothing.
+     * @param startedAt Start of the span from {@link #now()}.
+     */
+    public static void record(@NonNull String name, long traceId, long startedAt) {
+        if (traceId == 0) return;
+        sSpans.add(name, traceId, startedAt, now(), Thread.currentThread());
+    }
+
+    /**
+     * Set the trace of the command the calling thread works on now, so the code it calls can
+     * record the spans without passing the id around. Set it back to 0 once the command is done.
+     */
+    public static void setCurrent(long traceId) {
+        sCurrent.get()[0] = traceId;
+    }
+
+    /**
+     * @return Trace set with {@link #setCurrent(long)} on the calling thread or 0.
+     */
+    public static long getCurrent() {
+        return sCurrent.get()[0];
+    }
+
+    /**
+     * Forget all the spans recorded so far.
+     */
+    public static void clear() {
+        sSpans.clear();
+    }
+
+    /**
+     * @return All the spans kept as the Chrome trace event JSON. Times are in micro seconds from
+     * the power on.
+     */
+    @NonNull
+    public static String toJson() {
+        final List<Span> spans = new ArrayList<>(CAPACITY);
+        long replaced = sSpans.forEach(new SpanBuffer.Visitor() {
+            @Override
+            public void onSpan(@NonNull String name, long traceId, long startedAt, long endedAt,
+                               long threadId, @NonNull String threadName) {
+                spans.add(new Span(name, traceId, startedAt, endedAt, threadId, threadName));
+            }
+        });
+
+        int pid = Process.myPid();
+        StringBuilder builder = new StringBuilder(128 + 160 * spans.size()).append("{\"traceEvents\":[");
+        boolean isFirst = true;
+
+        //Name the thread tracks.
+        Map<Long, String> threads = new LinkedHashMap<>();
+        for (Span span : spans) threads.put(span.mThreadId, span.mThreadName);
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            if (!isFirst) builder.append(',');
+            isFirst = false;
+            builder.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(pid)
+                    .append(",\"tid\":").append(thread.getKey())
+                    .append(",\"args\":{\"name\":").append(JSONObject.quote(thread.getValue())).append("}}");
+        }
+
+        Map<Long, List<Span>> traces = new HashMap<>();
+        for (Span span : spans) {
+            if (!isFirst) builder.append(',');
+            isFirst = false;
+            builder.append("{\"name\":").append(JSONObject.quote(span.mName))
+                    .append(",\"cat\":\"command\",\"ph\":\"X\",\"ts\":");
+            appendMicros(builder, span.mStartedAt);
+            builder.append(",\"dur\":");
+            appendMicros(builder, span.mEndedAt - span.mStartedAt);
+            builder.append(",\"pid\":").append(pid).append(",\"tid\":").append(span.mThreadId)
+                    .append(",\"args\":{\"trace\":").append(span.mTraceId).append("}}");
+
+            List<Span> trace = traces.get(span.mTraceId);
+            if (trace == null) {
+                trace = new ArrayList<>();
+                traces.put(span.mTraceId, trace);
+            }
+            trace.add(span);
+        }
+
+        //Connect the spans of each command in the order they started.
+        for (List<Span> trace : traces.values()) {
+            if (trace.size() < 2) continue;
+            Collections.sort(trace, new Comparator<Span>() {
+                @Override
+                public int compare(Span first, Span second) {
+                    return first.mStartedAt < second.mStartedAt ? -1 : first.mStartedAt == second.mStartedAt ? 0 : 1;
+                }
+            });
+            for (int i = 0; i < trace.size(); i++) {
+                Span span = trace.get(i);
+                String phase = i == 0 ? "s" : i == trace.size() - 1 ? "f" : "t";
+                builder.append(",{\"name\":\"command\",\"cat\":\"command\",\"ph\":\"").append(phase)
+                        .append("\",\"id\":").append(span.mTraceId).append(",\"ts\":");
+                appendMicros(builder, span.mStartedAt);
+                builder.append(",\"pid\":").append(pid).append(",\"tid\":").append(span.mThreadId);
+                if (i == trace.size() - 1) builder.append(",\"bp\":\"e\"");
+                builder.append('}');
+            }
+        }
+
+        return builder.append("],\"displayTimeUnit\":\"ms\",\"otherData\":{\"replacedSpans\":")
+                .append(replaced).append("}}").toString();
+    }
+
+    private static void appendMicros(@NonNull StringBuilder builder, long nanos) {
+        long fraction = nanos % 1000;
+        builder.append(nanos / 1000).append('.');
+        if (fraction < 100) builder.append('0');
+        if (fraction < 10) builder.append('0');
+        builder.append(fraction);
+    }
+
+    private static final class Span {
+        @NonNull
+        private final String mName;
+        private final long mTraceId;
+        private final long mStartedAt;
+        private final long mEndedAt;
+        private final long mThreadId;
+        @NonNull
+        private final String mThreadName;
+
+        private Span(@NonNull String name, long traceId, long startedAt, long endedAt, long threadId,
+                     @NonNull String threadName) {
+            mName = name;
+            mTraceId = traceId;
+            mStartedAt = startedAt;
+            mEndedAt = endedAt;
+            mThreadId = threadId;
+            mThreadName = threadName;
+        }
+    }
+}
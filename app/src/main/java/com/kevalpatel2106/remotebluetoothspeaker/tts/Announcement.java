@@ -0,0 +1,90 @@
+package com.kevalpatel2106.remotebluetoothspeaker.tts;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Single announcement waiting in the {@link AnnouncementQueue}.
+ */
+
+final class Announcement {
+    @NonNull
+    private final String[] mParts;
+    @NonNull
+    private final String mText;
+    @NonNull
+    private final TTS.Priority mPriority;
+
+    /**
+     * Pending announcements with the same key are replaced by the newer one. Null if the
+     * announcement never replaces the others.
+     */
+    @Nullable
+    private final String mSupersedeKey;
+    private final long mSequence;
+    private final long mEnqueuedAt;
+
+    Announcement(@NonNull String[] parts,
+                 @NonNull TTS.Priority priority,
+                 @Nullable String supersedeKey,
+                 long sequence) {
+        mParts = parts;
+        mPriority = priority;
+        mSupersedeKey = supersedeKey;
+        mSequence = sequence;
+        mEnqueuedAt = SystemClock.elapsedRealtime();
+
+        StringBuilder builder = new StringBuilder();
+        for (String part : parts) {
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(part);
+        }
+        mText = builder.toString();
+    }
+
+    /**
+     * @return Parts of the announcement. Each part is cached separately.
+     */
+    @NonNull
+    String[] getParts() {
+        return mParts;
+    }
+
+    /**
+     * @return Full text of the announcement.
+     */
+    @NonNull
+    String getText() {
+        return mText;
+    }
+
+    @NonNull
+    TTS.Priority getPriority() {
+        return mPriority;
+    }
+
+    @Nullable
+    String getSupersedeKey() {
+        return mSupersedeKey;
+    }
+
+    long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return Time when the announcement was queued in {@link SystemClock#elapsedRealtime()}.
+     */
+    long getEnqueuedAt() {
+        return mEnqueuedAt;
+    }
+
+    /**
+     * @return True if this announcement should be played before the other.
+     */
+    boolean isBefore(@NonNull Announcement other) {
+        int byPriority = mPriority.compareTo(other.mPriority);
+        return byPriority != 0 ? byPriority < 0 : mSequence < other.mSequence;
+    }
+}
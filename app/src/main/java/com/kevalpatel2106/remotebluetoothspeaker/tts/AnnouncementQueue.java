@@ -0,0 +1,157 @@
+package com.kevalpatel2106.remotebluetoothspeaker.tts;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of the pending {@link Announcement}s.
+ * <ul>
+ * <li>Announcements are played by {@link TTS.Priority} and then in the order they were queued.</li>
+ * <li>An announcement with the same text as a pending one is dropped.</li>
+ * <li>An announcement replaces the pending one with the same supersede key. A newer
+ * "Disconnected from X" replaces a pending "Connected to X".</li>
+ * </ul>
+ * The time from queuing to the start of the speech is tracked, so the queue latency can be
+ * measured.
+ */
+
+final class AnnouncementQueue {
+
+    /**
+     * Pending announcements. Guarded by this.
+     */
+    private final List<Announcement> mPending = new ArrayList<>();
+    private final AtomicLong mSequence = new AtomicLong();
+
+    //Metrics
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mTotalLatencyMs = new AtomicLong();
+    private final AtomicLong mMaxLatencyMs = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mSupersededCount = new AtomicLong();
+
+    /**
+     * Add the announcement to the queue.
+     *
+     * @param parts        Parts of the text.
+     * @param priority     {@link TTS.Priority} of the announcement.
+     * @param supersedeKey Key to replace the older pending announcement or null.
+     * @return False if the announcement is a duplicate and was dropped.
+     */
+    synchronized boolean add(@NonNull String[] parts,
+                             @NonNull TTS.Priority priority,
+                             @Nullable String supersedeKey) {
+        Announcement announcement = new Announcement(parts, priority, supersedeKey,
+                mSequence.incrementAndGet());
+
+        for (Announcement pending : mPending) {
+            if (pending.getText().equals(announcement.getText())) {
+                mDroppedCount.incrementAndGet();
+                return false;
+            }
+        }
+
+        if (supersedeKey != null) {
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                if (supersedeKey.equals(mPending.get(i).getSupersedeKey())) {
+                    mPending.remove(i);
+                    mSupersededCount.incrementAndGet();
+                }
+            }
+        }
+        mPending.add(announcement);
+        return true;
+    }
+
+    /**
+     * Remove and return the first announcement that can be played now.
+     *
+     * @param isEngineReady True if the engine can speak. If false, only the announcements whose
+     *                      all parts are rendered can be played.
+     * @param cache         {@link PhraseCache} to check the rendered parts. It may read the disk,
+     *                      so call this on the player thread.
+     * @return Next {@link Announcement} or null if there is nothing to play now.
+     */
+    @Nullable
+    synchronized Announcement poll(boolean isEngineReady, @NonNull PhraseCache cache) {
+        Announcement next = null;
+        for (Announcement announcement : mPending) {
+            if (next != null && !announcement.isBefore(next)) continue;
+            if (isEngineReady || isRendered(announcement, cache)) next = announcement;
+        }
+        if (next != null) mPending.remove(next);
+        return next;
+    }
+
+    private static boolean isRendered(@NonNull Announcement announcement, @NonNull PhraseCache cache) {
+        for (String part : announcement.getParts()) {
+            if (cache.get(part) == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drop all the pending announcements.
+     */
+    synchronized void clear() {
+        mDroppedCount.addAndGet(mPending.size());
+        mPending.clear();
+    }
+
+    /**
+     * @return True if nothing is waiting.
+     */
+    synchronized boolean isEmpty() {
+        return mPending.isEmpty();
+    }
+
+    /**
+     * Record the time the announcement waited before the speech started.
+     */
+    void onStarted(@NonNull Announcement announcement) {
+        long latency = SystemClock.elapsedRealtime() - announcement.getEnqueuedAt();
+        mStartedCount.incrementAndGet();
+        mTotalLatencyMs.addAndGet(latency);
+        Metrics.TTS_TIME_TO_SPEECH.record(latency);
+
+        long max;
+        do {
+            max = mMaxLatencyMs.get();
+        } while (latency > max && !mMaxLatencyMs.compareAndSet(max, latency));
+    }
+
+    synchronized int getDepth() {
+        return mPending.size();
+    }
+
+    long getStartedCount() {
+        return mStartedCount.get();
+    }
+
+    /**
+     * @return Average time from queuing to the start of the speech in milliseconds.
+     */
+    long getAverageLatencyMs() {
+        long count = mStartedCount.get();
+        return count == 0 ? 0 : mTotalLatencyMs.get() / count;
+    }
+
+    long getMaxLatencyMs() {
+        return mMaxLatencyMs.get();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    long getSupersededCount() {
+        return mSupersededCount.get();
+    }
+}
@@ -0,0 +1,123 @@
+package com.kevalpatel2106.remotebluetoothspeaker.tts;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+/**
+ * Plays the rendered {@link WavClip}s straight through an {@link AudioTrack}. The track is
+ * created once and kept playing, so there is no setup cost when the clip arrives. It is only
+ * recreated if a clip with a different format arrives.
+ * <p>
+ * All the work runs on the dedicated player thread. Use {@link #post(Runnable)} to run on it.
+ */
+
+final class ClipPlayer {
+    private static final Logger LOG = Logger.get(ClipPlayer.class);
+
+    @NonNull
+    private final Handler mHandler;
+
+    /**
+     * Current track and the format it is created for. Accessed only on the player thread.
+     */
+    @Nullable
+    private AudioTrack mTrack;
+    @Nullable
+    private WavClip mTrackFormat;
+
+    ClipPlayer() {
+        HandlerThread thread = new HandlerThread("tts-player", Process.THREAD_PRIORITY_AUDIO);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Run the task on the player thread.
+     */
+    void post(@NonNull Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    /**
+     * Create the track for the format of the clip and start it, so the first clip plays without
+     * any delay. Must be called on the player thread.
+     */
+    void warmUp(@NonNull WavClip format) {
+        ensureTrack(format);
+    }
+
+    /**
+     * Write the clip to the track. This blocks until the clip is buffered. Must be called on the
+     * player thread.
+     */
+    void play(@NonNull WavClip clip) {
+        AudioTrack track = ensureTrack(clip);
+        if (track == null) return;
+
+        byte[] pcm = clip.getPcm();
+        int written = 0;
+        while (written < pcm.length) {
+            int result = track.write(pcm, written, pcm.length - written);
+            if (result <= 0) {
+                LOG.w("play: Write failed with {}", result);
+                return;
+            }
+            written += result;
+        }
+    }
+
+    /**
+     * Drop whatever is buffered but not played yet.
+     */
+    void flush() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mTrack == null) return;
+                mTrack.pause();
+                mTrack.flush();
+                mTrack.play();
+            }
+        });
+    }
+
+    @Nullable
+    private AudioTrack ensureTrack(@NonNull WavClip format) {
+        if (mTrack != null && mTrackFormat != null && mTrackFormat.hasSameFormat(format)) {
+            return mTrack;
+        }
+
+        if (mTrack != null) mTrack.release();
+
+        int channelConfig = format.getChannels() == 2
+                ? AudioFormat.CHANNEL_OUT_STEREO
+                : AudioFormat.CHANNEL_OUT_MONO;
+        int encoding = format.getBitsPerSample() == 8
+                ? AudioFormat.ENCODING_PCM_8BIT
+                : AudioFormat.ENCODING_PCM_16BIT;
+        int bufferSize = AudioTrack.getMinBufferSize(format.getSampleRate(), channelConfig, encoding);
+
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, format.getSampleRate(),
+                channelConfig, encoding, bufferSize, AudioTrack.MODE_STREAM);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+            LOG.w("ensureTrack: Cannot create the track for {}Hz.", format.getSampleRate());
+            track.release();
+            mTrack = null;
+            mTrackFormat = null;
+            return null;
+        }
+
+        track.play();
+        mTrack = track;
+        mTrackFormat = format;
+        return track;
+    }
+}
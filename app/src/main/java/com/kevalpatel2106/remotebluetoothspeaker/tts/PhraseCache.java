@@ -0,0 +1,200 @@
+package com.kevalpatel2106.remotebluetoothspeaker.tts;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SpeechEngine;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Cache of the rendered utterances. Each phrase is rendered once with
+ * {@link SpeechEngine#synthesizeToFile(String, File, String)} and kept
+ * on the disk, so it survives the reboot. Recently played clips are also kept in memory.
+ * <p>
+ * Phrases with the device names are different for every phone, so the disk only keeps the
+ * {@link #MAX_DISK_CLIPS} last played clips. The modified time of the file is the last use.
+ */
+
+final class PhraseCache {
+    private static final Logger LOG = Logger.get(PhraseCache.class);
+
+    /**
+     * Prefix of the utterance ids used for rendering.
+     */
+    static final String RENDER_UTTERANCE_PREFIX = "render:";
+
+    /**
+     * Maximum bytes of PCM kept in memory.
+     */
+    private static final int MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Maximum number of the clips kept on the disk. Well above the fixed {@link Phrases}.
+     */
+    private static final int MAX_DISK_CLIPS = 64;
+
+    private static final String CLIP_EXTENSION = ".wav";
+
+    @NonNull
+    private final File mDirectory;
+
+    /**
+     * Text of the phrases being rendered right now.
+     */
+    private final Set<String> mRendering = Collections.synchronizedSet(new HashSet<String>());
+
+    private final LruCache<String, WavClip> mMemoryCache = new LruCache<String, WavClip>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, WavClip clip) {
+            return clip.getPcm().length;
+        }
+    };
+
+    /**
+     * @param directory Directory to store the rendered files.
+     */
+    PhraseCache(@NonNull File directory) {
+        mDirectory = directory;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            LOG.w("PhraseCache: Cannot create {}", mDirectory);
+        }
+    }
+
+    /**
+     * Get the rendered clip of the phrase. This may read the disk, so don't call it on the main
+     * thread.
+     *
+     * @param text Phrase to look up.
+     * @return {@link WavClip} or null if the phrase is not rendered yet.
+     */
+    @Nullable
+    WavClip get(@NonNull String text) {
+        File file = fileFor(text);
+        WavClip clip = mMemoryCache.get(text);
+        if (clip != null) {
+            touch(file);
+            return clip;
+        }
+        if (!file.exists()) return null;
+
+        try {
+            touch(file);
+            clip = WavClip.read(file);
+            mMemoryCache.put(text, clip);
+            return clip;
+        } catch (IOException e) {
+            LOG.w("get: Corrupt clip for \"{}\". Deleting it.", text, e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Render the phrase in the background if it is not on the disk already. The engine calls
+     * {@link #onRenderDone(String, boolean)} once the file is written.
+     *
+     * @param engine Initialized TTS engine.
+     * @param text   Phrase to render.
+     * @return True if the render is queued. False if there is nothing to render or it failed.
+     */
+    boolean render(@NonNull SpeechEngine engine, @NonNull String text) {
+        if (fileFor(text).exists() || !mRendering.add(text)) return false;
+
+        if (!engine.synthesizeToFile(text, tempFileFor(text), RENDER_UTTERANCE_PREFIX + text)) {
+            LOG.w("render: Failed to queue \"{}\".", text);
+            mRendering.remove(text);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move the rendered file in place. Writing to the temp file first makes sure a half written
+     * file is never played.
+     *
+     * @param utteranceId Id of the render utterance.
+     * @param success     True if the engine rendered the file.
+     */
+    void onRenderDone(@NonNull String utteranceId, boolean success) {
+        String text = utteranceId.substring(RENDER_UTTERANCE_PREFIX.length());
+        File temp = tempFileFor(text);
+        if (success && !temp.renameTo(fileFor(text))) {
+            LOG.w("onRenderDone: Cannot move the clip of \"{}\".", text);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        temp.delete();
+        mRendering.remove(text);
+        if (success) trimDisk();
+    }
+
+    /**
+     * Delete the least recently played clips over {@link #MAX_DISK_CLIPS}.
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+
+        int clips = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(CLIP_EXTENSION)) files[clips++] = file;
+        }
+        if (clips <= MAX_DISK_CLIPS) return;
+
+        File[] sorted = Arrays.copyOf(files, clips);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < clips - MAX_DISK_CLIPS; i++) {
+            if (!sorted[i].delete()) LOG.w("trimDisk: Cannot delete {}", sorted[i]);
+        }
+        LOG.d("trimDisk: Deleted {} clips.", clips - MAX_DISK_CLIPS);
+    }
+
+    /**
+     * Mark the clip as just played, so it is the last to be deleted.
+     */
+    private static void touch(@NonNull File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    @NonNull
+    private File fileFor(@NonNull String text) {
+        return new File(mDirectory, hash(text) + CLIP_EXTENSION);
+    }
+
+    @NonNull
+    private File tempFileFor(@NonNull String text) {
+        return new File(mDirectory, hash(text) + ".tmp");
+    }
+
+    @NonNull
+    private static String hash(@NonNull String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            //SHA-1 and UTF-8 are always available on Android.
+            throw new IllegalStateException(e);
+        }
+    }
+}
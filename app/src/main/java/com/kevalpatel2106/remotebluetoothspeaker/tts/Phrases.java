@@ -0,0 +1,32 @@
+package com.kevalpatel2106.remotebluetoothspeaker.tts;
+
+/**
+ * Fixed phrases announced by the speaker. All of these are rendered once at startup, so they play
+ * without waiting for the TTS engine.
+ */
+
+public final class Phrases {
+    public static final String READY = "I am ready.";
+    public static final String BLUETOOTH_ON = "Bluetooth is turned on.";
+    public static final String BLUETOOTH_OFF = "Bluetooth is turning off.";
+    public static final String DISCOVERABLE = "Bluetooth is discoverable for 60 seconds.";
+    public static final String UNPAIRED = "Removed paired devices.";
+
+    //Prefixes of the templates. The device name is appended to these.
+    public static final String CONNECTED_TO = "Connected to";
+    public static final String DISCONNECTED_FROM = "Disconnected from";
+
+    static final String[] ALL = {
+            READY,
+            BLUETOOTH_ON,
+            BLUETOOTH_OFF,
+            DISCOVERABLE,
+            UNPAIRED,
+            CONNECTED_TO,
+            DISCONNECTED_FROM
+    };
+
+    private Phrases() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+}
@@ -1,29 +1,86 @@
 package com.kevalpatel2106.remotebluetoothspeaker.tts;
 
 import android.content.Context;
-import android.speech.tts.TextToSpeech;
-import android.util.Log;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import java.util.Locale;
+import com.kevalpatel2106.remotebluetoothspeaker.Startup;
+import com.kevalpatel2106.remotebluetoothspeaker.StartupStage;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Platform;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SpeechEngine;
+import com.kevalpatel2106.remotebluetoothspeaker.logging.Logger;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Keval Patel on 25/04/17.
- * This class initialize and maintain the connection with TTS engine.
+ * This class initialize and maintain the connection with TTS engine. The engine is the
+ * {@link SpeechEngine} of the installed {@link Platform} hardware.
+ * <p>
+ * Known {@link Phrases} are rendered once by the engine and then played from the
+ * {@link PhraseCache} through the {@link ClipPlayer}. Only the phrases that are not rendered yet
+ * go through the engine.
+ * <p>
+ * The engine speaks and renders from one queue, so the renders only start while nothing is
+ * waiting to be played and only one at a time. A live announcement waits for one render at most.
+ * <p>
+ * Every announcement goes through the {@link AnnouncementQueue} and is played one at a time on the
+ * player thread. Announcements stay in the queue until they start playing, so they can still be
+ * dropped or replaced by newer ones. Announcements that need the engine wait in the queue until
+ * the engine is initialized.
  *
  * @author 'https://github.com/kevalpatel2106'
  */
 
 public class TTS {
-    private static final String TAG = TTS.class.getSimpleName();
-    private static final String UTTERANCE_ID = "com.kevalpatel2106.UTTERANCE_ID";
+    private static final Logger LOG = Logger.get(TTS.class);
+    private static final String UTTERANCE_PREFIX = "com.kevalpatel2106.UTTERANCE_ID:";
+
+    /**
+     * Maximum time to wait for the engine to finish one announcement.
+     */
+    private static final long MAX_UTTERANCE_MS = 15000;
+
+    private static SpeechEngine mTTSEngine;
+    private static volatile boolean mIsEngineReady = false;
+
+    private static PhraseCache mPhraseCache;
+    private static ClipPlayer mClipPlayer;
+    private static final AnnouncementQueue mQueue = new AnnouncementQueue();
 
-    private static TextToSpeech mTTSEngine;
+    /**
+     * Utterances being spoken by the engine. Completed by the {@link EngineCallback}.
+     */
+    private static final Map<String, Utterance> mUtterances = new ConcurrentHashMap<>();
+
+    //Accessed only on the player thread
+    private static final Deque<String> mToRender = new ArrayDeque<>();
+    private static boolean mIsRendering = false;
+
+    private static final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
 
     /**
      * Stop current utterance and flush the TTS queue.
      */
     public static void flush() {
+        mQueue.clear();
         if (mTTSEngine != null) mTTSEngine.stop();
+        if (mClipPlayer != null) mClipPlayer.flush();
     }
 
     /**
@@ -32,24 +89,240 @@ public class TTS {
      * @param text text to speak
      */
     public static void speak(Context context, final String text) {
-        Log.d(TAG, "Speak : " + text);
-        if (mTTSEngine == null) {
-            mTTSEngine = new TextToSpeech(context, new TextToSpeech.OnInitListener() {
-                @Override
-                public void onInit(int i) {
-                    if (i == TextToSpeech.SUCCESS) {
-                        mTTSEngine.setLanguage(Locale.US);
-                        mTTSEngine.setPitch(1f);
-                        mTTSEngine.setSpeechRate(1f);
-
-                        mTTSEngine.speak(text, TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
-                    } else {
-                        mTTSEngine = null;
+        speak(context, text, Priority.NORMAL);
+    }
+
+    /**
+     * Pass the text and let TTS speak with the given priority.
+     *
+     * @param text     text to speak
+     * @param priority {@link Priority} of the announcement.
+     */
+    public static void speak(Context context, final String text, @NonNull Priority priority) {
+        enqueue(context, new String[]{text}, priority, null);
+    }
+
+    /**
+     * Speak the template. The prefix is one of the {@link Phrases} and the name is dynamic, like
+     * the name of the device. Both are cached separately, so every prefix is shared by all the
+     * names. A pending announcement about the same name is replaced by this one.
+     *
+     * @param prefix Fixed part of the template.
+     * @param name   Dynamic part of the template.
+     */
+    public static void speak(Context context, final String prefix, final String name) {
+        enqueue(context, new String[]{prefix, name}, Priority.NORMAL, name);
+    }
+
+    private static void enqueue(@NonNull Context context,
+                                @NonNull String[] parts,
+                                @NonNull Priority priority,
+                                @Nullable String supersedeKey) {
+        init(context);
+        if (mQueue.add(parts, priority, supersedeKey)) {
+            mClipPlayer.post(mDrainTask);
+        } else {
+            LOG.d("Dropping duplicate : {}", parts[0]);
+        }
+    }
+
+    /**
+     * Initialize the cache, the player and the engine if not initialized already. The engine
+     * reports {@link StartupStage#TTS} once it is ready.
+     */
+    public static synchronized void init(@NonNull Context context) {
+        if (mPhraseCache == null) {
+            mPhraseCache = new PhraseCache(new File(context.getCacheDir(), "tts"));
+            mClipPlayer = new ClipPlayer();
+            MetricsRegistry.getInstance().gauge("speaker_tts_queue_depth",
+                    "Announcements waiting to be spoken.", "", new Gauge() {
+                        @Override
+                        public long getValue() {
+                            return mQueue.getDepth();
+                        }
+                    });
+        }
+        if (mTTSEngine != null) return;
+
+        mTTSEngine = Platform.get().createSpeechEngine(new EngineCallback());
+    }
+
+    /**
+     * Warm up the player, play whatever was waiting for the engine and then render the missing
+     * phrases. Runs on the player thread.
+     */
+    private static void onEngineReady() {
+        WavClip warmUpClip = null;
+        for (String phrase : Phrases.ALL) {
+            WavClip clip = mPhraseCache.get(phrase);
+            if (clip == null) {
+                mToRender.add(phrase);
+            } else if (warmUpClip == null) {
+                warmUpClip = clip;
+            }
+        }
+        if (warmUpClip != null) mClipPlayer.warmUp(warmUpClip);
+
+        drain();
+    }
+
+    /**
+     * Play the announcements one by one until nothing can be played. Then start the next render.
+     * Runs on the player thread.
+     */
+    private static void drain() {
+        Announcement announcement;
+        while ((announcement = mQueue.poll(mIsEngineReady, mPhraseCache)) != null) {
+            play(announcement);
+        }
+        renderNext();
+    }
+
+    /**
+     * Queue the next missing phrase on the engine, unless one is being rendered. Runs on the
+     * player thread.
+     */
+    private static void renderNext() {
+        if (mIsRendering || !mIsEngineReady) return;
+
+        String phrase;
+        while ((phrase = mToRender.poll()) != null) {
+            if (mPhraseCache.render(mTTSEngine, phrase)) {
+                mIsRendering = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Play the announcement and wait for it to finish. Runs on the player thread.
+     */
+    private static void play(@NonNull Announcement announcement) {
+        String[] parts = announcement.getParts();
+        List<WavClip> clips = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            WavClip clip = mPhraseCache.get(part);
+            if (clip == null) break;
+            clips.add(clip);
+        }
+
+        if (clips.size() == parts.length) {
+            mQueue.onStarted(announcement);
+            for (WavClip clip : clips) mClipPlayer.play(clip);
+            return;
+        }
+
+        //Not rendered yet. Let the engine speak it this time and cache it for the next.
+        String utteranceId = UTTERANCE_PREFIX + announcement.getSequence();
+        Utterance utterance = new Utterance(announcement);
+        mUtterances.put(utteranceId, utterance);
+        if (mTTSEngine.speak(announcement.getText(), utteranceId)) {
+            try {
+                if (!utterance.mDone.await(MAX_UTTERANCE_MS, TimeUnit.MILLISECONDS)) {
+                    LOG.w("play: Timed out waiting for \"{}\".", announcement.getText());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mUtterances.remove(utteranceId);
+
+        //Cache it for the next time once the queue is empty.
+        for (String part : parts) {
+            if (!mToRender.contains(part)) mToRender.add(part);
+        }
+    }
+
+    /**
+     * @return Number of the announcements waiting to be played.
+     */
+    public static int getQueueDepth() {
+        return mQueue.getDepth();
+    }
+
+    /**
+     * @return Average time from queuing the announcement to the start of the speech in ms.
+     */
+    public static long getAverageQueueLatencyMs() {
+        return mQueue.getAverageLatencyMs();
+    }
+
+    /**
+     * @return Highest time from queuing the announcement to the start of the speech in ms.
+     */
+    public static long getMaxQueueLatencyMs() {
+        return mQueue.getMaxLatencyMs();
+    }
+
+    /**
+     * Priority of the announcements. Higher priority announcements are played first.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    /**
+     * Announcement being spoken by the engine.
+     */
+    private static final class Utterance {
+        @NonNull
+        private final Announcement mAnnouncement;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        private Utterance(@NonNull Announcement announcement) {
+            mAnnouncement = announcement;
+        }
+    }
+
+    /**
+     * Starts playing once the engine is initialized, tracks the progress of the spoken
+     * announcements and completes the renders started by the {@link PhraseCache}.
+     */
+    private static final class EngineCallback implements SpeechEngine.Callback {
+
+        @Override
+        public void onInit(boolean success) {
+            if (success) {
+                mIsEngineReady = true;
+                Startup.setReady(StartupStage.TTS, true);
+
+                mClipPlayer.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onEngineReady();
                     }
+                });
+            } else {
+                synchronized (TTS.class) {
+                    mTTSEngine = null;
                 }
-            });
-        } else {
-            mTTSEngine.speak(text, TextToSpeech.QUEUE_ADD, null, UTTERANCE_ID);
+            }
+        }
+
+        @Override
+        public void onStart(@NonNull String utteranceId) {
+            Utterance utterance = mUtterances.get(utteranceId);
+            if (utterance != null) mQueue.onStarted(utterance.mAnnouncement);
+        }
+
+        @Override
+        public void onDone(@NonNull String utteranceId, boolean success) {
+            if (utteranceId.startsWith(PhraseCache.RENDER_UTTERANCE_PREFIX)) {
+                mPhraseCache.onRenderDone(utteranceId, success);
+                mClipPlayer.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIsRendering = false;
+                        drain();
+                    }
+                });
+                return;
+            }
+
+            Utterance utterance = mUtterances.get(utteranceId);
+            if (utterance != null) utterance.mDone.countDown();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package com.kevalpatel2106.remotebluetoothspeaker.tts;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Decoded PCM clip of the WAV file rendered by the TTS engine.
+ */
+
+final class WavClip {
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mBitsPerSample;
+    @NonNull
+    private final byte[] mPcm;
+
+    private WavClip(int sampleRate, int channels, int bitsPerSample, @NonNull byte[] pcm) {
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mBitsPerSample = bitsPerSample;
+        mPcm = pcm;
+    }
+
+    /**
+     * Read the PCM WAV file.
+     *
+     * @param file WAV file.
+     * @return {@link WavClip}
+     * @throws IOException If the file can't be read or it is not a PCM WAV file.
+     */
+    @NonNull
+    static WavClip read(@NonNull File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (readTag(in) != 0x46464952 /* RIFF */) throw new IOException("Not a RIFF file.");
+            readIntLE(in);  //Riff size
+            if (readTag(in) != 0x45564157 /* WAVE */) throw new IOException("Not a WAVE file.");
+
+            int sampleRate = 0;
+            int channels = 0;
+            int bitsPerSample = 0;
+            while (true) {
+                int tag;
+                try {
+                    tag = readTag(in);
+                } catch (EOFException e) {
+                    throw new IOException("No data chunk.");
+                }
+                int size = readIntLE(in);
+
+                if (tag == 0x20746d66 /* fmt */) {
+                    if (readShortLE(in) != 1) throw new IOException("Not PCM.");
+                    channels = readShortLE(in);
+                    sampleRate = readIntLE(in);
+                    readIntLE(in);      //Byte rate
+                    readShortLE(in);    //Block align
+                    bitsPerSample = readShortLE(in);
+                    skipFully(in, size - 16);
+                } else if (tag == 0x61746164 /* data */) {
+                    if (sampleRate == 0) throw new IOException("Data before format.");
+
+                    //Engines that stream the file may leave the size unset.
+                    int length = size > 0 && size <= file.length() ? size : (int) (file.length() - 44);
+                    byte[] pcm = new byte[length];
+                    in.readFully(pcm);
+                    return new WavClip(sampleRate, channels, bitsPerSample, pcm);
+                } else {
+                    skipFully(in, size);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int readTag(@NonNull DataInputStream in) throws IOException {
+        return readIntLE(in);
+    }
+
+    private static int readIntLE(@NonNull DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShortLE(@NonNull DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xFFFF;
+    }
+
+    private static void skipFully(@NonNull DataInputStream in, int count) throws IOException {
+        if (count > 0) in.readFully(new byte[count]);
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    int getChannels() {
+        return mChannels;
+    }
+
+    int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    @NonNull
+    byte[] getPcm() {
+        return mPcm;
+    }
+
+    /**
+     * @return True if both the clips can be played on the same {@link android.media.AudioTrack}.
+     */
+    boolean hasSameFormat(@NonNull WavClip other) {
+        return mSampleRate == other.mSampleRate
+                && mChannels == other.mChannels
+                && mBitsPerSample == other.mBitsPerSample;
+    }
+}
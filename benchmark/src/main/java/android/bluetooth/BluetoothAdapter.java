@@ -0,0 +1,19 @@
+package android.bluetooth;
+
+/**
+ * Fake of the Android bluetooth adapter for the benchmarks. Only the state and scan mode
+ * constants.
+ */
+public final class BluetoothAdapter {
+    public static final int STATE_OFF = 10;
+    public static final int STATE_TURNING_ON = 11;
+    public static final int STATE_ON = 12;
+    public static final int STATE_TURNING_OFF = 13;
+
+    public static final int SCAN_MODE_NONE = 20;
+    public static final int SCAN_MODE_CONNECTABLE = 21;
+    public static final int SCAN_MODE_CONNECTABLE_DISCOVERABLE = 23;
+
+    private BluetoothAdapter() {
+    }
+}
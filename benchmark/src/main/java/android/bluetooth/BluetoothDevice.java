@@ -0,0 +1,57 @@
+package android.bluetooth;
+
+/**
+ * Fake of the Android bluetooth device for the benchmarks. Devices are created directly and
+ * their bond state is set by the simulation.
+ */
+public final class BluetoothDevice {
+    public static final int BOND_NONE = 10;
+    public static final int BOND_BONDING = 11;
+    public static final int BOND_BONDED = 12;
+
+    private final String mAddress;
+    private final String mName;
+    private volatile int mBondState = BOND_BONDED;
+
+    /**
+     * Not part of the Android API.
+     */
+    public BluetoothDevice(String address, String name) {
+        mAddress = address;
+        mName = name;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getBondState() {
+        return mBondState;
+    }
+
+    /**
+     * Not part of the Android API.
+     */
+    public void setBondState(int bondState) {
+        mBondState = bondState;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BluetoothDevice && mAddress.equals(((BluetoothDevice) o).mAddress);
+    }
+
+    @Override
+    public int hashCode() {
+        return mAddress.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mAddress;
+    }
+}
@@ -0,0 +1,14 @@
+package android.bluetooth;
+
+/**
+ * Fake of the Android bluetooth profile for the benchmarks. Only the connection state constants.
+ */
+public final class BluetoothProfile {
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    public static final int STATE_DISCONNECTING = 3;
+
+    private BluetoothProfile() {
+    }
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * Fake of the Android component name for the benchmarks.
+ */
+public final class ComponentName {
+}
@@ -0,0 +1,63 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+
+/**
+ * Fake of the Android context for the benchmarks. Services are only counted, never started.
+ */
+public class Context {
+    private final File mDataDir;
+    private final AssetManager mAssets;
+    private int mStartedServices = 0;
+
+    public Context() {
+        this(new File(System.getProperty("java.io.tmpdir"), "speaker"),
+                new AssetManager(new File(System.getProperty("benchmark.assets", "../app/src/main/assets"))));
+    }
+
+    /**
+     * @param dataDir Directory for the files and the cache of the app.
+     * @param assets  Assets of the app. Not part of the Android API.
+     */
+    public Context(File dataDir, AssetManager assets) {
+        mDataDir = dataDir;
+        mAssets = assets;
+    }
+
+    public ComponentName startService(Intent service) {
+        mStartedServices++;
+        return null;
+    }
+
+    /**
+     * @return Number of the {@link #startService(Intent)} calls. Not part of the Android API.
+     */
+    public int getStartedServices() {
+        return mStartedServices;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public AssetManager getAssets() {
+        return mAssets;
+    }
+
+    public File getFilesDir() {
+        return dir("files");
+    }
+
+    public File getCacheDir() {
+        return dir("cache");
+    }
+
+    private File dir(String name) {
+        File dir = new File(mDataDir, name);
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        return dir;
+    }
+}
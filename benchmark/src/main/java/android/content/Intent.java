@@ -0,0 +1,24 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fake of the Android intent for the benchmarks. Only keeps the extras.
+ */
+public class Intent {
+    private final Map<String, Object> mExtras = new HashMap<>();
+
+    public Intent(Context packageContext, Class<?> cls) {
+    }
+
+    public Intent putExtra(String name, String value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, long value) {
+        mExtras.put(name, value);
+        return this;
+    }
+}
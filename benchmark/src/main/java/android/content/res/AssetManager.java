@@ -0,0 +1,25 @@
+package android.content.res;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fake of the Android asset manager for the benchmarks. Reads the assets from the directory.
+ */
+public final class AssetManager {
+    private final File mRoot;
+
+    /**
+     * @param root Directory of the assets. Usually app/src/main/assets. Not part of the
+     *             Android API.
+     */
+    public AssetManager(File root) {
+        mRoot = root;
+    }
+
+    public InputStream open(String fileName) throws IOException {
+        return new FileInputStream(new File(mRoot, fileName));
+    }
+}
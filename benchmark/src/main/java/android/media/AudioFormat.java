@@ -0,0 +1,14 @@
+package android.media;
+
+/**
+ * Fake of the Android audio format for the simulation. Only the constants.
+ */
+public final class AudioFormat {
+    public static final int ENCODING_PCM_16BIT = 2;
+    public static final int ENCODING_PCM_8BIT = 3;
+    public static final int CHANNEL_OUT_MONO = 4;
+    public static final int CHANNEL_OUT_STEREO = 12;
+
+    private AudioFormat() {
+    }
+}
@@ -0,0 +1,12 @@
+package android.media;
+
+/**
+ * Fake of the Android audio manager for the simulation. Only the stream constants.
+ */
+public final class AudioManager {
+    public static final int STREAM_RING = 2;
+    public static final int STREAM_MUSIC = 3;
+
+    private AudioManager() {
+    }
+}
@@ -0,0 +1,39 @@
+package android.media;
+
+/**
+ * Fake of the Android audio track for the simulation. The PCM is dropped right away, as if the
+ * hardware played it instantly.
+ */
+public class AudioTrack {
+    public static final int MODE_STREAM = 1;
+    public static final int STATE_UNINITIALIZED = 0;
+    public static final int STATE_INITIALIZED = 1;
+
+    public AudioTrack(int streamType, int sampleRateInHz, int channelConfig, int audioFormat,
+                      int bufferSizeInBytes, int mode) {
+    }
+
+    public static int getMinBufferSize(int sampleRateInHz, int channelConfig, int audioFormat) {
+        return 4096;
+    }
+
+    public int getState() {
+        return STATE_INITIALIZED;
+    }
+
+    public void play() {
+    }
+
+    public void pause() {
+    }
+
+    public void flush() {
+    }
+
+    public void release() {
+    }
+
+    public int write(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+        return sizeInBytes;
+    }
+}
@@ -0,0 +1,53 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fake of the Android handler for the benchmarks.
+ * <p>
+ * Without a looper, posted tasks are only kept until they are removed or {@link #runPending()}
+ * is called on the benchmark thread. With a {@link Looper}, they run on its thread after their
+ * delay, like on Android.
+ */
+public class Handler {
+    private final Looper mLooper;
+    private final List<Runnable> mPending = new ArrayList<>();
+
+    public Handler() {
+        mLooper = null;
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        if (mLooper != null) return mLooper.enqueue(this, r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+        mPending.add(r);
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        if (mLooper != null) {
+            mLooper.remove(this, r);
+            return;
+        }
+        //noinspection StatementWithEmptyBody
+        while (mPending.remove(r)) ;
+    }
+
+    /**
+     * Run all the pending tasks now, ignoring their delay. Only for the handlers without a
+     * looper. Not part of the Android API.
+     */
+    public final void runPending() {
+        List<Runnable> pending = new ArrayList<>(mPending);
+        mPending.clear();
+        for (Runnable runnable : pending) runnable.run();
+    }
+}
@@ -0,0 +1,50 @@
+package android.os;
+
+/**
+ * Fake of the Android handler thread for the simulation. A daemon thread running its own
+ * {@link Looper}.
+ */
+public class HandlerThread extends Thread {
+    private Looper mLooper;
+
+    public HandlerThread(String name) {
+        super(name);
+        setDaemon(true);
+    }
+
+    public HandlerThread(String name, int priority) {
+        this(name);
+    }
+
+    @Override
+    public void run() {
+        Looper looper = new Looper();
+        synchronized (this) {
+            mLooper = looper;
+            notifyAll();
+        }
+        looper.loop();
+    }
+
+    /**
+     * @return Looper of the thread. Waits until the thread has started.
+     */
+    public synchronized Looper getLooper() {
+        boolean interrupted = false;
+        while (mLooper == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return mLooper;
+    }
+
+    public boolean quitSafely() {
+        Looper looper = getLooper();
+        looper.quitSafely();
+        return true;
+    }
+}
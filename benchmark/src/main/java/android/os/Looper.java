@@ -0,0 +1,119 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Fake of the Android looper for the simulation. Runs the tasks posted by the {@link Handler}s
+ * one by one in the order of their time.
+ */
+public final class Looper {
+    private static Looper sMainLooper;
+
+    private final PriorityQueue<Message> mQueue = new PriorityQueue<>();
+    private long mSequence = 0;
+    private boolean mIsQuitting = false;
+    private Thread mThread;
+
+    Looper() {
+    }
+
+    /**
+     * @return Main looper. Its thread is started on the first call.
+     */
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            final Looper looper = new Looper();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    looper.loop();
+                }
+            }, "main");
+            thread.setDaemon(true);
+            thread.start();
+            sMainLooper = looper;
+        }
+        return sMainLooper;
+    }
+
+    public synchronized Thread getThread() {
+        return mThread;
+    }
+
+    /**
+     * Run the tasks on the calling thread until {@link #quitSafely()}.
+     */
+    void loop() {
+        synchronized (this) {
+            mThread = Thread.currentThread();
+        }
+        while (true) {
+            Message message;
+            synchronized (this) {
+                while (true) {
+                    message = mQueue.peek();
+                    long now = SystemClock.uptimeMillis();
+                    if (message != null && message.mWhen <= now) {
+                        mQueue.poll();
+                        break;
+                    }
+                    if (mIsQuitting) return;
+                    try {
+                        if (message == null) {
+                            wait();
+                        } else {
+                            wait(message.mWhen - now);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            message.mRunnable.run();
+        }
+    }
+
+    /**
+     * Run the tasks that are due and drop the delayed ones.
+     */
+    public synchronized void quitSafely() {
+        mIsQuitting = true;
+        notifyAll();
+    }
+
+    synchronized boolean enqueue(Handler handler, Runnable runnable, long when) {
+        if (mIsQuitting) return false;
+        mQueue.add(new Message(handler, runnable, when, mSequence++));
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler handler, Runnable runnable) {
+        Iterator<Message> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.mHandler == handler && message.mRunnable == runnable) iterator.remove();
+        }
+    }
+
+    private static final class Message implements Comparable<Message> {
+        private final Handler mHandler;
+        private final Runnable mRunnable;
+        private final long mWhen;
+        private final long mSequence;
+
+        private Message(Handler handler, Runnable runnable, long when, long sequence) {
+            mHandler = handler;
+            mRunnable = runnable;
+            mWhen = when;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (mWhen != other.mWhen) return mWhen < other.mWhen ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
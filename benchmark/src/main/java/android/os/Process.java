@@ -0,0 +1,27 @@
+package android.os;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Fake of the Android process for the simulation. Thread priorities are ignored.
+ */
+public final class Process {
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+    public static final int THREAD_PRIORITY_AUDIO = -16;
+
+    private Process() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    public static void setThreadPriority(int priority) {
+    }
+
+    public static int myPid() {
+        return 1;
+    }
+
+    public static long getStartElapsedRealtime() {
+        return SystemClock.elapsedRealtime() - ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * Fake of the Android clock for the benchmarks. Backed by {@link System#nanoTime()}.
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime();
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
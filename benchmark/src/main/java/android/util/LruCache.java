@@ -0,0 +1,38 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fake of the Android LRU cache for the simulation. Same eviction by the size of the entries.
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> mMap = new LinkedHashMap<>(16, 0.75f, true);
+    private final int mMaxSize;
+    private int mSize = 0;
+
+    public LruCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public final synchronized V get(K key) {
+        return mMap.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        V previous = mMap.put(key, value);
+        mSize += sizeOf(key, value);
+        if (previous != null) mSize -= sizeOf(key, previous);
+
+        while (mSize > mMaxSize && !mMap.isEmpty()) {
+            Map.Entry<K, V> eldest = mMap.entrySet().iterator().next();
+            mMap.remove(eldest.getKey());
+            mSize -= sizeOf(eldest.getKey(), eldest.getValue());
+        }
+        return previous;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+}
@@ -0,0 +1,118 @@
+package com.kevalpatel2106.remotebluetoothspeaker;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.BluetoothA2DPService;
+import com.kevalpatel2106.remotebluetoothspeaker.bluetooth.SpeakerController;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Platform;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SimulatedHardware;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.Gauge;
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The whole speaker on a plain JVM. The web server, the command path and the
+ * {@link SpeakerController} are the real ones, only the hardware is the {@link SimulatedHardware}.
+ * <p>
+ * Arguments: number of the paired phones, latency of the radio in ms and the time between the
+ * random actions of the phones in ms. The line with {@link #LISTENING} is printed once the web
+ * server accepts the connections. Runs until it is killed.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:simulate}.
+ */
+
+public final class Simulation {
+    public static final String LISTENING = "Simulation listening on port ";
+
+    /**
+     * Port of the {@code WebServer}.
+     */
+    public static final int PORT = 8085;
+
+    private static final long START_TIMEOUT_MS = 10000;
+
+    private Simulation() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int phones = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long latencyMs = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        final long trafficMs = args.length > 2 ? Long.parseLong(args[2]) : 500;
+
+        final SimulatedHardware hardware = new SimulatedHardware(phones, latencyMs);
+        Platform.installIfAbsent(hardware);
+        final Context context = new Context();
+        registerGauges();
+
+        //Everything the service does on Android runs on the main thread here too.
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final CountDownLatch started = new CountDownLatch(1);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                SpeakerController controller = new SpeakerController(context, hardware.getAdapter(),
+                        hardware.getAudio(), mainHandler, context.getFilesDir());
+                new BluetoothA2DPService(controller).onCreate();
+                Startup.start(context);
+                hardware.getAdapter().startTraffic(trafficMs, 42);
+                started.countDown();
+            }
+        });
+        started.await();
+
+        awaitPort(PORT);
+        System.out.println(LISTENING + PORT);
+        Looper.getMainLooper().getThread().join();
+    }
+
+    /**
+     * Wait until the web server accepts the connections.
+     */
+    private static void awaitPort(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (true) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Memory and threads of the JVM, so the load generator can scrape them with the rest.
+     */
+    private static void registerGauges() {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.gauge("speaker_jvm_heap_used_bytes", "Heap in use, including the garbage.", "",
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        Runtime runtime = Runtime.getRuntime();
+                        return runtime.totalMemory() - runtime.freeMemory();
+                    }
+                });
+        registry.gauge("speaker_jvm_heap_committed_bytes", "Heap reserved by the JVM.", "",
+                new Gauge() {
+                    @Override
+                    public long getValue() {
+                        return Runtime.getRuntime().totalMemory();
+                    }
+                });
+        registry.gauge("speaker_jvm_threads", "Live threads.", "", new Gauge() {
+            @Override
+            public long getValue() {
+                return ManagementFactory.getThreadMXBean().getThreadCount();
+            }
+        });
+    }
+}
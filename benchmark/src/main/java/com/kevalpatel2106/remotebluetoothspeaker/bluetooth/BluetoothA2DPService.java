@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+
+/**
+ * Fake of the service for the benchmarks. The real service needs the Android framework.
+ * <p>
+ * Commands are coalesced by the real {@link CommandCoalescer} on the calling thread instead of
+ * the main thread, and the bursts are only counted instead of touching the bluetooth.
+ * <p>
+ * Created with a {@link SpeakerController}, it hands the commands to the controller like the
+ * real service, so the simulation runs the whole command path on the simulated hardware.
+ */
+
+public class BluetoothA2DPService implements CommandCoalescer.Target {
+    private final Handler mMainHandler = new Handler();
+    private final CommandCoalescer mCoalescer = new CommandCoalescer(mMainHandler, this);
+    private long mExecutedBursts = 0;
+
+    /**
+     * Runs the commands instead of counting them. Null for the benchmarks.
+     */
+    @Nullable
+    private final SpeakerController mController;
+
+    public BluetoothA2DPService() {
+        mController = null;
+    }
+
+    /**
+     * @param controller Controller to run the commands on.
+     */
+    public BluetoothA2DPService(@NonNull SpeakerController controller) {
+        mController = controller;
+    }
+
+    public static boolean passCommand(@NonNull Context context, String command) {
+        return passCommand(context, command, 0);
+    }
+
+    public static boolean passCommand(@NonNull Context context, String command, long traceId) {
+        return CommandBus.dispatch(context, command, traceId);
+    }
+
+    /**
+     * Start the controller and receive the commands. Call this on the main thread. Only for the
+     * service with the controller.
+     */
+    public void onCreate() {
+        if (mController == null) throw new IllegalStateException("No controller.");
+        mController.start();
+        CommandBus.attach(this);
+    }
+
+    /**
+     * Stop receiving the commands and stop the controller. Call this on the main thread.
+     */
+    public void killService() {
+        CommandBus.detach(this);
+        if (mController != null) mController.stop();
+    }
+
+    void post(@NonNull Command command, long receivedAt, long traceId) {
+        if (mController != null) {
+            mController.post(command, receivedAt, traceId);
+            return;
+        }
+        mCoalescer.offer(command, receivedAt, CommandBus.DIRECT_LATENCY, traceId);
+    }
+
+    /**
+     * Run the batch right away. Every step succeeds without doing anything, unless there is a
+     * controller to run it.
+     */
+    void executeBatch(@NonNull CommandBatch batch) {
+        if (mController != null) {
+            mController.executeBatch(batch);
+            return;
+        }
+        mCoalescer.flush();
+        batch.onStarted();
+        for (CommandBatch.Step step : batch.getSteps()) {
+            if (step.isPending()) step.onDone(SystemClock.elapsedRealtimeNanos());
+        }
+        batch.onFinished(SpeakerStateStore.getInstance().getState().getVersion());
+    }
+
+    @Override
+    public void executeBurst(@NonNull CommandCoalescer.Burst burst) {
+        mExecutedBursts++;
+        CommandBus.release(burst.getReceivedCount());
+        burst.recordLatency();
+    }
+
+    /**
+     * Run the pending coalescing window right away.
+     */
+    void flush() {
+        mMainHandler.runPending();
+    }
+
+    long getExecutedBursts() {
+        return mExecutedBursts;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.content.Context;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Commands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the command path from {@link BluetoothA2DPService#passCommand(Context, String)} to the
+ * coalesced burst: parsing, the {@link CommandBus} hand off and the {@link CommandCoalescer}.
+ * <p>
+ * Each invocation sends a burst of volume commands closed by one command that is not folded, the
+ * way a user holding the volume button and then pressing disconnect would.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+
+    /**
+     * Number of volume commands in a burst.
+     */
+    @Param({"1", "10"})
+    public int mBurstSize;
+
+    private Context mContext;
+    private BluetoothA2DPService mService;
+
+    @Setup
+    public void setUp() {
+        mContext = new Context();
+        mService = new BluetoothA2DPService();
+        CommandBus.attach(mService);
+    }
+
+    @TearDown
+    public void tearDown() {
+        CommandBus.detach(mService);
+        if (mService.getExecutedBursts() == 0) throw new IllegalStateException("Nothing executed.");
+    }
+
+    @Benchmark
+    public long dispatchBurst() {
+        for (int i = 0; i < mBurstSize; i++) {
+            BluetoothA2DPService.passCommand(mContext, i % 2 == 0 ? Commands.VOLUME_UP : Commands.VOLUME_DOWN);
+        }
+        BluetoothA2DPService.passCommand(mContext, Commands.DISCONNECT_ALL_DEVICE);
+        return mService.getExecutedBursts();
+    }
+
+    @Benchmark
+    public long dispatchWindowed() {
+        BluetoothA2DPService.passCommand(mContext, Commands.MAKE_DISCOVERABLE);
+        BluetoothA2DPService.passCommand(mContext, Commands.MAKE_DISCOVERABLE);
+        mService.flush();
+        return mService.getExecutedBursts();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the status frames pushed to the web clients: the full snapshot sent on connect
+ * and the delta sent on every change.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusSerializationBenchmark {
+
+    /**
+     * Number of the connected devices.
+     */
+    @Param({"0", "1", "4"})
+    public int mDeviceCount;
+
+    private SpeakerState mPrevious;
+    private SpeakerState mVolumeChanged;
+    private SpeakerState mDevicesChanged;
+
+    @Setup
+    public void setUp() {
+        List<SpeakerState.Device> devices = new ArrayList<>();
+        for (int i = 0; i < mDeviceCount; i++) {
+            devices.add(new SpeakerState.Device("Phone \"" + i + "\"", "00:11:22:33:44:0" + i, i == 0));
+        }
+
+        mPrevious = SpeakerState.INITIAL
+                .withAdapterState(BluetoothAdapter.STATE_ON)
+                .withDevices(devices)
+                .withVolume(7, 15)
+                .withVersion(41);
+        mVolumeChanged = mPrevious.withVolume(8, 15).withVersion(42);
+        mDevicesChanged = mPrevious.withDevices(new ArrayList<SpeakerState.Device>()).withVersion(42);
+    }
+
+    @Benchmark
+    public String snapshot() {
+        return mPrevious.toJson("benchmark");
+    }
+
+    @Benchmark
+    public String volumeDelta() {
+        return mVolumeChanged.toDeltaJson(mPrevious);
+    }
+
+    @Benchmark
+    public String devicesDelta() {
+        return mDevicesChanged.toDeltaJson(mPrevious);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.events;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of the status events between the state store and the web layer.
+ * <ul>
+ * <li>{@link #publish()}: Claiming, filling and publishing one event. This is what the state
+ * store pays under its lock.</li>
+ * <li>{@link #publishAndDeliver()}: Publishing and waiting until every consumer handled it,
+ * including waking up the parked consumer threads.</li>
+ * </ul>
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventRingBenchmark {
+    private static final String DELTA = "{\"type\":\"delta\",\"v\":42,\"delta\":{\"volume\":8,\"maxVolume\":15}}";
+
+    /**
+     * Number of the consumers.
+     */
+    @Param({"1", "4"})
+    public int mConsumerCount;
+
+    private EventRing<StatusEvent> mRing;
+    private final List<EventRing.Subscription> mSubscriptions = new ArrayList<>();
+    private final List<AtomicLong> mHandled = new ArrayList<>();
+    private long mPublished = 0;
+
+    @Setup
+    public void setUp() {
+        mRing = new EventRing<>("benchmark", 256, StatusEvent.FACTORY);
+        for (int i = 0; i < mConsumerCount; i++) {
+            final AtomicLong handled = new AtomicLong();
+            mHandled.add(handled);
+            mSubscriptions.add(mRing.subscribe("consumer-" + i, new EventRing.Handler<StatusEvent>() {
+                @Override
+                public void onEvent(@NonNull StatusEvent event) {
+                    handled.lazySet(event.getVersion());
+                }
+            }));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EventRing.Subscription subscription : mSubscriptions) subscription.close();
+        mSubscriptions.clear();
+        mHandled.clear();
+    }
+
+    @Benchmark
+    public long publish() {
+        StatusEvent event = mRing.claim();
+        event.set(++mPublished, DELTA, 0);
+        mRing.publish();
+        return mPublished;
+    }
+
+    @Benchmark
+    public long publishAndDeliver() {
+        publish();
+        for (AtomicLong handled : mHandled) {
+            //noinspection StatementWithEmptyBody
+            while (handled.get() < mPublished) ;
+        }
+        return mPublished;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link Hardware} that lives in memory, so the speaker runs on a plain JVM. The phones, the
+ * radio and the speech engine are all simulated.
+ */
+
+public final class SimulatedHardware implements Hardware {
+    @NonNull
+    private final SimulatedSpeakerAdapter mAdapter;
+    @NonNull
+    private final SimulatedSpeakerAudio mAudio = new SimulatedSpeakerAudio();
+
+    /**
+     * @param phones    Number of the paired phones.
+     * @param latencyMs Time the radio takes for every state change.
+     */
+    public SimulatedHardware(int phones, long latencyMs) {
+        mAdapter = new SimulatedSpeakerAdapter(new Handler(Looper.getMainLooper()), phones, latencyMs);
+    }
+
+    @NonNull
+    @Override
+    public SimulatedSpeakerAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    @NonNull
+    @Override
+    public SpeakerAudio getAudio() {
+        return mAudio;
+    }
+
+    @NonNull
+    @Override
+    public SpeechEngine createSpeechEngine(@NonNull SpeechEngine.Callback callback) {
+        return new SimulatedSpeechEngine(callback);
+    }
+}
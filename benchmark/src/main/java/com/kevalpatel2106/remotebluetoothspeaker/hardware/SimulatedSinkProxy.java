@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * {@link SinkProxy} of the {@link SimulatedSpeakerAdapter}. The adapter keeps the connections.
+ */
+
+final class SimulatedSinkProxy implements SinkProxy {
+    @NonNull
+    private final SimulatedSpeakerAdapter mAdapter;
+
+    SimulatedSinkProxy(@NonNull SimulatedSpeakerAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    @NonNull
+    @Override
+    public List<BluetoothDevice> getConnectedDevices() {
+        return mAdapter.getConnectedDevices();
+    }
+
+    @Override
+    public boolean connect(@NonNull BluetoothDevice device) {
+        return mAdapter.connect(device);
+    }
+
+    @Override
+    public boolean disconnect(@NonNull BluetoothDevice device) {
+        return mAdapter.disconnect(device);
+    }
+}
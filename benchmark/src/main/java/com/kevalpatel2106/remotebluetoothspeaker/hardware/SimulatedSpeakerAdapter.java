@@ -0,0 +1,387 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * {@link SpeakerAdapter} with the radio and the phones in memory.
+ * <p>
+ * Every change goes through the same steps as the real adapter. The intermediate state is
+ * reported right away and the final one after the latency of the radio, all on the main thread
+ * like the broadcasts. The phones are paired from the start. Unpaired phones pair again only
+ * while the speaker is discoverable.
+ * <p>
+ * {@link #startTraffic(long, long)} lets the phones connect, play, pause and leave at random, so
+ * the events keep coming while the commands are sent.
+ */
+
+public final class SimulatedSpeakerAdapter implements SpeakerAdapter {
+    @NonNull
+    private final Handler mHandler;
+    private final long mLatencyMs;
+    @NonNull
+    private final SimulatedSinkProxy mProxy = new SimulatedSinkProxy(this);
+
+    //Guarded by this
+    private final Map<String, BluetoothDevice> mDevices = new LinkedHashMap<>();
+    private final List<BluetoothDevice> mPhones = new ArrayList<>();
+    private final Set<BluetoothDevice> mConnecting = new HashSet<>();
+    private final Set<BluetoothDevice> mConnected = new LinkedHashSet<>();
+    private final Set<BluetoothDevice> mPlaying = new HashSet<>();
+    private int mState = BluetoothAdapter.STATE_OFF;
+    private int mScanMode = BluetoothAdapter.SCAN_MODE_NONE;
+    private ProxyListener mProxyListener;
+    private Random mRandom;
+    private long mTrafficPeriodMs;
+
+    @Nullable
+    private volatile Listener mListener;
+
+    private final Runnable mEndDiscoverable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SimulatedSpeakerAdapter.this) {
+                if (mState == BluetoothAdapter.STATE_ON) setScanMode(BluetoothAdapter.SCAN_MODE_CONNECTABLE);
+            }
+        }
+    };
+
+    private final Runnable mTraffic = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SimulatedSpeakerAdapter.this) {
+                if (mRandom == null) return;
+                if (!mPhones.isEmpty()) act(mPhones.get(mRandom.nextInt(mPhones.size())));
+                mHandler.postDelayed(this, mTrafficPeriodMs);
+            }
+        }
+    };
+
+    /**
+     * @param handler   Handler of the main thread to report the events on.
+     * @param phones    Number of the paired phones.
+     * @param latencyMs Time the radio takes for every state change.
+     */
+    SimulatedSpeakerAdapter(@NonNull Handler handler, int phones, long latencyMs) {
+        mHandler = handler;
+        mLatencyMs = latencyMs;
+        for (int i = 0; i < phones; i++) {
+            BluetoothDevice phone = new BluetoothDevice(
+                    String.format(Locale.US, "00:11:22:33:%02X:%02X", i / 256, i % 256), "Phone " + (i + 1));
+            mDevices.put(phone.getAddress(), phone);
+            mPhones.add(phone);
+        }
+    }
+
+    /**
+     * Let a random phone connect, play, pause or leave every period. Not part of the
+     * {@link SpeakerAdapter}.
+     *
+     * @param periodMs Time between the actions.
+     * @param seed     Seed of the random actions, so a run can be repeated.
+     */
+    public synchronized void startTraffic(long periodMs, long seed) {
+        stopTraffic();
+        mRandom = new Random(seed);
+        mTrafficPeriodMs = periodMs;
+        mHandler.postDelayed(mTraffic, periodMs);
+    }
+
+    public synchronized void stopTraffic() {
+        mRandom = null;
+        mHandler.removeCallbacks(mTraffic);
+    }
+
+    @Override
+    public synchronized int getState() {
+        return mState;
+    }
+
+    @Override
+    public synchronized boolean isEnabled() {
+        return mState == BluetoothAdapter.STATE_ON;
+    }
+
+    @Override
+    public synchronized boolean enable() {
+        if (mState == BluetoothAdapter.STATE_ON) return true;
+        if (mState != BluetoothAdapter.STATE_OFF) return false;
+
+        setState(BluetoothAdapter.STATE_TURNING_ON);
+        later(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedSpeakerAdapter.this) {
+                    if (mState != BluetoothAdapter.STATE_TURNING_ON) return;
+                    setState(BluetoothAdapter.STATE_ON);
+                    setScanMode(BluetoothAdapter.SCAN_MODE_CONNECTABLE);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean disable() {
+        if (mState == BluetoothAdapter.STATE_OFF) return true;
+        if (mState != BluetoothAdapter.STATE_ON) return false;
+
+        //The radio drops everything at once.
+        for (BluetoothDevice device : new ArrayList<>(mConnected)) dropConnection(device);
+        mConnecting.clear();
+        mHandler.removeCallbacks(mEndDiscoverable);
+        setScanMode(BluetoothAdapter.SCAN_MODE_NONE);
+        setState(BluetoothAdapter.STATE_TURNING_OFF);
+
+        final ProxyListener proxyListener = mProxyListener;
+        mProxyListener = null;
+        if (proxyListener != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    proxyListener.onProxyDisconnected();
+                }
+            });
+        }
+
+        later(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedSpeakerAdapter.this) {
+                    if (mState == BluetoothAdapter.STATE_TURNING_OFF) setState(BluetoothAdapter.STATE_OFF);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized int getScanMode() {
+        return mScanMode;
+    }
+
+    @Override
+    public boolean setName(@NonNull String name) {
+        return isEnabled();
+    }
+
+    @NonNull
+    @Override
+    public synchronized Set<BluetoothDevice> getBondedDevices() {
+        Set<BluetoothDevice> bonded = new HashSet<>();
+        if (mState != BluetoothAdapter.STATE_ON) return bonded;
+        for (BluetoothDevice device : mDevices.values()) {
+            if (device.getBondState() == BluetoothDevice.BOND_BONDED) bonded.add(device);
+        }
+        return bonded;
+    }
+
+    @NonNull
+    @Override
+    public synchronized BluetoothDevice getRemoteDevice(@NonNull String address) {
+        BluetoothDevice device = mDevices.get(address);
+        if (device == null) {
+            device = new BluetoothDevice(address, null);
+            device.setBondState(BluetoothDevice.BOND_NONE);
+            mDevices.put(address, device);
+        }
+        return device;
+    }
+
+    @Override
+    public synchronized boolean removeBond(@NonNull BluetoothDevice device) {
+        if (mState != BluetoothAdapter.STATE_ON || device.getBondState() != BluetoothDevice.BOND_BONDED) {
+            return false;
+        }
+        device.setBondState(BluetoothDevice.BOND_NONE);
+        if (mConnected.contains(device)) dropConnection(device);
+        return true;
+    }
+
+    @Override
+    public synchronized void requestDiscoverable(int durationSec) {
+        if (mState != BluetoothAdapter.STATE_ON) return;
+        setScanMode(BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE);
+        mHandler.removeCallbacks(mEndDiscoverable);
+        mHandler.postDelayed(mEndDiscoverable, durationSec * 1000L);
+    }
+
+    @Override
+    public synchronized boolean openSinkProxy(@NonNull final ProxyListener listener) {
+        if (mState != BluetoothAdapter.STATE_ON) return false;
+        mProxyListener = listener;
+        later(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedSpeakerAdapter.this) {
+                    if (mProxyListener != listener) return;
+                }
+                listener.onProxyConnected(mProxy);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized void closeSinkProxy(@Nullable SinkProxy proxy) {
+        //Like the real profile, nothing is reported after the close.
+        mProxyListener = null;
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    @NonNull
+    synchronized List<BluetoothDevice> getConnectedDevices() {
+        return new ArrayList<>(mConnected);
+    }
+
+    synchronized boolean connect(@NonNull final BluetoothDevice device) {
+        if (mState != BluetoothAdapter.STATE_ON
+                || device.getBondState() != BluetoothDevice.BOND_BONDED
+                || mConnected.contains(device)
+                || !mConnecting.add(device)) {
+            return false;
+        }
+
+        reportSinkState(device, BluetoothProfile.STATE_CONNECTING);
+        later(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedSpeakerAdapter.this) {
+                    if (!mConnecting.remove(device)) return;
+                    if (mState == BluetoothAdapter.STATE_ON && device.getBondState() == BluetoothDevice.BOND_BONDED) {
+                        mConnected.add(device);
+                        reportSinkState(device, BluetoothProfile.STATE_CONNECTED);
+                    } else {
+                        reportSinkState(device, BluetoothProfile.STATE_DISCONNECTED);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    synchronized boolean disconnect(@NonNull final BluetoothDevice device) {
+        if (!mConnected.contains(device)) return false;
+
+        reportSinkState(device, BluetoothProfile.STATE_DISCONNECTING);
+        later(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedSpeakerAdapter.this) {
+                    if (mConnected.contains(device)) dropConnection(device);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * One random action of the phone.
+     */
+    private void act(@NonNull BluetoothDevice phone) {
+        if (mState != BluetoothAdapter.STATE_ON) return;
+
+        if (phone.getBondState() != BluetoothDevice.BOND_BONDED) {
+            if (mScanMode == BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE) {
+                phone.setBondState(BluetoothDevice.BOND_BONDED);
+                connect(phone);
+            }
+        } else if (!mConnected.contains(phone)) {
+            connect(phone);
+        } else if (mRandom.nextInt(10) == 0) {
+            disconnect(phone);
+        } else {
+            setPlaying(phone, !mPlaying.contains(phone));
+        }
+    }
+
+    private void dropConnection(@NonNull BluetoothDevice device) {
+        setPlaying(device, false);
+        mConnected.remove(device);
+        reportSinkState(device, BluetoothProfile.STATE_DISCONNECTED);
+    }
+
+    private void setPlaying(@NonNull final BluetoothDevice device, final boolean playing) {
+        if (playing ? !mPlaying.add(device) : !mPlaying.remove(device)) return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) listener.onSinkPlayingChanged(device, playing);
+            }
+        });
+    }
+
+    private void setState(final int state) {
+        mState = state;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) listener.onAdapterStateChanged(state);
+            }
+        });
+    }
+
+    private void setScanMode(final int scanMode) {
+        if (mScanMode == scanMode) return;
+        mScanMode = scanMode;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) listener.onScanModeChanged(scanMode);
+            }
+        });
+    }
+
+    private void reportSinkState(@NonNull final BluetoothDevice device, final int state) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener listener = mListener;
+                if (listener != null) listener.onSinkStateChanged(device, state);
+            }
+        });
+    }
+
+    /**
+     * Run the step once the radio is done with it.
+     */
+    private void later(@NonNull Runnable step) {
+        mHandler.postDelayed(step, mLatencyMs);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+/**
+ * {@link SpeakerAudio} that only remembers the volume. Same 15 points as the music stream of
+ * the board.
+ */
+
+final class SimulatedSpeakerAudio implements SpeakerAudio {
+    private static final int MAX_VOLUME = 15;
+
+    private volatile int mVolume = MAX_VOLUME / 2;
+
+    @Override
+    public int getVolume() {
+        return mVolume;
+    }
+
+    @Override
+    public int getMaxVolume() {
+        return MAX_VOLUME;
+    }
+
+    @Override
+    public void setVolume(int volume) {
+        mVolume = Math.max(0, Math.min(MAX_VOLUME, volume));
+    }
+}
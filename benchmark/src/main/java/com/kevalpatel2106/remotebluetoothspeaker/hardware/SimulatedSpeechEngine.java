@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.hardware;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * {@link SpeechEngine} that takes the time of the real engine without making any sound.
+ * <p>
+ * Utterances are spoken one after another on the engine thread and each takes
+ * {@link #MS_PER_CHAR} for every character. Rendered files are valid WAV files of silence with
+ * the same length.
+ */
+
+final class SimulatedSpeechEngine implements SpeechEngine {
+    private static final long INIT_MS = 200;
+    private static final long MS_PER_CHAR = 10;
+    private static final int SAMPLE_RATE = 16000;
+
+    @NonNull
+    private final Callback mCallback;
+    @NonNull
+    private final Handler mHandler;
+
+    //Guarded by this
+    private long mBusyUntil = 0;
+    private int mGeneration = 0;
+
+    SimulatedSpeechEngine(@NonNull final Callback callback) {
+        mCallback = callback;
+        HandlerThread thread = new HandlerThread("tts-simulated");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                callback.onInit(true);
+            }
+        }, INIT_MS);
+    }
+
+    @Override
+    public boolean speak(@NonNull String text, @NonNull String utteranceId) {
+        enqueue(utteranceId, text.length() * MS_PER_CHAR);
+        return true;
+    }
+
+    @Override
+    public boolean synthesizeToFile(@NonNull String text, @NonNull File file, @NonNull String utteranceId) {
+        long durationMs = text.length() * MS_PER_CHAR;
+        try {
+            writeSilence(file, durationMs);
+        } catch (IOException e) {
+            return false;
+        }
+        //Rendering is faster than speaking.
+        enqueue(utteranceId, durationMs / 10);
+        return true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        mGeneration++;
+        mBusyUntil = 0;
+    }
+
+    /**
+     * Start the utterance once the ones before it are done and finish it after the duration.
+     */
+    private synchronized void enqueue(@NonNull final String utteranceId, long durationMs) {
+        long now = SystemClock.uptimeMillis();
+        long startAt = Math.max(now, mBusyUntil);
+        mBusyUntil = startAt + durationMs;
+
+        final int generation = mGeneration;
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (isStopped(generation)) {
+                    mCallback.onDone(utteranceId, false);
+                    return;
+                }
+                mCallback.onStart(utteranceId);
+            }
+        }, startAt - now);
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onDone(utteranceId, !isStopped(generation));
+            }
+        }, mBusyUntil - now);
+    }
+
+    private synchronized boolean isStopped(int generation) {
+        return generation != mGeneration;
+    }
+
+    /**
+     * Write 16 bit mono PCM of silence in the WAV container.
+     */
+    private static void writeSilence(@NonNull File file, long durationMs) throws IOException {
+        int dataSize = (int) (SAMPLE_RATE * durationMs / 1000) * 2;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x52494646);                   //RIFF
+            out.writeInt(Integer.reverseBytes(36 + dataSize));
+            out.writeInt(0x57415645);                   //WAVE
+            out.writeInt(0x666d7420);                   //fmt
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));      //PCM
+            out.writeShort(Short.reverseBytes((short) 1));      //Mono
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE * 2));
+            out.writeShort(Short.reverseBytes((short) 2));      //Block align
+            out.writeShort(Short.reverseBytes((short) 16));     //Bits per sample
+            out.writeInt(0x64617461);                   //data
+            out.writeInt(Integer.reverseBytes(dataSize));
+            out.write(new byte[dataSize]);
+        } finally {
+            out.close();
+        }
+    }
+}
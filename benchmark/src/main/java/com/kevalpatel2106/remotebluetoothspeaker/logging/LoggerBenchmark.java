@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.logging;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a debug message on the hot path, like the command received by the web socket.
+ * <ul>
+ * <li>{@link #concatenate()}: Building the message on the calling thread, as it was done with
+ * {@link Log} before the {@link Logger}.</li>
+ * <li>{@link #logger()}: The same message with the {@link Logger}. With {@code info} it is below
+ * the level. With {@code debug} it is copied into the ring. The drain can't keep up with this
+ * loop, so most of the records are dropped then. Copying and dropping cost about the same.</li>
+ * </ul>
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+    private static final String TAG = LoggerBenchmark.class.getSimpleName();
+    private static final Logger LOG = Logger.get(LoggerBenchmark.class);
+    private static final String COMMAND = "volume_up";
+
+    /**
+     * Level of the package of the benchmark.
+     */
+    @Param({"info", "debug"})
+    public String mLevel;
+
+    private long mCount = 0;
+
+    @Setup
+    public void setUp() {
+        LogLevels.set(Collections.singletonMap("logging", mLevel));
+    }
+
+    @Benchmark
+    public int concatenate() {
+        return Log.d(TAG, "onMessage: WebSocket Command -> " + COMMAND + " #" + ++mCount);
+    }
+
+    @Benchmark
+    public long logger() {
+        LOG.d("onMessage: WebSocket Command -> {} #{}", COMMAND, ++mCount);
+        return mCount;
+    }
+}
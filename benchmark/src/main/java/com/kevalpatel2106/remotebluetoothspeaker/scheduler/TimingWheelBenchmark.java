@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link TimingWheel} with the timers spread over a day, like the nightly and the
+ * hourly schedules.
+ * <ul>
+ * <li>{@link #tick()}: One tick of the wheel. The expired timers are placed again a day later,
+ * so the number of timers stays the same. Only one bucket is visited, so the cost barely
+ * changes from a few timers to thousands.</li>
+ * <li>{@link #scheduleAndCancel()}: Adding a timer and cancelling it, as the web API does.</li>
+ * </ul>
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimingWheelBenchmark {
+    private static final long TICK_MS = 250;
+    private static final int WHEEL_SIZE = 512;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Runnable TASK = new Runnable() {
+        @Override
+        public void run() {
+            //Nothing to do
+        }
+    };
+
+    /**
+     * Timers in the wheel.
+     */
+    @Param({"16", "4096"})
+    public int mTimers;
+
+    private TimingWheel mWheel;
+    private long mNow;
+
+    @Setup
+    public void setUp() {
+        mNow = 0;
+        mWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, mNow);
+        Random random = new Random(42);
+        for (int i = 0; i < mTimers; i++) {
+            mWheel.schedule(TASK, (long) (random.nextDouble() * DAY_MS), mNow);
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        mNow += TICK_MS;
+        int expired = mWheel.advance(mNow).size();
+        for (int i = 0; i < expired; i++) mWheel.schedule(TASK, DAY_MS, mNow);
+        return expired;
+    }
+
+    @Benchmark
+    public int scheduleAndCancel() {
+        TimingWheel.Timeout timeout = mWheel.schedule(TASK, DAY_MS, mNow);
+        mWheel.cancel(timeout);
+        return mWheel.size();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.content.res.AssetManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Cost of serving the static assets from the {@link AssetCache}, which is what
+ * {@code WebServer.serve()} does for every page load. The response body
+ * is read fully, the way NanoHTTPD writes it to the socket.
+ * <p>
+ * The assets are read from the directory in the {@code benchmark.assets} system property.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssetServingBenchmark {
+
+    @Param({"/", "/css/style.css", "/script/script.js"})
+    public String mUri;
+
+    private AssetCache mAssetCache;
+    private BenchSession mPlainRequest;
+    private BenchSession mGzipRequest;
+    private BenchSession mRevalidateRequest;
+    private final byte[] mBuffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        mAssetCache = new AssetCache(new AssetManager(
+                new File(System.getProperty("benchmark.assets", "../app/src/main/assets"))));
+
+        mPlainRequest = new BenchSession(mUri);
+        mGzipRequest = new BenchSession(mUri).header("accept-encoding", "gzip, deflate");
+
+        String etag = mAssetCache.serve(mPlainRequest).getHeader("ETag");
+        mRevalidateRequest = new BenchSession(mUri).header("if-none-match", etag);
+    }
+
+    @Benchmark
+    public long serve() throws IOException {
+        return drain(mAssetCache.serve(mPlainRequest));
+    }
+
+    @Benchmark
+    public long serveGzip() throws IOException {
+        return drain(mAssetCache.serve(mGzipRequest));
+    }
+
+    @Benchmark
+    public long serveNotModified() throws IOException {
+        return drain(mAssetCache.serve(mRevalidateRequest));
+    }
+
+    private long drain(NanoHTTPD.Response response) throws IOException {
+        InputStream data = response.getData();
+        long total = 0;
+        int read;
+        while ((read = data.read(mBuffer)) != -1) total += read;
+        return total;
+    }
+}
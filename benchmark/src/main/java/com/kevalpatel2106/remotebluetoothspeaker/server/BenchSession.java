@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Request for the benchmarks without any connection behind it.
+ */
+
+final class BenchSession implements NanoHTTPD.IHTTPSession {
+    private final String mUri;
+    private final Map<String, String> mHeaders = new HashMap<>();
+
+    BenchSession(@NonNull String uri) {
+        mUri = uri;
+    }
+
+    /**
+     * Set the request header. The name must be in lower case, same as NanoHTTPD does.
+     */
+    @NonNull
+    BenchSession header(@NonNull String name, @NonNull String value) {
+        mHeaders.put(name, value);
+        return this;
+    }
+
+    @Override
+    public void execute() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, String> getParms() {
+        return new HashMap<>();
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    @Override
+    public String getUri() {
+        return mUri;
+    }
+
+    @Override
+    public String getQueryParameterString() {
+        return null;
+    }
+
+    @Override
+    public NanoHTTPD.Method getMethod() {
+        return NanoHTTPD.Method.GET;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public NanoHTTPD.CookieHandler getCookies() {
+        return null;
+    }
+
+    @Override
+    public void parseBody(Map<String, String> files) {
+        //No body
+    }
+}
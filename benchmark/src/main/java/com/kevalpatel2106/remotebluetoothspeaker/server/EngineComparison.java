@@ -0,0 +1,311 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Compares the {@link ServerEngine}s under the same load: threads and resident memory with many
+ * open dashboards, keep alive HTTP latency and status push latency.
+ * <p>
+ * Each engine runs in its own JVM, so the memory of one does not count against the other. The
+ * results are printed and written as JSON to the file in the first argument.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:compareEngines}.
+ */
+
+public final class EngineComparison {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String CHILD = "child";
+
+    private static final int IDLE_SOCKETS = 64;
+    private static final int HTTP_REQUESTS = 2000;
+    private static final int PUSHES = 1000;
+    private static final String STATUS_FRAME = "{\"type\":\"delta\",\"v\":1,\"delta\":{\"volume\":8,\"maxVolume\":15}}";
+
+    /**
+     * Same choices as {@link WebServer.Engine}. Only the engines are measured, without the rest
+     * of the web server.
+     */
+    private enum Engine {
+        NANO_HTTPD,
+        NIO
+    }
+
+    private EngineComparison() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && CHILD.equals(args[0])) {
+            System.out.println(measure(Engine.valueOf(args[1])));
+            return;
+        }
+
+        List<String> results = new ArrayList<>();
+        for (Engine engine : Engine.values()) {
+            String result = runChild(engine);
+            System.out.println(result);
+            results.add(result);
+        }
+
+        if (args.length > 0) {
+            File output = new File(args[0]);
+            //noinspection ResultOfMethodCallIgnored
+            output.getParentFile().mkdirs();
+            FileWriter writer = new FileWriter(output);
+            try {
+                writer.write("[\n" + join(results, ",\n") + "\n]\n");
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    @NonNull
+    private static String runChild(@NonNull Engine engine) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx64m",
+                "-Dbenchmark.assets=" + System.getProperty("benchmark.assets", "../app/src/main/assets"),
+                "-cp", System.getProperty("java.class.path"),
+                EngineComparison.class.getName(), CHILD, engine.name())
+                .redirectErrorStream(true)
+                .start();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        String line;
+        String result = null;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("{")) result = line;
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException(engine + " failed with " + process.exitValue());
+        }
+        return result;
+    }
+
+    /**
+     * Start the engine, load it and report the measurements as one JSON line.
+     */
+    @NonNull
+    private static String measure(@NonNull Engine engine) throws Exception {
+        final SocketRegistry registry = new SocketRegistry(engine != Engine.NIO);
+        final AssetCache assetCache = new AssetCache(new AssetManager(
+                new File(System.getProperty("benchmark.assets", "../app/src/main/assets"))));
+        final Context context = new Context();
+        ServerEngine.Handler handler = new ServerEngine.Handler() {
+            @Nullable
+            @Override
+            public NanoHTTPD.Response serve(@NonNull NanoHTTPD.IHTTPSession session) {
+                return assetCache.serve(session);
+            }
+
+            @NonNull
+            @Override
+            public Socket openWebSocket(@NonNull NanoHTTPD.IHTTPSession handshake) {
+                Socket socket = new Socket(handshake, context, registry);
+                registry.register(socket);
+                return socket;
+            }
+        };
+
+        int baseThreads = threadCount();
+        long baseRss = rssKb();
+
+        ServerEngine server = engine == Engine.NIO
+                ? new NioServerEngine(0, handler)
+                : new NanoHttpdEngine(0, handler);
+        server.start();
+        int port = server.getListeningPort();
+
+        //Dashboards that stay open and receive every push.
+        List<java.net.Socket> idle = new ArrayList<>();
+        for (int i = 0; i < IDLE_SOCKETS; i++) idle.add(openWebSocket(port));
+        java.net.Socket probe = openWebSocket(port);
+        DataInputStream probeInput = new DataInputStream(probe.getInputStream());
+        while (registry.size() < IDLE_SOCKETS + 1) Thread.sleep(10);
+
+        long[] httpLatency = measureHttp(port);
+
+        long[] pushLatency = new long[PUSHES];
+        for (int i = 0; i < PUSHES; i++) {
+            long start = System.nanoTime();
+            registry.broadcast(STATUS_FRAME);
+            readFrame(probeInput);
+            pushLatency[i] = System.nanoTime() - start;
+        }
+
+        int threads = threadCount();
+        long rss = rssKb();
+
+        for (java.net.Socket socket : idle) socket.close();
+        probe.close();
+        server.stop();
+
+        return String.format(Locale.US, "{\"engine\":\"%s\",\"webSockets\":%d,\"threads\":%d,"
+                        + "\"serverThreads\":%d,\"rssKb\":%d,\"rssDeltaKb\":%d,"
+                        + "\"httpP50Us\":%d,\"httpP99Us\":%d,\"pushP50Us\":%d,\"pushP99Us\":%d}",
+                engine, IDLE_SOCKETS + 1, threads, threads - baseThreads, rss, rss - baseRss,
+                percentile(httpLatency, 50), percentile(httpLatency, 99),
+                percentile(pushLatency, 50), percentile(pushLatency, 99));
+    }
+
+    /**
+     * Fetch the stylesheet over one keep alive connection.
+     *
+     * @return Latency of every request in nano seconds.
+     */
+    @NonNull
+    private static long[] measureHttp(int port) throws IOException {
+        long[] latency = new long[HTTP_REQUESTS];
+        java.net.Socket socket = new java.net.Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        try {
+            OutputStream outputStream = socket.getOutputStream();
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            byte[] request = ("GET /css/style.css HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(ISO_8859_1);
+            for (int i = 0; i < HTTP_REQUESTS; i++) {
+                long start = System.nanoTime();
+                outputStream.write(request);
+                outputStream.flush();
+
+                int contentLength = 0;
+                for (String header : readHeaders(inputStream)) {
+                    if (header.toLowerCase(Locale.US).startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(header.substring(15).trim());
+                    }
+                }
+                inputStream.readFully(new byte[contentLength]);
+                latency[i] = System.nanoTime() - start;
+            }
+        } finally {
+            socket.close();
+        }
+        return latency;
+    }
+
+    @NonNull
+    private static java.net.Socket openWebSocket(int port) throws IOException {
+        java.net.Socket socket = new java.net.Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        socket.getOutputStream().write(("GET /websocket HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(ISO_8859_1));
+        List<String> headers = readHeaders(new DataInputStream(socket.getInputStream()));
+        if (headers.isEmpty() || !headers.get(0).contains(" 101 ")) {
+            throw new IOException("Upgrade failed: " + headers);
+        }
+        return socket;
+    }
+
+    @NonNull
+    private static List<String> readHeaders(@NonNull InputStream inputStream) throws IOException {
+        List<String> headers = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            if (b == '\n') {
+                if (line.length() == 0) return headers;
+                headers.add(line.toString());
+                line.setLength(0);
+            } else if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        throw new IOException("Connection closed.");
+    }
+
+    /**
+     * Read one unmasked frame sent by the server.
+     */
+    private static void readFrame(@NonNull DataInputStream inputStream) throws IOException {
+        inputStream.readUnsignedByte();
+        long length = inputStream.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = inputStream.readUnsignedShort();
+        } else if (length == 127) {
+            length = inputStream.readLong();
+        }
+        inputStream.readFully(new byte[(int) length]);
+    }
+
+    private static long percentile(@NonNull long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1000;
+    }
+
+    private static int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    /**
+     * @return Resident memory of this process in KB. Linux only, 0 elsewhere.
+     */
+    private static long rssKb() throws IOException {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) return 0;
+
+        System.gc();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(status), ISO_8859_1));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        } finally {
+            reader.close();
+        }
+        return 0;
+    }
+
+    @NonNull
+    private static String join(@NonNull List<String> parts, @NonNull String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (String part : parts) {
+            if (builder.length() > 0) builder.append(separator);
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Commands;
+import com.kevalpatel2106.remotebluetoothspeaker.Simulation;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load on the web server and the command path of the {@link Simulation}, the way a room full of
+ * dashboards would load the speaker.
+ * <p>
+ * Every client opens its own web socket and sends the mix of {@link #MIX} in the envelope at the
+ * given rate. The round trip to the ack and to the done frame is measured with the time echoed
+ * in the envelope. Refused commands are counted by their error and never resent, so the refusals
+ * of the rate limits and the cap show up as they are. At the end the throughput, the latency
+ * percentiles and the memory of both sides are printed and written as JSON to the output file.
+ * <p>
+ * Arguments: number of the clients, duration in seconds, commands per second of every client,
+ * host and the output file. Without the host, the {@link Simulation} is started in its own JVM.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:loadTest -Pclients=300 -Pduration=30}.
+ */
+
+public final class LoadGenerator {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Commands sent by the clients. Repeated entries are sent more often. Mostly volume clicks,
+     * like the real dashboards.
+     */
+    private static final String[] MIX = {
+            Commands.VOLUME_UP, Commands.VOLUME_UP, Commands.VOLUME_UP, Commands.VOLUME_UP,
+            Commands.VOLUME_DOWN, Commands.VOLUME_DOWN, Commands.VOLUME_DOWN, Commands.VOLUME_DOWN,
+            Commands.SET_VOLUME, Commands.SET_VOLUME,
+            Commands.MAKE_DISCOVERABLE,
+            Commands.DISCONNECT_ALL_DEVICE,
+            Commands.TURN_ON_BLUETOOTH
+    };
+
+    /**
+     * Time to wait for the replies after the last command.
+     */
+    private static final long DRAIN_MS = 3000;
+
+    private static final long SERVER_START_TIMEOUT_MS = 30000;
+
+    private LoadGenerator() {
+        throw new RuntimeException("Cannot instantiate.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int durationSec = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        String host = args.length > 3 && !args[3].isEmpty() ? args[3] : null;
+        File output = args.length > 4 ? new File(args[4]) : null;
+
+        Process server = null;
+        if (host == null) {
+            server = startSimulation();
+            host = "127.0.0.1";
+        }
+        try {
+            String result = run(host, Simulation.PORT, clients, durationSec, rate);
+            System.out.println(result);
+            if (output != null) {
+                //noinspection ResultOfMethodCallIgnored
+                output.getParentFile().mkdirs();
+                FileWriter writer = new FileWriter(output);
+                try {
+                    writer.write(result + "\n");
+                } finally {
+                    writer.close();
+                }
+            }
+        } finally {
+            if (server != null) server.destroy();
+        }
+    }
+
+    /**
+     * Start the {@link Simulation} in its own JVM and wait until it listens.
+     */
+    @NonNull
+    private static Process startSimulation() throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx128m",
+                "-Dbenchmark.assets=" + System.getProperty("benchmark.assets", "../app/src/main/assets"),
+                "-cp", System.getProperty("java.class.path"),
+                Simulation.class.getName())
+                .redirectErrorStream(true)
+                .start();
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8));
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(Simulation.LISTENING)) break;
+            if (System.currentTimeMillis() > deadline) break;
+        }
+        if (line == null || !line.startsWith(Simulation.LISTENING)) {
+            process.destroy();
+            throw new IllegalStateException("Simulation did not start.");
+        }
+
+        //Keep reading, so the simulation never blocks on the full pipe.
+        Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //noinspection StatementWithEmptyBody
+                    while (reader.readLine() != null) ;
+                } catch (IOException ignored) {
+                    //Simulation stopped
+                }
+            }
+        }, "simulation-output");
+        pump.setDaemon(true);
+        pump.start();
+        return process;
+    }
+
+    /**
+     * Connect the clients, send the commands for the duration and report as one JSON line.
+     */
+    @NonNull
+    private static String run(@NonNull String host, int port, int clients, int durationSec, double rate)
+            throws Exception {
+        final Stats stats = new Stats();
+        List<Client> connected = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client(host, port, stats, i);
+            client.start();
+            connected.add(client);
+        }
+        System.out.println("Connected " + clients + " clients.");
+
+        //Spread the clients over the period, so they don't all send at the same moment.
+        ScheduledExecutorService sender = Executors.newScheduledThreadPool(4, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "load-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long periodUs = (long) (1000000 / rate);
+        for (int i = 0; i < connected.size(); i++) {
+            final Client client = connected.get(i);
+            sender.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    client.sendNext();
+                }
+            }, periodUs * i / connected.size(), periodUs, TimeUnit.MICROSECONDS);
+        }
+
+        long startedAt = System.nanoTime();
+        Thread.sleep(durationSec * 1000L);
+        sender.shutdownNow();
+        long sentFor = System.nanoTime() - startedAt;
+        Thread.sleep(DRAIN_MS);
+
+        long clientHeap = usedHeap();
+        Map<String, Long> serverMetrics = scrapeMetrics(host, port);
+        for (Client client : connected) client.close();
+
+        long[] ack = stats.mAckLatency.toArray();
+        long[] done = stats.mDoneLatency.toArray();
+        return String.format(Locale.US, "{\"clients\":%d,\"durationSec\":%d,\"ratePerClient\":%.2f,"
+                        + "\"sent\":%d,\"acked\":%d,\"done\":%d,\"rateLimited\":%d,\"overloaded\":%d,"
+                        + "\"otherErrors\":%d,\"pushes\":%d,\"disconnects\":%d,\"throughputPerSec\":%.1f,"
+                        + "\"ackP50Us\":%d,\"ackP99Us\":%d,\"ackP999Us\":%d,\"ackMaxUs\":%d,"
+                        + "\"doneP50Us\":%d,\"doneP99Us\":%d,\"doneP999Us\":%d,\"doneMaxUs\":%d,"
+                        + "\"clientHeapKb\":%d,\"serverHeapKb\":%d,\"serverThreads\":%d}",
+                clients, durationSec, rate,
+                stats.mSent.get(), ack.length, done.length, stats.mRateLimited.get(), stats.mOverloaded.get(),
+                stats.mOtherErrors.get(), stats.mPushes.get(), stats.mDisconnects.get(),
+                done.length * 1e9 / sentFor,
+                percentile(ack, 500), percentile(ack, 990), percentile(ack, 999), percentile(ack, 1000),
+                percentile(done, 500), percentile(done, 990), percentile(done, 999), percentile(done, 1000),
+                clientHeap / 1024, get(serverMetrics, "speaker_jvm_heap_used_bytes") / 1024,
+                get(serverMetrics, "speaker_jvm_threads"));
+    }
+
+    /**
+     * @param perMille Percentile in tenths of a percent. 1000 for the maximum.
+     * @return Percentile of the latency in micro seconds. 0 if there are no samples.
+     */
+    private static long percentile(@NonNull long[] micros, int perMille) {
+        if (micros.length == 0) return 0;
+        long[] sorted = micros.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * perMille / 1000))];
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long get(@NonNull Map<String, Long> metrics, @NonNull String name) {
+        Long value = metrics.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Read the metrics without labels from the Prometheus text of the server.
+     */
+    @NonNull
+    private static Map<String, Long> scrapeMetrics(@NonNull String host, int port) throws IOException {
+        Map<String, Long> metrics = new TreeMap<>();
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://" + host + ":" + port + "/metrics")
+                .openConnection();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.contains("{")) continue;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) continue;
+                try {
+                    metrics.put(parts[0], (long) Double.parseDouble(parts[1]));
+                } catch (NumberFormatException ignored) {
+                    //Not a number
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return metrics;
+    }
+
+    /**
+     * Counters and latencies shared by all the clients.
+     */
+    private static final class Stats {
+        private final AtomicLong mSent = new AtomicLong();
+        private final AtomicLong mRateLimited = new AtomicLong();
+        private final AtomicLong mOverloaded = new AtomicLong();
+        private final AtomicLong mOtherErrors = new AtomicLong();
+        private final AtomicLong mPushes = new AtomicLong();
+        private final AtomicLong mDisconnects = new AtomicLong();
+        private final Samples mAckLatency = new Samples();
+        private final Samples mDoneLatency = new Samples();
+    }
+
+    /**
+     * Growing list of the latencies in micro seconds.
+     */
+    private static final class Samples {
+        private long[] mValues = new long[4096];
+        private int mSize = 0;
+
+        synchronized void add(long value) {
+            if (mSize == mValues.length) mValues = Arrays.copyOf(mValues, mSize * 2);
+            mValues[mSize++] = value;
+        }
+
+        @NonNull
+        synchronized long[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+
+    /**
+     * One dashboard. Reads on its own thread and sends masked frames like a browser.
+     */
+    private static final class Client implements Runnable {
+        @NonNull
+        private final Stats mStats;
+        @NonNull
+        private final java.net.Socket mSocket;
+        @NonNull
+        private final OutputStream mOutput;
+        @NonNull
+        private final DataInputStream mInput;
+        @NonNull
+        private final Random mRandom;
+        private final byte[] mMask = new byte[4];
+        private long mNextId = 1;
+        private volatile boolean mIsClosed = false;
+
+        private Client(@NonNull String host, int port, @NonNull Stats stats, int index) throws IOException {
+            mStats = stats;
+            mRandom = new Random(index);
+            mSocket = new java.net.Socket(host, port);
+            mSocket.setTcpNoDelay(true);
+            mOutput = mSocket.getOutputStream();
+            mInput = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+            mOutput.write(("GET / HTTP/1.1\r\n"
+                    + "Host: " + host + "\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(ISO_8859_1));
+            List<String> headers = readHeaders(mInput);
+            if (headers.isEmpty() || !headers.get(0).contains(" 101 ")) {
+                mSocket.close();
+                throw new IOException("Upgrade failed: " + headers);
+            }
+        }
+
+        private void start() {
+            Thread thread = new Thread(this, "load-client");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Send the next command of the mix.
+         */
+        synchronized void sendNext() {
+            if (mIsClosed) return;
+            String command = MIX[mRandom.nextInt(MIX.length)];
+            StringBuilder envelope = new StringBuilder(96)
+                    .append("{\"id\":").append(mNextId++)
+                    .append(",\"command\":\"").append(command).append('"')
+                    .append(",\"t\":").append(System.nanoTime() / 1000);
+            if (Commands.SET_VOLUME.equals(command)) envelope.append(",\"value\":").append(mRandom.nextInt(16));
+            envelope.append('}');
+
+            try {
+                writeFrame(envelope.toString().getBytes(UTF_8));
+                mStats.mSent.incrementAndGet();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!mIsClosed) onMessage(readFrame());
+            } catch (IOException e) {
+                if (!mIsClosed) mStats.mDisconnects.incrementAndGet();
+            }
+        }
+
+        private void onMessage(@Nullable String text) {
+            if (text == null) return;
+            long now = System.nanoTime() / 1000;
+            try {
+                JSONObject message = new JSONObject(text);
+                String type = message.optString("type");
+                if ("ack".equals(type)) {
+                    mStats.mAckLatency.add(now - message.getLong("t"));
+                } else if ("done".equals(type)) {
+                    mStats.mDoneLatency.add(now - message.getLong("t"));
+                } else if ("error".equals(type)) {
+                    String error = message.optString("error");
+                    if ("rate_limited".equals(error)) {
+                        mStats.mRateLimited.incrementAndGet();
+                    } else if ("overloaded".equals(error)) {
+                        mStats.mOverloaded.incrementAndGet();
+                    } else {
+                        mStats.mOtherErrors.incrementAndGet();
+                    }
+                } else {
+                    mStats.mPushes.incrementAndGet();
+                }
+            } catch (JSONException e) {
+                mStats.mOtherErrors.incrementAndGet();
+            }
+        }
+
+        /**
+         * Write the masked text frame.
+         */
+        private void writeFrame(@NonNull byte[] payload) throws IOException {
+            mRandom.nextBytes(mMask);
+            int headerLength = payload.length < 126 ? 2 : 4;
+            byte[] frame = new byte[headerLength + 4 + payload.length];
+            frame[0] = (byte) 0x81;
+            if (payload.length < 126) {
+                frame[1] = (byte) (0x80 | payload.length);
+            } else {
+                frame[1] = (byte) (0x80 | 126);
+                frame[2] = (byte) (payload.length >> 8);
+                frame[3] = (byte) payload.length;
+            }
+            System.arraycopy(mMask, 0, frame, headerLength, 4);
+            for (int i = 0; i < payload.length; i++) {
+                frame[headerLength + 4 + i] = (byte) (payload[i] ^ mMask[i % 4]);
+            }
+            mOutput.write(frame);
+            mOutput.flush();
+        }
+
+        /**
+         * Read one unmasked frame sent by the server.
+         *
+         * @return Text of the frame or null if it is not a text frame.
+         */
+        @Nullable
+        private String readFrame() throws IOException {
+            int opcode = mInput.readUnsignedByte() & 0x0F;
+            long length = mInput.readUnsignedByte() & 0x7F;
+            if (length == 126) {
+                length = mInput.readUnsignedShort();
+            } else if (length == 127) {
+                length = mInput.readLong();
+            }
+            byte[] payload = new byte[(int) length];
+            mInput.readFully(payload);
+            if (opcode == 0x8) throw new IOException("Closed by the server.");
+            return opcode == 0x1 ? new String(payload, UTF_8) : null;
+        }
+
+        synchronized void close() {
+            if (mIsClosed) return;
+            mIsClosed = true;
+            try {
+                mSocket.close();
+            } catch (IOException ignored) {
+                //Closing anyway
+            }
+        }
+    }
+
+    @NonNull
+    private static List<String> readHeaders(@NonNull InputStream inputStream) throws IOException {
+        List<String> headers = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            if (b == '\n') {
+                if (line.length() == 0) return headers;
+                headers.add(line.toString());
+                line.setLength(0);
+            } else if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        throw new IOException("Connection closed.");
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.elonen.WebSocketFrame;
+
+/**
+ * Cost of pushing the status frame to the web clients.
+ * <ul>
+ * <li>{@link #encode()}: Encoding one NanoHTTPD text frame.</li>
+ * <li>{@link #broadcast()}: Queuing the frame for every open {@link Socket}. This is what the
+ * consumer thread of the status ring pays.</li>
+ * <li>{@link #broadcastAndDeliver()}: Queuing the frame and waiting until the writer threads
+ * wrote it to every socket.</li>
+ * </ul>
+ * The sockets write to a stream that only counts the bytes, so no network is involved.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketBenchmark {
+    private static final String DELTA = "{\"type\":\"delta\",\"v\":42,\"delta\":{\"volume\":8,\"maxVolume\":15}}";
+
+    /**
+     * Number of the open sockets.
+     */
+    @Param({"1", "8", "32"})
+    public int mSocketCount;
+
+    private SocketRegistry mRegistry;
+    private final List<BenchSocket> mSockets = new ArrayList<>();
+    private final CountingOutputStream mEncodeSink = new CountingOutputStream();
+    private long mSent = 0;
+
+    @Setup
+    public void setUp() {
+        mRegistry = new SocketRegistry();
+        Context context = new Context();
+        for (int i = 0; i < mSocketCount; i++) {
+            BenchSocket socket = new BenchSocket(context, mRegistry);
+            mRegistry.register(socket);
+            socket.onHandshakeSent();
+            mSockets.add(socket);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (BenchSocket socket : mSockets) mRegistry.unregister(socket);
+        mSockets.clear();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        new WebSocketFrame(WebSocketFrame.OpCode.Text, true, DELTA).write(mEncodeSink);
+        return mEncodeSink.getCount();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        mRegistry.broadcast(DELTA);
+    }
+
+    @Benchmark
+    public long broadcastAndDeliver() {
+        mRegistry.broadcast(DELTA);
+        mSent++;
+        for (BenchSocket socket : mSockets) {
+            //noinspection StatementWithEmptyBody
+            while (socket.getFrameCount() < mSent) ;
+        }
+        return mSent;
+    }
+
+    /**
+     * {@link Socket} that writes to the {@link CountingOutputStream} instead of the connection.
+     */
+    private static final class BenchSocket extends Socket {
+        private final AtomicLong mFrameCount = new AtomicLong();
+
+        private BenchSocket(@NonNull Context context, @NonNull SocketRegistry registry) {
+            super(new BenchSession("/websocket"), context, registry);
+            out = new CountingOutputStream();
+        }
+
+        @Override
+        public synchronized void sendFrame(WebSocketFrame frame) throws IOException {
+            super.sendFrame(frame);
+            mFrameCount.incrementAndGet();
+        }
+
+        private long getFrameCount() {
+            return mFrameCount.get();
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long mCount = 0;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+        private long getCount() {
+            return mCount;
+        }
+    }
+}
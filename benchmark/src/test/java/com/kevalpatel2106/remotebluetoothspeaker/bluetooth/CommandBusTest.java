@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Commands;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Hardware;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.Platform;
+import com.kevalpatel2106.remotebluetoothspeaker.hardware.SimulatedHardware;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Slot accounting of the {@link CommandBus}. Every admitted command must give its slot back
+ * exactly once, whether it runs or is dropped. The commands run through the real
+ * {@link SpeakerController} on the {@link SimulatedHardware}.
+ */
+
+public class CommandBusTest {
+    private static final long TIMEOUT_MS = 5000;
+    private static final Hardware HARDWARE = Platform.installIfAbsent(new SimulatedHardware(2, 0));
+
+    private final Context mContext = new Context();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final BlockingQueue<CommandBatch> mDone = new LinkedBlockingQueue<>();
+    private BluetoothA2DPService mService;
+    private int mInFlight;
+
+    @Before
+    public void setUp() {
+        mInFlight = CommandBus.getInFlight();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mService == null) return;
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                mService.killService();
+            }
+        });
+    }
+
+    @Test
+    public void commandHoldsSlotUntilItRuns() throws InterruptedException {
+        startService();
+        int volume = HARDWARE.getAudio().getVolume();
+        assertTrue(CommandBus.dispatch(mContext, Commands.VOLUME_UP, 0));
+        assertTrue(CommandBus.dispatch(mContext, Commands.VOLUME_UP, 0));
+
+        //Both presses are applied as one burst before the slots are given back.
+        awaitInFlight(mInFlight);
+        assertEquals(volume + 2, HARDWARE.getAudio().getVolume());
+    }
+
+    @Test
+    public void rejectsCommandsOverLimit() {
+        int free = CommandBus.MAX_IN_FLIGHT - mInFlight;
+        for (int i = 0; i < free; i++) assertTrue(CommandBus.dispatch(mContext, Commands.TURN_ON_BLUETOOTH, 0));
+        assertEquals(free, mContext.getStartedServices());
+
+        assertFalse(CommandBus.dispatch(mContext, Commands.TURN_ON_BLUETOOTH, 0));
+        assertFalse(CommandBus.dispatchBatch(mContext, batch(Commands.TURN_ON_BLUETOOTH)));
+        assertEquals(CommandBus.MAX_IN_FLIGHT, CommandBus.getInFlight());
+        assertTrue(mDone.isEmpty());
+
+        //Given back by the service that was started.
+        CommandBus.release(free);
+    }
+
+    @Test
+    public void pendingBatchRunsOnAttach() throws InterruptedException {
+        CommandBatch batch = batch(Commands.TURN_ON_BLUETOOTH, Commands.VOLUME_UP);
+        assertTrue(CommandBus.dispatchBatch(mContext, batch));
+        assertEquals(mInFlight + 2, CommandBus.getInFlight());
+        assertEquals(1, mContext.getStartedServices());
+
+        startService();
+        assertSame(batch, mDone.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(batch.isExpired());
+        for (CommandBatch.Step step : batch.getSteps()) {
+            assertEquals(step.getName(), CommandBatch.Outcome.OK, step.getOutcome());
+        }
+        awaitInFlight(mInFlight);
+    }
+
+    @Test
+    public void droppedPendingBatchFreesSlots() throws InterruptedException {
+        CommandBatch batch = batch(Commands.TURN_ON_BLUETOOTH, Commands.VOLUME_UP, "unknown");
+        assertTrue(CommandBus.dispatchBatch(mContext, batch));
+        assertEquals(mInFlight + 3, CommandBus.getInFlight());
+
+        CommandBus.dropPending();
+        assertSame(batch, mDone.poll());
+        assertTrue(batch.isExpired());
+        assertEquals(CommandBatch.Outcome.EXPIRED, batch.getSteps().get(0).getOutcome());
+        assertEquals(CommandBatch.Outcome.UNKNOWN, batch.getSteps().get(2).getOutcome());
+        assertEquals(mInFlight, CommandBus.getInFlight());
+
+        //Nothing is left for the next service.
+        startService();
+        assertNull(mDone.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Create the service and the controller on the main thread, like Android does.
+     */
+    private void startService() throws InterruptedException {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                mService = new BluetoothA2DPService(new SpeakerController(mContext, HARDWARE.getAdapter(),
+                        HARDWARE.getAudio(), mMainHandler, mContext.getFilesDir()));
+                mService.onCreate();
+            }
+        });
+    }
+
+    private void runOnMain(@NonNull final Runnable runnable) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (CommandBus.getInFlight() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, CommandBus.getInFlight());
+    }
+
+    @NonNull
+    private CommandBatch batch(@NonNull String... commands) {
+        List<CommandBatch.Step> steps = new ArrayList<>();
+        for (String command : commands) steps.add(CommandBatch.Step.of(command, null));
+        return new CommandBatch(steps, new CommandBatch.Callback() {
+            @Override
+            public void onBatchDone(@NonNull CommandBatch batch) {
+                mDone.add(batch);
+            }
+        }, 0);
+    }
+}
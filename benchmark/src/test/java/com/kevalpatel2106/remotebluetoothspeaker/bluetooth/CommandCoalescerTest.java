@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Folding and order of the bursts of the {@link CommandCoalescer}. The handler has no looper, so
+ * the window only closes when the test runs it.
+ */
+
+public class CommandCoalescerTest {
+    private final Handler mHandler = new Handler();
+    private final List<CommandCoalescer.Burst> mBursts = new ArrayList<>();
+    private final CommandCoalescer mCoalescer = new CommandCoalescer(mHandler, new CommandCoalescer.Target() {
+        @Override
+        public void executeBurst(@NonNull CommandCoalescer.Burst burst) {
+            mBursts.add(burst);
+        }
+    });
+
+    @Test
+    public void foldsVolumeIntoOneDelta() {
+        offer(Command.VOLUME_UP, Command.VOLUME_UP, Command.VOLUME_UP, Command.VOLUME_DOWN);
+        assertTrue(mBursts.isEmpty());
+
+        mHandler.runPending();
+        assertEquals(1, mBursts.size());
+        assertEquals(2, mBursts.get(0).getVolumeDelta());
+        assertEquals(Collections.<Command>emptyList(), mBursts.get(0).getCommands());
+        assertEquals(4, mBursts.get(0).getReceivedCount());
+        assertFalse(mBursts.get(0).isBarrier());
+    }
+
+    @Test
+    public void runsRepeatedCommandsOnce() {
+        offer(Command.TURN_ON, Command.MAKE_DISCOVERABLE, Command.TURN_ON);
+        mHandler.runPending();
+
+        assertEquals(1, mBursts.size());
+        assertEquals(Arrays.asList(Command.TURN_ON, Command.MAKE_DISCOVERABLE), mBursts.get(0).getCommands());
+        assertEquals(3, mBursts.get(0).getReceivedCount());
+    }
+
+    @Test
+    public void commandAfterVolumeStartsNewBurst() {
+        offer(Command.VOLUME_UP, Command.VOLUME_UP, Command.TURN_OFF);
+
+        assertEquals(2, mBursts.size());
+        assertEquals(2, mBursts.get(0).getVolumeDelta());
+        assertEquals(Collections.<Command>emptyList(), mBursts.get(0).getCommands());
+        assertTrue(mBursts.get(0).isBarrier());
+        assertEquals(0, mBursts.get(1).getVolumeDelta());
+        assertEquals(Collections.singletonList(Command.TURN_OFF), mBursts.get(1).getCommands());
+    }
+
+    @Test
+    public void volumeAfterCommandStaysInBurst() {
+        offer(Command.TURN_ON, Command.VOLUME_DOWN);
+        mHandler.runPending();
+
+        assertEquals(1, mBursts.size());
+        assertEquals(Collections.singletonList(Command.TURN_ON), mBursts.get(0).getCommands());
+        assertEquals(-1, mBursts.get(0).getVolumeDelta());
+    }
+
+    @Test
+    public void unsafeCommandClosesBurstRightAway() {
+        offer(Command.TURN_ON, Command.DISCONNECT_ALL);
+
+        assertEquals(1, mBursts.size());
+        assertEquals(Arrays.asList(Command.TURN_ON, Command.DISCONNECT_ALL), mBursts.get(0).getCommands());
+
+        //The window of the closed burst must not fire again.
+        mHandler.runPending();
+        assertEquals(1, mBursts.size());
+    }
+
+    @Test
+    public void flushWithoutCommandsDoesNothing() {
+        mCoalescer.flush();
+        assertTrue(mBursts.isEmpty());
+    }
+
+    private void offer(@NonNull Command... commands) {
+        for (Command command : commands) {
+            mCoalescer.offer(command, SystemClock.elapsedRealtimeNanos(), CommandBus.DIRECT_LATENCY, 0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import android.os.Handler;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Command;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tasks of the {@link CommandExecutor} either run or are dropped, never lost.
+ */
+
+public class CommandExecutorTest {
+
+    @Test
+    public void runsTask() throws InterruptedException {
+        CommandExecutor executor = new CommandExecutor(new Handler());
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.submit("test", Command.Priority.NORMAL, 1000, new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void dropsQueuedTasksOnShutdown() throws InterruptedException {
+        CommandExecutor executor = new CommandExecutor(new Handler());
+        CountDownLatch release = blockExecutor(executor);
+
+        AtomicInteger dropped = new AtomicInteger();
+        for (int i = 0; i < 3; i++) submitCounted(executor, dropped);
+        executor.shutdown();
+        release.countDown();
+        assertEquals(3, dropped.get());
+
+        //Too late to run. Dropped right away.
+        submitCounted(executor, dropped);
+        assertEquals(4, dropped.get());
+    }
+
+    @Test
+    public void higherPriorityJumpsAheadUntilBarrier() throws InterruptedException {
+        CommandExecutor executor = new CommandExecutor(new Handler());
+        final CountDownLatch release = blockExecutor(executor);
+        List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+        submitNamed(executor, "volume", Command.Priority.COSMETIC, ran);
+        submitNamed(executor, "disconnect", Command.Priority.CRITICAL, ran);
+        executor.barrier();
+        submitNamed(executor, "turn_off", Command.Priority.CRITICAL, ran);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.submit("done", Command.Priority.COSMETIC, 5000, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("disconnect", "volume", "turn_off"), ran);
+        executor.shutdown();
+    }
+
+    /**
+     * Keep the executor busy until the returned latch is counted down.
+     */
+    private CountDownLatch blockExecutor(CommandExecutor executor) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit("blocker", Command.Priority.CRITICAL, 5000, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                    //Shut down.
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void submitNamed(CommandExecutor executor, final String name, Command.Priority priority,
+                             final List<String> ran) {
+        executor.submit(name, priority, 5000, new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        });
+    }
+
+    private void submitCounted(CommandExecutor executor, final AtomicInteger dropped) {
+        executor.submit("counted", Command.Priority.NORMAL, 1000, new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("Must not run.");
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                dropped.incrementAndGet();
+            }
+        });
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Window and epoch of {@link SpeakerStateStore#getResumeJson(String, long)}. The store is a
+ * single instance, so the versions are taken relative to the current one.
+ */
+
+public class SpeakerStateStoreTest {
+    private static final int MAX_VOLUME = 1000;
+
+    private final SpeakerStateStore mStore = SpeakerStateStore.getInstance();
+
+    @Test
+    public void resumeFromCurrentVersionIsEmpty() {
+        long version = changeVolume();
+
+        assertEquals("{\"type\":\"resume\",\"from\":" + version + ",\"v\":" + version + ",\"delta\":{}}",
+                mStore.getResumeJson(mStore.getEpoch(), version));
+    }
+
+    @Test
+    public void resumeCarriesChangesSinceVersion() {
+        long from = changeVolume();
+        long version = changeVolume();
+
+        String json = mStore.getResumeJson(mStore.getEpoch(), from);
+        assertNotNull(json);
+        assertTrue(json, json.startsWith("{\"type\":\"resume\",\"from\":" + from + ",\"v\":" + version));
+        assertTrue(json, json.contains("\"volume\":" + mStore.getState().getVolume()));
+    }
+
+    @Test
+    public void resumeWithinHistory() {
+        long from = changeVolume();
+        for (int i = 0; i < SpeakerStateStore.HISTORY_SIZE; i++) changeVolume();
+
+        //Only the last versions are kept, the current one included.
+        assertEquals(from + SpeakerStateStore.HISTORY_SIZE, mStore.getState().getVersion());
+        assertNotNull(mStore.getResumeJson(mStore.getEpoch(), from + 1));
+        assertNull(mStore.getResumeJson(mStore.getEpoch(), from));
+    }
+
+    @Test
+    public void resumeFromOtherEpochNeedsSnapshot() {
+        long version = changeVolume();
+
+        assertNull(mStore.getResumeJson(mStore.getEpoch() + "x", version));
+        assertNull(mStore.getResumeJson(null, version));
+    }
+
+    @Test
+    public void resumeFromUnknownVersionNeedsSnapshot() {
+        long version = changeVolume();
+
+        assertNull(mStore.getResumeJson(mStore.getEpoch(), version + 1));
+        assertNull(mStore.getResumeJson(mStore.getEpoch(), -1));
+    }
+
+    /**
+     * @return Version after the change.
+     */
+    private long changeVolume() {
+        mStore.setVolume((mStore.getState().getVolume() + 1) % MAX_VOLUME, MAX_VOLUME);
+        return mStore.getState().getVersion();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.events;
+
+import android.support.annotation.NonNull;
+
+import com.kevalpatel2106.remotebluetoothspeaker.metrics.MetricsRegistry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Delivery and overruns of the {@link EventRing}. Every ring has its own name, so the metrics of
+ * the tests don't mix.
+ */
+
+public class EventRingTest {
+    private static final EventRing.Factory<LongEvent> FACTORY = new EventRing.Factory<LongEvent>() {
+        @NonNull
+        @Override
+        public LongEvent create() {
+            return new LongEvent();
+        }
+    };
+
+    @Test
+    public void deliversEveryEventInOrder() throws InterruptedException {
+        EventRing<LongEvent> ring = new EventRing<>("test-order", 8, FACTORY);
+        final BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+        EventRing.Subscription subscription = ring.subscribe("fast", new EventRing.Handler<LongEvent>() {
+            @Override
+            public void onEvent(@NonNull LongEvent event) {
+                received.add(event.mValue);
+            }
+        });
+
+        //Two rounds of a whole ring each, so the slots are reused.
+        for (long i = 0; i < 16; i += 8) {
+            for (long j = i; j < i + 8; j++) publish(ring, j);
+            for (long j = i; j < i + 8; j++) assertEquals(Long.valueOf(j), received.poll(5, TimeUnit.SECONDS));
+        }
+        subscription.close();
+    }
+
+    @Test
+    public void slowConsumerSkipsOverwrittenEvents() throws InterruptedException {
+        EventRing<LongEvent> ring = new EventRing<>("test-overrun", 4, FACTORY);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+        EventRing.Subscription subscription = ring.subscribe("slow", new EventRing.Handler<LongEvent>() {
+            @Override
+            public void onEvent(@NonNull LongEvent event) {
+                received.add(event.mValue);
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        //The consumer holds the first event while the producer laps it.
+        publish(ring, 0);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        for (long i = 1; i < 10; i++) publish(ring, i);
+        release.countDown();
+
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 5; i++) values.add(received.poll(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L, 6L, 7L, 8L, 9L), values);
+        assertTrue(MetricsRegistry.getInstance().scrape()
+                .contains("speaker_event_overruns_total{ring=\"test-overrun\",consumer=\"slow\"} 5\n"));
+        subscription.close();
+    }
+
+    @Test
+    public void closingTwiceKeepsTheOtherConsumers() throws InterruptedException {
+        EventRing<LongEvent> ring = new EventRing<>("test-close", 8, FACTORY);
+        final BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+        EventRing.Subscription other = ring.subscribe("other", new EventRing.Handler<LongEvent>() {
+            @Override
+            public void onEvent(@NonNull LongEvent event) {
+                received.add(event.mValue);
+            }
+        });
+        EventRing.Subscription closed = ring.subscribe("closed", new EventRing.Handler<LongEvent>() {
+            @Override
+            public void onEvent(@NonNull LongEvent event) {
+                //Never called.
+            }
+        });
+        closed.close();
+        closed.close();
+
+        //The second close must not drop the other consumer.
+        for (long i = 0; i < 16; i += 8) {
+            for (long j = i; j < i + 8; j++) publish(ring, j);
+            for (long j = i; j < i + 8; j++) assertEquals(Long.valueOf(j), received.poll(5, TimeUnit.SECONDS));
+        }
+        other.close();
+    }
+
+    private static void publish(@NonNull EventRing<LongEvent> ring, long value) {
+        ring.claim().mValue = value;
+        ring.publish();
+    }
+
+    private static final class LongEvent implements EventRing.Event<LongEvent> {
+        private long mValue;
+
+        @Override
+        public void copyFrom(@NonNull LongEvent other) {
+            mValue = other.mValue;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import com.kevalpatel2106.remotebluetoothspeaker.Commands;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs left after {@link Schedule#next()} and {@link Schedule#skipMissed(long, long)}.
+ */
+
+public class ScheduleTest {
+    private static final long PERIOD_MS = 1000;
+    private static final long GRACE_MS = 300;
+
+    @Test
+    public void nextCountsDownRuns() {
+        Schedule schedule = new Schedule(1, Commands.VOLUME_UP, 0, PERIOD_MS, 2);
+
+        Schedule next = schedule.next();
+        assertEquals(PERIOD_MS, next.getNextAt());
+        assertEquals(1, next.getCount());
+        assertNull(next.next());
+    }
+
+    @Test
+    public void onceRunsOnce() {
+        Schedule schedule = new Schedule(1, Commands.TURN_OFF_BLUETOOTH, 0, 0, 5);
+
+        assertEquals(1, schedule.getCount());
+        assertNull(schedule.next());
+    }
+
+    @Test
+    public void foreverNeverEnds() {
+        Schedule schedule = new Schedule(1, Commands.VOLUME_UP, 0, PERIOD_MS, 0);
+        assertEquals(0, schedule.next().getCount());
+    }
+
+    @Test
+    public void runWithinGraceIsKept() {
+        Schedule schedule = new Schedule(1, Commands.VOLUME_UP, 1000, PERIOD_MS, 0);
+
+        assertSame(schedule, schedule.skipMissed(1000 + GRACE_MS, GRACE_MS));
+        assertSame(schedule, schedule.skipMissed(0, GRACE_MS));
+    }
+
+    @Test
+    public void missedOnceIsDropped() {
+        Schedule schedule = new Schedule(1, Commands.TURN_OFF_BLUETOOTH, 1000, 0, 0);
+        assertNull(schedule.skipMissed(1000 + GRACE_MS + 1, GRACE_MS));
+    }
+
+    @Test
+    public void skipsToFirstRunWithinGrace() {
+        Schedule schedule = new Schedule(1, Commands.VOLUME_UP, 1000, PERIOD_MS, 10);
+
+        //Runs at 1000, 2000 and 3000 are missed by more than the grace, 4000 by less.
+        Schedule next = schedule.skipMissed(4200, GRACE_MS);
+        assertEquals(4000, next.getNextAt());
+        assertEquals(7, next.getCount());
+        assertEquals(1, next.getId());
+    }
+
+    @Test
+    public void skipsToFutureRunWithoutGrace() {
+        Schedule schedule = new Schedule(1, Commands.VOLUME_UP, 1000, PERIOD_MS, 0);
+
+        assertEquals(5000, schedule.skipMissed(4001, 0).getNextAt());
+        assertEquals(4000, schedule.skipMissed(4000, 0).getNextAt());
+        assertEquals(0, schedule.skipMissed(4001, 0).getCount());
+    }
+
+    @Test
+    public void allRunsMissed() {
+        Schedule schedule = new Schedule(1, Commands.VOLUME_UP, 1000, PERIOD_MS, 3);
+
+        //The last run at 3000 is missed by more than the grace.
+        assertNull(schedule.skipMissed(3000 + GRACE_MS + 1, GRACE_MS));
+        assertEquals(3000, schedule.skipMissed(3000 + GRACE_MS, GRACE_MS).getNextAt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCommandIsRejected() {
+        new Schedule(1, "unknown", 0, 0, 0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.scheduler;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ticks and rounds of the {@link TimingWheel}. A tick is 10ms and one turn of the wheel is 80ms.
+ */
+
+public class TimingWheelTest {
+    private static final long TICK_MS = 10;
+    private static final int WHEEL_SIZE = 8;
+
+    private final TimingWheel mWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, 0);
+
+    @Test
+    public void expiresOnFirstTickAfterDeadline() {
+        Runnable task = task("task");
+        mWheel.schedule(task, 15, 0);
+
+        assertTrue(mWheel.advance(19).isEmpty());
+        assertEquals(Collections.singletonList(task), mWheel.advance(20));
+        assertEquals(0, mWheel.size());
+    }
+
+    @Test
+    public void timerPastOneTurnWaitsForItsRounds() {
+        Runnable far = task("far");
+        Runnable near = task("near");
+        mWheel.schedule(far, 250, 0);
+        mWheel.schedule(near, 10, 0);
+
+        //Both are in the same bucket. Only the near one is due on the first turn.
+        assertEquals(Collections.singletonList(near), mWheel.advance(10));
+        assertTrue(mWheel.advance(249).isEmpty());
+        assertEquals(Collections.singletonList(far), mWheel.advance(250));
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnNextTick() {
+        mWheel.advance(100);
+        Runnable task = task("late");
+        mWheel.schedule(task, -50, 100);
+
+        assertTrue(mWheel.advance(109).isEmpty());
+        assertEquals(Collections.singletonList(task), mWheel.advance(110));
+    }
+
+    @Test
+    public void returnsEarliestFirst() {
+        Runnable first = task("first");
+        Runnable second = task("second");
+        mWheel.schedule(second, 30, 0);
+        mWheel.schedule(first, 20, 0);
+
+        assertEquals(Arrays.asList(first, second), mWheel.advance(100));
+    }
+
+    @Test
+    public void cancelledTimerNeverExpires() {
+        Runnable task = task("task");
+        TimingWheel.Timeout timeout = mWheel.schedule(task, 20, 0);
+        mWheel.cancel(timeout);
+        mWheel.cancel(timeout);
+
+        assertEquals(0, mWheel.size());
+        assertTrue(mWheel.advance(1000).isEmpty());
+    }
+
+    @Test
+    public void idleTicksAreSkipped() {
+        mWheel.advance(10000);
+        assertEquals(10000 + TICK_MS, mWheel.getNextTickAt());
+
+        Runnable task = task("task");
+        mWheel.schedule(task, 100, 20000);
+        assertTrue(mWheel.advance(20099).isEmpty());
+        assertEquals(Collections.singletonList(task), mWheel.advance(20100));
+    }
+
+    @Test
+    public void hugeDelayNeverExpires() {
+        mWheel.advance(1000);
+        Runnable task = task("task");
+        mWheel.schedule(task, Long.MAX_VALUE - 10, 1000);
+
+        assertTrue(mWheel.advance(100000).isEmpty());
+        assertEquals(1, mWheel.size());
+    }
+
+    @NonNull
+    private static Runnable task(@NonNull final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                //Only compared.
+            }
+
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Retries seen by the {@link RetryWindow}.
+ */
+
+public class RetryWindowTest {
+    private final RetryWindow mWindow = new RetryWindow();
+
+    @Test
+    public void retryOfRunningCommand() {
+        assertEquals(RetryWindow.Status.NEW, mWindow.begin(1));
+        assertEquals(RetryWindow.Status.RUNNING, mWindow.begin(1));
+        assertNull(mWindow.getDone(1));
+    }
+
+    @Test
+    public void retryOfDoneCommandGetsSameFrame() {
+        mWindow.begin(1);
+        mWindow.done(1, "{\"id\":1}");
+
+        assertEquals(RetryWindow.Status.DONE, mWindow.begin(1));
+        assertEquals("{\"id\":1}", mWindow.getDone(1));
+    }
+
+    @Test
+    public void forgottenCommandCanRunAgain() {
+        mWindow.begin(1);
+        mWindow.forget(1);
+        assertEquals(RetryWindow.Status.NEW, mWindow.begin(1));
+
+        //Done commands are not forgotten.
+        mWindow.done(1, "{}");
+        mWindow.forget(1);
+        assertEquals(RetryWindow.Status.DONE, mWindow.begin(1));
+    }
+
+    @Test
+    public void idsOutOfWindowAreStale() {
+        for (long id = 1; id <= RetryWindow.SIZE + 1; id++) {
+            assertEquals(RetryWindow.Status.NEW, mWindow.begin(id));
+        }
+
+        assertEquals(RetryWindow.Status.STALE, mWindow.begin(1));
+        assertEquals(RetryWindow.Status.RUNNING, mWindow.begin(2));
+    }
+
+    @Test
+    public void skippedIdInsideWindowIsNew() {
+        mWindow.begin(1);
+        mWindow.begin(3);
+        assertEquals(RetryWindow.Status.NEW, mWindow.begin(2));
+    }
+}
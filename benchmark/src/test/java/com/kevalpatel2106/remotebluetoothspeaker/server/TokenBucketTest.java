@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2017 Keval Patel.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.kevalpatel2106.remotebluetoothspeaker.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Burst and refill of the {@link TokenBucket}.
+ */
+
+public class TokenBucketTest {
+    private static final long INTERVAL_MS = 100;
+
+    private final TokenBucket mBucket = new TokenBucket(3, INTERVAL_MS);
+
+    /**
+     * Later than the creation of the bucket, so it starts full.
+     */
+    private final long mNow = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void allowsBurstOfCapacity() {
+        assertEquals(0, mBucket.tryTake(mNow));
+        assertEquals(0, mBucket.tryTake(mNow));
+        assertEquals(0, mBucket.tryTake(mNow));
+
+        long waitMs = mBucket.tryTake(mNow);
+        assertTrue(String.valueOf(waitMs), waitMs > 0 && waitMs <= INTERVAL_MS);
+    }
+
+    @Test
+    public void earnsOneTokenPerInterval() {
+        for (int i = 0; i < 3; i++) mBucket.tryTake(mNow);
+
+        long later = mNow + TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS);
+        assertEquals(0, mBucket.tryTake(later));
+        assertTrue(mBucket.tryTake(later) > 0);
+    }
+
+    @Test
+    public void refusedTakeCostsNothing() {
+        for (int i = 0; i < 3; i++) mBucket.tryTake(mNow);
+        for (int i = 0; i < 10; i++) assertTrue(mBucket.tryTake(mNow) > 0);
+
+        assertEquals(0, mBucket.tryTake(mNow + TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS)));
+    }
+
+    @Test
+    public void neverHoldsMoreThanCapacity() {
+        long muchLater = mNow + TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 3; i++) assertEquals(0, mBucket.tryTake(muchLater));
+        assertTrue(mBucket.tryTake(muchLater) > 0);
+    }
+}